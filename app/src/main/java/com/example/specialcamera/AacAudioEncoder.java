@@ -0,0 +1,244 @@
+package com.example.specialcamera;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link EncoderCodec} encoding the microphone to AAC-LC with an asynchronous {@link MediaCodec}. Codec
+ * callbacks and the blocking {@link AudioRecord} reads run on a dedicated "AudioEncoder" thread; before
+ * API 23 they run on the looper of the thread which called {@link #configure}, as in
+ * {@link MediaCodecEncoder}. Timestamps use {@link System#nanoTime()}, the clock of the video frames.
+ * The video {@link EncoderConfig} passed to {@link #configure} is ignored.
+ */
+public class AacAudioEncoder implements EncoderCodec<MediaFormat> {
+
+    private static final String TAG = "AacAudioEncoder";
+
+    private static final int SAMPLE_RATE = 44_100;
+    private static final int CHANNEL_COUNT = 1;
+    private static final int BIT_RATE = 96_000;
+    private static final int BYTES_PER_FRAME = 2 * CHANNEL_COUNT;
+    // one AAC frame of PCM per input buffer
+    private static final int READ_SIZE = 1024 * BYTES_PER_FRAME;
+
+    private final HandlerThread callbackThread;
+    private final Handler callbackHandler;
+
+    @Nullable
+    private MediaCodec codec;
+    @Nullable
+    private AudioRecord audioRecord;
+    private volatile boolean endOfInput = false;
+
+    public AacAudioEncoder() {
+        callbackThread = new HandlerThread("AudioEncoder", Process.THREAD_PRIORITY_URGENT_AUDIO);
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+    }
+
+    /**
+     * Needs the RECORD_AUDIO permission, without it the {@link AudioRecord} does not initialize.
+     */
+    @SuppressLint("MissingPermission")
+    @Override
+    public void configure(@NonNull EncoderConfig config, @NonNull Callback<MediaFormat> callback) throws IOException {
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            throw new IOException("Audio input not supported: " + minBufferSize);
+        }
+        AudioRecord audioRecord;
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, 4 * READ_SIZE));
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot create audio input", e);
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            throw new IOException("Audio input not initialized, RECORD_AUDIO missing?");
+        }
+
+        MediaCodec codec;
+        try {
+            codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        } catch (IOException | RuntimeException e) {
+            audioRecord.release();
+            throw new IOException("Cannot create AAC encoder", e);
+        }
+        MediaCodec.Callback codecCallback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                queueInput(codec, index, callback);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info.offset, info.size, info.presentationTimeUs, info.flags);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Encoder error", e);
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                Log.d(TAG, "Output format: " + format);
+                callback.onOutputFormatChanged(format);
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            codec.setCallback(codecCallback, callbackHandler);
+        } else {
+            codec.setCallback(codecCallback);
+        }
+
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, CHANNEL_COUNT);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, READ_SIZE);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            codec.release();
+            audioRecord.release();
+            throw new IOException("Cannot configure AAC encoder", e);
+        }
+        this.codec = codec;
+        this.audioRecord = audioRecord;
+        Log.i(TAG, "Configured " + codec.getName());
+    }
+
+    /**
+     * Fills the input buffer with one blocking read; the codec asks for the next buffer right away, so
+     * the reads follow the microphone.
+     */
+    private void queueInput(@NonNull MediaCodec codec, int index, @NonNull Callback<MediaFormat> callback) {
+        try {
+            ByteBuffer input = codec.getInputBuffer(index);
+            if (endOfInput || input == null) {
+                codec.queueInputBuffer(index, 0, 0, System.nanoTime() / 1000, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return;
+            }
+            input.clear();
+            int read = audioRecord.read(input, Math.min(READ_SIZE, input.capacity()));
+            long endUs = System.nanoTime() / 1000;
+            if (read < 0) {
+                throw new IOException("Audio read error " + read);
+            }
+            long durationUs = read / BYTES_PER_FRAME * 1_000_000L / SAMPLE_RATE;
+            codec.queueInputBuffer(index, 0, read, endUs - durationUs, 0);
+        } catch (IOException | IllegalStateException e) {
+            // the codec is stopped, or the microphone is gone
+            if (!endOfInput) {
+                Log.e(TAG, "Audio input error", e);
+                callback.onError(e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        MediaCodec codec = requireCodec();
+        try {
+            audioRecord.startRecording();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Cannot start audio input", e);
+        }
+        codec.start();
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        ByteBuffer buffer = requireCodec().getOutputBuffer(index);
+        if (buffer == null) {
+            throw new IllegalStateException("No output buffer " + index);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        try {
+            requireCodec().releaseOutputBuffer(index, false);
+        } catch (IllegalStateException e) {
+            // the codec was stopped while the writer still held the buffer
+            Log.w(TAG, "releaseOutputBuffer after stop", e);
+        }
+    }
+
+    /**
+     * The end of stream goes with the next input buffer.
+     */
+    @Override
+    public void signalEndOfInputStream() {
+        endOfInput = true;
+    }
+
+    @Override
+    public void setBitRate(int bitRate) {
+        // only the video bit rate adapts
+    }
+
+    @Override
+    public void stop() {
+        endOfInput = true;
+        try {
+            requireCodec().stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Encoder stop error", e);
+        }
+        if (audioRecord != null) {
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Audio input stop error", e);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        endOfInput = true;
+        // the reads run on the callback thread, so the input is released after the last one
+        callbackHandler.post(() -> {
+            if (codec != null) {
+                codec.release();
+                codec = null;
+            }
+            if (audioRecord != null) {
+                audioRecord.release();
+                audioRecord = null;
+            }
+        });
+        callbackThread.quitSafely();
+    }
+
+    @NonNull
+    private MediaCodec requireCodec() {
+        MediaCodec codec = this.codec;
+        if (codec == null) {
+            throw new IllegalStateException("Encoder is not configured");
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * AudioSpecificConfig of an AAC stream, as found in the codec config buffer of an AAC encoder.
+ */
+public final class AacDecoderConfig {
+
+    private static final int[] SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+    private static final int EXPLICIT_SAMPLE_RATE = 15;
+
+    private final byte[] audioSpecificConfig;
+    private final int sampleRate;
+    private final int channelCount;
+
+    private AacDecoderConfig(@NonNull byte[] audioSpecificConfig, int sampleRate, int channelCount) {
+        this.audioSpecificConfig = audioSpecificConfig;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * @return null if the buffer is no AudioSpecificConfig with a known sample rate and channel layout
+     */
+    @Nullable
+    public static AacDecoderConfig fromAudioSpecificConfig(@NonNull ByteBuffer codecConfig) {
+        byte[] bytes = new byte[codecConfig.remaining()];
+        codecConfig.duplicate().get(bytes);
+        if (bytes.length < 2) return null;
+        int rateIndex = ((bytes[0] & 0x07) << 1) | ((bytes[1] & 0xFF) >> 7);
+        int sampleRate;
+        int channelConfig;
+        if (rateIndex == EXPLICIT_SAMPLE_RATE) {
+            if (bytes.length < 5) return null;
+            sampleRate = ((bytes[1] & 0x7F) << 17) | ((bytes[2] & 0xFF) << 9) | ((bytes[3] & 0xFF) << 1)
+                    | ((bytes[4] & 0xFF) >> 7);
+            channelConfig = (bytes[4] >> 3) & 0x0F;
+        } else if (rateIndex < SAMPLE_RATES.length) {
+            sampleRate = SAMPLE_RATES[rateIndex];
+            channelConfig = (bytes[1] >> 3) & 0x0F;
+        } else {
+            return null;
+        }
+        // 0 means the layout is given in the bitstream, 7 is 7.1 with 8 channels
+        if (sampleRate <= 0 || channelConfig == 0 || channelConfig > 7) return null;
+        return new AacDecoderConfig(bytes, sampleRate, channelConfig == 7 ? 8 : channelConfig);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Size of the {@code esds} box payload written by {@link #writeEsds}, without the version and flags.
+     */
+    int getEsdsPayloadSize() {
+        return 2 + getEsDescriptorSize();
+    }
+
+    /**
+     * Writes an ES_Descriptor with the decoder config and the AudioSpecificConfig.
+     */
+    void writeEsds(@NonNull ByteBuffer out) {
+        int decoderConfigSize = 13 + 2 + audioSpecificConfig.length;
+        out.put((byte) 0x03); // ES_Descriptor
+        out.put((byte) getEsDescriptorSize());
+        out.putShort((short) 0); // ES_ID
+        out.put((byte) 0);
+        out.put((byte) 0x04); // DecoderConfigDescriptor
+        out.put((byte) decoderConfigSize);
+        out.put((byte) 0x40); // MPEG-4 audio
+        out.put((byte) 0x15); // audio stream
+        out.put((byte) 0); // buffer size, 24 bits
+        out.putShort((short) 0);
+        out.putInt(0); // max bit rate
+        out.putInt(0); // average bit rate
+        out.put((byte) 0x05); // DecoderSpecificInfo
+        out.put((byte) audioSpecificConfig.length);
+        out.put(audioSpecificConfig);
+        out.put((byte) 0x06); // SLConfigDescriptor
+        out.put((byte) 1);
+        out.put((byte) 0x02);
+    }
+
+    private int getEsDescriptorSize() {
+        return 3 + 2 + 13 + 2 + audioSpecificConfig.length + 3;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AacDecoderConfig)) return false;
+        return Arrays.equals(audioSpecificConfig, ((AacDecoderConfig) o).audioSpecificConfig);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(audioSpecificConfig);
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feedback loop which steps the recording quality down a ladder of {@link Level}s when the pipeline falls
+ * behind, and back up once it has been healthy for a while.
+ * <p>
+ * Every {@link #update(EncoderStats)} classifies the interval since the previous update from the writer
+ * queue depth, the encode latency, the share of wall time spent writing samples and the samples dropped.
+ * The pipeline is congested when any of them is above its high threshold, and healthy when all of them
+ * are below their low threshold; in between counts as neither. A deep queue or a busy writer does not count
+ * while the queue is shrinking, that backlog is from before the last step down. A step down needs {@code congestedUpdates}
+ * congested updates in a row, or one update with dropped samples. A step up needs the pipeline to stay
+ * healthy for the recovery time, which doubles (up to {@code maxRecoveryNanos}) whenever a step up is
+ * followed by a step down within it. After every change the level is held for {@code holdNanos} so the
+ * encoder output reflects it before the next decision.
+ * <p>
+ * Not thread safe, call from one thread at a fixed interval.
+ */
+public class AdaptiveBitrateController {
+
+    /**
+     * One rung of the quality ladder.
+     */
+    public static final class Level {
+        public final int bitRate;
+        public final int frameRate;
+
+        public Level(int bitRate, int frameRate) {
+            if (bitRate <= 0 || frameRate <= 0) {
+                throw new IllegalArgumentException("Invalid level " + bitRate + " bps, " + frameRate + " fps");
+            }
+            this.bitRate = bitRate;
+            this.frameRate = frameRate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Level)) return false;
+            Level level = (Level) o;
+            return bitRate == level.bitRate && frameRate == level.frameRate;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bitRate + frameRate;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d kbps @ %d fps", bitRate / 1000, frameRate);
+        }
+    }
+
+    /**
+     * Applies a level to the running recording.
+     */
+    public interface Actuator {
+        void apply(@NonNull Level level);
+    }
+
+    /**
+     * Ladder from {@code maxBitRate} at {@code maxFrameRate} down to {@code minBitRate} at
+     * {@code minFrameRate}: the bit rate is lowered first in {@code bitRateSteps} geometric steps, then the
+     * frame rate in steps of a third, since dropping frames is more visible than compression artifacts.
+     */
+    @NonNull
+    public static List<Level> ladder(int maxBitRate, int minBitRate, int maxFrameRate, int minFrameRate,
+                                     int bitRateSteps) {
+        if (minBitRate > maxBitRate || minFrameRate > maxFrameRate || bitRateSteps < 1) {
+            throw new IllegalArgumentException("Invalid ladder bounds");
+        }
+        List<Level> levels = new ArrayList<>();
+        double ratio = (double) minBitRate / maxBitRate;
+        for (int i = 0; i <= bitRateSteps; i++) {
+            int bitRate = (int) Math.round(maxBitRate * Math.pow(ratio, (double) i / bitRateSteps));
+            addLevel(levels, new Level(bitRate, maxFrameRate));
+        }
+        int frameRate = maxFrameRate;
+        while (frameRate > minFrameRate) {
+            frameRate = Math.max(minFrameRate, frameRate * 2 / 3);
+            addLevel(levels, new Level(minBitRate, frameRate));
+        }
+        return levels;
+    }
+
+    private static void addLevel(@NonNull List<Level> levels, @NonNull Level level) {
+        if (levels.isEmpty() || !levels.get(levels.size() - 1).equals(level)) {
+            levels.add(level);
+        }
+    }
+
+    public static final class Builder {
+        private final List<Level> ladder;
+        private final Actuator actuator;
+        private NanoClock clock = NanoClock.SYSTEM;
+        private int lowQueueDepth = 2;
+        private int highQueueDepth = VideoRecordingEngine.PENDING_CAPACITY / 4;
+        private long lowLatencyNanos = 100_000_000L;
+        private long highLatencyNanos = 250_000_000L;
+        private float lowWriteLoad = 0.25f;
+        private float highWriteLoad = 0.6f;
+        private int congestedUpdates = 2;
+        private long recoveryNanos = 10_000_000_000L;
+        private long maxRecoveryNanos = 80_000_000_000L;
+        private long holdNanos = 2_000_000_000L;
+
+        /**
+         * @param ladder levels from the best to the cheapest, the first one is applied initially
+         */
+        public Builder(@NonNull List<Level> ladder, @NonNull Actuator actuator) {
+            if (ladder.isEmpty()) {
+                throw new IllegalArgumentException("Empty ladder");
+            }
+            this.ladder = Collections.unmodifiableList(new ArrayList<>(ladder));
+            this.actuator = actuator;
+        }
+
+        public Builder setClock(@NonNull NanoClock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder setQueueDepthThresholds(int low, int high) {
+            lowQueueDepth = low;
+            highQueueDepth = high;
+            return this;
+        }
+
+        public Builder setLatencyThresholdsNanos(long low, long high) {
+            lowLatencyNanos = low;
+            highLatencyNanos = high;
+            return this;
+        }
+
+        /**
+         * @param low  share of wall time spent writing below which the storage keeps up
+         * @param high share above which the writer is about to fall behind
+         */
+        public Builder setWriteLoadThresholds(float low, float high) {
+            lowWriteLoad = low;
+            highWriteLoad = high;
+            return this;
+        }
+
+        public Builder setCongestedUpdates(int congestedUpdates) {
+            this.congestedUpdates = congestedUpdates;
+            return this;
+        }
+
+        public Builder setRecoveryNanos(long recoveryNanos, long maxRecoveryNanos) {
+            this.recoveryNanos = recoveryNanos;
+            this.maxRecoveryNanos = maxRecoveryNanos;
+            return this;
+        }
+
+        public Builder setHoldNanos(long holdNanos) {
+            this.holdNanos = holdNanos;
+            return this;
+        }
+
+        @NonNull
+        public AdaptiveBitrateController build() {
+            if (lowQueueDepth > highQueueDepth || lowLatencyNanos > highLatencyNanos || lowWriteLoad > highWriteLoad
+                    || congestedUpdates < 1 || recoveryNanos > maxRecoveryNanos) {
+                throw new IllegalArgumentException("Invalid thresholds");
+            }
+            return new AdaptiveBitrateController(this);
+        }
+    }
+
+    private final List<Level> ladder;
+    private final Actuator actuator;
+    private final NanoClock clock;
+    private final int lowQueueDepth;
+    private final int highQueueDepth;
+    private final long lowLatencyNanos;
+    private final long highLatencyNanos;
+    private final float lowWriteLoad;
+    private final float highWriteLoad;
+    private final int congestedUpdates;
+    private final long baseRecoveryNanos;
+    private final long maxRecoveryNanos;
+    private final long holdNanos;
+
+    private int levelIndex = 0;
+    private boolean started = false;
+    private long lastUpdateNanos;
+    private long lastDroppedSamples;
+    private long lastWriteNanos;
+    private int lastQueueDepth;
+    private int congestedCount = 0;
+    private long healthySinceNanos = -1;
+    private long lastChangeNanos;
+    private long lastStepUpNanos = -1;
+    private long recoveryNanos;
+    private float writeLoad;
+    private int stepDowns = 0;
+    private int stepUps = 0;
+
+    private AdaptiveBitrateController(@NonNull Builder builder) {
+        ladder = builder.ladder;
+        actuator = builder.actuator;
+        clock = builder.clock;
+        lowQueueDepth = builder.lowQueueDepth;
+        highQueueDepth = builder.highQueueDepth;
+        lowLatencyNanos = builder.lowLatencyNanos;
+        highLatencyNanos = builder.highLatencyNanos;
+        lowWriteLoad = builder.lowWriteLoad;
+        highWriteLoad = builder.highWriteLoad;
+        congestedUpdates = builder.congestedUpdates;
+        baseRecoveryNanos = builder.recoveryNanos;
+        maxRecoveryNanos = builder.maxRecoveryNanos;
+        holdNanos = builder.holdNanos;
+        recoveryNanos = baseRecoveryNanos;
+    }
+
+    /**
+     * Feeds the current statistics of the recording. The first call only records the baseline.
+     *
+     * @return true if the level changed
+     */
+    public boolean update(@NonNull EncoderStats stats) {
+        long now = clock.nanoTime();
+        if (!started) {
+            started = true;
+            lastUpdateNanos = now;
+            lastChangeNanos = now;
+            lastDroppedSamples = stats.droppedSamples;
+            lastWriteNanos = stats.writeNanos;
+            lastQueueDepth = stats.queueDepth;
+            return false;
+        }
+        long intervalNanos = now - lastUpdateNanos;
+        writeLoad = intervalNanos <= 0 ? 0f : (float) (stats.writeNanos - lastWriteNanos) / intervalNanos;
+        boolean dropped = stats.droppedSamples > lastDroppedSamples;
+        boolean draining = stats.queueDepth < lastQueueDepth;
+        lastUpdateNanos = now;
+        lastDroppedSamples = stats.droppedSamples;
+        lastWriteNanos = stats.writeNanos;
+        lastQueueDepth = stats.queueDepth;
+
+        boolean writerBehind = !draining && (stats.queueDepth >= highQueueDepth || writeLoad >= highWriteLoad);
+        boolean congested = dropped || writerBehind || stats.lastLatencyNanos >= highLatencyNanos;
+        boolean healthy = !congested && stats.queueDepth <= lowQueueDepth
+                && stats.lastLatencyNanos <= lowLatencyNanos && writeLoad <= lowWriteLoad;
+        if (congested) {
+            congestedCount = dropped ? Math.max(congestedCount + 1, congestedUpdates) : congestedCount + 1;
+            healthySinceNanos = -1;
+        } else {
+            congestedCount = 0;
+            if (!healthy) {
+                healthySinceNanos = -1;
+            } else if (healthySinceNanos < 0) {
+                healthySinceNanos = now;
+            }
+        }
+        if (lastStepUpNanos >= 0 && now - lastStepUpNanos >= recoveryNanos) {
+            // the last step up held, later probes start from the base recovery time again
+            lastStepUpNanos = -1;
+            recoveryNanos = baseRecoveryNanos;
+        }
+
+        if (now - lastChangeNanos < holdNanos) return false;
+        if (congestedCount >= congestedUpdates && levelIndex < ladder.size() - 1) {
+            if (lastStepUpNanos >= 0) {
+                recoveryNanos = Math.min(recoveryNanos * 2, maxRecoveryNanos);
+                lastStepUpNanos = -1;
+            }
+            stepDowns++;
+            setLevel(levelIndex + 1, now);
+            return true;
+        }
+        if (healthySinceNanos >= 0 && now - healthySinceNanos >= recoveryNanos && levelIndex > 0) {
+            stepUps++;
+            lastStepUpNanos = now;
+            setLevel(levelIndex - 1, now);
+            return true;
+        }
+        return false;
+    }
+
+    private void setLevel(int index, long now) {
+        levelIndex = index;
+        lastChangeNanos = now;
+        congestedCount = 0;
+        healthySinceNanos = -1;
+        actuator.apply(ladder.get(index));
+    }
+
+    /**
+     * Index into the ladder, 0 is the best quality.
+     */
+    public int getLevelIndex() {
+        return levelIndex;
+    }
+
+    @NonNull
+    public Level getLevel() {
+        return ladder.get(levelIndex);
+    }
+
+    @NonNull
+    public List<Level> getLadder() {
+        return ladder;
+    }
+
+    /**
+     * Share of the last update interval the writer spent in the sink.
+     */
+    public float getWriteLoad() {
+        return writeLoad;
+    }
+
+    public int getStepDowns() {
+        return stepDowns;
+    }
+
+    public int getStepUps() {
+        return stepUps;
+    }
+
+    /**
+     * Current time a healthy pipeline must last before a step up.
+     */
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "AdaptiveBitrate{level %d/%d %s, write load %.2f, down=%d, up=%d}",
+                levelIndex, ladder.size() - 1, getLevel(), writeLoad, stepDowns, stepUps);
+    }
+}
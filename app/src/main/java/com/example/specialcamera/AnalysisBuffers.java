@@ -0,0 +1,47 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Grow-only pool of primitive work arrays shared by the analyzers of a pipeline. Analyzers run one after
+ * another on the analysis thread, so a slot is only owned for the duration of one
+ * {@link FrameAnalyzer#analyze} call and its content is undefined on the next.
+ */
+public class AnalysisBuffers {
+
+    public static final int SLOTS = 4;
+
+    private final byte[][] bytes = new byte[SLOTS][];
+    private final int[][] ints = new int[SLOTS][];
+    private final float[][] floats = new float[SLOTS][];
+
+    @NonNull
+    public byte[] bytes(int slot, int minLength) {
+        byte[] buffer = bytes[slot];
+        if (buffer == null || buffer.length < minLength) {
+            buffer = new byte[minLength];
+            bytes[slot] = buffer;
+        }
+        return buffer;
+    }
+
+    @NonNull
+    public int[] ints(int slot, int minLength) {
+        int[] buffer = ints[slot];
+        if (buffer == null || buffer.length < minLength) {
+            buffer = new int[minLength];
+            ints[slot] = buffer;
+        }
+        return buffer;
+    }
+
+    @NonNull
+    public float[] floats(int slot, int minLength) {
+        float[] buffer = floats[slot];
+        if (buffer == null || buffer.length < minLength) {
+            buffer = new float[minLength];
+            floats[slot] = buffer;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.specialcamera;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link FilePreallocator} using {@code posix_fallocate}, which allocates real blocks. File systems
+ * without support fall back to {@link FilePreallocator#EXTEND}.
+ */
+public class AndroidFilePreallocator implements FilePreallocator {
+
+    private static final String TAG = "AndroidFilePreallocator";
+
+    @Override
+    public void preallocate(@NonNull FileDescriptor fd, @NonNull FileChannel channel, long length) throws IOException {
+        long size = channel.size();
+        if (size >= length) return;
+        try {
+            Os.posix_fallocate(fd, size, length - size);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "posix_fallocate failed, extending the file instead", e);
+            EXTEND.preallocate(fd, channel, length);
+        }
+    }
+}
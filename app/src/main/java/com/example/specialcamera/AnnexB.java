@@ -0,0 +1,100 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for H.264 Annex-B byte streams, the format MediaCodec emits: NAL units separated by
+ * {@code 00 00 01} or {@code 00 00 00 01} start codes. All reads are absolute.
+ */
+public final class AnnexB {
+
+    public static final int NAL_TYPE_IDR = 5;
+    public static final int NAL_TYPE_SPS = 7;
+    public static final int NAL_TYPE_PPS = 8;
+    public static final int NAL_TYPE_AUD = 9;
+
+    private AnnexB() {
+    }
+
+    /**
+     * @return index of the first byte of the next start code in {@code [from, to)}, or {@code to} if
+     * there is none
+     */
+    public static int findStartCode(@NonNull ByteBuffer data, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if ((data.get(i + 2) & 0xFF) > 1) {
+                // no start code can end at i + 2, skip ahead
+                i += 2;
+            } else if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                return i > from && data.get(i - 1) == 0 ? i - 1 : i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return length of the start code at {@code index}, 0 if there is none
+     */
+    public static int startCodeLength(@NonNull ByteBuffer data, int index, int to) {
+        if (index + 3 <= to && data.get(index) == 0 && data.get(index + 1) == 0) {
+            if (data.get(index + 2) == 1) return 3;
+            if (index + 4 <= to && data.get(index + 2) == 0 && data.get(index + 3) == 1) return 4;
+        }
+        return 0;
+    }
+
+    public static int nalType(byte header) {
+        return header & 0x1F;
+    }
+
+    /**
+     * Copies the NAL units between position and limit of {@code annexB} to {@code out} with 4 byte
+     * length prefixes instead of start codes, dropping access unit delimiters. Data without any start
+     * code is taken as a single NAL unit.
+     *
+     * @return bytes written, or -1 if {@code out} is too small; positions are left untouched on failure
+     */
+    public static int toLengthPrefixed(@NonNull ByteBuffer annexB, @NonNull ByteBuffer out) {
+        int start = annexB.position();
+        int end = annexB.limit();
+        int outStart = out.position();
+        int nal = start + startCodeLength(annexB, start, end);
+        if (nal == start) {
+            int size = end - start;
+            if (out.remaining() < size + 4) return -1;
+            out.putInt(size);
+            putRange(annexB, start, end, out);
+            return size + 4;
+        }
+        while (nal < end) {
+            int next = findStartCode(annexB, nal, end);
+            int size = next - nal;
+            if (size > 0 && nalType(annexB.get(nal)) != NAL_TYPE_AUD) {
+                if (out.remaining() < size + 4) {
+                    out.position(outStart);
+                    return -1;
+                }
+                out.putInt(size);
+                putRange(annexB, nal, next, out);
+            }
+            nal = next + startCodeLength(annexB, next, end);
+            if (next == end) break;
+        }
+        return out.position() - outStart;
+    }
+
+    /**
+     * Bulk copy without allocating a view; the position and limit of {@code from} are restored.
+     */
+    private static void putRange(@NonNull ByteBuffer from, int start, int end, @NonNull ByteBuffer out) {
+        int position = from.position();
+        int limit = from.limit();
+        from.limit(end);
+        from.position(start);
+        out.put(from);
+        from.limit(limit);
+        from.position(position);
+    }
+}
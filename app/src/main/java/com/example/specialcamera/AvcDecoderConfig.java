@@ -0,0 +1,138 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SPS and PPS NAL units of an H.264 stream, as found in the codec config buffer of an AVC encoder.
+ */
+public final class AvcDecoderConfig {
+
+    private final List<byte[]> sequenceParameterSets;
+    private final List<byte[]> pictureParameterSets;
+
+    public AvcDecoderConfig(@NonNull List<byte[]> sequenceParameterSets, @NonNull List<byte[]> pictureParameterSets) {
+        if (sequenceParameterSets.isEmpty() || pictureParameterSets.isEmpty()) {
+            throw new IllegalArgumentException("At least one SPS and one PPS are required");
+        }
+        for (byte[] sps : sequenceParameterSets) {
+            if (sps.length < 4) {
+                throw new IllegalArgumentException("SPS too short: " + sps.length);
+            }
+        }
+        this.sequenceParameterSets = Collections.unmodifiableList(new ArrayList<>(sequenceParameterSets));
+        this.pictureParameterSets = Collections.unmodifiableList(new ArrayList<>(pictureParameterSets));
+    }
+
+    /**
+     * @return null if the buffer does not hold both an SPS and a PPS
+     */
+    @Nullable
+    public static AvcDecoderConfig fromAnnexB(@NonNull ByteBuffer codecConfig) {
+        List<byte[]> sps = new ArrayList<>();
+        List<byte[]> pps = new ArrayList<>();
+        int end = codecConfig.limit();
+        int nal = AnnexB.findStartCode(codecConfig, codecConfig.position(), end);
+        while (nal < end) {
+            nal += AnnexB.startCodeLength(codecConfig, nal, end);
+            int next = AnnexB.findStartCode(codecConfig, nal, end);
+            if (next > nal) {
+                int type = AnnexB.nalType(codecConfig.get(nal));
+                if (type == AnnexB.NAL_TYPE_SPS || type == AnnexB.NAL_TYPE_PPS) {
+                    byte[] unit = new byte[next - nal];
+                    for (int i = 0; i < unit.length; i++) {
+                        unit[i] = codecConfig.get(nal + i);
+                    }
+                    (type == AnnexB.NAL_TYPE_SPS ? sps : pps).add(unit);
+                }
+            }
+            nal = next;
+        }
+        if (sps.isEmpty() || pps.isEmpty() || sps.get(0).length < 4) return null;
+        return new AvcDecoderConfig(sps, pps);
+    }
+
+    @NonNull
+    public List<byte[]> getSequenceParameterSets() {
+        return sequenceParameterSets;
+    }
+
+    @NonNull
+    public List<byte[]> getPictureParameterSets() {
+        return pictureParameterSets;
+    }
+
+    public int getProfileIdc() {
+        return sequenceParameterSets.get(0)[1] & 0xFF;
+    }
+
+    public int getProfileCompatibility() {
+        return sequenceParameterSets.get(0)[2] & 0xFF;
+    }
+
+    public int getLevelIdc() {
+        return sequenceParameterSets.get(0)[3] & 0xFF;
+    }
+
+    /**
+     * Size of the {@code avcC} box payload written by {@link #writeAvcC}.
+     */
+    int getAvcCPayloadSize() {
+        int size = 7;
+        for (byte[] sps : sequenceParameterSets) size += 2 + sps.length;
+        for (byte[] pps : pictureParameterSets) size += 2 + pps.length;
+        return size;
+    }
+
+    /**
+     * Writes an AVCDecoderConfigurationRecord with 4 byte NAL length fields.
+     */
+    void writeAvcC(@NonNull ByteBuffer out) {
+        out.put((byte) 1);
+        out.put((byte) getProfileIdc());
+        out.put((byte) getProfileCompatibility());
+        out.put((byte) getLevelIdc());
+        out.put((byte) 0xFF);
+        out.put((byte) (0xE0 | sequenceParameterSets.size()));
+        for (byte[] sps : sequenceParameterSets) {
+            out.putShort((short) sps.length);
+            out.put(sps);
+        }
+        out.put((byte) pictureParameterSets.size());
+        for (byte[] pps : pictureParameterSets) {
+            out.putShort((short) pps.length);
+            out.put(pps);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AvcDecoderConfig)) return false;
+        AvcDecoderConfig that = (AvcDecoderConfig) o;
+        return sameUnits(sequenceParameterSets, that.sequenceParameterSets)
+                && sameUnits(pictureParameterSets, that.pictureParameterSets);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (byte[] sps : sequenceParameterSets) result = 31 * result + Arrays.hashCode(sps);
+        for (byte[] pps : pictureParameterSets) result = 31 * result + Arrays.hashCode(pps);
+        return result;
+    }
+
+    private static boolean sameUnits(@NonNull List<byte[]> a, @NonNull List<byte[]> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+}
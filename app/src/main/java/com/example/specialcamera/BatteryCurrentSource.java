@@ -0,0 +1,40 @@
+package com.example.specialcamera;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reads battery current and voltage for {@link PowerMeter}. Current comes from the fuel gauge and is
+ * {@link PowerMeter#UNKNOWN_CURRENT} on devices without one.
+ */
+public class BatteryCurrentSource {
+
+    private final Context context;
+    private final BatteryManager batteryManager;
+
+    public BatteryCurrentSource(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+    }
+
+    public long getCurrentMicroAmps() {
+        if (batteryManager == null) return PowerMeter.UNKNOWN_CURRENT;
+        return batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+    }
+
+    /**
+     * From the sticky battery broadcast, 0 if unknown.
+     */
+    public int getVoltageMillivolts() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery == null ? 0 : battery.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
+    }
+
+    public void sample(@NonNull PowerMeter meter) {
+        meter.addSample(getCurrentMicroAmps(), getVoltageMillivolts());
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Everything the app needs to know about a camera, read once from {@code CameraCharacteristics} and
+ * persisted by {@link CameraCapabilitiesStore}, so later launches do not query the camera service.
+ * <p>
+ * Ranges the device does not report are stored as zeros, see the {@code has*} methods.
+ */
+public final class CameraCapabilities {
+
+    // mirrors CameraCharacteristics.LENS_FACING_* values
+    public static final int LENS_FACING_FRONT = 0;
+    public static final int LENS_FACING_BACK = 1;
+    public static final int LENS_FACING_EXTERNAL = 2;
+
+    private final String cameraId;
+    private final int lensFacing;
+    private final int sensorOrientation;
+    private final int hardwareLevel;
+    private final int timestampSource;
+    private final int activeArrayWidth;
+    private final int activeArrayHeight;
+    private final float maxDigitalZoom;
+    private final float minZoomRatio;
+    private final float maxZoomRatio;
+    private final int minSensitivity;
+    private final int maxSensitivity;
+    private final long minExposureNanos;
+    private final long maxExposureNanos;
+    // lower/upper pairs
+    private final int[] fpsRanges;
+    private final StreamSize[] previewSizes;
+    private final StreamSize[] yuvSizes;
+
+    private CameraCapabilities(Builder builder) {
+        cameraId = builder.cameraId;
+        lensFacing = builder.lensFacing;
+        sensorOrientation = builder.sensorOrientation;
+        hardwareLevel = builder.hardwareLevel;
+        timestampSource = builder.timestampSource;
+        activeArrayWidth = builder.activeArrayWidth;
+        activeArrayHeight = builder.activeArrayHeight;
+        maxDigitalZoom = builder.maxDigitalZoom;
+        minZoomRatio = builder.minZoomRatio;
+        maxZoomRatio = builder.maxZoomRatio;
+        minSensitivity = builder.minSensitivity;
+        maxSensitivity = builder.maxSensitivity;
+        minExposureNanos = builder.minExposureNanos;
+        maxExposureNanos = builder.maxExposureNanos;
+        fpsRanges = builder.fpsRanges.clone();
+        previewSizes = builder.previewSizes.clone();
+        yuvSizes = builder.yuvSizes.clone();
+    }
+
+    @NonNull
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    public int getLensFacing() {
+        return lensFacing;
+    }
+
+    public int getSensorOrientation() {
+        return sensorOrientation;
+    }
+
+    public int getHardwareLevel() {
+        return hardwareLevel;
+    }
+
+    public int getTimestampSource() {
+        return timestampSource;
+    }
+
+    public int getActiveArrayWidth() {
+        return activeArrayWidth;
+    }
+
+    public int getActiveArrayHeight() {
+        return activeArrayHeight;
+    }
+
+    public float getMaxDigitalZoom() {
+        return maxDigitalZoom;
+    }
+
+    public boolean hasZoomRatioRange() {
+        return maxZoomRatio > 0;
+    }
+
+    public float getMinZoomRatio() {
+        return minZoomRatio;
+    }
+
+    public float getMaxZoomRatio() {
+        return maxZoomRatio;
+    }
+
+    public boolean hasSensitivityRange() {
+        return maxSensitivity > 0;
+    }
+
+    public int getMinSensitivity() {
+        return minSensitivity;
+    }
+
+    public int getMaxSensitivity() {
+        return maxSensitivity;
+    }
+
+    public boolean hasExposureRange() {
+        return maxExposureNanos > 0;
+    }
+
+    public long getMinExposureNanos() {
+        return minExposureNanos;
+    }
+
+    public long getMaxExposureNanos() {
+        return maxExposureNanos;
+    }
+
+    public int getFpsRangeCount() {
+        return fpsRanges.length / 2;
+    }
+
+    public int getFpsRangeLower(int index) {
+        return fpsRanges[index * 2];
+    }
+
+    public int getFpsRangeUpper(int index) {
+        return fpsRanges[index * 2 + 1];
+    }
+
+    /**
+     * Sizes supported for {@code SurfaceTexture} outputs.
+     */
+    @NonNull
+    public StreamSize[] getPreviewSizes() {
+        return previewSizes.clone();
+    }
+
+    /**
+     * Sizes supported for {@code YUV_420_888} outputs.
+     */
+    @NonNull
+    public StreamSize[] getYuvSizes() {
+        return yuvSizes.clone();
+    }
+
+    void writeTo(@NonNull DataOutput out) throws IOException {
+        out.writeUTF(cameraId);
+        out.writeByte(lensFacing);
+        out.writeShort(sensorOrientation);
+        out.writeByte(hardwareLevel);
+        out.writeByte(timestampSource);
+        out.writeInt(activeArrayWidth);
+        out.writeInt(activeArrayHeight);
+        out.writeFloat(maxDigitalZoom);
+        out.writeFloat(minZoomRatio);
+        out.writeFloat(maxZoomRatio);
+        out.writeInt(minSensitivity);
+        out.writeInt(maxSensitivity);
+        out.writeLong(minExposureNanos);
+        out.writeLong(maxExposureNanos);
+        out.writeShort(fpsRanges.length);
+        for (int value : fpsRanges) {
+            out.writeShort(value);
+        }
+        writeSizes(out, previewSizes);
+        writeSizes(out, yuvSizes);
+    }
+
+    @NonNull
+    static CameraCapabilities readFrom(@NonNull DataInput in) throws IOException {
+        Builder builder = new Builder(in.readUTF())
+                .setLensFacing(in.readByte())
+                .setSensorOrientation(in.readShort())
+                .setHardwareLevel(in.readByte())
+                .setTimestampSource(in.readByte())
+                .setActiveArraySize(in.readInt(), in.readInt())
+                .setMaxDigitalZoom(in.readFloat())
+                .setZoomRatioRange(in.readFloat(), in.readFloat())
+                .setSensitivityRange(in.readInt(), in.readInt())
+                .setExposureRange(in.readLong(), in.readLong());
+        int[] fpsRanges = new int[in.readUnsignedShort()];
+        for (int i = 0; i < fpsRanges.length; i++) {
+            fpsRanges[i] = in.readShort();
+        }
+        return builder.setFpsRanges(fpsRanges)
+                .setPreviewSizes(readSizes(in))
+                .setYuvSizes(readSizes(in))
+                .build();
+    }
+
+    private static void writeSizes(DataOutput out, StreamSize[] sizes) throws IOException {
+        out.writeShort(sizes.length);
+        for (StreamSize size : sizes) {
+            out.writeShort(size.getWidth());
+            out.writeShort(size.getHeight());
+            out.writeLong(size.getMinFrameDurationNanos());
+        }
+    }
+
+    private static StreamSize[] readSizes(DataInput in) throws IOException {
+        StreamSize[] sizes = new StreamSize[in.readUnsignedShort()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new StreamSize(in.readUnsignedShort(), in.readUnsignedShort(), in.readLong());
+        }
+        return sizes;
+    }
+
+    public static final class Builder {
+        private final String cameraId;
+        private int lensFacing = LENS_FACING_BACK;
+        private int sensorOrientation;
+        private int hardwareLevel;
+        private int timestampSource;
+        private int activeArrayWidth;
+        private int activeArrayHeight;
+        private float maxDigitalZoom = 1f;
+        private float minZoomRatio;
+        private float maxZoomRatio;
+        private int minSensitivity;
+        private int maxSensitivity;
+        private long minExposureNanos;
+        private long maxExposureNanos;
+        private int[] fpsRanges = new int[0];
+        private StreamSize[] previewSizes = new StreamSize[0];
+        private StreamSize[] yuvSizes = new StreamSize[0];
+
+        public Builder(@NonNull String cameraId) {
+            this.cameraId = cameraId;
+        }
+
+        public Builder setLensFacing(int lensFacing) {
+            this.lensFacing = lensFacing;
+            return this;
+        }
+
+        public Builder setSensorOrientation(int sensorOrientation) {
+            this.sensorOrientation = sensorOrientation;
+            return this;
+        }
+
+        public Builder setHardwareLevel(int hardwareLevel) {
+            this.hardwareLevel = hardwareLevel;
+            return this;
+        }
+
+        public Builder setTimestampSource(int timestampSource) {
+            this.timestampSource = timestampSource;
+            return this;
+        }
+
+        public Builder setActiveArraySize(int width, int height) {
+            this.activeArrayWidth = width;
+            this.activeArrayHeight = height;
+            return this;
+        }
+
+        public Builder setMaxDigitalZoom(float maxDigitalZoom) {
+            this.maxDigitalZoom = maxDigitalZoom;
+            return this;
+        }
+
+        public Builder setZoomRatioRange(float min, float max) {
+            this.minZoomRatio = min;
+            this.maxZoomRatio = max;
+            return this;
+        }
+
+        public Builder setSensitivityRange(int min, int max) {
+            this.minSensitivity = min;
+            this.maxSensitivity = max;
+            return this;
+        }
+
+        public Builder setExposureRange(long minNanos, long maxNanos) {
+            this.minExposureNanos = minNanos;
+            this.maxExposureNanos = maxNanos;
+            return this;
+        }
+
+        /**
+         * @param fpsRanges lower/upper pairs
+         */
+        public Builder setFpsRanges(@NonNull int[] fpsRanges) {
+            if (fpsRanges.length % 2 != 0) {
+                throw new IllegalArgumentException("fpsRanges must contain lower/upper pairs");
+            }
+            this.fpsRanges = fpsRanges;
+            return this;
+        }
+
+        public Builder setPreviewSizes(@NonNull StreamSize[] previewSizes) {
+            this.previewSizes = previewSizes;
+            return this;
+        }
+
+        public Builder setYuvSizes(@NonNull StreamSize[] yuvSizes) {
+            this.yuvSizes = yuvSizes;
+            return this;
+        }
+
+        @NonNull
+        public CameraCapabilities build() {
+            return new CameraCapabilities(this);
+        }
+    }
+}
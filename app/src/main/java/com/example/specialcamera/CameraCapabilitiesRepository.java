@@ -0,0 +1,197 @@
+package com.example.specialcamera;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide owner of {@link CameraCapabilities}. Capabilities are loaded once per process: from the
+ * persisted cache when the build fingerprint matches, otherwise from {@link CameraManager}, after which
+ * the cache is rewritten in the background.
+ */
+public class CameraCapabilitiesRepository {
+
+    private static final String TAG = "CameraCapabilities";
+
+    private static final String CACHE_FILE = "camera_capabilities.bin";
+
+    @Nullable
+    private static volatile CameraCapabilitiesRepository instance;
+
+    @NonNull
+    public static CameraCapabilitiesRepository getInstance(@NonNull Context context) {
+        CameraCapabilitiesRepository result = instance;
+        if (result == null) {
+            synchronized (CameraCapabilitiesRepository.class) {
+                result = instance;
+                if (result == null) {
+                    result = new CameraCapabilitiesRepository(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private final Context context;
+    private final CameraCapabilitiesStore store;
+    private final Executor ioExecutor = Executors.newSingleThreadExecutor();
+
+    @Nullable
+    private List<CameraCapabilities> capabilities;
+
+    private CameraCapabilitiesRepository(@NonNull Context context) {
+        this.context = context;
+        store = new CameraCapabilitiesStore(new File(context.getFilesDir(), CACHE_FILE));
+    }
+
+    /**
+     * @return capabilities of all cameras in {@code getCameraIdList()} order
+     */
+    @NonNull
+    public synchronized List<CameraCapabilities> getAll() {
+        if (capabilities == null) {
+            long start = SystemClock.elapsedRealtime();
+            List<CameraCapabilities> cached = store.load(Build.FINGERPRINT);
+            if (cached != null) {
+                capabilities = cached;
+                Log.i(TAG, "Loaded " + cached.size() + " cameras from cache in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            } else {
+                List<CameraCapabilities> queried = queryCameraManager();
+                if (queried == null || queried.isEmpty()) {
+                    // a failed query or a camera service still starting, neither kept nor cached until the
+                    // next OTA; the next call queries again
+                    return Collections.emptyList();
+                }
+                capabilities = queried;
+                Log.i(TAG, "Queried " + queried.size() + " cameras in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+                ioExecutor.execute(() -> {
+                    try {
+                        store.save(Build.FINGERPRINT, queried);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cannot save capabilities cache", e);
+                    }
+                });
+            }
+        }
+        return capabilities;
+    }
+
+    @Nullable
+    public CameraCapabilities get(@NonNull String cameraId) {
+        for (CameraCapabilities camera : getAll()) {
+            if (camera.getCameraId().equals(cameraId)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return null if a camera could not be queried, a partial list is never returned
+     */
+    @Nullable
+    private List<CameraCapabilities> queryCameraManager() {
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        List<CameraCapabilities> result = new ArrayList<>();
+        try {
+            for (String cameraId : cameraManager.getCameraIdList()) {
+                result.add(fromCharacteristics(cameraId, cameraManager.getCameraCharacteristics(cameraId)));
+            }
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "queryCameraManager", e);
+            return null;
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @NonNull
+    private static CameraCapabilities fromCharacteristics(@NonNull String cameraId,
+                                                          @NonNull CameraCharacteristics characteristics) {
+        CameraCapabilities.Builder builder = new CameraCapabilities.Builder(cameraId);
+
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (lensFacing != null) builder.setLensFacing(lensFacing);
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        if (sensorOrientation != null) builder.setSensorOrientation(sensorOrientation);
+        Integer hardwareLevel = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        if (hardwareLevel != null) builder.setHardwareLevel(hardwareLevel);
+        Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        if (timestampSource != null) builder.setTimestampSource(timestampSource);
+
+        Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (activeArray != null) builder.setActiveArraySize(activeArray.width(), activeArray.height());
+        Float maxDigitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        if (maxDigitalZoom != null) builder.setMaxDigitalZoom(maxDigitalZoom);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Range<Float> zoomRatioRange = characteristics.get(CameraCharacteristics.CONTROL_ZOOM_RATIO_RANGE);
+            if (zoomRatioRange != null) {
+                builder.setZoomRatioRange(zoomRatioRange.getLower(), zoomRatioRange.getUpper());
+            }
+        }
+
+        Range<Integer> sensitivityRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE);
+        if (sensitivityRange != null) {
+            builder.setSensitivityRange(sensitivityRange.getLower(), sensitivityRange.getUpper());
+        }
+        Range<Long> exposureRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE);
+        if (exposureRange != null) {
+            builder.setExposureRange(exposureRange.getLower(), exposureRange.getUpper());
+        }
+
+        Range<Integer>[] fpsRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (fpsRanges != null) {
+            int[] values = new int[fpsRanges.length * 2];
+            for (int i = 0; i < fpsRanges.length; i++) {
+                values[i * 2] = fpsRanges[i].getLower();
+                values[i * 2 + 1] = fpsRanges[i].getUpper();
+            }
+            builder.setFpsRanges(values);
+        }
+
+        StreamConfigurationMap configurationMap =
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (configurationMap != null) {
+            Size[] previewSizes = configurationMap.getOutputSizes(SurfaceTexture.class);
+            StreamSize[] preview = new StreamSize[previewSizes == null ? 0 : previewSizes.length];
+            for (int i = 0; i < preview.length; i++) {
+                preview[i] = new StreamSize(previewSizes[i].getWidth(), previewSizes[i].getHeight(),
+                        configurationMap.getOutputMinFrameDuration(SurfaceTexture.class, previewSizes[i]));
+            }
+            builder.setPreviewSizes(preview);
+
+            Size[] yuvSizes = configurationMap.getOutputSizes(ImageFormat.YUV_420_888);
+            StreamSize[] yuv = new StreamSize[yuvSizes == null ? 0 : yuvSizes.length];
+            for (int i = 0; i < yuv.length; i++) {
+                yuv[i] = new StreamSize(yuvSizes[i].getWidth(), yuvSizes[i].getHeight(),
+                        configurationMap.getOutputMinFrameDuration(ImageFormat.YUV_420_888, yuvSizes[i]));
+            }
+            builder.setYuvSizes(yuv);
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary persistence of {@link CameraCapabilities}. The file is keyed by the build fingerprint:
+ * after a system update the cache is treated as missing, because camera HAL capabilities may change.
+ */
+public class CameraCapabilitiesStore {
+
+    private static final int MAGIC = 0x53434350; // "SCCP"
+    private static final int VERSION = 2;
+
+    private final File file;
+
+    public CameraCapabilitiesStore(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return cached capabilities in camera id list order, or null if the file is missing, stale or unreadable
+     */
+    @Nullable
+    public List<CameraCapabilities> load(@NonNull String fingerprint) {
+        if (!file.exists()) return null;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            // a corrupted cache is simply rebuilt
+            return null;
+        }
+    }
+
+    public void save(@NonNull String fingerprint, @NonNull List<CameraCapabilities> capabilities) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+            write(out, fingerprint, capabilities);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmpFile + " to " + file);
+        }
+    }
+
+    static void write(@NonNull OutputStream stream, @NonNull String fingerprint,
+                      @NonNull List<CameraCapabilities> capabilities) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeShort(capabilities.size());
+        for (CameraCapabilities camera : capabilities) {
+            camera.writeTo(out);
+        }
+        out.flush();
+    }
+
+    @Nullable
+    static List<CameraCapabilities> read(@NonNull InputStream stream, @NonNull String fingerprint) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) return null;
+        if (!fingerprint.equals(in.readUTF())) return null;
+
+        int count = in.readUnsignedShort();
+        List<CameraCapabilities> capabilities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            capabilities.add(CameraCapabilities.readFrom(in));
+        }
+        return Collections.unmodifiableList(capabilities);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the user facing camera controls. Levels are in the 0..100 scale used by the UI,
+ * they are mapped onto the device ranges only when the capture request is built.
+ */
+public final class CameraControlState {
+
+    // exposure stays unset until setExposure, manual ISO alone keeps the exposure time of the template
+    public static final CameraControlState DEFAULT = new CameraControlState(0f, false, null, null, 0, 0);
+
+    private final float zoomLevel;
+    private final boolean manualExposure;
+    @Nullable
+    private final Integer isoLevel;
+    @Nullable
+    private final Float exposureLevel;
+    // 0 means "not set", the template default is used
+    private final int fpsLower;
+    private final int fpsUpper;
+
+    private CameraControlState(float zoomLevel, boolean manualExposure, @Nullable Integer isoLevel,
+                               @Nullable Float exposureLevel, int fpsLower, int fpsUpper) {
+        this.zoomLevel = zoomLevel;
+        this.manualExposure = manualExposure;
+        this.isoLevel = isoLevel;
+        this.exposureLevel = exposureLevel;
+        this.fpsLower = fpsLower;
+        this.fpsUpper = fpsUpper;
+    }
+
+    public float getZoomLevel() {
+        return zoomLevel;
+    }
+
+    public boolean isManualExposure() {
+        return manualExposure;
+    }
+
+    @Nullable
+    public Integer getIsoLevel() {
+        return isoLevel;
+    }
+
+    @Nullable
+    public Float getExposureLevel() {
+        return exposureLevel;
+    }
+
+    public boolean hasFpsRange() {
+        return fpsUpper > 0;
+    }
+
+    public int getFpsLower() {
+        return fpsLower;
+    }
+
+    public int getFpsUpper() {
+        return fpsUpper;
+    }
+
+    @NonNull
+    public CameraControlState withZoomLevel(float zoomLevel) {
+        return new CameraControlState(zoomLevel, manualExposure, isoLevel, exposureLevel, fpsLower, fpsUpper);
+    }
+
+    @NonNull
+    public CameraControlState withIsoLevel(int isoLevel) {
+        return new CameraControlState(zoomLevel, true, isoLevel, exposureLevel, fpsLower, fpsUpper);
+    }
+
+    @NonNull
+    public CameraControlState withExposureLevel(float exposureLevel) {
+        return new CameraControlState(zoomLevel, true, isoLevel, exposureLevel, fpsLower, fpsUpper);
+    }
+
+    @NonNull
+    public CameraControlState withAutoControl() {
+        return new CameraControlState(zoomLevel, false, null, null, fpsLower, fpsUpper);
+    }
+
+    @NonNull
+    public CameraControlState withFpsRange(int lower, int upper) {
+        if (lower < 0 || upper < lower) {
+            throw new IllegalArgumentException("Invalid fps range: [" + lower + ", " + upper + "]");
+        }
+        return new CameraControlState(zoomLevel, manualExposure, isoLevel, exposureLevel, lower, upper);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraControlState)) return false;
+        CameraControlState that = (CameraControlState) o;
+        return Float.compare(that.zoomLevel, zoomLevel) == 0
+                && manualExposure == that.manualExposure
+                && fpsLower == that.fpsLower
+                && fpsUpper == that.fpsUpper
+                && Objects.equals(isoLevel, that.isoLevel)
+                && Objects.equals(exposureLevel, that.exposureLevel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(zoomLevel, manualExposure, isoLevel, exposureLevel, fpsLower, fpsUpper);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CameraControlState{zoom=" + zoomLevel + ", manual=" + manualExposure + ", iso=" + isoLevel
+                + ", exposure=" + exposureLevel + ", fps=[" + fpsLower + ", " + fpsUpper + "]}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The camera2 operations driven by {@link CameraStateMachine}, so the lifecycle can be tested with a fake
+ * camera. Every method is called on the camera thread and every callback is delivered there, never from
+ * within the call that started the operation.
+ */
+public interface CameraDriver {
+
+    interface Callback {
+
+        void onOpened();
+
+        void onDisconnected();
+
+        void onError(int error);
+
+        void onConfigured(int generation);
+
+        void onConfigureFailed(int generation);
+    }
+
+    /**
+     * Opens the device, reporting {@link Callback#onOpened}, {@link Callback#onDisconnected} or
+     * {@link Callback#onError}.
+     */
+    void open(@NonNull Callback callback);
+
+    /**
+     * Creates a capture session with the current outputs, replacing the previous one. Sessions of an older
+     * generation which finish configuring later are closed without a callback.
+     *
+     * @return false if the outputs are not ready yet; nothing was started
+     */
+    boolean configure(int generation, @NonNull Callback callback);
+
+    /**
+     * Closes the session and the device. A device which is still opening is closed as soon as it opens,
+     * without a callback.
+     */
+    void close();
+}
@@ -5,20 +5,15 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.RectF;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.params.StreamConfigurationMap;
+import android.graphics.Rect;
 import android.media.projection.MediaProjectionManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.Range;
-import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
@@ -28,24 +23,36 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.example.specialcamera.MediaProjectionService.MediaProjectionBinder;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
 public class CameraFragment extends Fragment {
 
     private static final String TAG = "CameraFragment";
 
     private static final int REQUEST_MEDIA_PROJECTION = 2;
 
+    private static final float PREVIEW_ASPECT_RATIO = 16f / 9;
+    private static final int PREVIEW_FPS = 30;
+    private static final long MAX_PREVIEW_PIXELS_PER_SECOND = 1920L * 1080 * 60;
+
     @NonNull
     public static CameraFragment newInstance() {
         return new CameraFragment();
     }
 
     public static final String LOG_TAG = "myLogs";
-    String[] myCameras = null;
-    private CameraManager mCameraManager = null;
+    private List<CameraCapabilities> cameraCapabilities;
+
+    // retained across configuration changes, the fields below point into it while the view exists
+    private CameraViewModel cameraViewModel;
 
     @Nullable
     private CameraHelper cameraHelper;
@@ -63,7 +70,36 @@ public class CameraFragment extends Fragment {
 
     private boolean isScreenCapturingOngoing = false;
 
-    private int framesQuantity = 0;
+    private final FrameTimingStats frameTimingStats = new FrameTimingStats();
+    private final EncoderStats encoderStats = new EncoderStats();
+
+    // seconds of screen recording kept from before the record button is pressed
+    private static final int SCREEN_RECORDING_PRE_ROLL_SECONDS = 10;
+    // wider recording regions are scaled down to this width
+    private static final int SCREEN_RECORDING_MAX_WIDTH = 1080;
+
+    private final LumaHistogram lumaHistogram = new LumaHistogram();
+    @Nullable
+    private LumaHistogramAnalyzer lumaHistogramAnalyzer;
+
+    @Nullable
+    private SharpnessAnalyzer sharpnessAnalyzer;
+
+    @Nullable
+    private CameraRecorder cameraRecorder;
+
+    // reused for every transform update
+    private final Matrix textureMatrix = new Matrix();
+
+    // battery draw per mode, each measured while that mode is active
+    @Nullable
+    private BatteryCurrentSource batteryCurrentSource;
+    private final PowerMeter powerMeter = new PowerMeter(NanoClock.SYSTEM);
+    private final PowerStats previewPower = new PowerStats("preview");
+    private final PowerStats screenRecordingPower = new PowerStats("screen");
+    private final PowerStats cameraRecordingPower = new PowerStats("camera");
+    @Nullable
+    private PowerStats measuredPower;
 
     private final ServiceConnection connection = new ServiceConnection() {
 
@@ -73,9 +109,9 @@ public class CameraFragment extends Fragment {
             MediaProjectionBinder binder = (MediaProjectionBinder) ibinder;
             mediaProjectionService = binder.getService();
             isMediaProjectionServiceBound = true;
+            mediaProjectionService.setRecorderListener(CameraFragment.this::onRecorderStateChanged);
 
-            mediaProjectionService.startRecording();
-            isScreenCapturingOngoing = true;
+            startScreenRecording();
         }
 
         @Override
@@ -103,27 +139,88 @@ public class CameraFragment extends Fragment {
         lensTextureView = view.findViewById(R.id.lens_texture_view);
         fpsTextView = view.findViewById(R.id.fps_text_view);
 
-        // TODO width and height should be configurable based on the CameraDevice characteristics
-        previewTextureView.setAspectRatio(1920, 1080);
-
-        cameraHelper = new CameraHelper(requireContext(), myCameras[0], previewTextureView,
-                lensTextureView, this::onSurfaceTextureAvailable,
-                () -> framesQuantity++
-        );
-        cameraHelper.openCamera();
+        cameraViewModel = new ViewModelProvider(this).get(CameraViewModel.class);
+        if (!cameraViewModel.isCameraOpened()) {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            StreamSizeSelector.Target previewTarget = new StreamSizeSelector.Target(
+                    metrics.widthPixels, metrics.heightPixels,
+                    PREVIEW_ASPECT_RATIO, MAX_PREVIEW_PIXELS_PER_SECOND, PREVIEW_FPS
+            );
+            if (!cameraViewModel.openCamera(requireContext(), cameraCapabilities, previewTarget)) {
+                Log.e(TAG, "No camera available");
+                Toast.makeText(getActivity(), "No camera available", Toast.LENGTH_LONG).show();
+                return;
+            }
+        }
+        bindCamera();
+        cameraViewModel.setListener(this::bindCamera);
+        cameraViewModel.attachViews(previewTextureView, lensTextureView);
+        View.OnLayoutChangeListener transformUpdater = (v, left, top, right, bottom,
+                                                        oldLeft, oldTop, oldRight, oldBottom) -> {
+            if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) {
+                updateTextureTransforms();
+                if (v == lensTextureView) {
+                    cameraViewModel.onLensViewLaidOut(right - left, bottom - top);
+                }
+            }
+        };
+        previewTextureView.addOnLayoutChangeListener(transformUpdater);
+        lensTextureView.addOnLayoutChangeListener(transformUpdater);
+        batteryCurrentSource = new BatteryCurrentSource(requireContext());
 
         setupListeners(view);
+        if (mediaProjectionService != null) {
+            mediaProjectionService.setRecorderListener(this::onRecorderStateChanged);
+            onRecorderStateChanged(mediaProjectionService.getRecorderState());
+        }
 
         view.postDelayed(new Runnable() {
             @Override
             public void run() {
-                fpsTextView.setText(Integer.toString(framesQuantity));
-                framesQuantity = 0;
+                if (cameraHelper == null) return;
+
+                cameraHelper.getFrameTimingRecorder().snapshot(frameTimingStats);
+                lumaHistogramAnalyzer.snapshot(lumaHistogram);
+                String overlayText = String.format(Locale.US, "%s\n%s\n%s\nclip %.1f%% / %.1f%%\nfocus %.0f",
+                        frameTimingStats.toOverlayText(), cameraHelper.getStartupTimeline().toOverlayText(),
+                        cameraHelper.getLatencyProbe().toOverlayText() + "\n"
+                                + cameraViewModel.getSwitchLatency().toOverlayText(),
+                        lumaHistogram.shadowClippingPercent, lumaHistogram.highlightClippingPercent,
+                        sharpnessAnalyzer.getRoiSharpness());
+                boolean encoding = false;
+                if (mediaProjectionService != null) {
+                    encoding = mediaProjectionService.getEncoderStats(encoderStats);
+                    overlayText += "\n" + mediaProjectionService.getStartLatency().toOverlayText()
+                            + "\n" + mediaProjectionService.getStopLatency().toOverlayText();
+                }
+                if (!encoding && cameraRecorder != null) {
+                    encoding = cameraRecorder.getEncoderStats(encoderStats);
+                }
+                if (encoding) {
+                    overlayText += "\n" + encoderStats.toOverlayText();
+                }
+                updatePowerStats(encoding);
+                overlayText += "\n" + previewPower.toOverlayText()
+                        + "\n" + screenRecordingPower.toOverlayText()
+                        + "\n" + cameraRecordingPower.toOverlayText();
+                fpsTextView.setText(overlayText);
                 view.postDelayed(this, 1000);
             }
         }, 1000);
     }
 
+    /**
+     * Points the fields at the current camera of the view model, again after every camera switch.
+     */
+    private void bindCamera() {
+        StreamSize previewSize = cameraViewModel.getPreviewSize();
+        previewTextureView.setAspectRatio(previewSize.getWidth(), previewSize.getHeight());
+        cameraHelper = cameraViewModel.getCameraHelper();
+        lumaHistogramAnalyzer = cameraViewModel.getLumaHistogramAnalyzer();
+        sharpnessAnalyzer = cameraViewModel.getSharpnessAnalyzer();
+        cameraRecorder = cameraViewModel.getCameraRecorder();
+    }
+
     private void setupListeners(@NonNull View view) {
         if (cameraHelper == null) return;
 
@@ -141,110 +238,185 @@ public class CameraFragment extends Fragment {
         });
         view.findViewById(R.id.record_btn).setOnClickListener((v) -> {
             if (isScreenCapturingOngoing) {
-                mediaProjectionService.stopRecording();
-                isScreenCapturingOngoing = false;
+                stopScreenRecording();
             } else {
                 if (isMediaProjectionServiceBound) {
-                    mediaProjectionService.startRecording();
-                    isScreenCapturingOngoing = true;
+                    startScreenRecording();
                 } else {
                     startActivityForResult(projectionManager.createScreenCaptureIntent(), REQUEST_MEDIA_PROJECTION);
                 }
             }
         });
+        view.findViewById(R.id.record_camera_btn).setOnClickListener((v) -> {
+            toggleCameraRecording();
+        });
         view.findViewById(R.id.change_fps_btn).setOnClickListener((v) -> {
             cameraHelper.setFPS(new Range<>(0, 15));
         });
+        view.findViewById(R.id.switch_camera_btn).setOnClickListener((v) -> {
+            if (!cameraViewModel.switchCamera() && cameraViewModel.isCameraRecordingOngoing()) {
+                Toast.makeText(getActivity(), "Stop the camera recording first", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
-    private void onSurfaceTextureAvailable() {
-        adjustTextureViewToRotation(previewTextureView);
-        adjustTextureViewToRotation(lensTextureView);
+    /**
+     * Screen recording transitions run on the service control thread, results arrive on the main thread.
+     */
+    private void startScreenRecording() {
+        if (mediaProjectionService == null) return;
+        isScreenCapturingOngoing = true;
+        mediaProjectionService.startRecording().whenComplete(ContextCompat.getMainExecutor(requireContext()),
+                (ignored, error) -> {
+                    if (error == null) return;
+                    Log.e(TAG, "Cannot start screen recording", error);
+                    isScreenCapturingOngoing = false;
+                    if (isAdded()) {
+                        Toast.makeText(getActivity(), "Cannot start screen recording", Toast.LENGTH_LONG).show();
+                    }
+                });
+    }
 
-        int lensWidth = lensTextureView.getWidth();
-        int lensHeight = lensTextureView.getHeight();
-        Matrix matrix = new Matrix();
-        matrix.postScale(5, 5, lensWidth / 2f, lensHeight / 2f);
-        if (needRotateTexture()) {
-            matrix.postRotate(-90, lensWidth / 2f, lensHeight / 2f);
+    private void stopScreenRecording() {
+        if (mediaProjectionService == null) return;
+        isScreenCapturingOngoing = false;
+        mediaProjectionService.stopRecording().whenComplete(ContextCompat.getMainExecutor(requireContext()),
+                (info, error) -> {
+                    if (error != null) {
+                        Log.e(TAG, "Screen recording failed", error);
+                    } else {
+                        Log.i(TAG, "Screen recording saved: " + info);
+                    }
+                });
+    }
+
+    private void onRecorderStateChanged(@NonNull RecorderState state) {
+        View view = getView();
+        if (view == null) return;
+        TextView recordButton = view.findViewById(R.id.record_btn);
+        switch (state) {
+            case STARTING:
+                recordButton.setText(R.string.record_screen_starting);
+                break;
+            case RECORDING:
+                recordButton.setText(R.string.record_screen_stop);
+                break;
+            case STOPPING:
+                recordButton.setText(R.string.record_screen_saving);
+                break;
+            default:
+                recordButton.setText(R.string.record_screen);
+                break;
         }
-        lensTextureView.setTransform(matrix);
     }
 
-    private void adjustTextureViewToRotation(TextureView textureView) {
-        Matrix matrix = new Matrix();
-        int rotation = requireActivity().getWindowManager().getDefaultDisplay().getRotation();
-        RectF textureRectF = new RectF(0, 0, textureView.getWidth(), textureView.getHeight());
-        RectF previewRectF = new RectF(0, 0, textureView.getHeight(), textureView.getWidth());
-        float centerX = textureRectF.centerX();
-        float centerY = textureRectF.centerY();
-        if (needRotateTexture()) {
-            previewRectF.offset(centerX - previewRectF.centerX(), centerY - previewRectF.centerY());
-            matrix.setRectToRect(textureRectF, previewRectF, Matrix.ScaleToFit.FILL);
-            float scale = Math.max((float) textureView.getWidth() / textureView.getWidth(), (float) textureView.getHeight() / textureView.getWidth());
-            matrix.postScale(scale, scale, centerX, centerY);
-            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
+    /**
+     * Camera-direct recording: the encoder becomes an output of the capture session. The encoder is
+     * stopped only once the session without it is configured.
+     */
+    private void toggleCameraRecording() {
+        if (cameraHelper == null || cameraRecorder == null) return;
+
+        if (cameraViewModel.isCameraRecordingOngoing()) {
+            cameraViewModel.setCameraRecordingOngoing(false);
+            cameraHelper.setCaptureMetadataLog(null);
+            cameraHelper.setRecordingSurface(null, cameraRecorder::stop);
+        } else if (!cameraRecorder.isRecording()) {
+            try {
+                Surface surface = cameraRecorder.start(error -> Log.e(TAG, "Camera recording error", error));
+                cameraHelper.setCaptureMetadataLog(cameraRecorder.getMetadataLog());
+                cameraHelper.setRecordingSurface(surface, null);
+                cameraViewModel.setCameraRecordingOngoing(true);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot start camera recording", e);
+                Toast.makeText(getActivity(), "Cannot start camera recording", Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Samples the battery into the stats of the active mode; switching modes starts a new window so every
+     * mode keeps the measurement of its last run.
+     */
+    private void updatePowerStats(boolean encoding) {
+        if (batteryCurrentSource == null) return;
+        PowerStats mode;
+        if (isScreenCapturingOngoing) {
+            mode = screenRecordingPower;
+        } else if (cameraViewModel.isCameraRecordingOngoing()) {
+            mode = cameraRecordingPower;
+        } else {
+            mode = previewPower;
         }
-        textureView.setTransform(matrix);
+        if (mode != measuredPower) {
+            powerMeter.reset();
+            measuredPower = mode;
+        }
+        batteryCurrentSource.sample(powerMeter);
+        powerMeter.snapshot(encoding ? encoderStats : null, mode);
+    }
+
+    /**
+     * Screen recording covers the preview area only, in display coordinates.
+     */
+    @NonNull
+    private Rect getScreenRecordingRegion() {
+        int[] location = new int[2];
+        previewTextureView.getLocationOnScreen(location);
+        return new Rect(location[0], location[1],
+                location[0] + previewTextureView.getWidth(), location[1] + previewTextureView.getHeight());
     }
 
-    private boolean needRotateTexture() {
+    /**
+     * Transforms come from the retained cache, so a rotation back to a previous orientation or a relayout at
+     * the same size computes nothing.
+     */
+    private void updateTextureTransforms() {
         int rotation = requireActivity().getWindowManager().getDefaultDisplay().getRotation();
-        return rotation == Surface.ROTATION_90 || rotation == Surface.ROTATION_270;
+        TextureTransformCache transformCache = cameraViewModel.getTransformCache();
+        textureMatrix.setValues(transformCache.getPreviewTransform(
+                rotation, previewTextureView.getWidth(), previewTextureView.getHeight()));
+        previewTextureView.setTransform(textureMatrix);
+        textureMatrix.setValues(transformCache.getLensTransform(
+                rotation, lensTextureView.getWidth(), lensTextureView.getHeight()));
+        lensTextureView.setTransform(textureMatrix);
     }
 
     @Override
     public void onDestroyView() {
+        if (mediaProjectionService != null) {
+            mediaProjectionService.setRecorderListener(null);
+        }
         if (cameraHelper != null) {
-            cameraHelper.closeCamera();
+            // the camera keeps running for the next view, the view model closes it when the fragment is gone
+            cameraViewModel.setListener(null);
+            cameraViewModel.detachViews();
             cameraHelper = null;
         }
+        cameraRecorder = null;
+        lumaHistogramAnalyzer = null;
+        sharpnessAnalyzer = null;
         super.onDestroyView();
     }
 
     private void logCamerasInfo() {
-        mCameraManager = (CameraManager) requireContext().getSystemService(Context.CAMERA_SERVICE);
-        try {
-            // Получение списка камер с устройства
-
-            myCameras = mCameraManager.getCameraIdList();
-
-            // выводим информацию по камере
-            for (String cameraID : mCameraManager.getCameraIdList()) {
-                Log.i(LOG_TAG, "cameraID: " + cameraID);
-                int id = Integer.parseInt(cameraID);
-
-                // Получениe характеристик камеры
-                CameraCharacteristics cc = mCameraManager.getCameraCharacteristics(cameraID);
-                // Получения списка выходного формата, который поддерживает камера
-                StreamConfigurationMap configurationMap =
-                        cc.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-
-                //  Определение какая камера куда смотрит
-                int Faceing = cc.get(CameraCharacteristics.LENS_FACING);
-
-                if (Faceing == CameraCharacteristics.LENS_FACING_FRONT) {
-                    Log.i(LOG_TAG, "Camera with ID: " + cameraID + "  is FRONT CAMERA  ");
-                }
+        cameraCapabilities = CameraCapabilitiesRepository.getInstance(requireContext()).getAll();
 
-                if (Faceing == CameraCharacteristics.LENS_FACING_BACK) {
-                    Log.i(LOG_TAG, "Camera with: ID " + cameraID + " is BACK CAMERA  ");
-                }
+        for (CameraCapabilities camera : cameraCapabilities) {
+            String cameraID = camera.getCameraId();
+            Log.i(LOG_TAG, "cameraID: " + cameraID);
 
+            if (camera.getLensFacing() == CameraCapabilities.LENS_FACING_FRONT) {
+                Log.i(LOG_TAG, "Camera with ID: " + cameraID + "  is FRONT CAMERA  ");
+            }
 
-                // Получения списка разрешений которые поддерживаются для формата jpeg
-                Size[] sizesJPEG = configurationMap.getOutputSizes(ImageFormat.JPEG);
+            if (camera.getLensFacing() == CameraCapabilities.LENS_FACING_BACK) {
+                Log.i(LOG_TAG, "Camera with: ID " + cameraID + " is BACK CAMERA  ");
+            }
 
-                if (sizesJPEG != null) {
-                    for (Size item : sizesJPEG) {
-                        Log.i(LOG_TAG, "w:" + item.getWidth() + " h:" + item.getHeight());
-                    }
-                } else {
-                    Log.i(LOG_TAG, "camera don`t support JPEG");
-                }
+            for (StreamSize item : camera.getPreviewSizes()) {
+                Log.i(LOG_TAG, "w:" + item.getWidth() + " h:" + item.getHeight());
             }
-        } catch (CameraAccessException e) {
-            Log.e(LOG_TAG, e.getMessage());
         }
     }
 
@@ -267,7 +439,10 @@ public class CameraFragment extends Fragment {
             Context context = requireContext();
 
             if (!isMediaProjectionServiceBound) {
-                Intent mediaProjectionIntent = MediaProjectionService.newIntent(context, resultCode, data, 1080, 1920);
+                Rect region = getScreenRecordingRegion();
+                float outputScale = Math.min(1f, (float) SCREEN_RECORDING_MAX_WIDTH / region.width());
+                Intent mediaProjectionIntent = MediaProjectionService.newIntent(
+                        context, resultCode, data, region, outputScale, SCREEN_RECORDING_PRE_ROLL_SECONDS);
                 ActivityCompat.startForegroundService(context, mediaProjectionIntent);
                 context.bindService(mediaProjectionIntent, connection, Context.BIND_AUTO_CREATE);
             }
@@ -10,16 +10,30 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 import android.util.Range;
+import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
+import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -28,331 +42,955 @@ public class CameraHelper {
     private final String TAG = "CameraHelper";
 
     private final String mCameraID;
+    // camera thread only, the open state is read from cameraStateMachine
     @Nullable
     private CameraDevice mCameraDevice = null;
+    // camera thread only: the device closed last until camera2 reports it closed, and the texture
+    // handover waiting for that
+    @Nullable
+    private CameraDevice closingDevice;
+    @Nullable
+    private Runnable deviceClosedTask;
     private final Context context;
     private CameraCaptureSession mCaptureSession;
     private final CameraManager mCameraManager;
-    private final TextureView previewView;
-    private final TextureView lensView;
+    private final CameraThreading cameraThreading;
+    // given to camera2, delivers its callbacks on the camera thread of cameraThreading
+    private final Handler cameraHandler;
+
+    private static final int ZOOM_RAMP_FRAMES = 8;
+
+    /**
+     * How many times the lens miniature magnifies the centre of the preview.
+     */
+    public static final float LENS_MAGNIFICATION = 5f;
 
-    private final CameraCharacteristics characteristics;
-    private final float maxZoom;
-    private float currentZoom;
+    private final CameraCapabilities capabilities;
+    private final StreamSize previewSize;
+    private final ZoomEngine zoomEngine;
+    private final boolean zoomRatioSupported;
+    // reused for every request, the builder copies the value on set()
+    private final Rect zoomCropRect = new Rect();
 
+    // camera thread only
     private CaptureRequest.Builder captureRequestBuilder;
+    @Nullable
+    private Surface previewOutput;
+    @Nullable
+    private Surface lensOutput;
+    @Nullable
+    private Surface recordingOutput;
+    // run on the main thread once the next session is configured, or failed to configure
+    private final List<Runnable> onOutputsApplied = new ArrayList<>();
+    // the extra streams are not guaranteed below FULL hardware level, dropped after a failure until the
+    // output set changes
+    private boolean analysisOutputEnabled = true;
+    // sessions replaced before they were configured are closed
+    private int sessionGeneration = 0;
+    // preview and lens outputs of a session created before their surfaces existed, null once finalized
+    @Nullable
+    private OutputConfiguration deferredPreviewConfig;
+    @Nullable
+    private OutputConfiguration deferredLensConfig;
+    // repeating request targets of the current session, none while only deferred outputs exist
+    private int requestTargetCount = 0;
+    @Nullable
+    private CaptureMetadataCallback captureMetadataCallback;
 
-    private final Runnable onSurfaceTextureAvailable;
+    private final CaptureRequestScheduler requestScheduler;
 
-    private final Range<Integer> sensitivityRange;
+    private static final long REOPEN_INITIAL_BACKOFF_MS = 250;
+    private static final long REOPEN_MAX_BACKOFF_MS = 4000;
+    private static final int REOPEN_MAX_RETRIES = 5;
+    // bounds the texture handover should camera2 never report the closed device
+    private static final long DEVICE_CLOSE_TIMEOUT_MS = 1000;
 
-    private final Range<Long> exposureRange;
+    private final CameraStateMachine cameraStateMachine;
 
+    // main thread; the textures outlive the views, so new views show the running session right away
+    @Nullable
+    private TextureView previewView;
+    @Nullable
+    private TextureView lensView;
     @Nullable
     private SurfaceTexture previewSurfaceTexture;
-
     @Nullable
     private SurfaceTexture lensSurfaceTexture;
-
-    // 0..100
+    // the textures the session outputs were created from
     @Nullable
-    private Integer isoLevel;
-
-    // 0..100
+    private SurfaceTexture outputPreviewTexture;
     @Nullable
-    private Float exposure = 0f;
-
-    @NonNull
-    private final Runnable onPreviewFrameUpdate;
-
-    private final CameraDevice.StateCallback mCameraCallback = new CameraDevice.StateCallback() {
-
-        @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-            mCameraDevice = camera;
-            Log.i(TAG, "Open camera  with id:" + mCameraDevice.getId());
+    private SurfaceTexture outputLensTexture;
+    private boolean closed = false;
+    // run on the next preview frame, main thread
+    @Nullable
+    private Runnable firstFrameListener;
+    // known once the lens view is laid out, read on the camera thread for deferred outputs
+    @Nullable
+    private volatile StreamSize lensStreamSize;
+
+    private static final int FRAME_TIMING_CAPACITY = 256;
+
+    // analysis does not need the preview resolution, the cheapest stream covering 720p is enough
+    private static final int ANALYSIS_WIDTH = 1280;
+    private static final int ANALYSIS_HEIGHT = 720;
+    private static final int ANALYSIS_FPS = 30;
+    private static final long MAX_ANALYSIS_PIXELS_PER_SECOND = 1920L * 1080 * 30;
+
+    private final ExecutorService analysisExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "FrameAnalysis"));
+    private final FrameAnalysisPipeline frameAnalysisPipeline =
+            new FrameAnalysisPipeline(analysisExecutor, NanoClock.SYSTEM);
+    private final StripedExecutor analysisStripedExecutor =
+            new StripedExecutor(StripedExecutor.defaultParallelism(), "AnalysisStripe");
+    @Nullable
+    private final YuvImageSource yuvImageSource;
 
-            createCameraPreviewSession();
-        }
+    // written on the main thread from onSurfaceTextureUpdated
+    private final FrameTimingRecorder frameTimingRecorder = new FrameTimingRecorder(FRAME_TIMING_CAPACITY);
 
-        @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-            mCameraDevice.close();
+    private static final int LATENCY_PROBE_CAPACITY = 16;
+    private final LatencyProbe latencyProbe = new LatencyProbe(LATENCY_PROBE_CAPACITY);
 
-            Log.i(TAG, "disconnect camera  with id:" + mCameraDevice.getId());
-            mCameraDevice = null;
-        }
+    // one async section per camera id, a warm camera starts while another one streams
+    private static final String STARTUP_TRACE = "CameraStartup";
+    private final StartupTimeline startupTimeline = new StartupTimeline(NanoClock.SYSTEM);
 
+    // the only callback of the repeating request, camera thread
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
-        public void onError(CameraDevice camera, int error) {
-            Log.i(TAG, "error! camera id:" + camera.getId() + " error:" + error);
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            startupTimeline.mark(StartupTimeline.Phase.FIRST_CAPTURE_RESULT);
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (timestamp != null) {
+                latencyProbe.onCaptureResult(timestamp, System.nanoTime());
+            }
+            CaptureMetadataCallback metadataCallback = captureMetadataCallback;
+            if (metadataCallback != null) {
+                metadataCallback.onCaptureCompleted(session, request, result);
+            }
         }
     };
 
     public CameraHelper(
-            @NonNull Context context, @NonNull String cameraID,
-            @NonNull TextureView previewView, @NonNull TextureView lensView,
-            @NonNull Runnable onSurfaceTextureAvailable,
-            @NonNull Runnable onPreviewFrameUpdate
+            @NonNull Context context, @NonNull CameraCapabilities capabilities, @NonNull StreamSize previewSize
     ) {
-        this.onPreviewFrameUpdate = onPreviewFrameUpdate;
+        this(context, capabilities, previewSize, new HandlerCameraThreading());
+    }
+
+    private CameraHelper(@NonNull Context context, @NonNull CameraCapabilities capabilities,
+                         @NonNull StreamSize previewSize, @NonNull HandlerCameraThreading cameraThreading) {
+        this(context, capabilities, previewSize, cameraThreading, cameraThreading.getCameraHandler());
+    }
+
+    /**
+     * @param cameraThreading threading of the camera pipeline, quit when the camera is closed
+     * @param cameraHandler   handler of the camera thread of {@code cameraThreading}, passed to camera2
+     */
+    public CameraHelper(@NonNull Context context, @NonNull CameraCapabilities capabilities,
+                        @NonNull StreamSize previewSize, @NonNull CameraThreading cameraThreading,
+                        @NonNull Handler cameraHandler) {
         this.context = context;
+        this.cameraThreading = cameraThreading;
+        this.cameraHandler = cameraHandler;
         mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        mCameraID = cameraID;
-
-        try {
-            characteristics = mCameraManager.getCameraCharacteristics(cameraID);
-        } catch (CameraAccessException e) {
-            throw new RuntimeException(e);
+        mCameraID = capabilities.getCameraId();
+        this.capabilities = capabilities;
+        this.previewSize = previewSize;
+
+        zoomRatioSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && capabilities.hasZoomRatioRange();
+        float maxZoomRatio = zoomRatioSupported ? capabilities.getMaxZoomRatio() : capabilities.getMaxDigitalZoom();
+        zoomEngine = new ZoomEngine(capabilities.getActiveArrayWidth(), capabilities.getActiveArrayHeight(),
+                maxZoomRatio, ZOOM_RAMP_FRAMES);
+
+        requestScheduler = new CaptureRequestScheduler(cameraThreading, this::applyControlState, NanoClock.SYSTEM);
+        cameraStateMachine = new CameraStateMachine(new Camera2Driver(), cameraThreading,
+                REOPEN_INITIAL_BACKOFF_MS, REOPEN_MAX_BACKOFF_MS, REOPEN_MAX_RETRIES);
+        cameraStateMachine.setListener(this::onCameraStateChanged);
+        if (capabilities.getTimestampSource() == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME) {
+            // an unknown source is not guaranteed comparable, in practice it is the monotonic clock
+            latencyProbe.setSensorClockOffsetNanos(SystemClock.elapsedRealtimeNanos() - System.nanoTime());
         }
-        maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM) * 10;
-        sensitivityRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE);
-        exposureRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE);
 
+        float previewAspect = (float) previewSize.getWidth() / previewSize.getHeight();
+        StreamSize analysisSize = StreamSizeSelector.selectPreviewSize(capabilities.getYuvSizes(),
+                new StreamSizeSelector.Target(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, previewAspect,
+                        MAX_ANALYSIS_PIXELS_PER_SECOND, ANALYSIS_FPS));
+        yuvImageSource = analysisSize != null ? new YuvImageSource(analysisSize, frameAnalysisPipeline) : null;
+        Log.i(TAG, "Analysis stream " + analysisSize);
+    }
+
+    /**
+     * A camera with the stream sizes of {@code profile}. With its lens size known the camera can stream
+     * before any view is attached, see {@link #openCamera()}.
+     */
+    public CameraHelper(@NonNull Context context, @NonNull CameraProfile profile) {
+        this(context, profile.getCapabilities(), profile.getPreviewSize());
+        lensStreamSize = profile.getLensSize();
+    }
+
+    @NonNull
+    public String getCameraId() {
+        return mCameraID;
+    }
+
+    /**
+     * Main thread. Shows the session in new views, e.g. after a configuration change recreated them. Views
+     * get the textures of the previous ones, which the session keeps feeding, so nothing is reconfigured;
+     * the first views get their own textures, and the session is created once both exist, or with deferred
+     * outputs as soon as the device is open.
+     */
+    public void attachViews(@NonNull TextureView previewView, @NonNull TextureView lensView) {
+        attachViews(previewView, lensView, null);
+    }
+
+    /**
+     * @param onFirstFrame run on the main thread with the first preview frame the views show from this camera
+     */
+    public void attachViews(@NonNull TextureView previewView, @NonNull TextureView lensView,
+                            @Nullable Runnable onFirstFrame) {
         this.previewView = previewView;
+        firstFrameListener = onFirstFrame;
         this.lensView = lensView;
-        this.onSurfaceTextureAvailable = onSurfaceTextureAvailable;
-    }
+        if (previewSurfaceTexture != null && !previewView.isAvailable()) {
+            previewView.setSurfaceTexture(previewSurfaceTexture);
+        }
+        if (lensSurfaceTexture != null && !lensView.isAvailable()) {
+            lensView.setSurfaceTexture(lensSurfaceTexture);
+        }
+
+        if (!updateLensStreamSize()) {
+            lensView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    if (updateLensStreamSize()) {
+                        v.removeOnLayoutChangeListener(this);
+                        // a device already waiting for the surfaces can create its session now
+                        cameraStateMachine.requestReconfigure();
+                    }
+                }
+            });
+        }
 
-    private void createCameraPreviewSession() {
         retrieveSurfaceTexture(
                 previewView,
                 (surfaceTexture -> {
                     previewSurfaceTexture = surfaceTexture;
+                    startupTimeline.mark(StartupTimeline.Phase.PREVIEW_SURFACE_READY);
 
                     if (lensSurfaceTexture != null) {
                         startCameraPreviewCapturing(previewSurfaceTexture, lensSurfaceTexture);
                     }
                 }),
-                () -> previewSurfaceTexture = null,
-                onPreviewFrameUpdate
+                surfaceTexture -> {
+                    long timestamp = surfaceTexture.getTimestamp();
+                    frameTimingRecorder.onFrame(timestamp);
+                    latencyProbe.onDisplayUpdate(timestamp, System.nanoTime());
+                    if (startupTimeline.mark(StartupTimeline.Phase.FIRST_FRAME)) {
+                        endStartupTrace();
+                        Log.i(TAG, "Camera " + mCameraID + " " + startupTimeline);
+                    }
+                    Runnable listener = firstFrameListener;
+                    if (listener != null) {
+                        firstFrameListener = null;
+                        listener.run();
+                    }
+                }
         );
 
         retrieveSurfaceTexture(
                 lensView,
                 (surfaceTexture -> {
                     lensSurfaceTexture = surfaceTexture;
+                    startupTimeline.mark(StartupTimeline.Phase.LENS_SURFACE_READY);
 
                     if (previewSurfaceTexture != null) {
                         startCameraPreviewCapturing(previewSurfaceTexture, lensSurfaceTexture);
                     }
                 }),
-                () -> lensSurfaceTexture = null,
-                () -> {
+                surfaceTexture -> {
                 }
         );
     }
 
+    /**
+     * Main thread. Forgets the views before they are destroyed, their textures stay with the session.
+     */
+    public void detachViews() {
+        previewView = null;
+        lensView = null;
+        firstFrameListener = null;
+    }
+
+    /**
+     * Main thread. The miniature only shows the centre, so its stream is sized for that instead of mirroring
+     * the preview, which needs the lens view size.
+     *
+     * @return true once the size is known
+     */
+    private boolean updateLensStreamSize() {
+        if (lensStreamSize != null) return true;
+        TextureView lensView = this.lensView;
+        if (lensView == null || lensView.getWidth() == 0 || lensView.getHeight() == 0) return false;
+        lensStreamSize = StreamSizeSelector.selectLensSize(capabilities.getPreviewSizes(), previewSize,
+                lensView.getWidth(), lensView.getHeight(), LENS_MAGNIFICATION);
+        return true;
+    }
+
     private void retrieveSurfaceTexture(@NonNull TextureView textureView, @NonNull SurfaceTextureConsumer onResult,
-                                        @NonNull Runnable onDestroy, @NonNull Runnable onUpdate) {
-        if (textureView.isAvailable()) {
-            onResult.consume(textureView.getSurfaceTexture());
-        } else {
-            textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
-                @Override
-                public void onSurfaceTextureAvailable(@NonNull SurfaceTexture surface, int width, int height) {
-                    onResult.consume(surface);
-                }
+                                        @NonNull SurfaceTextureConsumer onUpdate) {
+        // the listener is installed even for an available texture, otherwise its updates are never seen
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(@NonNull SurfaceTexture surface, int width, int height) {
+                onResult.consume(surface);
+            }
 
-                @Override
-                public void onSurfaceTextureSizeChanged(@NonNull SurfaceTexture surface, int width, int height) {
+            @Override
+            public void onSurfaceTextureSizeChanged(@NonNull SurfaceTexture surface, int width, int height) {
 
-                }
+            }
 
-                @Override
-                public boolean onSurfaceTextureDestroyed(@NonNull SurfaceTexture surface) {
-                    onDestroy.run();
-                    return true;
-                }
+            @Override
+            public boolean onSurfaceTextureDestroyed(@NonNull SurfaceTexture surface) {
+                // kept for the next views while the camera is open, closeCamera releases it
+                return closed;
+            }
 
-                @Override
-                public void onSurfaceTextureUpdated(@NonNull SurfaceTexture surface) {
-                    onUpdate.run();
-                }
-            });
+            @Override
+            public void onSurfaceTextureUpdated(@NonNull SurfaceTexture surface) {
+                onUpdate.consume(surface);
+            }
+        });
+        if (textureView.isAvailable()) {
+            onResult.consume(textureView.getSurfaceTexture());
         }
     }
 
     private void startCameraPreviewCapturing(
             @NonNull SurfaceTexture previewSurfaceTexture, @NonNull SurfaceTexture lensSurfaceTexture
     ) {
-        onSurfaceTextureAvailable.run();
+        if (previewSurfaceTexture == outputPreviewTexture && lensSurfaceTexture == outputLensTexture) {
+            // views re-attached to the textures the session already feeds
+            return;
+        }
+        List<SurfaceTexture> replaced = new ArrayList<>();
+        if (outputPreviewTexture != null && outputPreviewTexture != previewSurfaceTexture) {
+            replaced.add(outputPreviewTexture);
+        }
+        if (outputLensTexture != null && outputLensTexture != lensSurfaceTexture) {
+            replaced.add(outputLensTexture);
+        }
+        outputPreviewTexture = previewSurfaceTexture;
+        outputLensTexture = lensSurfaceTexture;
 
-        // TODO width and height should be configurable based on the CameraDevice characteristics
-        previewSurfaceTexture.setDefaultBufferSize(1920, 1080);
+        // the buffer sizes must match the deferred outputs a session may already have been created with
+        previewSurfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+        updateLensStreamSize();
+        StreamSize lensSize = lensStreamSize != null ? lensStreamSize : previewSize;
+        lensSurfaceTexture.setDefaultBufferSize(lensSize.getWidth(), lensSize.getHeight());
+        Log.i(TAG, "Preview stream " + previewSize + ", lens stream " + lensSize);
 
         Surface surface = new Surface(previewSurfaceTexture);
         Surface lensSurface = new Surface(lensSurfaceTexture);
 
+        cameraThreading.postToCamera(() -> {
+            previewOutput = surface;
+            lensOutput = lensSurface;
+            for (SurfaceTexture texture : replaced) {
+                // the session with the new surfaces no longer draws into it
+                onOutputsApplied.add(texture::release);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && deferredPreviewConfig != null) {
+                // a session with deferred outputs is configuring or waiting for exactly these surfaces
+                finalizeDeferredOutputs();
+            } else {
+                cameraStateMachine.requestReconfigure();
+            }
+        });
+    }
+
+    /**
+     * Camera thread. Adds the view surfaces to a session created with deferred outputs, once both the
+     * session and the surfaces exist.
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    private void finalizeDeferredOutputs() {
+        if (deferredPreviewConfig == null || deferredLensConfig == null || mCaptureSession == null
+                || previewOutput == null || lensOutput == null) return;
+        OutputConfiguration previewConfig = deferredPreviewConfig;
+        OutputConfiguration lensConfig = deferredLensConfig;
+        deferredPreviewConfig = null;
+        deferredLensConfig = null;
+        Trace.beginSection("finalizeOutputConfigurations");
         try {
-            captureRequestBuilder =
-                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            previewConfig.addSurface(previewOutput);
+            lensConfig.addSurface(lensOutput);
+            mCaptureSession.finalizeOutputConfigurations(Arrays.asList(previewConfig, lensConfig));
+        } catch (CameraAccessException | IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "finalizeOutputConfigurations, recreating the session", e);
+            cameraStateMachine.requestReconfigure();
+            return;
+        } finally {
+            Trace.endSection();
+        }
+        captureRequestBuilder.addTarget(previewOutput);
+        captureRequestBuilder.addTarget(lensOutput);
+        requestTargetCount += 2;
+        if (cameraStateMachine.getState() == CameraState.STREAMING) {
+            // resubmits the repeating request with the new targets
+            requestScheduler.onSessionReady();
+        }
+    }
+
+    /**
+     * Camera thread. Keeps the request scheduler and the recording callbacks in step with the session.
+     */
+    private void onCameraStateChanged(@NonNull CameraState from, @NonNull CameraState to) {
+        Log.i(TAG, "Camera " + mCameraID + " " + from + " -> " + to);
+        if (from == CameraState.STREAMING) {
+            requestScheduler.onSessionClosed();
+        }
+        switch (to) {
+            case STREAMING:
+                requestScheduler.onSessionReady();
+                notifyOutputsApplied();
+                break;
+            case ERROR:
+                Log.e(TAG, "Camera " + mCameraID + " failed " + (REOPEN_MAX_RETRIES + 1) + " times, giving up");
+                notifyOutputsApplied();
+                break;
+            case CLOSED:
+                notifyOutputsApplied();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Outputs are the preview and lens surfaces, the recording surface if set and, if requested, the
+     * analysis surface. Preview and lens outputs are deferred if their surfaces do not exist yet, so the
+     * session configures while the views are still being created; until they are added the repeating
+     * request only feeds the other outputs, which lets 3A converge early.
+     */
+    private void createCaptureSession(@NonNull CameraDevice cameraDevice, int generation, boolean withAnalysis,
+                                      @NonNull CameraDriver.Callback callback) {
+        boolean deferred = previewOutput == null || lensOutput == null;
+        List<Surface> outputs = new ArrayList<>();
+        if (!deferred) {
+            outputs.add(previewOutput);
+            outputs.add(lensOutput);
+        }
+        if (recordingOutput != null) {
+            outputs.add(recordingOutput);
+        }
+        boolean analysis = withAnalysis && yuvImageSource != null;
+        if (analysis) {
+            outputs.add(yuvImageSource.getSurface());
+        }
+        deferredPreviewConfig = null;
+        deferredLensConfig = null;
+
+        Trace.beginSection("createCaptureSession");
+        try {
+            captureRequestBuilder = cameraDevice.createCaptureRequest(
+                    recordingOutput != null ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
 
             captureRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, null);
+            // a new session starts at the desired zoom instead of ramping from 1x
+            zoomEngine.setTargetLevel(requestScheduler.getDesiredState().getZoomLevel());
+            zoomEngine.settle();
 
-            captureRequestBuilder.addTarget(surface);
-            captureRequestBuilder.addTarget(lensSurface);
+            for (Surface output : outputs) {
+                captureRequestBuilder.addTarget(output);
+            }
+            requestTargetCount = outputs.size();
 
-            // TODO possibly second preview for zoom miniature can be used here, in the list
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, lensSurface),
-                    new CameraCaptureSession.StateCallback() {
+            CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
 
-                        @Override
-                        public void onConfigured(CameraCaptureSession session) {
-                            mCaptureSession = session;
-                            try {
-                                mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-                            } catch (CameraAccessException e) {
-                                Log.e(TAG, "createCaptureSession", e);
-                            }
-                        }
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    if (cameraDevice != mCameraDevice || generation != sessionGeneration) {
+                        session.close();
+                        return;
+                    }
+                    mCaptureSession = session;
+                    startupTimeline.mark(StartupTimeline.Phase.SESSION_CONFIGURED);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                        // the surfaces may have arrived while configuring
+                        finalizeDeferredOutputs();
+                    }
+                    callback.onConfigured(generation);
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    if (cameraDevice != mCameraDevice || generation != sessionGeneration) return;
+                    if (analysis) {
+                        Log.w(TAG, "onConfigureFailed, retrying without the analysis output");
+                        analysisOutputEnabled = false;
+                        createCaptureSession(cameraDevice, generation, false, callback);
+                    } else {
+                        Log.e(TAG, "onConfigureFailed");
+                        callback.onConfigureFailed(generation);
+                    }
+                }
+            };
+            if (deferred && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                createDeferredCaptureSession(cameraDevice, outputs, sessionCallback);
+            } else {
+                cameraDevice.createCaptureSession(outputs, sessionCallback, cameraHandler);
+            }
+        } catch (CameraAccessException | IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "createCaptureSession", e);
+            // never from within configure()
+            cameraThreading.postToCamera(() -> callback.onConfigureFailed(generation));
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-                        @Override
-                        public void onConfigureFailed(CameraCaptureSession session) {
-                            Log.e(TAG, "onConfigureFailed");
-                        }
-                    }, null);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "createCameraPreviewSession", e);
+    @RequiresApi(Build.VERSION_CODES.O)
+    private void createDeferredCaptureSession(@NonNull CameraDevice cameraDevice, @NonNull List<Surface> outputs,
+                                              @NonNull CameraCaptureSession.StateCallback sessionCallback)
+            throws CameraAccessException {
+        StreamSize lensSize = lensStreamSize;
+        if (lensSize == null) {
+            throw new IllegalStateException("Lens stream size is not known yet");
+        }
+        deferredPreviewConfig = new OutputConfiguration(
+                new Size(previewSize.getWidth(), previewSize.getHeight()), SurfaceTexture.class);
+        deferredLensConfig = new OutputConfiguration(
+                new Size(lensSize.getWidth(), lensSize.getHeight()), SurfaceTexture.class);
+        List<OutputConfiguration> configs = new ArrayList<>();
+        configs.add(deferredPreviewConfig);
+        configs.add(deferredLensConfig);
+        for (Surface output : outputs) {
+            configs.add(new OutputConfiguration(output));
         }
+        cameraDevice.createCaptureSessionByOutputConfigurations(configs, sessionCallback,
+                cameraHandler);
     }
 
-    public boolean isOpen() {
-        if (mCameraDevice == null) {
-            return false;
+    /**
+     * Adds {@code surface}, typically an encoder input surface, to the session outputs, or removes the
+     * current one for null. The session is recreated, which pauses the preview for a few frames; zoom and
+     * exposure carry over through the desired control state.
+     *
+     * @param onApplied run on the main thread once the new session is configured, or failed to configure.
+     *                  After a removal the surface receives no more frames and can be released.
+     */
+    public void setRecordingSurface(@Nullable Surface surface, @Nullable Runnable onApplied) {
+        cameraThreading.postToCamera(() -> {
+            if (surface != recordingOutput) {
+                // a combination without the recording stream may fit the analysis stream again
+                analysisOutputEnabled = true;
+            }
+            recordingOutput = surface;
+            if (onApplied != null) {
+                onOutputsApplied.add(onApplied);
+            }
+            if (!cameraStateMachine.isOpen() || previewOutput == null) {
+                // picked up by the next session
+                notifyOutputsApplied();
+                return;
+            }
+            cameraStateMachine.requestReconfigure();
+        });
+    }
+
+    /**
+     * Opt-in logging of the capture result values of every frame, null stops it.
+     */
+    public void setCaptureMetadataLog(@Nullable CaptureMetadataLog log) {
+        cameraThreading.postToCamera(() -> captureMetadataCallback = log != null ? new CaptureMetadataCallback(log) : null);
+    }
+
+    private void notifyOutputsApplied() {
+        for (Runnable onApplied : onOutputsApplied) {
+            cameraThreading.postToMain(onApplied);
+        }
+        onOutputsApplied.clear();
+    }
+
+    /**
+     * Called by {@link #requestScheduler} on the camera thread, which is the only thread mutating
+     * {@link #captureRequestBuilder}.
+     */
+    private boolean applyControlState(@NonNull CameraControlState state) {
+        if (mCaptureSession == null || captureRequestBuilder == null || requestTargetCount == 0
+                || cameraStateMachine.getState() != CameraState.STREAMING) return false;
+
+        zoomEngine.setTargetLevel(state.getZoomLevel());
+        boolean zoomRamping = zoomEngine.advance();
+        applyZoom(zoomEngine.getCurrentIndex());
+
+        if (state.isManualExposure()) {
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+
+            Integer isoValue = state.getIsoLevel();
+            if (isoValue != null && capabilities.hasSensitivityRange()) {
+                captureRequestBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, ManualExposureMapping.sensitivityForLevel(
+                        isoValue, capabilities.getMinSensitivity(), capabilities.getMaxSensitivity()));
+            }
+
+            Float exposure = state.getExposureLevel();
+            if (exposure != null && capabilities.hasExposureRange()) {
+                captureRequestBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, ManualExposureMapping.exposureNanosForLevel(
+                        exposure, capabilities.getMinExposureNanos(), capabilities.getMaxExposureNanos()));
+            }
         } else {
-            return true;
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        }
+
+        if (state.hasFpsRange()) {
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    new Range<>(state.getFpsLower(), state.getFpsUpper()));
+        }
+
+        submitRepeatingRequest();
+        return zoomRamping;
+    }
+
+    private void applyZoom(int zoomIndex) {
+        if (zoomRatioSupported) {
+            captureRequestBuilder.set(CaptureRequest.CONTROL_ZOOM_RATIO, zoomEngine.boxedRatioAt(zoomIndex));
+        } else {
+            zoomCropRect.set(
+                    zoomEngine.cropLeft(zoomIndex), zoomEngine.cropTop(zoomIndex),
+                    zoomEngine.cropRight(zoomIndex), zoomEngine.cropBottom(zoomIndex)
+            );
+            captureRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, zoomCropRect);
         }
     }
 
+    private void submitRepeatingRequest() {
+        cameraThreading.checkCameraThread();
+
+        try {
+            mCaptureSession.setRepeatingRequest(
+                    captureRequestBuilder.build(), captureCallback, cameraHandler
+            );
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "submitRepeatingRequest", e);
+        }
+    }
+
+    public boolean isOpen() {
+        return cameraStateMachine.isOpen();
+    }
+
+    @NonNull
+    public CameraState getCameraState() {
+        return cameraStateMachine.getState();
+    }
+
+    /**
+     * Opens the camera; disconnects and errors afterwards are recovered by reopening it, see
+     * {@link CameraStateMachine}.
+     */
     public void openCamera() {
         if (context.checkSelfPermission(android.Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
-            try {
-                mCameraManager.openCamera(mCameraID, mCameraCallback, null);
-            } catch (CameraAccessException e) {
-                Log.e(TAG, "openCamera", e);
+            startupTimeline.start();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(STARTUP_TRACE, mCameraID.hashCode());
             }
+            // the device opens on the camera thread while the views, attached by the caller, create their
+            // surfaces
+            cameraStateMachine.open();
         } else {
             Log.e(TAG, "Cannot openCamera. No permissions.");
         }
     }
 
     public void closeCamera() {
-        if (mCameraDevice != null) {
-            mCameraDevice.close();
-            mCameraDevice = null;
-        }
-        if (mCaptureSession != null) {
-            mCaptureSession.close();
-            mCaptureSession = null;
-        }
+        close(null);
     }
 
-    public float getZoom() {
-        return currentZoom;
+    /**
+     * Closes the camera but keeps the view textures, which the next camera attached to the same views takes
+     * over. They are handed over once camera2 reports the device closed, so its session no longer holds
+     * the texture surfaces when the next camera configures one.
+     *
+     * @param onClosed run on the main thread once the device is closed
+     */
+    public void closeCamera(@NonNull Runnable onClosed) {
+        close(onClosed);
     }
 
-    public void setZoom(float zoomLevel) {
-        Rect zoomRect = getZoomRect(zoomLevel);
-        if (zoomRect != null) {
-            try {
-                //you can try to add the synchronized object here
-                captureRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, zoomRect);
-                mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-
-                currentZoom = zoomLevel;
-            } catch (Exception e) {
-                Log.e(TAG, "setZoom: ", e);
+    private void close(@Nullable Runnable onClosed) {
+        closed = true;
+        cameraStateMachine.close();
+        if (startupTimeline.getTimeToFirstFrameNanos() < 0) {
+            endStartupTrace();
+        }
+        cameraThreading.postToCamera(() -> {
+            Log.i(TAG, "Preview " + latencyProbe);
+            notifyOutputsApplied();
+            if (yuvImageSource != null) {
+                // waits for the frame being analyzed, so before the executors go away
+                yuvImageSource.close();
+            }
+            analysisExecutor.shutdown();
+            analysisStripedExecutor.shutdown();
+            if (onClosed == null) {
+                // views still showing the textures release them themselves when destroyed
+                cameraThreading.postToMain(this::releaseSurfaceTextures);
+                return;
             }
+            Runnable handOver = () -> {
+                cameraThreading.postToMain(() -> {
+                    previewSurfaceTexture = null;
+                    lensSurfaceTexture = null;
+                    onClosed.run();
+                });
+                cameraThreading.quit();
+            };
+            if (closingDevice == null) {
+                handOver.run();
+            } else {
+                // the camera thread has to stay alive for onClosed
+                deviceClosedTask = handOver;
+                cameraThreading.postToCameraDelayed(this::runDeviceClosedTask, DEVICE_CLOSE_TIMEOUT_MS);
+            }
+        });
+        if (onClosed == null) {
+            cameraThreading.quit();
         }
     }
 
-    @Nullable
-    private Rect getZoomRect(float zoomLevel) {
-        try {
-            Rect activeRect = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
-            if ((zoomLevel <= maxZoom) && (zoomLevel > 1)) {
-                int minW = (int) (activeRect.width() / maxZoom);
-                int minH = (int) (activeRect.height() / maxZoom);
-                int difW = activeRect.width() - minW;
-                int difH = activeRect.height() - minH;
-                int cropW = difW / 100 * (int) zoomLevel;
-                int cropH = difH / 100 * (int) zoomLevel;
-                cropW -= cropW & 3;
-                cropH -= cropH & 3;
-                return new Rect(cropW, cropH, activeRect.width() - cropW, activeRect.height() - cropH);
-            } else if (zoomLevel == 0) {
-                return new Rect(0, 0, activeRect.width(), activeRect.height());
-            }
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "getZoomRect", e);
-            return null;
+    /**
+     * Camera thread.
+     */
+    private void runDeviceClosedTask() {
+        Runnable task = deviceClosedTask;
+        deviceClosedTask = null;
+        closingDevice = null;
+        if (task != null) {
+            task.run();
         }
     }
 
-    @Nullable
-    public Integer getIsoLevel() {
-        return isoLevel;
+    private void releaseSurfaceTextures() {
+        if (previewSurfaceTexture != null && (previewView == null || !previewView.isAttachedToWindow())) {
+            previewSurfaceTexture.release();
+        }
+        if (lensSurfaceTexture != null && (lensView == null || !lensView.isAttachedToWindow())) {
+            lensSurfaceTexture.release();
+        }
+        previewSurfaceTexture = null;
+        lensSurfaceTexture = null;
     }
 
-    public void setAutoControl() {
-        captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-        isoLevel = null;
-        exposure = null;
+    /**
+     * Phases of the last {@link #openCamera()} up to the first preview frame.
+     */
+    @NonNull
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
 
-        try {
-            mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "setISO: ", e);
+    private void endStartupTrace() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(STARTUP_TRACE, mCameraID.hashCode());
         }
     }
 
-    public void setISO(int isoValue) {
-        captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+    /**
+     * Timing of the frames shown by the preview view, see {@link FrameTimingRecorder#snapshot(FrameTimingStats)}.
+     */
+    @NonNull
+    public FrameTimingRecorder getFrameTimingRecorder() {
+        return frameTimingRecorder;
+    }
 
-        int maxISO = sensitivityRange.getUpper();
-        int minISO = sensitivityRange.getLower();
-        int realIso = ((isoValue * (maxISO - minISO)) / 100 + minISO);
-        captureRequestBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, realIso);
+    /**
+     * Sensor to preview latency, see {@link LatencyProbe}.
+     */
+    @NonNull
+    public LatencyProbe getLatencyProbe() {
+        return latencyProbe;
+    }
 
-        isoLevel = isoValue;
+    /**
+     * Pipeline fed by the {@code YUV_420_888} output of the session, add {@link FrameAnalyzer}s to it.
+     */
+    @NonNull
+    public FrameAnalysisPipeline getFrameAnalysisPipeline() {
+        return frameAnalysisPipeline;
+    }
 
-        try {
-            mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "setISO: ", e);
-        }
+    /**
+     * Worker threads analyzers may use to split full-resolution frames, shared by all analyzers of
+     * {@link #getFrameAnalysisPipeline()}.
+     */
+    @NonNull
+    public StripedExecutor getAnalysisStripedExecutor() {
+        return analysisStripedExecutor;
+    }
+
+    @NonNull
+    public CaptureRequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    public float getZoom() {
+        return requestScheduler.getDesiredState().getZoomLevel();
+    }
+
+    /**
+     * @param zoomLevel 0..{@link ZoomEngine#MAX_LEVEL}, out of range values are clamped. The zoom ramps to
+     *                  the new level over a few frames.
+     */
+    public void setZoom(float zoomLevel) {
+        float clamped = Math.max(0, Math.min(ZoomEngine.MAX_LEVEL, zoomLevel));
+        requestScheduler.update(state -> state.withZoomLevel(clamped));
+    }
+
+    @Nullable
+    public Integer getIsoLevel() {
+        return requestScheduler.getDesiredState().getIsoLevel();
+    }
+
+    public void setAutoControl() {
+        requestScheduler.update(CameraControlState::withAutoControl);
+    }
+
+    public void setISO(int isoValue) {
+        requestScheduler.update(state -> state.withIsoLevel(isoValue));
     }
 
     @Nullable
     public Float getExposure() {
-        return exposure;
+        return requestScheduler.getDesiredState().getExposureLevel();
     }
 
     public void setExposure(float exposure) {
-        captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+        requestScheduler.update(state -> state.withExposureLevel(exposure));
+    }
 
-        long maxISO = exposureRange.getUpper();
-        long minISO = exposureRange.getLower();
-        float realIso = ((exposure * (maxISO - minISO)) / 100 + minISO);
-        captureRequestBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, (long) realIso);
+    public void setFPS(Range<Integer> fpsRange) {
+        requestScheduler.setFrameIntervalNanos(1_000_000_000L / Math.max(1, fpsRange.getUpper()));
+        requestScheduler.update(state -> state.withFpsRange(fpsRange.getLower(), fpsRange.getUpper()));
+    }
 
-        this.exposure = exposure;
+    /**
+     * {@link CameraDriver} on camera2, every call and callback on the camera thread.
+     */
+    private final class Camera2Driver implements CameraDriver {
 
-        try {
-            mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "setISO: ", e);
+        // callback of the current device, abandoned by close() so a device still opening is closed
+        @Nullable
+        private DeviceCallback deviceCallback;
+
+        @Override
+        public void open(@NonNull Callback callback) {
+            DeviceCallback openCallback = new DeviceCallback(callback);
+            deviceCallback = openCallback;
+            Trace.beginSection("openCamera");
+            try {
+                mCameraManager.openCamera(mCameraID, openCallback, cameraHandler);
+            } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+                Log.e(TAG, "openCamera", e);
+                deviceCallback = null;
+                cameraThreading.postToCamera(() -> callback.onError(CameraDevice.StateCallback.ERROR_CAMERA_DEVICE));
+            } finally {
+                Trace.endSection();
+            }
+        }
+
+        @Override
+        public boolean configure(int generation, @NonNull Callback callback) {
+            CameraDevice cameraDevice = mCameraDevice;
+            if (cameraDevice == null) return false;
+            // without the surfaces a session needs deferred outputs, which need the lens stream size
+            boolean surfacesReady = previewOutput != null && lensOutput != null;
+            if (!surfacesReady && (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || lensStreamSize == null)) {
+                return false;
+            }
+            sessionGeneration = generation;
+            // creating a session closes the current one
+            mCaptureSession = null;
+            createCaptureSession(cameraDevice, generation, analysisOutputEnabled, callback);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            deferredPreviewConfig = null;
+            deferredLensConfig = null;
+            if (deviceCallback != null) {
+                deviceCallback.abandoned = true;
+                deviceCallback = null;
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mCameraDevice != null) {
+                closingDevice = mCameraDevice;
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
         }
     }
 
-    public void setFPS(Range<Integer> fpsRange) {
-        captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
-        try {
-            mCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "setISO: ", e);
+    private final class DeviceCallback extends CameraDevice.StateCallback {
+
+        private final CameraDriver.Callback callback;
+        boolean abandoned = false;
+
+        DeviceCallback(@NonNull CameraDriver.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            if (abandoned) {
+                camera.close();
+                return;
+            }
+            mCameraDevice = camera;
+            startupTimeline.mark(StartupTimeline.Phase.DEVICE_OPENED);
+            Log.i(TAG, "Open camera  with id:" + camera.getId());
+            callback.onOpened();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            // the device may already be replaced, only the callback's own device is known to be this one
+            Log.i(TAG, "disconnect camera  with id:" + camera.getId());
+            camera.close();
+            if (camera == mCameraDevice) {
+                mCameraDevice = null;
+                mCaptureSession = null;
+            }
+            if (!abandoned) {
+                callback.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "error! camera id:" + camera.getId() + " error:" + error);
+            camera.close();
+            if (camera == mCameraDevice) {
+                mCameraDevice = null;
+                mCaptureSession = null;
+            }
+            if (!abandoned) {
+                callback.onError(error);
+            }
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraDevice camera) {
+            if (camera == closingDevice) {
+                runDeviceClosedTask();
+            }
         }
     }
 }
@@ -0,0 +1,72 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Everything a camera needs before its session can be created: the capabilities and the selected
+ * preview and lens stream sizes. Built once per camera so a switch does not query or select anything.
+ */
+public final class CameraProfile {
+
+    // used when no preview size fits the budget
+    static final StreamSize FALLBACK_PREVIEW_SIZE = new StreamSize(1920, 1080, 0);
+
+    private final CameraCapabilities capabilities;
+    private final StreamSize previewSize;
+    @Nullable
+    private final StreamSize lensSize;
+
+    private CameraProfile(@NonNull CameraCapabilities capabilities, @NonNull StreamSize previewSize,
+                          @Nullable StreamSize lensSize) {
+        this.capabilities = capabilities;
+        this.previewSize = previewSize;
+        this.lensSize = lensSize;
+    }
+
+    @NonNull
+    public static CameraProfile create(@NonNull CameraCapabilities capabilities,
+                                       @NonNull StreamSizeSelector.Target previewTarget) {
+        StreamSize previewSize = StreamSizeSelector.selectPreviewSize(capabilities.getPreviewSizes(), previewTarget);
+        return new CameraProfile(capabilities, previewSize != null ? previewSize : FALLBACK_PREVIEW_SIZE, null);
+    }
+
+    /**
+     * @return this profile with the lens stream sized for a lens view of the given size
+     */
+    @NonNull
+    public CameraProfile withLensView(int lensViewWidth, int lensViewHeight, float magnification) {
+        StreamSize size = StreamSizeSelector.selectLensSize(capabilities.getPreviewSizes(), previewSize,
+                lensViewWidth, lensViewHeight, magnification);
+        return size.equals(lensSize) ? this : new CameraProfile(capabilities, previewSize, size);
+    }
+
+    @NonNull
+    public String getCameraId() {
+        return capabilities.getCameraId();
+    }
+
+    @NonNull
+    public CameraCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    @NonNull
+    public StreamSize getPreviewSize() {
+        return previewSize;
+    }
+
+    /**
+     * @return null until {@link #withLensView} sized it
+     */
+    @Nullable
+    public StreamSize getLensSize() {
+        return lensSize;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CameraProfile{" + getCameraId() + ", preview " + previewSize + ", lens " + lensSize + "}";
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.specialcamera;
+
+import android.content.Context;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records camera frames directly: the encoder input surface is added to the capture session with
+ * {@link CameraHelper#setRecordingSurface}, so frames skip the preview composition and the virtual display
+ * used by screen recording. Zoom and manual exposure apply because they are part of the same repeating
+ * request. Frames are stored in sensor orientation, without the UI.
+ * <p>
+ * Encode latency in {@link EncoderStats} is only meaningful when the sensor timestamps use the
+ * {@link System#nanoTime()} time base.
+ * <p>
+ * While recording an {@link AdaptiveBitrateController} lowers the bit rate when the encoder or the storage
+ * falls behind, and the frame rate through {@link #setFrameRateControl} when one is set. Capture metadata,
+ * when enabled, is exported on the same control thread.
+ */
+public class CameraRecorder {
+
+    /**
+     * Changes the frame rate of the capture session feeding the encoder.
+     */
+    public interface FrameRateControl {
+        void setFrameRate(int frameRate);
+    }
+
+    private static final String TAG = "CameraRecorder";
+
+    private static final long STOP_TIMEOUT_MS = 2000;
+    private static final int MIN_ADAPTIVE_FRAME_RATE = 15;
+    // the log is drained every second, the slack covers a slow write
+    private static final int METADATA_BUFFER_SECONDS = 8;
+
+    private final Context context;
+    private final EncoderConfig config;
+    private final ExecutorService writerExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "CameraRecordingWriter"));
+    // runs the bit rate controller and the metadata export, which are confined to this thread
+    private final ScheduledExecutorService controlExecutor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "CameraRecordingControl"));
+    @Nullable
+    private volatile FrameRateControl frameRateControl;
+
+    @Nullable
+    private VideoRecordingEngine<MediaFormat> engine;
+    @Nullable
+    private MediaCodecEncoder encoder;
+    @Nullable
+    private RecordingInfo.Collector files;
+    @Nullable
+    private AdaptiveBitrateController bitrateController;
+    @Nullable
+    private ScheduledFuture<?> controlUpdates;
+    @Nullable
+    private volatile CaptureMetadataExporter.Format metadataFormat;
+    @Nullable
+    private CaptureMetadataLog metadataLog;
+    @Nullable
+    private CaptureMetadataExporter metadataExporter;
+
+    /**
+     * @param streamSize an output size of the camera, the encoder receives frames at this size
+     */
+    public CameraRecorder(@NonNull Context context, @NonNull StreamSize streamSize, int frameRate) {
+        this.context = context;
+        config = Recordings.createEncoderConfig(streamSize.getWidth(), streamSize.getHeight(), frameRate);
+    }
+
+    /**
+     * @param control called on the recorder's control thread, null keeps the frame rate fixed
+     */
+    public void setFrameRateControl(@Nullable FrameRateControl control) {
+        frameRateControl = control;
+    }
+
+    /**
+     * Writes the capture metadata of every recording next to its segments, null to disable. The log of a
+     * recording has to be passed to {@link CameraHelper#setCaptureMetadataLog}.
+     */
+    public void setCaptureMetadataFormat(@Nullable CaptureMetadataExporter.Format format) {
+        metadataFormat = format;
+    }
+
+    /**
+     * Log of the current recording, null when not recording or when metadata is disabled.
+     */
+    @Nullable
+    public CaptureMetadataLog getMetadataLog() {
+        return metadataLog;
+    }
+
+    public boolean isRecording() {
+        return engine != null;
+    }
+
+    /**
+     * Starts the encoder; frames arrive once the returned surface is a target of the capture session.
+     */
+    @NonNull
+    public Surface start(@NonNull VideoRecordingEngine.Listener listener) throws IOException {
+        if (engine != null) {
+            throw new IllegalStateException("Already recording");
+        }
+        File dir = Recordings.getDirectory(context);
+        String name = Recordings.newName("camera");
+        RecordingInfo.Collector files = new RecordingInfo.Collector();
+        FragmentedMp4Sink<MediaFormat> sink = Recordings.segmentSinkBuilder(
+                index -> Recordings.segmentFile(dir, name, index), config, files).build();
+
+        MediaCodecEncoder encoder = new MediaCodecEncoder();
+        VideoRecordingEngine<MediaFormat> engine = new VideoRecordingEngine<>(encoder, sink, config,
+                writerExecutor, NanoClock.SYSTEM);
+        engine.setListener(listener);
+        try {
+            engine.prepare();
+        } catch (IOException e) {
+            encoder.release();
+            throw e;
+        }
+        engine.start();
+        this.encoder = encoder;
+        this.engine = engine;
+        this.files = files;
+        CaptureMetadataLog log = new CaptureMetadataLog(config.getFrameRate() * METADATA_BUFFER_SECONDS);
+        metadataExporter = createMetadataExporter(dir, name, log);
+        metadataLog = metadataExporter != null ? log : null;
+        startControl(engine, metadataExporter);
+        return encoder.getInputSurface();
+    }
+
+    private void startControl(@NonNull VideoRecordingEngine<MediaFormat> engine,
+                              @Nullable CaptureMetadataExporter exporter) {
+        FrameRateControl control = frameRateControl;
+        AdaptiveBitrateController controller = Recordings.createBitrateController(config,
+                control != null ? MIN_ADAPTIVE_FRAME_RATE : config.getFrameRate(), level -> {
+                    Log.i(TAG, "Recording quality: " + level);
+                    engine.setBitRate(level.bitRate);
+                    if (control != null) {
+                        control.setFrameRate(level.frameRate);
+                    }
+                });
+        EncoderStats stats = new EncoderStats();
+        bitrateController = controller;
+        controlUpdates = controlExecutor.scheduleAtFixedRate(() -> {
+            engine.snapshot(stats);
+            controller.update(stats);
+            if (exporter != null) {
+                drainMetadata(exporter);
+            }
+        }, 0, Recordings.ADAPTIVE_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopControl() {
+        AdaptiveBitrateController controller = bitrateController;
+        if (controller == null || controlUpdates == null) return;
+        controlUpdates.cancel(false);
+        FrameRateControl control = frameRateControl;
+        CaptureMetadataExporter exporter = metadataExporter;
+        // queued behind a running update, the controller and the exporter stay on their thread
+        controlExecutor.execute(() -> {
+            Log.i(TAG, "Recording " + controller);
+            if (control != null && controller.getLevel().frameRate != config.getFrameRate()) {
+                control.setFrameRate(config.getFrameRate());
+            }
+            if (exporter != null) {
+                try {
+                    exporter.close();
+                    Log.i(TAG, "Capture metadata saved: " + exporter.getWrittenRows() + " rows, "
+                            + exporter.getLostRows() + " lost");
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot save capture metadata", e);
+                }
+            }
+        });
+        bitrateController = null;
+        controlUpdates = null;
+        metadataLog = null;
+        metadataExporter = null;
+    }
+
+    private static void drainMetadata(@NonNull CaptureMetadataExporter exporter) {
+        try {
+            exporter.drain();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write capture metadata", e);
+        }
+    }
+
+    @Nullable
+    private CaptureMetadataExporter createMetadataExporter(@NonNull File dir, @NonNull String name,
+                                                           @NonNull CaptureMetadataLog log) {
+        CaptureMetadataExporter.Format format = metadataFormat;
+        if (format == null) return null;
+        try {
+            return new CaptureMetadataExporter(log,
+                    new FileOutputStream(Recordings.metadataFile(dir, name, format)), format);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot create capture metadata file, recording without it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Call once the surface is no longer a session output, otherwise the camera may still queue frames
+     * into a released surface.
+     *
+     * @return the recorded files, null when not recording
+     */
+    @Nullable
+    public RecordingInfo stop() {
+        VideoRecordingEngine<MediaFormat> engine = this.engine;
+        if (engine == null) return null;
+        stopControl();
+        if (!engine.stop(STOP_TIMEOUT_MS)) {
+            Log.w(TAG, "Encoder did not signal end of stream in " + STOP_TIMEOUT_MS + " ms");
+        }
+        engine.release();
+        EncoderStats stats = new EncoderStats();
+        engine.snapshot(stats);
+        Log.i(TAG, "Recording finished: " + stats);
+        this.engine = null;
+        encoder = null;
+        RecordingInfo info = files != null ? files.build() : null;
+        files = null;
+        Log.i(TAG, "Recording saved: " + info);
+        return info;
+    }
+
+    /**
+     * @return false when not recording
+     */
+    public boolean getEncoderStats(@NonNull EncoderStats out) {
+        VideoRecordingEngine<MediaFormat> engine = this.engine;
+        if (engine == null) return false;
+        engine.snapshot(out);
+        return true;
+    }
+
+    public void release() {
+        stop();
+        writerExecutor.shutdown();
+        controlExecutor.shutdown();
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.specialcamera;
+
+/**
+ * States of {@link CameraStateMachine}.
+ */
+public enum CameraState {
+    CLOSED,
+    OPENING,
+    /**
+     * The device is open, the session waits for its outputs.
+     */
+    OPENED,
+    CONFIGURING,
+    STREAMING,
+    /**
+     * The device failed and was closed, it is reopened after a backoff.
+     */
+    RECOVERING,
+    /**
+     * Recovery gave up, only an explicit open tries again.
+     */
+    ERROR
+}
@@ -0,0 +1,248 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lifecycle of one camera device and its capture session:
+ * CLOSED -> OPENING -> OPENED -> CONFIGURING -> STREAMING, with RECOVERING and ERROR on failures.
+ * <p>
+ * The state is a single atomic reference and every transition is a compare-and-set, so {@link #open()},
+ * {@link #close()}, {@link #requestReconfigure()} and {@link #getState()} work from any thread without
+ * locks; a transition which lost a race, e.g. a device opening while it is being closed, simply does not
+ * happen. Driver calls and callbacks run on the camera thread. Callbacks of a previous open attempt or
+ * of a replaced session are ignored.
+ * <p>
+ * A disconnect, a device error or a failed session closes the device and reopens it after a backoff which
+ * doubles per consecutive failure; after {@code maxRetries} the machine stops in ERROR. Reaching STREAMING
+ * resets the count. Reconfiguration requests while a session is being configured collapse into one
+ * configuration after it.
+ */
+public class CameraStateMachine {
+
+    public interface Listener {
+        /**
+         * Called on the camera thread, in transition order.
+         */
+        void onStateChanged(@NonNull CameraState from, @NonNull CameraState to);
+    }
+
+    private final CameraDriver driver;
+    private final CameraThreading threading;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxRetries;
+    @Nullable
+    private volatile Listener listener;
+
+    private final AtomicReference<CameraState> state = new AtomicReference<>(CameraState.CLOSED);
+    private final AtomicBoolean reconfigurePosted = new AtomicBoolean(false);
+
+    // camera thread only
+    private int attemptId = 0;
+    private int sessionGeneration = 0;
+    private int failures = 0;
+    private boolean reconfigurePending = false;
+    private long lastBackoffMillis = 0;
+
+    private final Runnable retryTask = this::retry;
+    private final Runnable reconfigureTask = () -> {
+        reconfigurePosted.set(false);
+        configure();
+    };
+
+    public CameraStateMachine(@NonNull CameraDriver driver, @NonNull CameraThreading threading,
+                              long initialBackoffMillis, long maxBackoffMillis, int maxRetries) {
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis || maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.driver = driver;
+        this.threading = threading;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxRetries = maxRetries;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    public CameraState getState() {
+        return state.get();
+    }
+
+    /**
+     * True while the device is open, with or without a session.
+     */
+    public boolean isOpen() {
+        CameraState current = state.get();
+        return current == CameraState.OPENED || current == CameraState.CONFIGURING
+                || current == CameraState.STREAMING;
+    }
+
+    /**
+     * Opens the device when closed or failed, otherwise does nothing.
+     */
+    public void open() {
+        for (CameraState from : new CameraState[]{CameraState.CLOSED, CameraState.ERROR}) {
+            if (state.compareAndSet(from, CameraState.OPENING)) {
+                threading.postToCamera(() -> {
+                    failures = 0;
+                    notifyTransition(from, CameraState.OPENING);
+                    openDevice();
+                });
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the session and the device and cancels a pending recovery.
+     */
+    public void close() {
+        CameraState from = state.getAndSet(CameraState.CLOSED);
+        if (from == CameraState.CLOSED) return;
+        threading.postToCamera(() -> {
+            threading.removeFromCamera(retryTask);
+            // callbacks of the closed device are stale from now on
+            attemptId++;
+            reconfigurePending = false;
+            driver.close();
+            notifyTransition(from, CameraState.CLOSED);
+        });
+    }
+
+    /**
+     * Configures a new session with the current outputs once the device is open. Requests are coalesced:
+     * many requests before the camera thread gets to them, or during a configuration, give one session.
+     */
+    public void requestReconfigure() {
+        if (reconfigurePosted.compareAndSet(false, true)) {
+            threading.postToCamera(reconfigureTask);
+        }
+    }
+
+    /**
+     * Backoff before the last scheduled reopen, for diagnostics.
+     */
+    public long getLastBackoffMillis() {
+        return lastBackoffMillis;
+    }
+
+    private void openDevice() {
+        threading.checkCameraThread();
+        if (state.get() != CameraState.OPENING) return;
+        driver.open(new Attempt(++attemptId));
+    }
+
+    private void configure() {
+        threading.checkCameraThread();
+        CameraState from = state.get();
+        if (from == CameraState.CONFIGURING) {
+            reconfigurePending = true;
+            return;
+        }
+        if (from != CameraState.OPENED && from != CameraState.STREAMING) return;
+        if (!transition(from, CameraState.CONFIGURING)) return;
+        int generation = ++sessionGeneration;
+        if (!driver.configure(generation, new Attempt(attemptId))) {
+            // outputs not ready, the next request configures
+            transition(CameraState.CONFIGURING, CameraState.OPENED);
+        }
+    }
+
+    private void retry() {
+        if (transition(CameraState.RECOVERING, CameraState.OPENING)) {
+            openDevice();
+        }
+    }
+
+    private void fail() {
+        CameraState from = state.get();
+        if (from == CameraState.CLOSED || from == CameraState.RECOVERING || from == CameraState.ERROR) return;
+        driver.close();
+        reconfigurePending = false;
+        failures++;
+        if (failures > maxRetries) {
+            transition(from, CameraState.ERROR);
+            return;
+        }
+        if (transition(from, CameraState.RECOVERING)) {
+            int shift = Math.min(failures - 1, 30);
+            lastBackoffMillis = Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+            threading.postToCameraDelayed(retryTask, lastBackoffMillis);
+        }
+    }
+
+    private boolean transition(@NonNull CameraState from, @NonNull CameraState to) {
+        if (!state.compareAndSet(from, to)) return false;
+        notifyTransition(from, to);
+        return true;
+    }
+
+    private void notifyTransition(@NonNull CameraState from, @NonNull CameraState to) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onStateChanged(from, to);
+        }
+    }
+
+    /**
+     * Driver callback bound to one open attempt, stale once the device was closed or reopened.
+     */
+    private final class Attempt implements CameraDriver.Callback {
+        private final int id;
+
+        Attempt(int id) {
+            this.id = id;
+        }
+
+        private boolean isCurrent() {
+            threading.checkCameraThread();
+            return id == attemptId;
+        }
+
+        @Override
+        public void onOpened() {
+            if (!isCurrent()) return;
+            if (state.get() == CameraState.CLOSED) {
+                // closed while opening
+                driver.close();
+                return;
+            }
+            if (transition(CameraState.OPENING, CameraState.OPENED)) {
+                configure();
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            if (isCurrent()) fail();
+        }
+
+        @Override
+        public void onError(int error) {
+            if (isCurrent()) fail();
+        }
+
+        @Override
+        public void onConfigured(int generation) {
+            if (!isCurrent() || generation != sessionGeneration) return;
+            if (!transition(CameraState.CONFIGURING, CameraState.STREAMING)) return;
+            failures = 0;
+            if (reconfigurePending) {
+                reconfigurePending = false;
+                configure();
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(int generation) {
+            if (isCurrent() && generation == sessionGeneration && state.get() == CameraState.CONFIGURING) fail();
+        }
+    }
+}
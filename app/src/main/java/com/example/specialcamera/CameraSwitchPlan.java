@@ -0,0 +1,53 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Order in which the switch button cycles through the cameras, and whether the next camera may be kept
+ * open while the current one streams. That is only safe for cameras the device reports as concurrently
+ * streamable; elsewhere opening a second camera evicts the first or fails.
+ */
+public class CameraSwitchPlan {
+
+    private final List<String> cameraIds;
+    private final List<Set<String>> concurrentCameraIds;
+
+    /**
+     * @param cameraIds           cycle order
+     * @param concurrentCameraIds combinations of cameras which can stream at the same time, empty if unknown
+     */
+    public CameraSwitchPlan(@NonNull List<String> cameraIds, @NonNull Collection<Set<String>> concurrentCameraIds) {
+        this.cameraIds = new ArrayList<>(cameraIds);
+        this.concurrentCameraIds = new ArrayList<>(concurrentCameraIds);
+    }
+
+    public int getCameraCount() {
+        return cameraIds.size();
+    }
+
+    /**
+     * @return the camera after {@code currentId}, the first one for an unknown id, null without another
+     * camera
+     */
+    @Nullable
+    public String next(@NonNull String currentId) {
+        if (cameraIds.isEmpty()) return null;
+        int index = cameraIds.indexOf(currentId);
+        String next = cameraIds.get((index + 1) % cameraIds.size());
+        return next.equals(currentId) ? null : next;
+    }
+
+    public boolean canKeepWarm(@NonNull String currentId, @NonNull String nextId) {
+        if (currentId.equals(nextId)) return false;
+        for (Set<String> combination : concurrentCameraIds) {
+            if (combination.contains(currentId) && combination.contains(nextId)) return true;
+        }
+        return false;
+    }
+}
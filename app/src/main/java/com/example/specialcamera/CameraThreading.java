@@ -0,0 +1,35 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Threading contract of the camera pipeline.
+ * <p>
+ * Every camera2 call (open, session creation, request submission) and every camera2 callback runs
+ * on a single dedicated camera thread, so the capture request builder and the session never need
+ * locking. Anything that touches views is posted back to the main thread.
+ */
+public interface CameraThreading {
+
+    void postToCamera(@NonNull Runnable task);
+
+    void postToCameraDelayed(@NonNull Runnable task, long delayMillis);
+
+    void removeFromCamera(@NonNull Runnable task);
+
+    void postToMain(@NonNull Runnable task);
+
+    boolean isCameraThread();
+
+    /**
+     * Stops accepting new work. Tasks which are already queued on the camera thread are still executed.
+     */
+    void quit();
+
+    default void checkCameraThread() {
+        if (!isCameraThread()) {
+            throw new IllegalStateException("Must be called on the camera thread, current thread: "
+                    + Thread.currentThread().getName());
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.specialcamera;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.view.TextureView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.ViewModel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Owns the camera, its session, analyzers and the camera recorder independently of the fragment view,
+ * so rotation and other configuration changes only re-attach new views to a running session. Everything
+ * is closed once the fragment is gone for good.
+ * <p>
+ * Switching cameras uses profiles selected up front for every camera. Where the device can stream the
+ * next camera concurrently, that camera is kept open with its analysis stream only, so a switch just adds
+ * the view surfaces to its running session.
+ */
+public class CameraViewModel extends ViewModel {
+
+    private static final String TAG = "CameraViewModel";
+
+    private static final int HISTOGRAM_SAMPLE_STEP = 2;
+
+    private static final int SHARPNESS_GRID_COLUMNS = 8;
+    private static final int SHARPNESS_GRID_ROWS = 6;
+    private static final int SHARPNESS_GRID_SAMPLE_STEP = 2;
+
+    private static final int CAMERA_RECORDING_FPS = 30;
+
+    // from the switch request to the first frame of the next camera
+    private static final long SWITCH_LATENCY_TARGET_NANOS = 300_000_000L;
+    private static final int SWITCH_LATENCY_HISTORY = 16;
+
+    /**
+     * Main thread.
+     */
+    public interface Listener {
+        void onCameraChanged();
+    }
+
+    @Nullable
+    private Context appContext;
+    private final List<CameraProfile> profiles = new ArrayList<>();
+    @Nullable
+    private CameraSwitchPlan switchPlan;
+
+    @Nullable
+    private CameraHelper cameraHelper;
+    @Nullable
+    private StreamSize previewSize;
+    @Nullable
+    private LumaHistogramAnalyzer lumaHistogramAnalyzer;
+    @Nullable
+    private SharpnessAnalyzer sharpnessAnalyzer;
+    @Nullable
+    private CameraRecorder cameraRecorder;
+    private boolean cameraRecordingOngoing = false;
+
+    // the next camera, open but without views
+    @Nullable
+    private CameraHelper warmCameraHelper;
+    private boolean switching = false;
+    private long switchStartNanos = 0;
+    private boolean cleared = false;
+    private final LatencyRecorder switchLatency =
+            new LatencyRecorder("switch", SWITCH_LATENCY_TARGET_NANOS, SWITCH_LATENCY_HISTORY);
+
+    // between attachViews and detachViews
+    @Nullable
+    private TextureView previewView;
+    @Nullable
+    private TextureView lensView;
+    @Nullable
+    private Listener listener;
+
+    private final TextureTransformCache transformCache = new TextureTransformCache(CameraHelper.LENS_MAGNIFICATION);
+
+    public boolean isCameraOpened() {
+        return cameraHelper != null;
+    }
+
+    /**
+     * Selects a profile for every camera and opens the best camera of the back facing, once per view model.
+     * Only the application context is kept.
+     *
+     * @return false if there is no camera
+     */
+    public boolean openCamera(@NonNull Context context, @NonNull List<CameraCapabilities> cameras,
+                              @NonNull StreamSizeSelector.Target previewTarget) {
+        if (cameraHelper != null) return true;
+        CameraCapabilities camera = StreamSizeSelector.selectCamera(
+                cameras, CameraCapabilities.LENS_FACING_BACK, previewTarget);
+        if (camera == null) return false;
+
+        appContext = context.getApplicationContext();
+        List<String> cameraIds = new ArrayList<>();
+        profiles.clear();
+        for (CameraCapabilities capabilities : cameras) {
+            CameraProfile profile = CameraProfile.create(capabilities, previewTarget);
+            profiles.add(profile);
+            cameraIds.add(profile.getCameraId());
+            Log.i(TAG, profile.toString());
+        }
+        switchPlan = new CameraSwitchPlan(cameraIds, getConcurrentCameraIds(appContext));
+
+        CameraProfile profile = findProfile(camera.getCameraId());
+        Log.i(TAG, "Selected camera " + profile.getCameraId() + ", preview " + profile.getPreviewSize());
+        CameraHelper helper = new CameraHelper(appContext, profile);
+        activate(helper, profile);
+        helper.openCamera();
+        return true;
+    }
+
+    @NonNull
+    private static Collection<Set<String>> getConcurrentCameraIds(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return Collections.emptyList();
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            return cameraManager.getConcurrentCameraIds();
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "getConcurrentCameraIds", e);
+            return Collections.emptyList();
+        }
+    }
+
+    @NonNull
+    private CameraProfile findProfile(@NonNull String cameraId) {
+        for (CameraProfile profile : profiles) {
+            if (profile.getCameraId().equals(cameraId)) return profile;
+        }
+        throw new IllegalArgumentException("No profile for camera " + cameraId);
+    }
+
+    /**
+     * Makes {@code helper} the current camera with new analyzers and a new recorder.
+     */
+    private void activate(@NonNull CameraHelper helper, @NonNull CameraProfile profile) {
+        previewSize = profile.getPreviewSize();
+        lumaHistogramAnalyzer = new LumaHistogramAnalyzer(HISTOGRAM_SAMPLE_STEP, helper.getAnalysisStripedExecutor());
+        helper.getFrameAnalysisPipeline().addAnalyzer(lumaHistogramAnalyzer);
+        // the sharpness ROI covers what the lens view shows around the crosshair
+        sharpnessAnalyzer = new SharpnessAnalyzer(
+                1f / CameraHelper.LENS_MAGNIFICATION, SHARPNESS_GRID_COLUMNS, SHARPNESS_GRID_ROWS,
+                SHARPNESS_GRID_SAMPLE_STEP, helper.getAnalysisStripedExecutor()
+        );
+        helper.getFrameAnalysisPipeline().addAnalyzer(sharpnessAnalyzer);
+        cameraRecorder = new CameraRecorder(appContext, previewSize, CAMERA_RECORDING_FPS);
+        cameraRecorder.setFrameRateControl(frameRate -> helper.setFPS(new Range<>(frameRate, frameRate)));
+        cameraRecorder.setCaptureMetadataFormat(CaptureMetadataExporter.Format.CSV);
+        cameraHelper = helper;
+    }
+
+    /**
+     * Main thread. Shows the current camera in the views, see {@link CameraHelper#attachViews}.
+     */
+    public void attachViews(@NonNull TextureView previewView, @NonNull TextureView lensView) {
+        this.previewView = previewView;
+        this.lensView = lensView;
+        if (cameraHelper != null && !switching) {
+            cameraHelper.attachViews(previewView, lensView, this::onFirstFrame);
+        }
+    }
+
+    public void detachViews() {
+        if (cameraHelper != null && !switching) {
+            cameraHelper.detachViews();
+        }
+        previewView = null;
+        lensView = null;
+    }
+
+    /**
+     * Main thread. Sizes the lens streams of all profiles, which a warm camera needs before it opens.
+     */
+    public void onLensViewLaidOut(int width, int height) {
+        if (width == 0 || height == 0) return;
+        for (int i = 0; i < profiles.size(); i++) {
+            profiles.set(i, profiles.get(i).withLensView(width, height, CameraHelper.LENS_MAGNIFICATION));
+        }
+        warmUpNextCamera();
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    private void onFirstFrame() {
+        if (switchStartNanos != 0) {
+            switchLatency.record(NanoClock.SYSTEM.nanoTime() - switchStartNanos);
+            switchStartNanos = 0;
+            Log.i(TAG, switchLatency.toString());
+        }
+        warmUpNextCamera();
+    }
+
+    /**
+     * Opens the camera the next switch goes to, if the device can stream it together with the current
+     * one. Its deferred session streams the analysis output only, so 3A has converged by the switch.
+     */
+    private void warmUpNextCamera() {
+        if (cameraHelper == null || switchPlan == null || warmCameraHelper != null || switching
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        String nextId = switchPlan.next(cameraHelper.getCameraId());
+        if (nextId == null || !switchPlan.canKeepWarm(cameraHelper.getCameraId(), nextId)) return;
+        CameraProfile profile = findProfile(nextId);
+        // deferred outputs need the lens stream size
+        if (profile.getLensSize() == null) return;
+        Log.i(TAG, "Keeping camera " + nextId + " warm");
+        warmCameraHelper = new CameraHelper(appContext, profile);
+        warmCameraHelper.openCamera();
+    }
+
+    /**
+     * Main thread. Switches to the next camera: the current one is closed, the next one, already open if it
+     * was kept warm, takes over the view textures. Not possible while the camera records.
+     *
+     * @return false if the switch was refused
+     */
+    public boolean switchCamera() {
+        if (cameraHelper == null || switchPlan == null || switching || cameraRecordingOngoing) return false;
+        String nextId = switchPlan.next(cameraHelper.getCameraId());
+        if (nextId == null) return false;
+        switching = true;
+        switchStartNanos = NanoClock.SYSTEM.nanoTime();
+
+        CameraProfile profile = findProfile(nextId);
+        CameraHelper next;
+        boolean warm = warmCameraHelper != null && warmCameraHelper.getCameraId().equals(nextId);
+        if (warm) {
+            next = warmCameraHelper;
+        } else {
+            if (warmCameraHelper != null) {
+                warmCameraHelper.closeCamera();
+            }
+            next = new CameraHelper(appContext, profile);
+        }
+        warmCameraHelper = null;
+
+        CameraHelper previous = cameraHelper;
+        CameraRecorder previousRecorder = cameraRecorder;
+        Log.i(TAG, "Switching from camera " + previous.getCameraId() + " to " + nextId + (warm ? ", warm" : ""));
+        previous.detachViews();
+        // the views keep showing the last frame of the previous camera until the next one delivers
+        previous.closeCamera(() -> {
+            if (previousRecorder != null) {
+                previousRecorder.release();
+            }
+            if (cleared) {
+                next.closeCamera();
+                return;
+            }
+            activate(next, profile);
+            if (!warm) {
+                // without concurrent streaming the next device opens only once the previous one is closed
+                next.openCamera();
+            }
+            switching = false;
+            if (previewView != null && lensView != null) {
+                next.attachViews(previewView, lensView, this::onFirstFrame);
+            }
+            if (listener != null) {
+                listener.onCameraChanged();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * From {@link #switchCamera()} to the first frame of the next camera.
+     */
+    @NonNull
+    public LatencyRecorder getSwitchLatency() {
+        return switchLatency;
+    }
+
+    public boolean isSwitching() {
+        return switching;
+    }
+
+    @Nullable
+    public CameraHelper getCameraHelper() {
+        return cameraHelper;
+    }
+
+    @Nullable
+    public StreamSize getPreviewSize() {
+        return previewSize;
+    }
+
+    @Nullable
+    public LumaHistogramAnalyzer getLumaHistogramAnalyzer() {
+        return lumaHistogramAnalyzer;
+    }
+
+    @Nullable
+    public SharpnessAnalyzer getSharpnessAnalyzer() {
+        return sharpnessAnalyzer;
+    }
+
+    @Nullable
+    public CameraRecorder getCameraRecorder() {
+        return cameraRecorder;
+    }
+
+    public boolean isCameraRecordingOngoing() {
+        return cameraRecordingOngoing;
+    }
+
+    public void setCameraRecordingOngoing(boolean cameraRecordingOngoing) {
+        this.cameraRecordingOngoing = cameraRecordingOngoing;
+    }
+
+    @NonNull
+    public TextureTransformCache getTransformCache() {
+        return transformCache;
+    }
+
+    @Override
+    protected void onCleared() {
+        cleared = true;
+        listener = null;
+        previewView = null;
+        lensView = null;
+        if (warmCameraHelper != null) {
+            warmCameraHelper.closeCamera();
+            warmCameraHelper = null;
+        }
+        if (switching) {
+            // the camera being switched away from is already closing, the next one is closed after it
+            cameraHelper = null;
+            return;
+        }
+        if (cameraHelper != null) {
+            if (cameraRecorder != null && cameraRecorder.isRecording()) {
+                // released once the camera no longer feeds the encoder
+                cameraHelper.setRecordingSurface(null, cameraRecorder::release);
+            } else if (cameraRecorder != null) {
+                cameraRecorder.release();
+            }
+            cameraRecorder = null;
+            cameraRecordingOngoing = false;
+            cameraHelper.closeCamera();
+            cameraHelper = null;
+        }
+    }
+}
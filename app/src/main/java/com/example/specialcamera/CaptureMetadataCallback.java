@@ -0,0 +1,60 @@
+package com.example.specialcamera;
+
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Records the values the HAL actually applied to every completed capture into a {@link CaptureMetadataLog}.
+ * The sensor timestamp is the one the frame carries into encoder and SurfaceTexture outputs, so rows can be
+ * matched with recorded samples. Runs on the camera thread; {@link CaptureResult#get} boxes internally,
+ * the log itself does not allocate.
+ */
+public class CaptureMetadataCallback extends CameraCaptureSession.CaptureCallback {
+
+    private final CaptureMetadataLog log;
+
+    public CaptureMetadataCallback(@NonNull CaptureMetadataLog log) {
+        this.log = log;
+    }
+
+    @NonNull
+    public CaptureMetadataLog getLog() {
+        return log;
+    }
+
+    @Override
+    public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                   @NonNull TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        log.beginFrame(result.getFrameNumber(), timestamp != null ? timestamp : CaptureMetadataLog.UNKNOWN);
+        Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        if (exposureTime != null) {
+            log.setExposureTimeNanos(exposureTime);
+        }
+        Long frameDuration = result.get(CaptureResult.SENSOR_FRAME_DURATION);
+        if (frameDuration != null) {
+            log.setFrameDurationNanos(frameDuration);
+        }
+        Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        if (sensitivity != null) {
+            log.setSensitivity(sensitivity);
+        }
+        Rect crop = result.get(CaptureResult.SCALER_CROP_REGION);
+        if (crop != null) {
+            log.setCropRegion(crop.left, crop.top, crop.right, crop.bottom);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Float zoomRatio = result.get(CaptureResult.CONTROL_ZOOM_RATIO);
+            if (zoomRatio != null) {
+                log.setZoomRatio(zoomRatio);
+            }
+        }
+        log.endFrame();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the rows of a {@link CaptureMetadataLog} to a file while the log keeps filling, so the log only
+ * has to hold the rows between two {@link #drain()} calls.
+ * <p>
+ * {@link Format#CSV} has a header line and leaves unknown values empty. {@link Format#BINARY} starts with
+ * the magic {@code "SCML"}, a version and the column count as big-endian ints, followed by fixed size
+ * big-endian rows in column order: four longs, five ints and a float; unknown values are -1 and NaN.
+ */
+public class CaptureMetadataExporter implements Closeable {
+
+    public enum Format {
+        CSV("csv"),
+        BINARY("bin");
+
+        public final String fileExtension;
+
+        Format(@NonNull String fileExtension) {
+            this.fileExtension = fileExtension;
+        }
+    }
+
+    static final String CSV_HEADER = "frame_number,sensor_timestamp_ns,exposure_time_ns,frame_duration_ns,"
+            + "sensitivity,crop_left,crop_top,crop_right,crop_bottom,zoom_ratio\n";
+    static final int BINARY_MAGIC = 0x53434d4c;
+    static final int BINARY_VERSION = 1;
+    static final int COLUMN_COUNT = 10;
+    static final int BINARY_ROW_BYTES = 4 * 8 + 5 * 4 + 4;
+
+    private static final int DEFAULT_BLOCK_ROWS = 256;
+
+    private final CaptureMetadataLog log;
+    private final Format format;
+    private final DataOutputStream out;
+    private final CaptureMetadataLog.Rows block;
+    private final StringBuilder line = new StringBuilder();
+    private long nextRow = 0;
+    private long writtenRows = 0;
+    private long lostRows = 0;
+    private boolean closed = false;
+
+    /**
+     * Writes the header right away. Rows committed to the log before this call are exported too, as long as
+     * the log still holds them.
+     */
+    public CaptureMetadataExporter(@NonNull CaptureMetadataLog log, @NonNull OutputStream out,
+                                   @NonNull Format format) throws IOException {
+        this.log = log;
+        this.format = format;
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        block = new CaptureMetadataLog.Rows(DEFAULT_BLOCK_ROWS);
+        if (format == Format.CSV) {
+            this.out.write(CSV_HEADER.getBytes(StandardCharsets.US_ASCII));
+        } else {
+            this.out.writeInt(BINARY_MAGIC);
+            this.out.writeInt(BINARY_VERSION);
+            this.out.writeInt(COLUMN_COUNT);
+        }
+    }
+
+    /**
+     * Writes every row committed since the previous drain and flushes.
+     *
+     * @return rows written by this call
+     */
+    public int drain() throws IOException {
+        if (closed) {
+            throw new IOException("Exporter is closed");
+        }
+        int written = 0;
+        while (true) {
+            long next = log.read(nextRow, block);
+            lostRows += block.firstRow - nextRow;
+            nextRow = next;
+            if (block.size == 0) break;
+            for (int i = 0; i < block.size; i++) {
+                if (format == Format.CSV) {
+                    writeCsvRow(i);
+                } else {
+                    writeBinaryRow(i);
+                }
+            }
+            written += block.size;
+        }
+        writtenRows += written;
+        out.flush();
+        return written;
+    }
+
+    public long getWrittenRows() {
+        return writtenRows;
+    }
+
+    /**
+     * Rows overwritten in the log before they were drained.
+     */
+    public long getLostRows() {
+        return lostRows;
+    }
+
+    /**
+     * Drains the remaining rows and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            drain();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void writeBinaryRow(int i) throws IOException {
+        out.writeLong(block.frameNumbers[i]);
+        out.writeLong(block.sensorTimestampsNanos[i]);
+        out.writeLong(block.exposureTimesNanos[i]);
+        out.writeLong(block.frameDurationsNanos[i]);
+        out.writeInt(block.sensitivities[i]);
+        out.writeInt(block.cropLefts[i]);
+        out.writeInt(block.cropTops[i]);
+        out.writeInt(block.cropRights[i]);
+        out.writeInt(block.cropBottoms[i]);
+        out.writeFloat(block.zoomRatios[i]);
+    }
+
+    private void writeCsvRow(int i) throws IOException {
+        line.setLength(0);
+        line.append(block.frameNumbers[i]).append(',');
+        line.append(block.sensorTimestampsNanos[i]).append(',');
+        appendCsvValue(block.exposureTimesNanos[i]).append(',');
+        appendCsvValue(block.frameDurationsNanos[i]).append(',');
+        appendCsvValue(block.sensitivities[i]).append(',');
+        appendCsvValue(block.cropLefts[i]).append(',');
+        appendCsvValue(block.cropTops[i]).append(',');
+        appendCsvValue(block.cropRights[i]).append(',');
+        appendCsvValue(block.cropBottoms[i]).append(',');
+        if (!Float.isNaN(block.zoomRatios[i])) {
+            line.append(block.zoomRatios[i]);
+        }
+        line.append('\n');
+        for (int c = 0; c < line.length(); c++) {
+            out.write(line.charAt(c));
+        }
+    }
+
+    @NonNull
+    private StringBuilder appendCsvValue(long value) {
+        return value == CaptureMetadataLog.UNKNOWN ? line : line.append(value);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Per-frame capture result values in a fixed capacity ring of primitive columns, so recording a frame
+ * allocates nothing. One writer fills a row with {@link #beginFrame}, the setters and {@link #endFrame};
+ * readers copy committed rows out with {@link #read}. When a reader falls more than the capacity behind,
+ * the oldest rows are lost and reported as such.
+ * <p>
+ * Values the HAL did not report are {@link #UNKNOWN}, or NaN for the zoom ratio.
+ */
+public class CaptureMetadataLog {
+
+    public static final int UNKNOWN = -1;
+
+    /**
+     * A block of rows in the same column layout, preallocated by the reader and reused.
+     */
+    public static final class Rows {
+        public final long[] frameNumbers;
+        public final long[] sensorTimestampsNanos;
+        public final long[] exposureTimesNanos;
+        public final long[] frameDurationsNanos;
+        public final int[] sensitivities;
+        public final int[] cropLefts;
+        public final int[] cropTops;
+        public final int[] cropRights;
+        public final int[] cropBottoms;
+        public final float[] zoomRatios;
+        /**
+         * Index of the first row in the log, and the number of rows filled.
+         */
+        public long firstRow;
+        public int size;
+
+        public Rows(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            frameNumbers = new long[capacity];
+            sensorTimestampsNanos = new long[capacity];
+            exposureTimesNanos = new long[capacity];
+            frameDurationsNanos = new long[capacity];
+            sensitivities = new int[capacity];
+            cropLefts = new int[capacity];
+            cropTops = new int[capacity];
+            cropRights = new int[capacity];
+            cropBottoms = new int[capacity];
+            zoomRatios = new float[capacity];
+        }
+
+        public int getCapacity() {
+            return frameNumbers.length;
+        }
+
+        void copyRow(@NonNull Rows from, int fromIndex, int toIndex) {
+            frameNumbers[toIndex] = from.frameNumbers[fromIndex];
+            sensorTimestampsNanos[toIndex] = from.sensorTimestampsNanos[fromIndex];
+            exposureTimesNanos[toIndex] = from.exposureTimesNanos[fromIndex];
+            frameDurationsNanos[toIndex] = from.frameDurationsNanos[fromIndex];
+            sensitivities[toIndex] = from.sensitivities[fromIndex];
+            cropLefts[toIndex] = from.cropLefts[fromIndex];
+            cropTops[toIndex] = from.cropTops[fromIndex];
+            cropRights[toIndex] = from.cropRights[fromIndex];
+            cropBottoms[toIndex] = from.cropBottoms[fromIndex];
+            zoomRatios[toIndex] = from.zoomRatios[fromIndex];
+        }
+    }
+
+    private final Rows ring;
+    // writer only: the row being filled, copied into the ring by endFrame
+    private final Rows pending = new Rows(1);
+    private boolean inFrame = false;
+    // guarded by this
+    private long count = 0;
+
+    public CaptureMetadataLog(int capacity) {
+        ring = new Rows(capacity);
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+
+    /**
+     * Number of rows committed so far, including rows which were overwritten.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Starts a row, every value is unknown until set.
+     */
+    public void beginFrame(long frameNumber, long sensorTimestampNanos) {
+        pending.frameNumbers[0] = frameNumber;
+        pending.sensorTimestampsNanos[0] = sensorTimestampNanos;
+        pending.exposureTimesNanos[0] = UNKNOWN;
+        pending.frameDurationsNanos[0] = UNKNOWN;
+        pending.sensitivities[0] = UNKNOWN;
+        pending.cropLefts[0] = UNKNOWN;
+        pending.cropTops[0] = UNKNOWN;
+        pending.cropRights[0] = UNKNOWN;
+        pending.cropBottoms[0] = UNKNOWN;
+        pending.zoomRatios[0] = Float.NaN;
+        inFrame = true;
+    }
+
+    public void setExposureTimeNanos(long exposureTimeNanos) {
+        pending.exposureTimesNanos[0] = exposureTimeNanos;
+    }
+
+    public void setFrameDurationNanos(long frameDurationNanos) {
+        pending.frameDurationsNanos[0] = frameDurationNanos;
+    }
+
+    public void setSensitivity(int sensitivity) {
+        pending.sensitivities[0] = sensitivity;
+    }
+
+    public void setCropRegion(int left, int top, int right, int bottom) {
+        pending.cropLefts[0] = left;
+        pending.cropTops[0] = top;
+        pending.cropRights[0] = right;
+        pending.cropBottoms[0] = bottom;
+    }
+
+    public void setZoomRatio(float zoomRatio) {
+        pending.zoomRatios[0] = zoomRatio;
+    }
+
+    public void endFrame() {
+        if (!inFrame) {
+            throw new IllegalStateException("endFrame without beginFrame");
+        }
+        inFrame = false;
+        synchronized (this) {
+            ring.copyRow(pending, 0, (int) (count % ring.getCapacity()));
+            count++;
+        }
+    }
+
+    /**
+     * Copies committed rows from {@code fromRow} on, as many as fit into {@code out}. If {@code fromRow} was
+     * already overwritten, the copy starts at the oldest row still held; {@code out.firstRow} tells where.
+     *
+     * @return index of the row after the last one copied, the {@code fromRow} of the next read
+     */
+    public synchronized long read(long fromRow, @NonNull Rows out) {
+        long first = Math.max(fromRow, count - ring.getCapacity());
+        int size = (int) Math.max(0, Math.min(out.getCapacity(), count - first));
+        for (int i = 0; i < size; i++) {
+            out.copyRow(ring, (int) ((first + i) % ring.getCapacity()), i);
+        }
+        out.firstRow = first;
+        out.size = size;
+        return first + size;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collects control changes into a single desired {@link CameraControlState} and submits at most one
+ * repeating request per frame interval. Updates may come from any thread, submission always happens
+ * on the camera thread.
+ */
+public class CaptureRequestScheduler {
+
+    public interface RequestSubmitter {
+        /**
+         * Called on the camera thread. Builds and submits the repeating request for {@code state}.
+         *
+         * @return true if the request is still animating towards {@code state} (e.g. a zoom ramp) and
+         * should be submitted again in the next frame slot
+         */
+        boolean submit(@NonNull CameraControlState state);
+    }
+
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 1_000_000_000L / 30;
+
+    private final CameraThreading threading;
+    private final RequestSubmitter submitter;
+    private final NanoClock clock;
+
+    private final AtomicReference<CameraControlState> desiredState =
+            new AtomicReference<>(CameraControlState.DEFAULT);
+    private final AtomicBoolean submissionScheduled = new AtomicBoolean(false);
+    private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+    private final AtomicLong requestedUpdates = new AtomicLong();
+    private final AtomicLong submittedRequests = new AtomicLong();
+    private final AtomicLong coalescedUpdates = new AtomicLong();
+
+    private volatile long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    // camera thread only
+    private boolean sessionReady = false;
+    private boolean hasSubmitted = false;
+    private boolean animating = false;
+    private long lastSubmitNanos;
+    private CameraControlState lastSubmittedState;
+
+    private final Runnable submitTask = this::submitPending;
+
+    public CaptureRequestScheduler(@NonNull CameraThreading threading, @NonNull RequestSubmitter submitter,
+                                   @NonNull NanoClock clock) {
+        this.threading = threading;
+        this.submitter = submitter;
+        this.clock = clock;
+    }
+
+    @NonNull
+    public CameraControlState getDesiredState() {
+        return desiredState.get();
+    }
+
+    public void update(@NonNull UnaryOperator<CameraControlState> change) {
+        CameraControlState current;
+        CameraControlState next;
+        do {
+            current = desiredState.get();
+            next = change.apply(current);
+        } while (!desiredState.compareAndSet(current, next));
+
+        requestedUpdates.incrementAndGet();
+        pendingUpdates.incrementAndGet();
+        scheduleSubmission();
+    }
+
+    public void setFrameIntervalNanos(long frameIntervalNanos) {
+        if (frameIntervalNanos < 0) {
+            throw new IllegalArgumentException("frameIntervalNanos must not be negative: " + frameIntervalNanos);
+        }
+        this.frameIntervalNanos = frameIntervalNanos;
+    }
+
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    /**
+     * Called on the camera thread once a capture session is configured. The desired state is submitted
+     * right away, whether it changed or not, because the new session has no repeating request yet.
+     */
+    public void onSessionReady() {
+        threading.checkCameraThread();
+        sessionReady = true;
+        lastSubmittedState = null;
+        hasSubmitted = false;
+        animating = false;
+        threading.removeFromCamera(submitTask);
+        submissionScheduled.set(true);
+        submitPending();
+    }
+
+    public void onSessionClosed() {
+        threading.checkCameraThread();
+        sessionReady = false;
+    }
+
+    public long getRequestedUpdates() {
+        return requestedUpdates.get();
+    }
+
+    public long getSubmittedRequests() {
+        return submittedRequests.get();
+    }
+
+    /**
+     * Updates which never reached the HAL on their own because a later update superseded them before the
+     * next frame slot.
+     */
+    public long getCoalescedUpdates() {
+        return coalescedUpdates.get();
+    }
+
+    private void scheduleSubmission() {
+        if (submissionScheduled.compareAndSet(false, true)) {
+            threading.postToCamera(submitTask);
+        }
+    }
+
+    private void submitPending() {
+        threading.checkCameraThread();
+        if (!sessionReady) {
+            // onSessionReady() submits whatever is desired at that point
+            submissionScheduled.set(false);
+            return;
+        }
+
+        long now = clock.nanoTime();
+        long waitNanos = lastSubmitNanos + frameIntervalNanos - now;
+        if (hasSubmitted && waitNanos > 0) {
+            threading.postToCameraDelayed(submitTask, (waitNanos + 999_999) / 1_000_000);
+            return;
+        }
+
+        // cleared before reading the state, so any later update schedules a new submission
+        submissionScheduled.set(false);
+        int updates = pendingUpdates.getAndSet(0);
+        CameraControlState state = desiredState.get();
+        if (!animating && state.equals(lastSubmittedState)) {
+            coalescedUpdates.addAndGet(updates);
+            return;
+        }
+        if (updates > 1) {
+            coalescedUpdates.addAndGet(updates - 1);
+        }
+
+        animating = submitter.submit(state);
+        lastSubmittedState = state;
+        lastSubmitNanos = now;
+        hasSubmitted = true;
+        submittedRequests.incrementAndGet();
+
+        if (animating) {
+            scheduleSubmission();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.specialcamera;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Copies the crop of {@link ProjectionGeometry} from a virtual display to an encoder input surface with
+ * GLES. The virtual display renders into {@link #getInputSurface()}; frames are dropped while no output
+ * surface is set, and above the frame rate limit. All GL work runs on a dedicated "CropRenderer" thread.
+ */
+public class CropRenderer implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final String TAG = "CropRenderer";
+
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTexCoord = (uTexMatrix * aTexCoord).xy;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTexCoord);\n" +
+            "}\n";
+
+    private final ProjectionGeometry geometry;
+    private final HandlerThread renderThread;
+    private final Handler renderHandler;
+    private volatile long minFrameIntervalNanos = 0;
+
+    // render thread only
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig;
+    private EGLSurface idleSurface = EGL14.EGL_NO_SURFACE;
+    private EGLSurface outputSurface = EGL14.EGL_NO_SURFACE;
+    private int program;
+    private int textureId;
+    private int texMatrixLocation;
+    private int positionLocation;
+    private int texCoordLocation;
+    private final float[] texMatrix = new float[16];
+    private FloatBuffer positions;
+    private FloatBuffer texCoords;
+    private SurfaceTexture surfaceTexture;
+    private Surface inputSurface;
+    private long nextFrameNanos = 0;
+
+    public CropRenderer(@NonNull ProjectionGeometry geometry) {
+        this.geometry = geometry;
+        renderThread = new HandlerThread("CropRenderer", Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+
+        CountDownLatch initialized = new CountDownLatch(1);
+        renderHandler.post(() -> {
+            try {
+                initialize();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "GL initialization failed", e);
+            } finally {
+                initialized.countDown();
+            }
+        });
+        try {
+            initialized.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (inputSurface == null) {
+            release();
+            throw new IllegalStateException("GL initialization failed");
+        }
+    }
+
+    /**
+     * Surface for the virtual display, sized to the capture.
+     */
+    @NonNull
+    public Surface getInputSurface() {
+        return inputSurface;
+    }
+
+    /**
+     * @param surface encoder input surface of the output size, null to drop frames
+     */
+    public void setOutputSurface(@Nullable Surface surface) {
+        renderHandler.post(() -> {
+            destroyOutputSurface();
+            if (surface != null) {
+                outputSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, surface,
+                        new int[]{EGL14.EGL_NONE}, 0);
+                if (outputSurface == EGL14.EGL_NO_SURFACE) {
+                    Log.e(TAG, "eglCreateWindowSurface failed: " + EGL14.eglGetError());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops display frames so the output stays at or below {@code frameRate}, 0 for no limit. The virtual
+     * display itself keeps rendering at the display refresh rate.
+     */
+    public void setMaxFrameRate(int frameRate) {
+        minFrameIntervalNanos = frameRate > 0 ? 1_000_000_000L / frameRate : 0;
+    }
+
+    public void release() {
+        renderHandler.post(() -> {
+            destroyOutputSurface();
+            if (surfaceTexture != null) {
+                surfaceTexture.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                if (idleSurface != EGL14.EGL_NO_SURFACE) {
+                    EGL14.eglDestroySurface(eglDisplay, idleSurface);
+                }
+                if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                    EGL14.eglDestroyContext(eglDisplay, eglContext);
+                }
+                EGL14.eglTerminate(eglDisplay);
+                eglDisplay = EGL14.EGL_NO_DISPLAY;
+            }
+        });
+        renderThread.quitSafely();
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture texture) {
+        // the frame has to be consumed even when dropped, or the virtual display stalls
+        boolean drawing = outputSurface != EGL14.EGL_NO_SURFACE;
+        EGLSurface target = drawing ? outputSurface : idleSurface;
+        if (!EGL14.eglMakeCurrent(eglDisplay, target, target, eglContext)) {
+            Log.w(TAG, "eglMakeCurrent failed: " + EGL14.eglGetError());
+            return;
+        }
+        surfaceTexture.updateTexImage();
+        if (!drawing) return;
+        long intervalNanos = minFrameIntervalNanos;
+        long timestampNanos = texture.getTimestamp();
+        if (intervalNanos > 0) {
+            if (timestampNanos < nextFrameNanos) return;
+            // keeps the average rate under jitter, without a burst after a pause of the display
+            nextFrameNanos = Math.max(nextFrameNanos, timestampNanos - intervalNanos / 2) + intervalNanos;
+        }
+
+        surfaceTexture.getTransformMatrix(texMatrix);
+        GLES20.glViewport(0, 0, geometry.getOutputWidth(), geometry.getOutputHeight());
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, texMatrix, 0);
+        GLES20.glEnableVertexAttribArray(positionLocation);
+        GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 0, positions);
+        GLES20.glEnableVertexAttribArray(texCoordLocation);
+        GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, 0, texCoords);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        // keeps the virtual display timestamps, which are on System.nanoTime()
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, outputSurface, timestampNanos);
+        EGL14.eglSwapBuffers(eglDisplay, outputSurface);
+    }
+
+    private void initialize() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed: " + EGL14.eglGetError());
+            return;
+        }
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, configCount, 0)
+                || configCount[0] == 0) {
+            Log.e(TAG, "No recordable EGL config");
+            return;
+        }
+        eglConfig = configs[0];
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT,
+                new int[]{EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE}, 0);
+        idleSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig,
+                new int[]{EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE}, 0);
+        if (!EGL14.eglMakeCurrent(eglDisplay, idleSurface, idleSurface, eglContext)) {
+            Log.e(TAG, "eglMakeCurrent failed: " + EGL14.eglGetError());
+            return;
+        }
+
+        program = createProgram();
+        texMatrixLocation = GLES20.glGetUniformLocation(program, "uTexMatrix");
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+
+        float[] crop = new float[4];
+        geometry.getTextureCrop(crop);
+        positions = floatBuffer(-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f);
+        texCoords = floatBuffer(crop[0], crop[1], crop[2], crop[1], crop[0], crop[3], crop[2], crop[3]);
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        // the crop is copied 1:1, nearest sampling avoids blurring it
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setDefaultBufferSize(geometry.getCaptureWidth(), geometry.getCaptureHeight());
+        surfaceTexture.setOnFrameAvailableListener(this, renderHandler);
+        inputSurface = new Surface(surfaceTexture);
+    }
+
+    private void destroyOutputSurface() {
+        if (outputSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglMakeCurrent(eglDisplay, idleSurface, idleSurface, eglContext);
+            EGL14.eglDestroySurface(eglDisplay, outputSurface);
+            outputSurface = EGL14.EGL_NO_SURFACE;
+        }
+    }
+
+    private static int createProgram() {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            throw new IllegalStateException("Program link failed: " + GLES20.glGetProgramInfoLog(program));
+        }
+        return program;
+    }
+
+    private static int compileShader(int type, @NonNull String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            throw new IllegalStateException("Shader compile failed: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    @NonNull
+    private static FloatBuffer floatBuffer(float... values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The part of an asynchronous {@code MediaCodec} encoder used by {@link VideoRecordingEngine}, so the
+ * engine can be driven by a fake codec in tests. Input comes from a surface owned by the implementation.
+ *
+ * @param <F> output format type
+ */
+public interface EncoderCodec<F> {
+
+    interface Callback<F> {
+
+        void onOutputFormatChanged(@NonNull F format);
+
+        void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags);
+
+        void onError(@NonNull Exception error);
+    }
+
+    void configure(@NonNull EncoderConfig config, @NonNull Callback<F> callback) throws IOException;
+
+    void start();
+
+    @NonNull
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    void signalEndOfInputStream();
+
+    /**
+     * Changes the target bit rate of the running encoder, taking effect within a few frames.
+     */
+    void setBitRate(int bitRate);
+
+    void stop();
+
+    void release();
+}
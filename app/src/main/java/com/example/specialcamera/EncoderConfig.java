@@ -0,0 +1,177 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Video encoder parameters. Constants match {@code MediaFormat} and {@code MediaCodecInfo} values;
+ * options the device does not support are dropped by the codec wrapper with a log message.
+ */
+public final class EncoderConfig {
+
+    public static final String MIME_TYPE_AVC = "video/avc";
+
+    public static final int BITRATE_MODE_CQ = 0;
+    public static final int BITRATE_MODE_VBR = 1;
+    public static final int BITRATE_MODE_CBR = 2;
+
+    private final String mimeType;
+    private final int width;
+    private final int height;
+    private final int bitRate;
+    private final int bitrateMode;
+    private final int frameRate;
+    private final float keyFrameIntervalSeconds;
+    private final int maxBFrames;
+    private final long repeatPreviousFrameAfterUs;
+    private final boolean realtimePriority;
+    private final int latencyFrames;
+
+    private EncoderConfig(Builder builder) {
+        mimeType = builder.mimeType;
+        width = builder.width;
+        height = builder.height;
+        bitRate = builder.bitRate;
+        bitrateMode = builder.bitrateMode;
+        frameRate = builder.frameRate;
+        keyFrameIntervalSeconds = builder.keyFrameIntervalSeconds;
+        maxBFrames = builder.maxBFrames;
+        repeatPreviousFrameAfterUs = builder.repeatPreviousFrameAfterUs;
+        realtimePriority = builder.realtimePriority;
+        latencyFrames = builder.latencyFrames;
+    }
+
+    @NonNull
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getBitrateMode() {
+        return bitrateMode;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public float getKeyFrameIntervalSeconds() {
+        return keyFrameIntervalSeconds;
+    }
+
+    /**
+     * 0 keeps decode order equal to presentation order, which the engine then enforces.
+     */
+    public int getMaxBFrames() {
+        return maxBFrames;
+    }
+
+    /**
+     * Re-encodes the last frame after this long without input, 0 to disable. A virtual display only
+     * produces frames when the screen changes.
+     */
+    public long getRepeatPreviousFrameAfterUs() {
+        return repeatPreviousFrameAfterUs;
+    }
+
+    public boolean isRealtimePriority() {
+        return realtimePriority;
+    }
+
+    /**
+     * Frames the encoder may hold before producing output, 0 for the codec default.
+     */
+    public int getLatencyFrames() {
+        return latencyFrames;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "EncoderConfig{" + mimeType + " " + width + "x" + height + " @" + frameRate
+                + ", bitRate=" + bitRate + ", mode=" + bitrateMode + ", gop=" + keyFrameIntervalSeconds
+                + "s, bFrames=" + maxBFrames + ", latency=" + latencyFrames + "}";
+    }
+
+    public static final class Builder {
+        private String mimeType = MIME_TYPE_AVC;
+        private final int width;
+        private final int height;
+        private int bitRate = 8_000_000;
+        private int bitrateMode = BITRATE_MODE_VBR;
+        private int frameRate = 30;
+        private float keyFrameIntervalSeconds = 1f;
+        private int maxBFrames = 0;
+        private long repeatPreviousFrameAfterUs = 100_000;
+        private boolean realtimePriority = true;
+        private int latencyFrames = 1;
+
+        public Builder(int width, int height) {
+            if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+                throw new IllegalArgumentException("Video size must be positive and even: " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+        }
+
+        public Builder setMimeType(@NonNull String mimeType) {
+            this.mimeType = mimeType;
+            return this;
+        }
+
+        public Builder setBitRate(int bitRate) {
+            this.bitRate = bitRate;
+            return this;
+        }
+
+        public Builder setBitrateMode(int bitrateMode) {
+            this.bitrateMode = bitrateMode;
+            return this;
+        }
+
+        public Builder setFrameRate(int frameRate) {
+            this.frameRate = frameRate;
+            return this;
+        }
+
+        public Builder setKeyFrameIntervalSeconds(float keyFrameIntervalSeconds) {
+            this.keyFrameIntervalSeconds = keyFrameIntervalSeconds;
+            return this;
+        }
+
+        public Builder setMaxBFrames(int maxBFrames) {
+            this.maxBFrames = maxBFrames;
+            return this;
+        }
+
+        public Builder setRepeatPreviousFrameAfterUs(long repeatPreviousFrameAfterUs) {
+            this.repeatPreviousFrameAfterUs = repeatPreviousFrameAfterUs;
+            return this;
+        }
+
+        public Builder setRealtimePriority(boolean realtimePriority) {
+            this.realtimePriority = realtimePriority;
+            return this;
+        }
+
+        public Builder setLatencyFrames(int latencyFrames) {
+            this.latencyFrames = latencyFrames;
+            return this;
+        }
+
+        @NonNull
+        public EncoderConfig build() {
+            return new EncoderConfig(this);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Mutable result holder of {@link VideoRecordingEngine#snapshot(EncoderStats)}, meant to be reused by
+ * the caller.
+ * <p>
+ * Encode latency is the time from the frame timestamp to the encoded output; it is only meaningful when
+ * the input surface stamps frames with {@link System#nanoTime()}, as virtual displays and SurfaceTextures do.
+ * Queue depth counts encoded buffers waiting for the writer; while they are held the codec cannot reuse them.
+ * Write time is spent in the sink, including any file IO it does inline.
+ */
+public class EncoderStats {
+
+    public long encodedFrames;
+    public long keyFrames;
+    public long encodedBytes;
+    public long droppedSamples;
+    public long lastLatencyNanos;
+    public long averageLatencyNanos;
+    public long maxLatencyNanos;
+    public int queueDepth;
+    public int maxQueueDepth;
+    public long durationUs;
+    public long writeNanos;
+    public long maxWriteNanos;
+
+    public float getBitRateKbps() {
+        return durationUs <= 0 ? 0f : encodedBytes * 8_000f / durationUs;
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        return String.format(Locale.US, "enc %.1f ms\nq %d\n%.0f kbps",
+                lastLatencyNanos / 1_000_000f, queueDepth, getBitRateKbps());
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "EncoderStats{frames=%d, key=%d, bytes=%d, dropped=%d, latency last=%.2fms avg=%.2fms max=%.2fms, queue=%d max=%d, write max=%.2fms, %.0fkbps}",
+                encodedFrames, keyFrames, encodedBytes, droppedSamples, lastLatencyNanos / 1e6,
+                averageLatencyNanos / 1e6, maxLatencyNanos / 1e6, queueDepth, maxQueueDepth, maxWriteNanos / 1e6,
+                getBitRateKbps());
+    }
+}
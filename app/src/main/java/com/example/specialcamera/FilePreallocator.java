@@ -0,0 +1,29 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reserves file space ahead of the writer, so a long recording is not scattered over the file system
+ * and running out of space shows up at the start of a segment rather than in the middle of a fragment.
+ */
+public interface FilePreallocator {
+
+    /**
+     * Makes the file at least {@code length} bytes long. Content of the new region is unspecified.
+     */
+    void preallocate(@NonNull FileDescriptor fd, @NonNull FileChannel channel, long length) throws IOException;
+
+    /**
+     * Portable fallback: extends the file by writing its last byte. Most file systems keep the gap sparse.
+     */
+    FilePreallocator EXTEND = (fd, channel, length) -> {
+        if (channel.size() < length) {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        }
+    };
+}
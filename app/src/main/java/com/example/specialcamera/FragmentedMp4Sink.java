@@ -0,0 +1,301 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSink} writing H.264, and AAC samples marked with {@link SampleInfo#FLAG_AUDIO}, into rotating
+ * fragmented MP4 segments with {@link FragmentedMp4Writer}.
+ * <p>
+ * A fragment is closed at every key frame and when it reaches the maximum fragment duration. A new
+ * segment starts at a key frame once the current one exceeds its size or duration limit, or when the
+ * codec config changes. Every segment is a standalone file with timestamps starting at 0. The track
+ * formats come from the codec config samples, the format object is ignored. A segment has an audio
+ * track if the audio config arrived before it was opened; audio before the first key frame of a segment
+ * is dropped.
+ */
+public class FragmentedMp4Sink<F> implements SampleSink<F> {
+
+    public interface SegmentFiles {
+        @NonNull
+        File segmentFile(int index);
+    }
+
+    public interface SegmentListener {
+        /**
+         * Called on the writer thread when a segment file is complete.
+         */
+        void onSegmentClosed(@NonNull File file, long durationUs, long bytes);
+    }
+
+    private final SegmentFiles segmentFiles;
+    private final int width;
+    private final int height;
+    private final int frameRate;
+    private final long maxFragmentTicks;
+    private final long maxFragmentDurationUs;
+    private final long maxSegmentBytes;
+    private final long maxSegmentDurationUs;
+    private final long preallocationChunk;
+    private final FilePreallocator preallocator;
+    private final FsyncPolicy fsyncPolicy;
+    @Nullable
+    private final File reservedFile;
+    @Nullable
+    private final SegmentListener segmentListener;
+
+    @Nullable
+    private AvcDecoderConfig decoderConfig;
+    private boolean decoderConfigChanged = false;
+    @Nullable
+    private AacDecoderConfig audioConfig;
+    @Nullable
+    private FragmentedMp4Writer writer;
+    @Nullable
+    private File segmentFile;
+    private int segmentIndex = 0;
+    private long segmentStartUs;
+    private long droppedSamples = 0;
+
+    private FragmentedMp4Sink(Builder builder) {
+        segmentFiles = builder.segmentFiles;
+        width = builder.width;
+        height = builder.height;
+        frameRate = builder.frameRate;
+        maxFragmentTicks = toTicks(builder.maxFragmentDurationUs);
+        maxFragmentDurationUs = builder.maxFragmentDurationUs;
+        maxSegmentBytes = builder.maxSegmentBytes;
+        maxSegmentDurationUs = builder.maxSegmentDurationUs;
+        preallocationChunk = builder.preallocationChunk;
+        preallocator = builder.preallocator;
+        fsyncPolicy = builder.fsyncPolicy;
+        reservedFile = builder.reservedFile;
+        segmentListener = builder.segmentListener;
+    }
+
+    /**
+     * Preallocates the reserved file, which becomes the first segment. Optional, takes the file system
+     * work off the start of the recording.
+     */
+    public void prepare() throws IOException {
+        if (reservedFile == null) return;
+        try (RandomAccessFile file = new RandomAccessFile(reservedFile, "rw")) {
+            preallocator.preallocate(file.getFD(), file.getChannel(), preallocationChunk);
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentIndex;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    @Override
+    public void start(@NonNull F format) {
+        // the track is described by the codec config samples
+    }
+
+    @Override
+    public void writeSample(@NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException {
+        if (info.isAudio()) {
+            writeAudioSample(data, info);
+            return;
+        }
+        if (info.isCodecConfig()) {
+            AvcDecoderConfig config = AvcDecoderConfig.fromAnnexB(data);
+            if (config != null && !config.equals(decoderConfig)) {
+                decoderConfigChanged = decoderConfig != null;
+                decoderConfig = config;
+            }
+            return;
+        }
+        if (!data.hasRemaining()) return;
+
+        boolean keyFrame = info.isKeyFrame();
+        long presentationTimeUs = info.presentationTimeUs;
+        if (writer == null) {
+            if (!keyFrame || decoderConfig == null) {
+                droppedSamples++;
+                return;
+            }
+            openSegment(presentationTimeUs);
+        } else if (keyFrame && (decoderConfigChanged || isSegmentFull(presentationTimeUs))) {
+            closeSegment(toTicks(presentationTimeUs - segmentStartUs));
+            openSegment(presentationTimeUs);
+        }
+
+        FragmentedMp4Writer writer = this.writer;
+        long ticks = toTicks(presentationTimeUs - segmentStartUs);
+        if (writer.getPendingSampleCount() > 0
+                && (keyFrame || ticks - writer.getPendingStartTicks() >= maxFragmentTicks)) {
+            writer.flushFragment(ticks);
+        }
+        writer.appendSample(data, ticks, keyFrame);
+    }
+
+    private void writeAudioSample(@NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException {
+        if (info.isCodecConfig()) {
+            AacDecoderConfig config = AacDecoderConfig.fromAudioSpecificConfig(data);
+            if (config != null) {
+                // taken by the next segment
+                audioConfig = config;
+            }
+            return;
+        }
+        if (!data.hasRemaining()) return;
+
+        FragmentedMp4Writer writer = this.writer;
+        AacDecoderConfig trackConfig = writer != null ? writer.getAudioConfig() : null;
+        long ticks = trackConfig != null
+                ? (info.presentationTimeUs - segmentStartUs) * trackConfig.getSampleRate() / 1_000_000L : -1;
+        if (ticks < 0) {
+            droppedSamples++;
+            return;
+        }
+        // a static screen produces no video frames, the audio still goes out in fragments
+        long pendingUs = writer.getPendingAudioDurationTicks() * 1_000_000L / trackConfig.getSampleRate();
+        if (pendingUs >= maxFragmentDurationUs) {
+            writer.flushFragment(-1);
+        }
+        writer.appendAudioSample(data, ticks);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        closeSegment(-1);
+    }
+
+    private boolean isSegmentFull(long presentationTimeUs) {
+        FragmentedMp4Writer writer = this.writer;
+        if (writer == null) return false;
+        if (maxSegmentBytes > 0 && writer.getBytesWritten() + writer.getPendingBytes() >= maxSegmentBytes) {
+            return true;
+        }
+        return maxSegmentDurationUs > 0 && presentationTimeUs - segmentStartUs >= maxSegmentDurationUs;
+    }
+
+    private void openSegment(long presentationTimeUs) throws IOException {
+        File file = segmentFiles.segmentFile(segmentIndex);
+        if (segmentIndex == 0 && reservedFile != null && reservedFile.exists() && !reservedFile.equals(file)) {
+            if (!reservedFile.renameTo(file)) {
+                // not fatal, the segment is simply not preallocated
+                reservedFile.delete();
+            }
+        }
+        writer = new FragmentedMp4Writer(file, decoderConfig, audioConfig, width, height, frameRate,
+                preallocationChunk, preallocator, fsyncPolicy);
+        segmentFile = file;
+        segmentIndex++;
+        segmentStartUs = presentationTimeUs;
+        decoderConfigChanged = false;
+    }
+
+    /**
+     * @param endTicks decode time following the last sample, -1 if unknown
+     */
+    private void closeSegment(long endTicks) throws IOException {
+        FragmentedMp4Writer writer = this.writer;
+        File file = segmentFile;
+        this.writer = null;
+        segmentFile = null;
+        if (writer == null) return;
+        try {
+            writer.flushFragment(endTicks);
+        } finally {
+            writer.close();
+        }
+        if (segmentListener != null && file != null) {
+            long durationUs = writer.getWrittenDurationTicks() * 1_000_000L / FragmentedMp4Writer.TIMESCALE;
+            segmentListener.onSegmentClosed(file, durationUs, writer.getBytesWritten());
+        }
+    }
+
+    private static long toTicks(long us) {
+        return us * FragmentedMp4Writer.TIMESCALE / 1_000_000L;
+    }
+
+    public static final class Builder {
+        private final SegmentFiles segmentFiles;
+        private final int width;
+        private final int height;
+        private int frameRate = 30;
+        private long maxFragmentDurationUs = 1_000_000;
+        private long maxSegmentBytes = 0;
+        private long maxSegmentDurationUs = 0;
+        private long preallocationChunk = 8 * 1024 * 1024;
+        private FilePreallocator preallocator = FilePreallocator.EXTEND;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.ON_SEGMENT_CLOSE;
+        @Nullable
+        private File reservedFile;
+        @Nullable
+        private SegmentListener segmentListener;
+
+        public Builder(@NonNull SegmentFiles segmentFiles, int width, int height) {
+            this.segmentFiles = segmentFiles;
+            this.width = width;
+            this.height = height;
+        }
+
+        public Builder setFrameRate(int frameRate) {
+            this.frameRate = frameRate;
+            return this;
+        }
+
+        public Builder setMaxFragmentDurationUs(long maxFragmentDurationUs) {
+            this.maxFragmentDurationUs = maxFragmentDurationUs;
+            return this;
+        }
+
+        /**
+         * @param maxSegmentBytes 0 for no limit
+         */
+        public Builder setMaxSegmentBytes(long maxSegmentBytes) {
+            this.maxSegmentBytes = maxSegmentBytes;
+            return this;
+        }
+
+        /**
+         * @param maxSegmentDurationUs 0 for no limit
+         */
+        public Builder setMaxSegmentDurationUs(long maxSegmentDurationUs) {
+            this.maxSegmentDurationUs = maxSegmentDurationUs;
+            return this;
+        }
+
+        public Builder setPreallocation(long chunkBytes, @NonNull FilePreallocator preallocator) {
+            this.preallocationChunk = chunkBytes;
+            this.preallocator = preallocator;
+            return this;
+        }
+
+        public Builder setFsyncPolicy(@NonNull FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * File preallocated by {@link #prepare()} and renamed to the first segment.
+         */
+        public Builder setReservedFile(@Nullable File reservedFile) {
+            this.reservedFile = reservedFile;
+            return this;
+        }
+
+        public Builder setSegmentListener(@Nullable SegmentListener segmentListener) {
+            this.segmentListener = segmentListener;
+            return this;
+        }
+
+        @NonNull
+        public <F> FragmentedMp4Sink<F> build() {
+            return new FragmentedMp4Sink<>(this);
+        }
+    }
+}
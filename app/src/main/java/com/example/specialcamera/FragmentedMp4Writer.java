@@ -0,0 +1,679 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes one H.264 track, and optionally one AAC track, as a fragmented MP4 file: an init segment
+ * ({@code ftyp}, {@code moov} with {@code mvex}) followed by {@code moof}/{@code mdat} fragments, written
+ * as soon as each fragment is complete. A fragment holds the pending samples of both tracks, video data
+ * first.
+ * <p>
+ * The file is preallocated in chunks and the unused space after the last fragment is always covered by
+ * a {@code free} box, so the file parses and plays up to the last written fragment even if the process
+ * dies. {@link #close()} truncates the file to its content.
+ * <p>
+ * Samples must arrive in presentation order (no B-frames); durations come from the timestamp of the
+ * following sample of the same track. Not thread safe.
+ */
+public class FragmentedMp4Writer implements Closeable {
+
+    public static final int TIMESCALE = 90_000;
+
+    static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int TRACK_ID = 1;
+    private static final int AUDIO_TRACK_ID = 2;
+    // samples per AAC frame, the duration of a final audio sample
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int FREE_HEADER_SIZE = 8;
+    // moof and mfhd headers
+    private static final int MOOF_HEADER_SIZE = 8 + 16;
+    // traf, tfhd, tfdt and trun headers
+    private static final int TRAF_HEADER_SIZE = 8 + 16 + 20 + 20;
+    private static final int MDAT_HEADER_SIZE = 8;
+    private static final int FRAGMENT_HEADER_SIZE = MOOF_HEADER_SIZE + TRAF_HEADER_SIZE + MDAT_HEADER_SIZE;
+    private static final int TRUN_ENTRY_SIZE = 12;
+    // duration and size, the sample flags come from trex
+    private static final int AUDIO_TRUN_ENTRY_SIZE = 8;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FilePreallocator preallocator;
+    private final long preallocationChunk;
+    private final FsyncPolicy fsyncPolicy;
+    private final long defaultDurationTicks;
+    @Nullable
+    private final AacDecoderConfig audioConfig;
+
+    private long position = 0;
+    private long allocatedEnd = 0;
+    private int sequenceNumber = 0;
+    private long writtenDurationTicks = 0;
+    private boolean closed = false;
+
+    // pending fragment
+    private ByteBuffer payload = ByteBuffer.allocateDirect(256 * 1024);
+    private int[] sampleSizes = new int[64];
+    private long[] sampleTicks = new long[64];
+    private boolean[] sampleSync = new boolean[64];
+    private int sampleCount = 0;
+    private long lastDurationTicks;
+
+    // pending audio, in sample rate units
+    @Nullable
+    private ByteBuffer audioPayload;
+    private int[] audioSampleSizes;
+    private long[] audioSampleTicks;
+    private int audioSampleCount = 0;
+
+    private ByteBuffer header = ByteBuffer.allocate(FRAGMENT_HEADER_SIZE + 64 * TRUN_ENTRY_SIZE);
+    private final ByteBuffer freeHeader = ByteBuffer.allocate(FREE_HEADER_SIZE);
+    private final ByteBuffer[] fragmentBuffers = new ByteBuffer[3];
+
+    /**
+     * Opens {@code output}, keeping its current size as preallocated space, and writes the init segment.
+     *
+     * @param frameRate          nominal rate, gives the duration of a final sample with no successor
+     * @param preallocationChunk bytes reserved ahead of the content at a time
+     */
+    public FragmentedMp4Writer(@NonNull File output, @NonNull AvcDecoderConfig decoderConfig, int width, int height,
+                               int frameRate, long preallocationChunk, @NonNull FilePreallocator preallocator,
+                               @NonNull FsyncPolicy fsyncPolicy) throws IOException {
+        this(output, decoderConfig, null, width, height, frameRate, preallocationChunk, preallocator, fsyncPolicy);
+    }
+
+    /**
+     * @param audioConfig adds an AAC track with the sample rate as timescale, null for video only
+     */
+    public FragmentedMp4Writer(@NonNull File output, @NonNull AvcDecoderConfig decoderConfig,
+                               @Nullable AacDecoderConfig audioConfig, int width, int height, int frameRate,
+                               long preallocationChunk, @NonNull FilePreallocator preallocator,
+                               @NonNull FsyncPolicy fsyncPolicy) throws IOException {
+        if (preallocationChunk < FREE_HEADER_SIZE) {
+            throw new IllegalArgumentException("preallocationChunk too small: " + preallocationChunk);
+        }
+        this.preallocator = preallocator;
+        this.preallocationChunk = preallocationChunk;
+        this.fsyncPolicy = fsyncPolicy;
+        defaultDurationTicks = TIMESCALE / Math.max(1, frameRate);
+        lastDurationTicks = defaultDurationTicks;
+        this.audioConfig = audioConfig;
+        if (audioConfig != null) {
+            audioPayload = ByteBuffer.allocateDirect(32 * 1024);
+            audioSampleSizes = new int[64];
+            audioSampleTicks = new long[64];
+        }
+
+        file = new RandomAccessFile(output, "rw");
+        channel = file.getChannel();
+        try {
+            // space reserved ahead of time is reused, stale content ends up inside the free box
+            allocatedEnd = channel.size();
+            ByteBuffer init = createInitSegment(decoderConfig, audioConfig, width, height);
+            writeAtEnd(init);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Bytes of content, without the preallocated tail.
+     */
+    public long getBytesWritten() {
+        return position;
+    }
+
+    public int getFragmentCount() {
+        return sequenceNumber;
+    }
+
+    public int getPendingBytes() {
+        return payload.position() + (audioPayload != null ? audioPayload.position() : 0);
+    }
+
+    public int getPendingSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Decode time of the first pending sample, or of the end of the written fragments when none is pending.
+     */
+    public long getPendingStartTicks() {
+        return sampleCount == 0 ? writtenDurationTicks : sampleTicks[0];
+    }
+
+    /**
+     * Duration of the written fragments.
+     */
+    public long getWrittenDurationTicks() {
+        return writtenDurationTicks;
+    }
+
+    public long getPendingDurationTicks() {
+        return sampleCount == 0 ? 0 : sampleTicks[sampleCount - 1] - sampleTicks[0];
+    }
+
+    /**
+     * @return null without an audio track
+     */
+    @Nullable
+    public AacDecoderConfig getAudioConfig() {
+        return audioConfig;
+    }
+
+    public int getPendingAudioSampleCount() {
+        return audioSampleCount;
+    }
+
+    /**
+     * In audio sample rate units.
+     */
+    public long getPendingAudioDurationTicks() {
+        return audioSampleCount == 0 ? 0 : audioSampleTicks[audioSampleCount - 1] - audioSampleTicks[0];
+    }
+
+    /**
+     * Adds an Annex-B access unit to the pending fragment.
+     *
+     * @param decodeTicks decode time in {@link #TIMESCALE} units, from 0 at the start of this file
+     */
+    public void appendSample(@NonNull ByteBuffer annexB, long decodeTicks, boolean sync) {
+        checkOpen();
+        if (sampleCount == sampleSizes.length) {
+            int capacity = sampleSizes.length * 2;
+            sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+            sampleTicks = Arrays.copyOf(sampleTicks, capacity);
+            sampleSync = Arrays.copyOf(sampleSync, capacity);
+        }
+        int written;
+        while ((written = AnnexB.toLengthPrefixed(annexB, payload)) < 0) {
+            // rare: grow to fit a large key frame, the bigger buffer is kept for later fragments
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(payload.capacity() * 2,
+                    payload.position() + 2 * annexB.remaining() + 64));
+            payload.flip();
+            larger.put(payload);
+            payload = larger;
+        }
+        sampleSizes[sampleCount] = written;
+        sampleTicks[sampleCount] = decodeTicks;
+        sampleSync[sampleCount] = sync;
+        sampleCount++;
+    }
+
+    /**
+     * Adds a raw AAC frame to the pending fragment.
+     *
+     * @param ticks presentation time in sample rate units, from 0 at the start of this file
+     */
+    public void appendAudioSample(@NonNull ByteBuffer data, long ticks) {
+        checkOpen();
+        ByteBuffer audioPayload = this.audioPayload;
+        if (audioPayload == null) {
+            throw new IllegalStateException("No audio track");
+        }
+        if (audioSampleCount == audioSampleSizes.length) {
+            int capacity = audioSampleSizes.length * 2;
+            audioSampleSizes = Arrays.copyOf(audioSampleSizes, capacity);
+            audioSampleTicks = Arrays.copyOf(audioSampleTicks, capacity);
+        }
+        int size = data.remaining();
+        if (audioPayload.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(audioPayload.capacity() * 2,
+                    audioPayload.position() + size));
+            audioPayload.flip();
+            larger.put(audioPayload);
+            audioPayload = larger;
+            this.audioPayload = larger;
+        }
+        audioPayload.put(data.duplicate());
+        audioSampleSizes[audioSampleCount] = size;
+        audioSampleTicks[audioSampleCount] = ticks;
+        audioSampleCount++;
+    }
+
+    /**
+     * Writes the pending samples of both tracks as one fragment.
+     *
+     * @param endTicks decode time of the video sample following the fragment, or -1 to repeat the last
+     *                 duration
+     */
+    public void flushFragment(long endTicks) throws IOException {
+        checkOpen();
+        if (sampleCount == 0 && audioSampleCount == 0) return;
+
+        int headerSize = MOOF_HEADER_SIZE + MDAT_HEADER_SIZE;
+        if (sampleCount > 0) {
+            headerSize += TRAF_HEADER_SIZE + sampleCount * TRUN_ENTRY_SIZE;
+        }
+        if (audioSampleCount > 0) {
+            headerSize += TRAF_HEADER_SIZE + audioSampleCount * AUDIO_TRUN_ENTRY_SIZE;
+        }
+        if (header.capacity() < headerSize) {
+            header = ByteBuffer.allocate(headerSize * 2);
+        }
+        int moofSize = headerSize - MDAT_HEADER_SIZE;
+        int videoBytes = payload.position();
+        int audioBytes = audioSampleCount > 0 ? audioPayload.position() : 0;
+        int mdatSize = MDAT_HEADER_SIZE + videoBytes + audioBytes;
+
+        header.clear();
+        int moof = beginBox(header, "moof");
+        int mfhd = beginFullBox(header, "mfhd", 0, 0);
+        header.putInt(++sequenceNumber);
+        endBox(header, mfhd);
+        if (sampleCount > 0) {
+            int trun = beginTrackRun(header, TRACK_ID, sampleTicks[0], 0x000701, sampleCount,
+                    moofSize + MDAT_HEADER_SIZE);
+            for (int i = 0; i < sampleCount; i++) {
+                long next = i + 1 < sampleCount ? sampleTicks[i + 1] : endTicks;
+                long duration = next >= 0 ? next - sampleTicks[i] : lastDurationTicks;
+                if (duration <= 0) duration = 1;
+                lastDurationTicks = duration;
+                header.putInt((int) duration);
+                header.putInt(sampleSizes[i]);
+                header.putInt(sampleSync[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            }
+            endTrackRun(header, trun);
+        }
+        if (audioSampleCount > 0) {
+            int trun = beginTrackRun(header, AUDIO_TRACK_ID, audioSampleTicks[0], 0x000301, audioSampleCount,
+                    moofSize + MDAT_HEADER_SIZE + videoBytes);
+            for (int i = 0; i < audioSampleCount; i++) {
+                long next = i + 1 < audioSampleCount
+                        ? audioSampleTicks[i + 1] : audioSampleTicks[i] + AAC_FRAME_SAMPLES;
+                header.putInt((int) Math.max(1, next - audioSampleTicks[i]));
+                header.putInt(audioSampleSizes[i]);
+            }
+            endTrackRun(header, trun);
+        }
+        endBox(header, moof);
+        header.putInt(mdatSize);
+        header.putInt(fourCc("mdat"));
+        header.flip();
+        payload.flip();
+
+        fragmentBuffers[0] = header;
+        fragmentBuffers[1] = payload;
+        if (audioSampleCount > 0) {
+            audioPayload.flip();
+            fragmentBuffers[2] = audioPayload;
+        } else {
+            fragmentBuffers[2] = null;
+        }
+        writeAtEnd(fragmentBuffers);
+        if (sampleCount > 0) {
+            writtenDurationTicks = sampleTicks[sampleCount - 1] + lastDurationTicks;
+        }
+        payload.clear();
+        sampleCount = 0;
+        if (audioPayload != null) {
+            audioPayload.clear();
+        }
+        audioSampleCount = 0;
+
+        if (fsyncPolicy == FsyncPolicy.EVERY_FRAGMENT) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes the pending samples, trims the preallocated tail and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flushFragment(-1);
+            channel.truncate(position);
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                channel.force(true);
+            }
+        } finally {
+            closed = true;
+            file.close();
+        }
+    }
+
+    /**
+     * Writes traf, tfhd and tfdt and opens the trun box; the caller adds the sample entries.
+     *
+     * @return start of the traf box
+     */
+    private static int beginTrackRun(@NonNull ByteBuffer out, int trackId, long decodeTicks, int trunFlags,
+                                     int sampleCount, int dataOffset) {
+        int traf = beginBox(out, "traf");
+        int tfhd = beginFullBox(out, "tfhd", 0, 0x020000);
+        out.putInt(trackId);
+        endBox(out, tfhd);
+        int tfdt = beginFullBox(out, "tfdt", 1, 0);
+        out.putLong(decodeTicks);
+        endBox(out, tfdt);
+        beginFullBox(out, "trun", 0, trunFlags);
+        out.putInt(sampleCount);
+        out.putInt(dataOffset);
+        return traf;
+    }
+
+    private static void endTrackRun(@NonNull ByteBuffer out, int traf) {
+        // the trun box follows the traf, tfhd and tfdt headers
+        endBox(out, traf + TRAF_HEADER_SIZE - 20);
+        endBox(out, traf);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+    }
+
+    private void writeAtEnd(@NonNull ByteBuffer data) throws IOException {
+        fragmentBuffers[0] = data;
+        fragmentBuffers[1] = null;
+        fragmentBuffers[2] = null;
+        writeAtEnd(fragmentBuffers);
+    }
+
+    /**
+     * Reserves space, moves the {@code free} box behind the new content and then writes the content
+     * over the old {@code free} box header.
+     */
+    private void writeAtEnd(@NonNull ByteBuffer[] buffers) throws IOException {
+        int count = 1;
+        while (count < buffers.length && buffers[count] != null) {
+            count++;
+        }
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            length += buffers[i].remaining();
+        }
+        long end = position + length;
+        if (end + FREE_HEADER_SIZE > allocatedEnd) {
+            long required = end + FREE_HEADER_SIZE;
+            allocatedEnd = ((required + preallocationChunk - 1) / preallocationChunk) * preallocationChunk;
+            preallocator.preallocate(file.getFD(), channel, allocatedEnd);
+        }
+
+        freeHeader.clear();
+        freeHeader.putInt((int) (allocatedEnd - end));
+        freeHeader.putInt(fourCc("free"));
+        freeHeader.flip();
+        while (freeHeader.hasRemaining()) {
+            channel.write(freeHeader, end + freeHeader.position());
+        }
+
+        channel.position(position);
+        long written = 0;
+        while (written < length) {
+            written += channel.write(buffers, 0, count);
+        }
+        position = end;
+    }
+
+    @NonNull
+    private static ByteBuffer createInitSegment(@NonNull AvcDecoderConfig config, @Nullable AacDecoderConfig audioConfig,
+                                                int width, int height) {
+        int audioSize = audioConfig != null ? 1024 + audioConfig.getEsdsPayloadSize() : 0;
+        ByteBuffer out = ByteBuffer.allocate(1024 + config.getAvcCPayloadSize() + audioSize);
+
+        int ftyp = beginBox(out, "ftyp");
+        out.putInt(fourCc("iso6"));
+        out.putInt(1);
+        out.putInt(fourCc("iso6"));
+        out.putInt(fourCc("isom"));
+        out.putInt(fourCc("avc1"));
+        out.putInt(fourCc("mp41"));
+        endBox(out, ftyp);
+
+        int moov = beginBox(out, "moov");
+        int mvhd = beginFullBox(out, "mvhd", 0, 0);
+        out.putInt(0); // creation time
+        out.putInt(0); // modification time
+        out.putInt(MOVIE_TIMESCALE);
+        out.putInt(0); // duration, given by the fragments
+        out.putInt(0x00010000); // rate 1.0
+        out.putShort((short) 0x0100); // volume 1.0
+        out.putShort((short) 0);
+        out.putLong(0);
+        putUnityMatrix(out);
+        for (int i = 0; i < 6; i++) out.putInt(0); // pre_defined
+        out.putInt(audioConfig != null ? AUDIO_TRACK_ID + 1 : TRACK_ID + 1); // next track id
+        endBox(out, mvhd);
+
+        int trak = beginBox(out, "trak");
+        int tkhd = beginFullBox(out, "tkhd", 0, 0x000003);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TRACK_ID);
+        out.putInt(0);
+        out.putInt(0); // duration
+        out.putLong(0);
+        out.putShort((short) 0); // layer
+        out.putShort((short) 0); // alternate group
+        out.putShort((short) 0); // volume
+        out.putShort((short) 0);
+        putUnityMatrix(out);
+        out.putInt(width << 16);
+        out.putInt(height << 16);
+        endBox(out, tkhd);
+
+        int mdia = beginBox(out, "mdia");
+        int mdhd = beginFullBox(out, "mdhd", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TIMESCALE);
+        out.putInt(0);
+        out.putShort((short) 0x55C4); // "und"
+        out.putShort((short) 0);
+        endBox(out, mdhd);
+        int hdlr = beginFullBox(out, "hdlr", 0, 0);
+        out.putInt(0);
+        out.putInt(fourCc("vide"));
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.put("VideoHandler".getBytes(StandardCharsets.UTF_8));
+        out.put((byte) 0);
+        endBox(out, hdlr);
+
+        int minf = beginBox(out, "minf");
+        int vmhd = beginFullBox(out, "vmhd", 0, 1);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        endBox(out, vmhd);
+        putDataInformation(out);
+
+        int stbl = beginBox(out, "stbl");
+        int stsd = beginFullBox(out, "stsd", 0, 0);
+        out.putInt(1);
+        int avc1 = beginBox(out, "avc1");
+        out.putInt(0);
+        out.putShort((short) 0);
+        out.putShort((short) 1); // data reference index
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putShort((short) width);
+        out.putShort((short) height);
+        out.putInt(0x00480000); // 72 dpi
+        out.putInt(0x00480000);
+        out.putInt(0);
+        out.putShort((short) 1); // frame count
+        for (int i = 0; i < 32; i++) out.put((byte) 0); // compressor name
+        out.putShort((short) 0x0018); // depth
+        out.putShort((short) -1);
+        int avcC = beginBox(out, "avcC");
+        config.writeAvcC(out);
+        endBox(out, avcC);
+        endBox(out, avc1);
+        endBox(out, stsd);
+        putEmptySampleTables(out);
+        endBox(out, stbl);
+        endBox(out, minf);
+        endBox(out, mdia);
+        endBox(out, trak);
+
+        if (audioConfig != null) {
+            putAudioTrack(out, audioConfig);
+        }
+
+        int mvex = beginBox(out, "mvex");
+        putTrackExtends(out, TRACK_ID, 0);
+        if (audioConfig != null) {
+            // every AAC frame is a sync sample
+            putTrackExtends(out, AUDIO_TRACK_ID, SAMPLE_FLAGS_SYNC);
+        }
+        endBox(out, mvex);
+        endBox(out, moov);
+
+        out.flip();
+        return out;
+    }
+
+    private static void putAudioTrack(@NonNull ByteBuffer out, @NonNull AacDecoderConfig config) {
+        int trak = beginBox(out, "trak");
+        int tkhd = beginFullBox(out, "tkhd", 0, 0x000003);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(AUDIO_TRACK_ID);
+        out.putInt(0);
+        out.putInt(0); // duration
+        out.putLong(0);
+        out.putShort((short) 0); // layer
+        out.putShort((short) 1); // alternate group
+        out.putShort((short) 0x0100); // volume
+        out.putShort((short) 0);
+        putUnityMatrix(out);
+        out.putInt(0);
+        out.putInt(0);
+        endBox(out, tkhd);
+
+        int mdia = beginBox(out, "mdia");
+        int mdhd = beginFullBox(out, "mdhd", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(config.getSampleRate());
+        out.putInt(0);
+        out.putShort((short) 0x55C4); // "und"
+        out.putShort((short) 0);
+        endBox(out, mdhd);
+        int hdlr = beginFullBox(out, "hdlr", 0, 0);
+        out.putInt(0);
+        out.putInt(fourCc("soun"));
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.put("SoundHandler".getBytes(StandardCharsets.UTF_8));
+        out.put((byte) 0);
+        endBox(out, hdlr);
+
+        int minf = beginBox(out, "minf");
+        int smhd = beginFullBox(out, "smhd", 0, 0);
+        out.putShort((short) 0); // balance
+        out.putShort((short) 0);
+        endBox(out, smhd);
+        putDataInformation(out);
+
+        int stbl = beginBox(out, "stbl");
+        int stsd = beginFullBox(out, "stsd", 0, 0);
+        out.putInt(1);
+        int mp4a = beginBox(out, "mp4a");
+        out.putInt(0);
+        out.putShort((short) 0);
+        out.putShort((short) 1); // data reference index
+        out.putInt(0);
+        out.putInt(0);
+        out.putShort((short) config.getChannelCount());
+        out.putShort((short) 16); // sample size
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        // 16.16 fixed point, rates above 65535 Hz only in mdhd
+        out.putInt(config.getSampleRate() <= 0xFFFF ? config.getSampleRate() << 16 : 0);
+        int esds = beginFullBox(out, "esds", 0, 0);
+        config.writeEsds(out);
+        endBox(out, esds);
+        endBox(out, mp4a);
+        endBox(out, stsd);
+        putEmptySampleTables(out);
+        endBox(out, stbl);
+        endBox(out, minf);
+        endBox(out, mdia);
+        endBox(out, trak);
+    }
+
+    private static void putDataInformation(@NonNull ByteBuffer out) {
+        int dinf = beginBox(out, "dinf");
+        int dref = beginFullBox(out, "dref", 0, 0);
+        out.putInt(1);
+        int url = beginFullBox(out, "url ", 0, 1); // media in the same file
+        endBox(out, url);
+        endBox(out, dref);
+        endBox(out, dinf);
+    }
+
+    private static void putEmptySampleTables(@NonNull ByteBuffer out) {
+        for (String emptyTable : new String[]{"stts", "stsc", "stco"}) {
+            int box = beginFullBox(out, emptyTable, 0, 0);
+            out.putInt(0);
+            endBox(out, box);
+        }
+        int stsz = beginFullBox(out, "stsz", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        endBox(out, stsz);
+    }
+
+    private static void putTrackExtends(@NonNull ByteBuffer out, int trackId, int defaultSampleFlags) {
+        int trex = beginFullBox(out, "trex", 0, 0);
+        out.putInt(trackId);
+        out.putInt(1); // sample description index
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(defaultSampleFlags);
+        endBox(out, trex);
+    }
+
+    private static void putUnityMatrix(@NonNull ByteBuffer out) {
+        int[] matrix = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+        for (int value : matrix) {
+            out.putInt(value);
+        }
+    }
+
+    private static int beginBox(@NonNull ByteBuffer out, @NonNull String type) {
+        int start = out.position();
+        out.putInt(0);
+        out.putInt(fourCc(type));
+        return start;
+    }
+
+    private static int beginFullBox(@NonNull ByteBuffer out, @NonNull String type, int version, int flags) {
+        int start = beginBox(out, type);
+        out.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void endBox(@NonNull ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start);
+    }
+
+    private static int fourCc(@NonNull String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+}
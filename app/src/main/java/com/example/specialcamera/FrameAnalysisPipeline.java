@@ -0,0 +1,191 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs {@link FrameAnalyzer}s over YUV frames on an analysis executor with keep-latest backpressure:
+ * while the analyzers are busy only the newest offered frame is kept, older ones are released right
+ * away, so the camera never waits for analysis.
+ */
+public class FrameAnalysisPipeline {
+
+    public static final class AnalyzerStats {
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile long lastNanos;
+        private volatile long maxNanos;
+
+        void record(long nanos) {
+            frames.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            lastNanos = nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        /**
+         * Frames on which the analyzer threw. The exception is swallowed so that one broken analyzer does
+         * not stop the others.
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getFrames() {
+            return frames.get();
+        }
+
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getAverageNanos() {
+            long count = frames.get();
+            return count == 0 ? 0 : totalNanos.get() / count;
+        }
+    }
+
+    private static final class Slot {
+        final FrameAnalyzer analyzer;
+        final AnalyzerStats stats = new AnalyzerStats();
+
+        Slot(FrameAnalyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+    }
+
+    private final Executor executor;
+    private final NanoClock clock;
+    private final AnalysisBuffers buffers = new AnalysisBuffers();
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<>();
+
+    private final AtomicReference<YuvFrame> pendingFrame = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drain;
+
+    private final AtomicLong offeredFrames = new AtomicLong();
+    private final AtomicLong analyzedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public FrameAnalysisPipeline(@NonNull Executor executor, @NonNull NanoClock clock) {
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    public void addAnalyzer(@NonNull FrameAnalyzer analyzer) {
+        slots.add(new Slot(analyzer));
+    }
+
+    public void removeAnalyzer(@NonNull FrameAnalyzer analyzer) {
+        for (Slot slot : slots) {
+            if (slot.analyzer == analyzer) {
+                slots.remove(slot);
+            }
+        }
+    }
+
+    public boolean hasAnalyzers() {
+        return !slots.isEmpty();
+    }
+
+    @Nullable
+    public AnalyzerStats getStats(@NonNull FrameAnalyzer analyzer) {
+        for (Slot slot : slots) {
+            if (slot.analyzer == analyzer) return slot.stats;
+        }
+        return null;
+    }
+
+    public long getOfferedFrames() {
+        return offeredFrames.get();
+    }
+
+    public long getAnalyzedFrames() {
+        return analyzedFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Hands a frame over to the pipeline, which becomes responsible for releasing it. May be called from
+     * any thread.
+     */
+    public void offer(@NonNull YuvFrame frame) {
+        offeredFrames.incrementAndGet();
+        if (closed) {
+            droppedFrames.incrementAndGet();
+            frame.release();
+            return;
+        }
+
+        YuvFrame stale = pendingFrame.getAndSet(frame);
+        if (stale != null) {
+            droppedFrames.incrementAndGet();
+            stale.release();
+        }
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Releases the pending frame and drops later ones. A frame being analyzed is released when its
+     * analysis finishes.
+     */
+    public void close() {
+        closed = true;
+        YuvFrame stale = pendingFrame.getAndSet(null);
+        if (stale != null) {
+            droppedFrames.incrementAndGet();
+            stale.release();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            YuvFrame frame = pendingFrame.getAndSet(null);
+            if (frame == null) {
+                draining.set(false);
+                // a frame offered between the poll and the reset would otherwise wait for the next offer
+                if (pendingFrame.get() != null && draining.compareAndSet(false, true)) continue;
+                return;
+            }
+
+            try {
+                analyze(frame);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private void analyze(YuvFrame frame) {
+        for (Slot slot : slots) {
+            long start = clock.nanoTime();
+            try {
+                slot.analyzer.analyze(frame, buffers);
+            } catch (RuntimeException e) {
+                slot.stats.failures.incrementAndGet();
+            }
+            slot.stats.record(clock.nanoTime() - start);
+        }
+        analyzedFrames.incrementAndGet();
+    }
+}
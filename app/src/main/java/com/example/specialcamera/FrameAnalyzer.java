@@ -0,0 +1,13 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Per-frame CPU analysis plugged into {@link FrameAnalysisPipeline}. Called on the analysis thread, one
+ * frame at a time. Implementations should not allocate per frame; scratch arrays come from
+ * {@link AnalysisBuffers}.
+ */
+public interface FrameAnalyzer {
+
+    void analyze(@NonNull YuvFrame frame, @NonNull AnalysisBuffers buffers);
+}
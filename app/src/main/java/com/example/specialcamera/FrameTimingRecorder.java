@@ -0,0 +1,130 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records frame timestamps into a preallocated ring and derives interval percentiles, jank and dropped
+ * frame estimates from it.
+ * <p>
+ * {@link #onFrame(long)} has a single writer (the thread delivering frames) and never blocks or allocates.
+ * {@link #snapshot(FrameTimingStats)} may be called from any thread; readers never block the writer and
+ * discard entries the writer overwrote while they were being copied.
+ */
+public class FrameTimingRecorder {
+
+    /**
+     * An interval longer than this multiple of the median interval counts as jank.
+     */
+    public static final float JANK_FACTOR = 1.5f;
+
+    // ordered stores and volatile loads: a reader which sees an overwritten slot also sees the count
+    // published before the overwrite
+    private final AtomicLongArray timestamps;
+    private final int mask;
+    private final AtomicLong frameCount = new AtomicLong();
+
+    // writer only
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    // reader scratch, guarded by readLock
+    private final Object readLock = new Object();
+    private final long[] copiedTimestamps;
+    private final long[] intervals;
+
+    /**
+     * @param capacity number of frames kept, rounded up to a power of two. Statistics cover one frame less,
+     *                 the slot being written is never read.
+     */
+    public FrameTimingRecorder(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        timestamps = new AtomicLongArray(size);
+        mask = size - 1;
+        copiedTimestamps = new long[size];
+        intervals = new long[size];
+    }
+
+    public int getCapacity() {
+        return timestamps.length();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * Records a frame. Timestamps which do not advance (e.g. a texture update without a new camera
+     * frame) are ignored.
+     */
+    public void onFrame(long timestampNanos) {
+        if (timestampNanos <= lastTimestamp) return;
+        lastTimestamp = timestampNanos;
+
+        long index = frameCount.get();
+        timestamps.lazySet((int) (index & mask), timestampNanos);
+        frameCount.lazySet(index + 1);
+    }
+
+    public void snapshot(@NonNull FrameTimingStats out) {
+        synchronized (readLock) {
+            int capacity = timestamps.length();
+            long end = frameCount.get();
+            long start = Math.max(0, end - capacity);
+            for (long i = start; i < end; i++) {
+                copiedTimestamps[(int) (i - start)] = timestamps.get((int) (i & mask));
+            }
+            // re-read after the copy, with one extra slot of margin for a write in progress which is not
+            // counted yet
+            long firstValid = Math.max(start, frameCount.get() - capacity + 1);
+            int offset = (int) (firstValid - start);
+            int count = (int) (end - firstValid);
+
+            computeStats(copiedTimestamps, offset, count, end, out);
+        }
+    }
+
+    private void computeStats(long[] frames, int offset, int count, long totalFrames, FrameTimingStats out) {
+        out.totalFrames = totalFrames;
+        out.windowFrames = Math.max(0, count);
+        int intervalCount = count - 1;
+        if (intervalCount < 1) {
+            out.clearIntervals();
+            return;
+        }
+
+        for (int i = 0; i < intervalCount; i++) {
+            intervals[i] = frames[offset + i + 1] - frames[offset + i];
+        }
+        long spanNanos = frames[offset + count - 1] - frames[offset];
+        Arrays.sort(intervals, 0, intervalCount);
+
+        long median = percentile(intervals, intervalCount, 0.50f);
+        long jankThreshold = (long) (median * JANK_FACTOR);
+        int jank = 0;
+        long dropped = 0;
+        for (int i = intervalCount - 1; i >= 0 && intervals[i] > jankThreshold; i--) {
+            jank++;
+            // a late frame stands in for the frames which should have been shown meanwhile
+            dropped += Math.max(0, Math.round((double) intervals[i] / median) - 1);
+        }
+
+        out.fps = spanNanos > 0 ? intervalCount * 1_000_000_000f / spanNanos : 0f;
+        out.p50IntervalNanos = median;
+        out.p95IntervalNanos = percentile(intervals, intervalCount, 0.95f);
+        out.p99IntervalNanos = percentile(intervals, intervalCount, 0.99f);
+        out.maxIntervalNanos = intervals[intervalCount - 1];
+        out.jankFrames = jank;
+        out.droppedFramesEstimate = dropped;
+    }
+
+    private static long percentile(long[] sorted, int count, float fraction) {
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
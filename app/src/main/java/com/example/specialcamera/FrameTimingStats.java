@@ -0,0 +1,47 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Mutable result holder of {@link FrameTimingRecorder#snapshot(FrameTimingStats)}, meant to be reused by
+ * the caller. Statistics cover the frames currently held by the recorder.
+ */
+public class FrameTimingStats {
+
+    public long totalFrames;
+    public int windowFrames;
+    public float fps;
+    public long p50IntervalNanos;
+    public long p95IntervalNanos;
+    public long p99IntervalNanos;
+    public long maxIntervalNanos;
+    public int jankFrames;
+    public long droppedFramesEstimate;
+
+    void clearIntervals() {
+        fps = 0f;
+        p50IntervalNanos = 0;
+        p95IntervalNanos = 0;
+        p99IntervalNanos = 0;
+        maxIntervalNanos = 0;
+        jankFrames = 0;
+        droppedFramesEstimate = 0;
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        return String.format(Locale.US, "%.1f fps\np95 %.1f ms\njank %d",
+                fps, p95IntervalNanos / 1_000_000f, jankFrames);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "FrameTimingStats{frames=%d, window=%d, fps=%.2f, p50=%.2fms, p95=%.2fms, p99=%.2fms, max=%.2fms, jank=%d, dropped=%d}",
+                totalFrames, windowFrames, fps, p50IntervalNanos / 1e6, p95IntervalNanos / 1e6,
+                p99IntervalNanos / 1e6, maxIntervalNanos / 1e6, jankFrames, droppedFramesEstimate);
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.specialcamera;
+
+/**
+ * When recorded data is forced to storage. Without a sync a power loss can lose what the page cache
+ * still holds, even though the file structure stays valid.
+ */
+public enum FsyncPolicy {
+    NEVER,
+    ON_SEGMENT_CLOSE,
+    EVERY_FRAGMENT
+}
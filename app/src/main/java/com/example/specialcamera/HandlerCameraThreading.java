@@ -0,0 +1,69 @@
+package com.example.specialcamera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link CameraThreading} backed by a {@link HandlerThread}. The camera {@link Handler} is the one
+ * passed to camera2 so that device, session and capture callbacks are delivered on the camera thread.
+ */
+public class HandlerCameraThreading implements CameraThreading {
+
+    private final HandlerThread cameraThread;
+    private final Handler cameraHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Executor cameraExecutor;
+
+    public HandlerCameraThreading() {
+        cameraThread = new HandlerThread("CameraThread", Process.THREAD_PRIORITY_DISPLAY);
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        cameraExecutor = cameraHandler::post;
+    }
+
+    @NonNull
+    public Handler getCameraHandler() {
+        return cameraHandler;
+    }
+
+    @NonNull
+    public Executor getCameraExecutor() {
+        return cameraExecutor;
+    }
+
+    @Override
+    public void postToCamera(@NonNull Runnable task) {
+        cameraHandler.post(task);
+    }
+
+    @Override
+    public void postToCameraDelayed(@NonNull Runnable task, long delayMillis) {
+        cameraHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeFromCamera(@NonNull Runnable task) {
+        cameraHandler.removeCallbacks(task);
+    }
+
+    @Override
+    public void postToMain(@NonNull Runnable task) {
+        mainHandler.post(task);
+    }
+
+    @Override
+    public boolean isCameraThread() {
+        return Looper.myLooper() == cameraThread.getLooper();
+    }
+
+    @Override
+    public void quit() {
+        cameraThread.quitSafely();
+    }
+}
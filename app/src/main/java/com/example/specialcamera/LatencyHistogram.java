@@ -0,0 +1,91 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Histogram of a per-frame latency in fixed buckets, so recording a sample never allocates and the
+ * percentiles cover every sample, not just a window. Percentiles are bucket upper bounds. Thread safe.
+ */
+public class LatencyHistogram {
+
+    private final long bucketNanos;
+    // the last bucket also counts everything above the range
+    private final long[] buckets;
+    private long count = 0;
+    private long sumNanos = 0;
+    private long maxNanos = 0;
+
+    /**
+     * @param bucketNanos resolution
+     * @param rangeNanos  largest latency resolved, longer ones land in the last bucket
+     */
+    public LatencyHistogram(long bucketNanos, long rangeNanos) {
+        if (bucketNanos <= 0 || rangeNanos < bucketNanos) {
+            throw new IllegalArgumentException("Invalid histogram " + bucketNanos + " / " + rangeNanos);
+        }
+        this.bucketNanos = bucketNanos;
+        buckets = new long[(int) ((rangeNanos + bucketNanos - 1) / bucketNanos)];
+    }
+
+    public synchronized void record(long latencyNanos) {
+        if (latencyNanos < 0) {
+            throw new IllegalArgumentException("Negative latency " + latencyNanos);
+        }
+        buckets[(int) Math.min(buckets.length - 1, latencyNanos / bucketNanos)]++;
+        count++;
+        sumNanos += latencyNanos;
+        maxNanos = Math.max(maxNanos, latencyNanos);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sumNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return -1 before the first sample
+     */
+    public synchronized long getMeanNanos() {
+        return count == 0 ? -1 : sumNanos / count;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Nearest-rank percentile, reported as the upper bound of its bucket and at most the maximum; in the
+     * last bucket the maximum.
+     *
+     * @return -1 before the first sample
+     */
+    public synchronized long getPercentileNanos(int percentile) {
+        if (count == 0) return -1;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return i == buckets.length - 1 ? maxNanos : Math.min((i + 1) * bucketNanos, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d, mean=%.1fms, p50=%.1fms, p95=%.1fms, max=%.1fms",
+                getCount(), getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6,
+                getMaxNanos() / 1e6);
+    }
+}
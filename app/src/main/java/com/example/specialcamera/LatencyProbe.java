@@ -0,0 +1,190 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Motion-to-photon latency of the preview, per frame and per stage. Frames are matched by their sensor
+ * timestamp, which camera2 reports in the capture result and SurfaceTexture carries with the buffer:
+ * <ul>
+ * <li>{@link Stage#CAPTURE}: start of exposure to the capture result, when the HAL is done with the frame
+ * and its buffers become available;</li>
+ * <li>{@link Stage#DISPLAY}: capture result to the display update, when the preview view latches the
+ * buffer for drawing;</li>
+ * <li>{@link Stage#TOTAL}: start of exposure to the display update.</li>
+ * </ul>
+ * The two events may arrive in either order. Frames whose result is never followed by a display update were
+ * replaced by a newer buffer before the view drew them and are counted as skipped.
+ * <p>
+ * Thread safe: results come from the camera thread, display updates from the main thread.
+ */
+public class LatencyProbe {
+
+    public enum Stage {
+        CAPTURE,
+        DISPLAY,
+        TOTAL
+    }
+
+    private static final long BUCKET_NANOS = 500_000L;
+    private static final long RANGE_NANOS = 500_000_000L;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    // frames waiting for their second event, guarded by this
+    private final long[] sensorTimestamps;
+    private final long[] resultNanos;
+    private final long[] displayNanos;
+    private int nextSlot = 0;
+    private long sensorOffsetNanos = 0;
+    private long skippedFrames = 0;
+    private long unmatchedDisplayUpdates = 0;
+    private long clockErrors = 0;
+
+    /**
+     * @param pendingCapacity frames in flight between the two events, a few times the pipeline depth
+     */
+    public LatencyProbe(int pendingCapacity) {
+        if (pendingCapacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + pendingCapacity);
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(BUCKET_NANOS, RANGE_NANOS);
+        }
+        sensorTimestamps = new long[pendingCapacity];
+        resultNanos = new long[pendingCapacity];
+        displayNanos = new long[pendingCapacity];
+        clearPending();
+    }
+
+    /**
+     * Difference between the sensor time base and the clock of the event times, e.g.
+     * {@code elapsedRealtimeNanos() - nanoTime()} for a realtime timestamp source.
+     */
+    public synchronized void setSensorClockOffsetNanos(long offsetNanos) {
+        sensorOffsetNanos = offsetNanos;
+    }
+
+    public synchronized void onCaptureResult(long sensorTimestampNanos, long nowNanos) {
+        int slot = findSlot(sensorTimestampNanos);
+        if (slot < 0) {
+            slot = allocateSlot(sensorTimestampNanos);
+        }
+        resultNanos[slot] = nowNanos;
+        complete(slot);
+    }
+
+    public synchronized void onDisplayUpdate(long sensorTimestampNanos, long nowNanos) {
+        int slot = findSlot(sensorTimestampNanos);
+        if (slot < 0) {
+            slot = allocateSlot(sensorTimestampNanos);
+        }
+        displayNanos[slot] = nowNanos;
+        complete(slot);
+    }
+
+    @NonNull
+    public LatencyHistogram getHistogram(@NonNull Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Frames delivered by the camera but never drawn.
+     */
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Display updates whose capture result never arrived, e.g. from a previous session.
+     */
+    public synchronized long getUnmatchedDisplayUpdates() {
+        return unmatchedDisplayUpdates;
+    }
+
+    /**
+     * Events which would give a negative latency, a sign of a wrong sensor clock offset.
+     */
+    public synchronized long getClockErrors() {
+        return clockErrors;
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        clearPending();
+        skippedFrames = 0;
+        unmatchedDisplayUpdates = 0;
+        clockErrors = 0;
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        LatencyHistogram total = getHistogram(Stage.TOTAL);
+        if (total.getCount() == 0) return "m2p -";
+        return String.format(Locale.US, "m2p %.0f ms p95 %.0f\ncap %.0f disp %.0f ms",
+                total.getPercentileNanos(50) / 1e6, total.getPercentileNanos(95) / 1e6,
+                getHistogram(Stage.CAPTURE).getPercentileNanos(50) / 1e6,
+                getHistogram(Stage.DISPLAY).getPercentileNanos(50) / 1e6);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "LatencyProbe{capture " + getHistogram(Stage.CAPTURE) + "; display " + getHistogram(Stage.DISPLAY)
+                + "; total " + getHistogram(Stage.TOTAL) + "; skipped=" + skippedFrames
+                + ", unmatched=" + unmatchedDisplayUpdates + ", clock errors=" + clockErrors + "}";
+    }
+
+    private void complete(int slot) {
+        if (resultNanos[slot] == NONE || displayNanos[slot] == NONE) return;
+        long exposureStartNanos = sensorTimestamps[slot] - sensorOffsetNanos;
+        long capture = resultNanos[slot] - exposureStartNanos;
+        long display = displayNanos[slot] - resultNanos[slot];
+        long total = displayNanos[slot] - exposureStartNanos;
+        if (capture < 0 || total < 0) {
+            clockErrors++;
+        } else {
+            histograms[Stage.CAPTURE.ordinal()].record(capture);
+            histograms[Stage.TOTAL.ordinal()].record(total);
+        }
+        // both events are on the same clock, the view may latch before the result is delivered
+        histograms[Stage.DISPLAY.ordinal()].record(Math.max(0, display));
+        sensorTimestamps[slot] = NONE;
+    }
+
+    private int findSlot(long sensorTimestampNanos) {
+        for (int i = 0; i < sensorTimestamps.length; i++) {
+            if (sensorTimestamps[i] == sensorTimestampNanos) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Round robin, the evicted frame is the oldest one still waiting.
+     */
+    private int allocateSlot(long sensorTimestampNanos) {
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % sensorTimestamps.length;
+        if (sensorTimestamps[slot] != NONE) {
+            if (displayNanos[slot] == NONE) {
+                skippedFrames++;
+            } else {
+                unmatchedDisplayUpdates++;
+            }
+        }
+        sensorTimestamps[slot] = sensorTimestampNanos;
+        resultNanos[slot] = NONE;
+        displayNanos[slot] = NONE;
+        return slot;
+    }
+
+    private void clearPending() {
+        for (int i = 0; i < sensorTimestamps.length; i++) {
+            sensorTimestamps[i] = NONE;
+        }
+        nextSlot = 0;
+    }
+}
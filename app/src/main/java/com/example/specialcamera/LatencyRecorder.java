@@ -0,0 +1,88 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Keeps the last latencies of an infrequent operation, e.g. starting a recording, and compares them
+ * against a target. Thread safe.
+ */
+public class LatencyRecorder {
+
+    private final String name;
+    private final long targetNanos;
+    private final long[] samples;
+    private final long[] sorted;
+    private long count = 0;
+
+    public LatencyRecorder(@NonNull String name, long targetNanos, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.name = name;
+        this.targetNanos = targetNanos;
+        samples = new long[capacity];
+        sorted = new long[capacity];
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public long getTargetNanos() {
+        return targetNanos;
+    }
+
+    public synchronized void record(long latencyNanos) {
+        samples[(int) (count % samples.length)] = latencyNanos;
+        count++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return -1 before the first sample
+     */
+    public synchronized long getLastNanos() {
+        return count == 0 ? -1 : samples[(int) ((count - 1) % samples.length)];
+    }
+
+    /**
+     * Nearest-rank percentile over the kept samples.
+     *
+     * @return -1 before the first sample
+     */
+    public synchronized long getPercentileNanos(int percentile) {
+        int size = (int) Math.min(count, samples.length);
+        if (size == 0) return -1;
+        System.arraycopy(samples, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        int rank = (int) Math.ceil(percentile / 100.0 * size);
+        return sorted[Math.max(0, Math.min(size - 1, rank - 1))];
+    }
+
+    public boolean isLastWithinTarget() {
+        long last = getLastNanos();
+        return last >= 0 && last <= targetNanos;
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        long last = getLastNanos();
+        if (last < 0) return name + " -";
+        return String.format(Locale.US, "%s %.0f ms%s", name, last / 1e6, last <= targetNanos ? "" : " !");
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s{n=%d, last=%.1fms, p50=%.1fms, p95=%.1fms, target=%.0fms}",
+                name, getCount(), getLastNanos() / 1e6, getPercentileNanos(50) / 1e6,
+                getPercentileNanos(95) / 1e6, targetNanos / 1e6);
+    }
+}
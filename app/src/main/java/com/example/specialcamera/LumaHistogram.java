@@ -0,0 +1,35 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of a 256-bin luma histogram with clipping percentages, filled by
+ * {@link LumaHistogramAnalyzer#snapshot(LumaHistogram)}. Meant to be allocated once and reused by the
+ * reader, e.g. on every draw.
+ */
+public class LumaHistogram {
+
+    public static final int BINS = 256;
+
+    public final int[] bins = new int[BINS];
+    public long samples;
+    public long frameTimestampNanos;
+    public float shadowClippingPercent;
+    public float highlightClippingPercent;
+
+    public int getPeak() {
+        int peak = 0;
+        for (int value : bins) {
+            peak = Math.max(peak, value);
+        }
+        return peak;
+    }
+
+    void copyFrom(@NonNull LumaHistogram other) {
+        System.arraycopy(other.bins, 0, bins, 0, BINS);
+        samples = other.samples;
+        frameTimestampNanos = other.frameTimestampNanos;
+        shadowClippingPercent = other.shadowClippingPercent;
+        highlightClippingPercent = other.highlightClippingPercent;
+    }
+}
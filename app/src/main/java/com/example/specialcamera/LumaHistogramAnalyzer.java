@@ -0,0 +1,143 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Luma histogram and shadow/highlight clipping of every analyzed frame, as feedback for manual ISO and
+ * exposure. Works on every {@code sampleStep}-th row and column of the Y plane; frames with many samples
+ * are split into row stripes processed in parallel, each stripe into its own preallocated bins.
+ * Nothing is allocated per frame.
+ */
+public class LumaHistogramAnalyzer implements FrameAnalyzer, StripedExecutor.StripeTask {
+
+    /**
+     * Below this many samples a frame is processed on the analysis thread alone, the stripe hand-off
+     * would cost more than it saves.
+     */
+    public static final int PARALLEL_MIN_SAMPLES = 256 * 1024;
+
+    public static final int SHADOW_CLIPPING_LEVEL = 4;
+    public static final int HIGHLIGHT_CLIPPING_LEVEL = 251;
+
+    private static final int MAX_STRIPES = 16;
+
+    private final int sampleStep;
+    @Nullable
+    private final StripedExecutor stripedExecutor;
+
+    private final int[][] stripeBins = new int[MAX_STRIPES][LumaHistogram.BINS];
+    private final LumaHistogram working = new LumaHistogram();
+    // guarded by itself
+    private final LumaHistogram published = new LumaHistogram();
+
+    // frame being processed by runStripe()
+    private YuvFrame currentFrame;
+
+    /**
+     * @param sampleStep      1 for every pixel, 2 for every other row and column, ...
+     * @param stripedExecutor used for large frames, null to always process on the analysis thread
+     */
+    public LumaHistogramAnalyzer(int sampleStep, @Nullable StripedExecutor stripedExecutor) {
+        if (sampleStep < 1) {
+            throw new IllegalArgumentException("sampleStep must be positive: " + sampleStep);
+        }
+        this.sampleStep = sampleStep;
+        this.stripedExecutor = stripedExecutor;
+    }
+
+    @Override
+    public void analyze(@NonNull YuvFrame frame, @NonNull AnalysisBuffers buffers) {
+        int sampledRows = (frame.getHeight() + sampleStep - 1) / sampleStep;
+        int sampledColumns = (frame.getWidth() + sampleStep - 1) / sampleStep;
+        long samples = (long) sampledRows * sampledColumns;
+
+        int[] bins = working.bins;
+        if (stripedExecutor != null && samples >= PARALLEL_MIN_SAMPLES) {
+            int stripes = Math.min(MAX_STRIPES, stripedExecutor.getParallelism() * 2);
+            currentFrame = frame;
+            try {
+                stripedExecutor.run(stripes, this);
+            } finally {
+                currentFrame = null;
+            }
+            System.arraycopy(stripeBins[0], 0, bins, 0, LumaHistogram.BINS);
+            for (int stripe = 1; stripe < stripes; stripe++) {
+                int[] partial = stripeBins[stripe];
+                for (int i = 0; i < LumaHistogram.BINS; i++) {
+                    bins[i] += partial[i];
+                }
+            }
+        } else {
+            clear(bins);
+            accumulate(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                    frame.getWidth(), 0, frame.getHeight(), sampleStep, bins);
+        }
+
+        working.samples = samples;
+        working.frameTimestampNanos = frame.getTimestampNanos();
+        working.shadowClippingPercent = percentOf(bins, 0, SHADOW_CLIPPING_LEVEL, samples);
+        working.highlightClippingPercent = percentOf(bins, HIGHLIGHT_CLIPPING_LEVEL, LumaHistogram.BINS - 1, samples);
+
+        synchronized (published) {
+            published.copyFrom(working);
+        }
+    }
+
+    @Override
+    public void runStripe(int stripe, int stripeCount) {
+        YuvFrame frame = currentFrame;
+        int sampledRows = (frame.getHeight() + sampleStep - 1) / sampleStep;
+        // stripes are cut on sampled rows so the result does not depend on the stripe count
+        int firstRow = (int) ((long) sampledRows * stripe / stripeCount) * sampleStep;
+        int endRow = Math.min(frame.getHeight(), (int) ((long) sampledRows * (stripe + 1) / stripeCount) * sampleStep);
+
+        int[] bins = stripeBins[stripe];
+        clear(bins);
+        accumulate(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                frame.getWidth(), firstRow, endRow, sampleStep, bins);
+    }
+
+    /**
+     * Copies the histogram of the latest analyzed frame into {@code out}. Cheap enough for every draw.
+     */
+    public void snapshot(@NonNull LumaHistogram out) {
+        synchronized (published) {
+            out.copyFrom(published);
+        }
+    }
+
+    /**
+     * Histogram kernel: adds every {@code step}-th sample of rows {@code [rowStart, rowEnd)} of a plane to
+     * {@code bins}. Uses absolute reads only, so stripes of the same plane can run concurrently.
+     */
+    public static void accumulate(@NonNull ByteBuffer plane, int rowStride, int pixelStride, int width,
+                                  int rowStart, int rowEnd, int step, @NonNull int[] bins) {
+        int columnStride = pixelStride * step;
+        int rowEndOffset = (width - 1) * pixelStride;
+        for (int row = rowStart; row < rowEnd; row += step) {
+            int rowOffset = row * rowStride;
+            int end = rowOffset + rowEndOffset;
+            for (int offset = rowOffset; offset <= end; offset += columnStride) {
+                bins[plane.get(offset) & 0xFF]++;
+            }
+        }
+    }
+
+    private static void clear(int[] bins) {
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] = 0;
+        }
+    }
+
+    private static float percentOf(int[] bins, int from, int to, long samples) {
+        if (samples == 0) return 0f;
+        long count = 0;
+        for (int i = from; i <= to; i++) {
+            count += bins[i];
+        }
+        return count * 100f / samples;
+    }
+}
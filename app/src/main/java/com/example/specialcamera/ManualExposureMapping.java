@@ -0,0 +1,20 @@
+package com.example.specialcamera;
+
+/**
+ * Maps the 0..100 slider levels of the manual controls onto the sensor ranges reported by the camera.
+ */
+public final class ManualExposureMapping {
+
+    public static final int MAX_LEVEL = 100;
+
+    private ManualExposureMapping() {
+    }
+
+    public static int sensitivityForLevel(int level, int minSensitivity, int maxSensitivity) {
+        return (level * (maxSensitivity - minSensitivity)) / MAX_LEVEL + minSensitivity;
+    }
+
+    public static long exposureNanosForLevel(float level, long minExposureNanos, long maxExposureNanos) {
+        return (long) ((level * (maxExposureNanos - minExposureNanos)) / MAX_LEVEL + minExposureNanos);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.specialcamera;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link EncoderCodec} backed by an asynchronous {@link MediaCodec} with surface input. Callbacks run on a
+ * dedicated "VideoEncoder" thread; before API 23 MediaCodec has no callback handler and delivers them on
+ * the looper of the thread which called {@link #configure}.
+ */
+public class MediaCodecEncoder implements EncoderCodec<MediaFormat> {
+
+    private static final String TAG = "MediaCodecEncoder";
+
+    private final HandlerThread callbackThread;
+    private final Handler callbackHandler;
+
+    @Nullable
+    private MediaCodec codec;
+    @Nullable
+    private Surface inputSurface;
+
+    public MediaCodecEncoder() {
+        callbackThread = new HandlerThread("VideoEncoder", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+    }
+
+    /**
+     * Input surface for the frame producer, available after {@link #configure}.
+     */
+    @NonNull
+    public Surface getInputSurface() {
+        if (inputSurface == null) {
+            throw new IllegalStateException("Encoder is not configured");
+        }
+        return inputSurface;
+    }
+
+    @Override
+    public void configure(@NonNull EncoderConfig config, @NonNull Callback<MediaFormat> callback) throws IOException {
+        MediaCodec codec = MediaCodec.createEncoderByType(config.getMimeType());
+        MediaCodec.Callback codecCallback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                // surface input
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info.offset, info.size, info.presentationTimeUs, info.flags);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Encoder error", e);
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                Log.d(TAG, "Output format: " + format);
+                callback.onOutputFormatChanged(format);
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            codec.setCallback(codecCallback, callbackHandler);
+        } else {
+            codec.setCallback(codecCallback);
+        }
+
+        try {
+            codec.configure(createFormat(codec, config), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+        } catch (RuntimeException e) {
+            codec.release();
+            throw new IOException("Cannot configure encoder with " + config, e);
+        }
+        this.codec = codec;
+        Log.i(TAG, "Configured " + codec.getName() + " with " + config);
+    }
+
+    @NonNull
+    private static MediaFormat createFormat(@NonNull MediaCodec codec, @NonNull EncoderConfig config) {
+        MediaFormat format = MediaFormat.createVideoFormat(config.getMimeType(), config.getWidth(), config.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.getBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.getFrameRate());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1) {
+            format.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, config.getKeyFrameIntervalSeconds());
+        } else {
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, Math.max(1, Math.round(config.getKeyFrameIntervalSeconds())));
+        }
+
+        MediaCodecInfo.EncoderCapabilities encoderCapabilities = codec.getCodecInfo()
+                .getCapabilitiesForType(config.getMimeType()).getEncoderCapabilities();
+        if (encoderCapabilities.isBitrateModeSupported(config.getBitrateMode())) {
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE, config.getBitrateMode());
+        } else {
+            Log.w(TAG, "Bitrate mode " + config.getBitrateMode() + " is not supported by " + codec.getName());
+        }
+        if (config.getRepeatPreviousFrameAfterUs() > 0) {
+            format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, config.getRepeatPreviousFrameAfterUs());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && config.isRealtimePriority()) {
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, config.getMaxBFrames());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && config.getLatencyFrames() > 0) {
+            format.setInteger(MediaFormat.KEY_LATENCY, config.getLatencyFrames());
+        }
+        return format;
+    }
+
+    @Override
+    public void start() {
+        requireCodec().start();
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        ByteBuffer buffer = requireCodec().getOutputBuffer(index);
+        if (buffer == null) {
+            throw new IllegalStateException("No output buffer " + index);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        try {
+            requireCodec().releaseOutputBuffer(index, false);
+        } catch (IllegalStateException e) {
+            // the codec was stopped while the writer still held the buffer
+            Log.w(TAG, "releaseOutputBuffer after stop", e);
+        }
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        requireCodec().signalEndOfInputStream();
+    }
+
+    @Override
+    public void setBitRate(int bitRate) {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        try {
+            requireCodec().setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Cannot change bit rate to " + bitRate, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            requireCodec().stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Encoder stop error", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        if (codec != null) {
+            codec.release();
+            codec = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        callbackThread.quitSafely();
+    }
+
+    @NonNull
+    private MediaCodec requireCodec() {
+        MediaCodec codec = this.codec;
+        if (codec == null) {
+            throw new IllegalStateException("Encoder is not configured");
+        }
+        return codec;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.specialcamera;
 
 
+import android.Manifest;
 import android.app.ForegroundServiceStartNotAllowedException;
 import android.app.Notification;
 import android.app.NotificationChannel;
@@ -8,30 +9,42 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.CamcorderProfile;
-import android.media.MediaRecorder;
+import android.media.MediaFormat;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Parcelable;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class MediaProjectionService extends Service {
 
@@ -41,8 +54,22 @@ public class MediaProjectionService extends Service {
     private static final String KEY_PROJECTION_DATA = "PROJECTION_DATA";
     private static final String KEY_VIDEO_FRAME_WIDTH = "VIDEO_FRAME_WIDTH";
     private static final String KEY_VIDEO_FRAME_HEIGHT = "VIDEO_FRAME_HEIGHT";
+    private static final String KEY_PRE_ROLL_SECONDS = "PRE_ROLL_SECONDS";
+    private static final String KEY_CROP_RECT = "CROP_RECT";
+    private static final String KEY_OUTPUT_SCALE = "OUTPUT_SCALE";
 
-    private static final String INTERNAL_RECORDING_FILE = "recording.mp4";
+    private static final String RESERVED_SEGMENT_FILE = "segment.reserved";
+
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final long STOP_TIMEOUT_MS = 2000;
+    // arena headroom over the nominal bitrate, for key frames and the extra GOP kept at the window start
+    private static final float PRE_ROLL_BYTES_HEADROOM = 1.5f;
+
+    private static final long START_LATENCY_TARGET_NANOS = 150_000_000L;
+    private static final long STOP_LATENCY_TARGET_NANOS = 300_000_000L;
+    private static final int LATENCY_HISTORY = 32;
+    // lowest frame rate of the quality ladder, region recording only
+    private static final int MIN_ADAPTIVE_FRAME_RATE = 15;
 
     /*
     * `videoFrameWidth` and `videoFrameHeight` can be null. In this case display metrics will be used.
@@ -59,27 +86,159 @@ public class MediaProjectionService extends Service {
                 .putExtra(KEY_PROJECTION_RESULT_CODE, projectionResultCode);
     }
 
+    /**
+     * With {@code preRollSeconds} > 0 the screen is encoded continuously into memory from the projection
+     * grant on, and every recording begins with the last {@code preRollSeconds} before the start.
+     */
+    public static Intent newIntent(
+            @NonNull Context context, int projectionResultCode,
+            @NonNull Intent projectionData,
+            @Nullable Integer videoFrameWidth, @Nullable Integer videoFrameHeight,
+            int preRollSeconds
+    ) {
+        return newIntent(context, projectionResultCode, projectionData, videoFrameWidth, videoFrameHeight)
+                .putExtra(KEY_PRE_ROLL_SECONDS, preRollSeconds);
+    }
+
+    /**
+     * Records only {@code cropOnDisplay}, in real display pixels, scaled by {@code outputScale} in (0, 1].
+     * The frame size follows from the region, see {@link ProjectionGeometry}.
+     */
+    public static Intent newIntent(
+            @NonNull Context context, int projectionResultCode,
+            @NonNull Intent projectionData,
+            @NonNull Rect cropOnDisplay, float outputScale,
+            int preRollSeconds
+    ) {
+        return newIntent(context, projectionResultCode, projectionData, null, null, preRollSeconds)
+                .putExtra(KEY_CROP_RECT, new int[]{
+                        cropOnDisplay.left, cropOnDisplay.top, cropOnDisplay.right, cropOnDisplay.bottom})
+                .putExtra(KEY_OUTPUT_SCALE, outputScale);
+    }
+
+    @Nullable
+    private VideoRecordingEngine<MediaFormat> recordingEngine;
+
+    @Nullable
+    private MediaCodecEncoder recordingEncoder;
+
+    @Nullable
+    private ExecutorService recordingWriterExecutor;
+
+    @Nullable
+    private FragmentedMp4Sink<MediaFormat> standbySink;
     @Nullable
-    private MediaRecorder mediaRecorder;
+    private RecordingInfo.Collector standbyFiles;
+    // files of the recording in progress
+    @Nullable
+    private RecordingInfo.Collector recordingFiles;
+
+    // read by the writer thread when the first segment of a recording is opened
+    private volatile String recordingName;
 
     @Nullable
-    private MediaProjection mediaProjection;
+    private PreRollSink<MediaFormat> preRollSink;
+
+    // control thread only, exists while recording
+    @Nullable
+    private AdaptiveBitrateController bitrateController;
+    private final EncoderStats bitrateStats = new EncoderStats();
+    private final Runnable bitrateUpdateTask = this::updateBitrate;
+
+    // created on the control thread, checked on the main thread
+    @Nullable
+    private volatile MediaProjection mediaProjection;
 
     @Nullable
     private VirtualDisplay virtualDisplay;
 
+    // region recording only, sits between the virtual display and the encoder
+    @Nullable
+    private ProjectionGeometry projectionGeometry;
+    @Nullable
+    private CropRenderer cropRenderer;
+
     private final MediaProjectionBinder binder = new MediaProjectionBinder();
 
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // every recorder transition, the standby setup and the teardown run here, never on the main thread
+    private final HandlerThread controlThread = startControlThread();
+    private final Handler controlHandler = new Handler(controlThread.getLooper());
+
+    private final RecordingController recordingController = new RecordingController(
+            new RecordingController.Recorder() {
+                @Override
+                public void start() throws IOException {
+                    startRecordingNow();
+                }
+
+                @NonNull
+                @Override
+                public RecordingInfo stop() {
+                    return stopRecordingNow();
+                }
+            },
+            controlHandler::post, mainHandler::post);
+
+    private final LatencyRecorder startCallLatency =
+            new LatencyRecorder("start call", START_LATENCY_TARGET_NANOS, LATENCY_HISTORY);
+    private final LatencyRecorder startLatency =
+            new LatencyRecorder("start", START_LATENCY_TARGET_NANOS, LATENCY_HISTORY);
+    private final LatencyRecorder stopLatency =
+            new LatencyRecorder("stop", STOP_LATENCY_TARGET_NANOS, LATENCY_HISTORY);
+
+    private volatile boolean isRecording = false;
+    private volatile long startRequestNanos;
+    private volatile long stopRequestNanos;
+
+    private final VideoRecordingEngine.Listener recordingListener = new VideoRecordingEngine.Listener() {
+        @Override
+        public void onError(@NonNull Exception error) {
+            Log.e(TAG, "Recording error", error);
+        }
+
+        @Override
+        public void onAudioError(@NonNull Exception error) {
+            Log.w(TAG, "Recording without audio", error);
+        }
+
+        @Override
+        public void onFirstSample(long nowNanos) {
+            if (!isRecording) return;
+            startLatency.record(nowNanos - startRequestNanos);
+            if (!startLatency.isLastWithinTarget()) {
+                Log.w(TAG, "Recording start over target: " + startLatency);
+            }
+        }
+    };
+
+    // the first output frame is reported by the pre-roll sink, not by the engine
+    private final VideoRecordingEngine.Listener preRollEngineListener = new VideoRecordingEngine.Listener() {
+        @Override
+        public void onError(@NonNull Exception error) {
+            Log.e(TAG, "Recording error", error);
+        }
+
+        @Override
+        public void onAudioError(@NonNull Exception error) {
+            Log.w(TAG, "Recording without audio", error);
+        }
+    };
+
     int videoFrameHeight;
     int videoFrameWidth;
+    int captureWidth;
+    int captureHeight;
     int densityDpi;
     int projectionResultCode;
     Intent projectionData;
+    int preRollSeconds;
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        if (mediaRecorder == null) {
+        if (mediaProjection == null) {
             initVideoSize(intent);
         }
 
@@ -90,8 +249,9 @@ public class MediaProjectionService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         startForeground();
 
-        if (mediaRecorder == null) {
+        if (mediaProjection == null) {
             initVideoSize(intent);
+            controlHandler.post(this::prepareStandby);
         }
 
         return super.onStartCommand(intent, flags, startId);
@@ -104,77 +264,402 @@ public class MediaProjectionService extends Service {
         videoFrameWidth = intent.getIntExtra(KEY_VIDEO_FRAME_WIDTH, metrics.widthPixels);
         densityDpi = metrics.densityDpi;
 
-        if (videoFrameWidth % 2 != 0 || videoFrameHeight % 2 != 0) {
-            throw new IllegalArgumentException("videoFrameHeight and videoFrameWidth must be even. Current values: " +
-                    videoFrameHeight + "; " + videoFrameWidth);
+        int[] crop = intent.getIntArrayExtra(KEY_CROP_RECT);
+        if (crop != null) {
+            DisplayMetrics realMetrics = new DisplayMetrics();
+            DisplayManager displayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
+            displayManager.getDisplay(Display.DEFAULT_DISPLAY).getRealMetrics(realMetrics);
+            projectionGeometry = new ProjectionGeometry(realMetrics.widthPixels, realMetrics.heightPixels,
+                    crop[0], crop[1], crop[2], crop[3], intent.getFloatExtra(KEY_OUTPUT_SCALE, 1f));
+            Log.i(TAG, "Recording region " + Arrays.toString(crop) + ": " + projectionGeometry);
+            videoFrameWidth = projectionGeometry.getOutputWidth();
+            videoFrameHeight = projectionGeometry.getOutputHeight();
+            captureWidth = projectionGeometry.getCaptureWidth();
+            captureHeight = projectionGeometry.getCaptureHeight();
+        } else {
+            if (videoFrameWidth % 2 != 0 || videoFrameHeight % 2 != 0) {
+                throw new IllegalArgumentException("videoFrameHeight and videoFrameWidth must be even. Current values: " +
+                        videoFrameHeight + "; " + videoFrameWidth);
+            }
+            captureWidth = videoFrameWidth;
+            captureHeight = videoFrameHeight;
         }
 
         projectionResultCode = intent.getIntExtra(KEY_PROJECTION_RESULT_CODE, -1);
         projectionData = intent.getParcelableExtra(KEY_PROJECTION_DATA);
+        preRollSeconds = intent.getIntExtra(KEY_PRE_ROLL_SECONDS, 0);
     }
 
-    private void prepareForRecording() {
-        mediaRecorder = new MediaRecorder();
+    @NonNull
+    private EncoderConfig createEncoderConfig() {
+        return Recordings.createEncoderConfig(videoFrameWidth, videoFrameHeight, VIDEO_FRAME_RATE);
+    }
+
+    /**
+     * Output of one recording, segments named after {@link #recordingName}.
+     */
+    @NonNull
+    private FragmentedMp4Sink<MediaFormat> createSegmentSink(@NonNull EncoderConfig config,
+                                                            @NonNull RecordingInfo.Collector files) {
+        File dir = Recordings.getDirectory(this);
+        return Recordings.segmentSinkBuilder(index -> Recordings.segmentFile(dir, recordingName, index), config, files)
+                .setReservedFile(new File(dir, RESERVED_SEGMENT_FILE))
+                .<MediaFormat>build();
+    }
 
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+    @NonNull
+    private PreRollBuffer createPreRollBuffer(@NonNull EncoderConfig config) {
+        long bytes = (long) (config.getBitRate() / 8f * preRollSeconds * PRE_ROLL_BYTES_HEADROOM);
+        int gopFrames = (int) Math.ceil(config.getKeyFrameIntervalSeconds() * config.getFrameRate());
+        int samples = 2 * (preRollSeconds * config.getFrameRate() + gopFrames);
+        return new PreRollBuffer((int) Math.min(bytes, Integer.MAX_VALUE), samples, preRollSeconds * 1_000_000L);
+    }
 
-        CamcorderProfile profile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-        profile.videoFrameHeight = videoFrameHeight;
-        profile.videoFrameWidth = videoFrameWidth;
-        mediaRecorder.setProfile(profile);
+    @NonNull
+    private ExecutorService requireWriterExecutor() {
+        if (recordingWriterExecutor == null) {
+            recordingWriterExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "RecordingWriter"));
+        }
+        return recordingWriterExecutor;
+    }
 
-        File outputFile = new File(getFilesDir(), INTERNAL_RECORDING_FILE);
+    /**
+     * Configures and starts a new encoder writing into {@code sink}. It produces nothing until its input
+     * surface is attached to the virtual display. The microphone is encoded as well when RECORD_AUDIO is
+     * granted, from {@link VideoRecordingEngine#startAudio()} on.
+     */
+    private void startEngine(@NonNull SampleSink<MediaFormat> sink,
+                             @NonNull VideoRecordingEngine.Listener listener) throws IOException {
+        MediaCodecEncoder encoder = new MediaCodecEncoder();
+        AacAudioEncoder audioEncoder = hasAudioPermission() ? new AacAudioEncoder() : null;
+        VideoRecordingEngine<MediaFormat> engine = new VideoRecordingEngine<>(encoder, audioEncoder, sink,
+                createEncoderConfig(), requireWriterExecutor(), NanoClock.SYSTEM);
+        engine.setListener(listener);
         try {
-            if (outputFile.exists()) {
-                Log.d(TAG, "Internal output file deleted: " + outputFile.delete());
-            }
-            Log.d(TAG, "Internal output file created: " + outputFile.createNewFile());
+            engine.prepare();
         } catch (IOException e) {
-            Log.e(TAG, "Internal output file creation error", e);
-            throw new RuntimeException(e);
+            Log.e(TAG, "prepare encoder error", e);
+            engine.release();
+            throw e;
         }
-        mediaRecorder.setOutputFile(outputFile.getAbsolutePath());
+        engine.start();
+        recordingEncoder = encoder;
+        recordingEngine = engine;
+    }
 
-        try {
-            mediaRecorder.prepare();
-        } catch (IOException e) {
-            Log.e(TAG, "prepare mediaRecorder error", e);
-            throw new RuntimeException(e);
+    private boolean hasAudioPermission() {
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void stopEngine() {
+        if (recordingEngine != null) {
+            if (!recordingEngine.stop(STOP_TIMEOUT_MS)) {
+                Log.w(TAG, "Encoder did not signal end of stream in " + STOP_TIMEOUT_MS + " ms");
+            }
+            recordingEngine.release();
+            EncoderStats stats = new EncoderStats();
+            recordingEngine.snapshot(stats);
+            Log.i(TAG, "Recording finished: " + stats);
+            recordingEngine = null;
+            recordingEncoder = null;
         }
+    }
 
+    /**
+     * The projection and its virtual display live as long as the service: a projection token can only
+     * be used once, and switching the display surface is much cheaper than creating a display.
+     */
+    private void attachVirtualDisplay(@Nullable Surface surface) {
+        if (projectionGeometry != null) {
+            // the display always renders into the crop renderer, which forwards to the encoder
+            if (cropRenderer == null) {
+                cropRenderer = new CropRenderer(projectionGeometry);
+            }
+            cropRenderer.setOutputSurface(surface);
+            if (virtualDisplay != null) return;
+            surface = cropRenderer.getInputSurface();
+        }
+        if (virtualDisplay != null) {
+            virtualDisplay.setSurface(surface);
+            return;
+        }
         MediaProjectionManager projectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
         mediaProjection = projectionManager.getMediaProjection(
                 projectionResultCode, projectionData
         );
         Log.d(TAG, "Projection created successfully: " + mediaProjection);
         virtualDisplay = mediaProjection.createVirtualDisplay("ProjectionVirtualDisplay",
-                videoFrameWidth, videoFrameHeight,
+                captureWidth, captureHeight,
                 densityDpi,
                 DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-                mediaRecorder.getSurface(), null, null);
+                surface, null, null);
+    }
+
+    /**
+     * Warm standby: projection, virtual display, encoder and output file are all set up with the display
+     * detached, so starting a recording only attaches the encoder surface. In pre-roll mode the pre-roll
+     * encoder starts instead, so the first recording has its pre-roll as well.
+     */
+    private void prepareStandby() {
+        if (recordingEngine != null || projectionData == null) return;
+        long startNanos = System.nanoTime();
 
-        mediaRecorder.start();
+        try {
+            if (preRollSeconds > 0) {
+                startPreRoll();
+            } else {
+                prepareStandbyEngine();
+                attachVirtualDisplay(null);
+            }
+        } catch (IOException e) {
+            // retried by the next start
+            Log.e(TAG, "Cannot prepare standby", e);
+            return;
+        }
+        Log.d(TAG, "Standby prepared in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
     }
 
-    public void startRecording() {
-        prepareForRecording();
+    /**
+     * Starts encoding the screen and the microphone into the pre-roll buffer.
+     */
+    private void startPreRoll() throws IOException {
+        PreRollSink<MediaFormat> sink = new PreRollSink<>(createPreRollBuffer(createEncoderConfig()),
+                requireWriterExecutor(), NanoClock.SYSTEM);
+        sink.setListener(recordingListener);
+        startEngine(sink, preRollEngineListener);
+        preRollSink = sink;
+        attachVirtualDisplay(recordingEncoder.getInputSurface());
+        // the pre-roll keeps the audio before the start as well
+        recordingEngine.startAudio();
     }
 
-    public void stopRecording() {
-        if (mediaRecorder != null) {
-            mediaRecorder.stop();
-            mediaRecorder.release();
-            mediaRecorder = null;
+    private void prepareStandbyEngine() throws IOException {
+        if (recordingEngine != null) return;
+        standbyFiles = new RecordingInfo.Collector();
+        standbySink = createSegmentSink(createEncoderConfig(), standbyFiles);
+        try {
+            standbySink.prepare();
+        } catch (IOException e) {
+            // the first segment is allocated as it grows instead
+            Log.w(TAG, "Cannot reserve segment file", e);
         }
-        if (mediaProjection != null) {
-            mediaProjection.stop();
-            mediaProjection = null;
+        startEngine(standbySink, recordingListener);
+    }
+
+    /**
+     * Starts a recording on the control thread. Starting while recording or starting returns the pending
+     * future; starting while stopping queues the start.
+     */
+    @NonNull
+    public RecorderFuture<Void> startRecording() {
+        if (recordingController.getState() == RecorderState.IDLE) {
+            startRequestNanos = System.nanoTime();
+        }
+        return recordingController.start();
+    }
+
+    /**
+     * Stops the recording on the control thread. The future completes once the files are closed.
+     */
+    @NonNull
+    public RecorderFuture<RecordingInfo> stopRecording() {
+        if (recordingController.getState() == RecorderState.RECORDING) {
+            stopRequestNanos = System.nanoTime();
+        }
+        return recordingController.stop();
+    }
+
+    @NonNull
+    public RecorderState getRecorderState() {
+        return recordingController.getState();
+    }
+
+    /**
+     * @param listener called on the main thread
+     */
+    public void setRecorderListener(@Nullable RecordingController.Listener listener) {
+        recordingController.setListener(listener);
+    }
+
+    // control thread
+    private void startRecordingNow() throws IOException {
+        recordingName = Recordings.newName("screen");
+        isRecording = true;
+        try {
+            if (preRollSeconds > 0) {
+                if (preRollSink == null) {
+                    // only when the pre-roll could not start at the grant
+                    startPreRoll();
+                }
+                recordingFiles = new RecordingInfo.Collector();
+                preRollSink.requestOutput(createSegmentSink(recordingEngine.getConfig(), recordingFiles));
+            } else {
+                prepareStandbyEngine();
+                recordingFiles = standbyFiles;
+                attachVirtualDisplay(recordingEncoder.getInputSurface());
+                // the microphone stays off during standby
+                recordingEngine.startAudio();
+            }
+        } catch (IOException | RuntimeException e) {
+            isRecording = false;
+            throw e;
+        }
+        startCallLatency.record(System.nanoTime() - startRequestNanos);
+        startBitrateControl();
+    }
+
+    /**
+     * Control thread. In pre-roll mode only the file output is closed; encoding into memory continues
+     * until the service is destroyed. Otherwise the encoder is stopped and the next standby is prepared.
+     */
+    @NonNull
+    private RecordingInfo stopRecordingNow() {
+        isRecording = false;
+        stopBitrateControl();
+
+        if (preRollSink != null) {
+            CountDownLatch stopped = new CountDownLatch(1);
+            preRollSink.requestStopOutput(stopped::countDown);
+            try {
+                if (!stopped.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Output not closed in " + STOP_TIMEOUT_MS + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            attachVirtualDisplay(null);
+            stopEngine();
+            standbySink = null;
+            controlHandler.post(this::prepareStandby);
+        }
+        stopLatency.record(System.nanoTime() - stopRequestNanos);
+        Log.i(TAG, startLatency + ", " + stopLatency);
+
+        RecordingInfo info = recordingFiles != null
+                ? recordingFiles.build() : new RecordingInfo(Collections.emptyList(), 0, 0);
+        recordingFiles = null;
+        Log.i(TAG, "Recording saved: " + info);
+        return info;
+    }
+
+    /**
+     * Control thread. Follows the encoder and writer load with an {@link AdaptiveBitrateController}; the bit
+     * rate changes on the running encoder, the frame rate only in region mode where the crop renderer can
+     * drop display frames.
+     */
+    private void startBitrateControl() {
+        VideoRecordingEngine<MediaFormat> engine = recordingEngine;
+        if (engine == null) return;
+        EncoderConfig config = engine.getConfig();
+        int minFrameRate = cropRenderer != null ? MIN_ADAPTIVE_FRAME_RATE : config.getFrameRate();
+        bitrateController = Recordings.createBitrateController(config, minFrameRate, this::applyQualityLevel);
+        engine.snapshot(bitrateStats);
+        bitrateController.update(bitrateStats);
+        controlHandler.postDelayed(bitrateUpdateTask, Recordings.ADAPTIVE_UPDATE_INTERVAL_MS);
+    }
+
+    private void updateBitrate() {
+        VideoRecordingEngine<MediaFormat> engine = recordingEngine;
+        if (bitrateController == null || engine == null) return;
+        engine.snapshot(bitrateStats);
+        bitrateController.update(bitrateStats);
+        controlHandler.postDelayed(bitrateUpdateTask, Recordings.ADAPTIVE_UPDATE_INTERVAL_MS);
+    }
+
+    private void stopBitrateControl() {
+        controlHandler.removeCallbacks(bitrateUpdateTask);
+        if (bitrateController == null) return;
+        Log.i(TAG, "Recording " + bitrateController);
+        if (bitrateController.getLevelIndex() != 0) {
+            // the pre-roll encoder and the crop renderer outlive the recording
+            applyQualityLevel(bitrateController.getLadder().get(0));
         }
+        bitrateController = null;
+    }
+
+    private void applyQualityLevel(@NonNull AdaptiveBitrateController.Level level) {
+        Log.i(TAG, "Recording quality: " + level);
+        if (recordingEngine != null) {
+            recordingEngine.setBitRate(level.bitRate);
+        }
+        if (cropRenderer != null) {
+            // at full quality the display frames pass unchanged, as before the first step down
+            cropRenderer.setMaxFrameRate(level.frameRate < VIDEO_FRAME_RATE ? level.frameRate : 0);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        // queued behind the commands already accepted, so every future completes and the listener sees the
+        // recorder go back to IDLE; without a recording the stop fails right away
+        recordingController.stop();
+        controlHandler.post(this::release);
+        controlThread.quitSafely();
+        super.onDestroy();
+    }
+
+    // control thread
+    private void release() {
+        // the final stop ran before, as a RecordingController command
+        controlHandler.removeCallbacksAndMessages(null);
         if (virtualDisplay != null) {
             virtualDisplay.release();
             virtualDisplay = null;
         }
+        if (cropRenderer != null) {
+            cropRenderer.release();
+            cropRenderer = null;
+        }
+        stopEngine();
+        File reserved = new File(Recordings.getDirectory(this), RESERVED_SEGMENT_FILE);
+        if (reserved.exists()) {
+            Log.d(TAG, "Reserved segment file deleted: " + reserved.delete());
+        }
+        standbySink = null;
+        preRollSink = null;
+        if (recordingWriterExecutor != null) {
+            recordingWriterExecutor.shutdown();
+            recordingWriterExecutor = null;
+        }
+        if (mediaProjection != null) {
+            mediaProjection.stop();
+            mediaProjection = null;
+        }
+    }
+
+    @NonNull
+    private static HandlerThread startControlThread() {
+        HandlerThread thread = new HandlerThread("RecorderControl");
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return false when not recording
+     */
+    public boolean getEncoderStats(@NonNull EncoderStats out) {
+        VideoRecordingEngine<MediaFormat> engine = recordingEngine;
+        if (engine == null || !isRecording) return false;
+        engine.snapshot(out);
+        return true;
+    }
+
+    /**
+     * From the record request to the first frame in the output file.
+     */
+    @NonNull
+    public LatencyRecorder getStartLatency() {
+        return startLatency;
+    }
+
+    /**
+     * From the stop request to the closed output file.
+     */
+    @NonNull
+    public LatencyRecorder getStopLatency() {
+        return stopLatency;
     }
 
     private void startForeground() {
@@ -194,6 +679,9 @@ public class MediaProjectionService extends Service {
             int type = 0;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
                 type = ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION;
+                if (hasAudioPermission()) {
+                    type |= ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE;
+                }
             }
             ServiceCompat.startForeground(
                     this,
@@ -0,0 +1,57 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fixed capacity ring of (timestamp, value) samples in primitive arrays. One writer, any number of
+ * readers; {@link #copyTo} returns the most recent samples oldest first.
+ */
+public class MetricTimeSeries {
+
+    private final long[] timestamps;
+    private final float[] values;
+    // guarded by this
+    private long count = 0;
+
+    public MetricTimeSeries(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        timestamps = new long[capacity];
+        values = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void add(long timestampNanos, float value) {
+        int index = (int) (count % values.length);
+        timestamps[index] = timestampNanos;
+        values[index] = value;
+        count++;
+    }
+
+    public synchronized float getLatest() {
+        return count == 0 ? Float.NaN : values[(int) ((count - 1) % values.length)];
+    }
+
+    /**
+     * @return number of samples copied, at most the capacity and the length of the output arrays
+     */
+    public synchronized int copyTo(@NonNull long[] outTimestamps, @NonNull float[] outValues) {
+        int available = (int) Math.min(count, values.length);
+        int copied = Math.min(available, Math.min(outTimestamps.length, outValues.length));
+        long first = count - copied;
+        for (int i = 0; i < copied; i++) {
+            int index = (int) ((first + i) % values.length);
+            outTimestamps[i] = timestamps[index];
+            outValues[i] = values[index];
+        }
+        return copied;
+    }
+}
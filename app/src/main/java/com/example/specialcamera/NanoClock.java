@@ -0,0 +1,11 @@
+package com.example.specialcamera;
+
+/**
+ * Monotonic time source, replaceable in JVM tests.
+ */
+public interface NanoClock {
+
+    NanoClock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
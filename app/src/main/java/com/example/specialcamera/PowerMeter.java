@@ -0,0 +1,70 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Averages battery current samples over a measurement window and combines them with the encoder
+ * throughput of the same window. Not thread safe, sample and snapshot from one thread.
+ */
+public class PowerMeter {
+
+    /**
+     * Reported by {@code BatteryManager} when the current is not available.
+     */
+    public static final long UNKNOWN_CURRENT = Integer.MIN_VALUE;
+
+    private final NanoClock clock;
+
+    private long startNanos;
+    private int samples;
+    private double currentSumMicroAmps;
+    private double powerSumMilliwatts;
+
+    public PowerMeter(@NonNull NanoClock clock) {
+        this.clock = clock;
+        startNanos = clock.nanoTime();
+    }
+
+    /**
+     * Starts a new measurement window.
+     */
+    public void reset() {
+        startNanos = clock.nanoTime();
+        samples = 0;
+        currentSumMicroAmps = 0;
+        powerSumMilliwatts = 0;
+    }
+
+    /**
+     * @param currentMicroAmps  instantaneous battery current; the sign convention differs between devices,
+     *                          so only the magnitude is used. {@link #UNKNOWN_CURRENT} and 0 are ignored.
+     * @param voltageMillivolts battery voltage, 0 if unknown
+     */
+    public void addSample(long currentMicroAmps, int voltageMillivolts) {
+        if (currentMicroAmps == UNKNOWN_CURRENT || currentMicroAmps == 0) return;
+        double microAmps = Math.abs((double) currentMicroAmps);
+        samples++;
+        currentSumMicroAmps += microAmps;
+        powerSumMilliwatts += microAmps * voltageMillivolts / 1_000_000.0;
+    }
+
+    /**
+     * @param encoder stats of the recording running during the window, null for none
+     */
+    public void snapshot(@Nullable EncoderStats encoder, @NonNull PowerStats out) {
+        out.durationMillis = (clock.nanoTime() - startNanos) / 1_000_000L;
+        out.samples = samples;
+        out.averageCurrentMilliAmps = samples == 0 ? 0f : (float) (currentSumMicroAmps / samples / 1000.0);
+        out.averagePowerMilliwatts = samples == 0 ? 0f : (float) (powerSumMilliwatts / samples);
+        if (encoder != null && encoder.durationUs > 0) {
+            out.encodedFrames = encoder.encodedFrames;
+            out.framesPerSecond = encoder.encodedFrames * 1_000_000f / encoder.durationUs;
+            out.bitRateKbps = encoder.getBitRateKbps();
+        } else {
+            out.encodedFrames = 0;
+            out.framesPerSecond = 0f;
+            out.bitRateKbps = 0f;
+        }
+    }
+}
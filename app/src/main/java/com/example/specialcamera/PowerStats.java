@@ -0,0 +1,58 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Mutable result holder of {@link PowerMeter#snapshot}, one per compared mode.
+ * <p>
+ * Current is the whole device draw, so modes are compared by their difference; the values are only
+ * meaningful while the device runs on battery.
+ */
+public class PowerStats {
+
+    @NonNull
+    public final String label;
+
+    public long durationMillis;
+    public int samples;
+    public float averageCurrentMilliAmps;
+    public float averagePowerMilliwatts;
+    public long encodedFrames;
+    public float framesPerSecond;
+    public float bitRateKbps;
+
+    public PowerStats(@NonNull String label) {
+        this.label = label;
+    }
+
+    /**
+     * Device energy per encoded frame, NaN without frames or power samples.
+     */
+    public float getMillijoulesPerFrame() {
+        if (framesPerSecond <= 0f || samples == 0) return Float.NaN;
+        return averagePowerMilliwatts / framesPerSecond;
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        if (samples == 0) {
+            return label + " -";
+        }
+        if (encodedFrames == 0) {
+            return String.format(Locale.US, "%s %.0f mA", label, averageCurrentMilliAmps);
+        }
+        return String.format(Locale.US, "%s %.0f mA %.1f fps %.1f mJ/f",
+                label, averageCurrentMilliAmps, framesPerSecond, getMillijoulesPerFrame());
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "PowerStats{%s, duration=%dms, samples=%d, current=%.1fmA, power=%.1fmW, frames=%d, fps=%.2f, %.0fkbps, %.2fmJ/frame}",
+                label, durationMillis, samples, averageCurrentMilliAmps, averagePowerMilliwatts, encodedFrames,
+                framesPerSecond, bitRateKbps, getMillijoulesPerFrame());
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded in-memory history of an encoded video stream: the last GOPs covering a duration, kept in one
+ * preallocated direct byte arena with per-sample metadata in primitive arrays.
+ * <p>
+ * The oldest sample is always a key frame: eviction removes whole GOPs, when the arena, the sample table
+ * or the duration limit is exceeded. Once allocated, adding samples allocates nothing, so memory stays
+ * flat however long the stream runs. Not thread safe; owned by the writer thread.
+ */
+public class PreRollBuffer {
+
+    private final ByteBuffer arena;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final long maxDurationUs;
+
+    private final long[] timestampsUs;
+    private final int[] flags;
+    private final int[] offsets;
+    private final int[] sizes;
+    private int head = 0;
+    private int count = 0;
+    private int bufferedBytes = 0;
+
+    private ByteBuffer codecConfig = ByteBuffer.allocateDirect(256);
+    private boolean hasCodecConfig = false;
+    private ByteBuffer audioCodecConfig = ByteBuffer.allocateDirect(16);
+    private boolean hasAudioCodecConfig = false;
+
+    private long evictedSamples = 0;
+    private long rejectedSamples = 0;
+
+    /**
+     * @param capacityBytes size of the sample arena
+     * @param maxSamples    capacity of the sample table, e.g. duration times frame rate with headroom
+     * @param maxDurationUs keep the fewest GOPs which still cover this duration
+     */
+    public PreRollBuffer(int capacityBytes, int maxSamples, long maxDurationUs) {
+        if (capacityBytes <= 0 || maxSamples <= 0 || maxDurationUs <= 0) {
+            throw new IllegalArgumentException("Invalid pre-roll limits: " + capacityBytes + " bytes, "
+                    + maxSamples + " samples, " + maxDurationUs + " us");
+        }
+        arena = ByteBuffer.allocateDirect(capacityBytes);
+        writeView = arena.duplicate();
+        readView = arena.duplicate();
+        this.maxDurationUs = maxDurationUs;
+        timestampsUs = new long[maxSamples];
+        flags = new int[maxSamples];
+        offsets = new int[maxSamples];
+        sizes = new int[maxSamples];
+    }
+
+    /**
+     * Copies a sample into the buffer. Codec config replaces the stored config of its track; a delta frame
+     * or audio sample is rejected while the buffer holds no key frame to start from. Audio samples belong
+     * to the GOP they arrive in and are evicted with it.
+     *
+     * @return whether the sample was stored
+     */
+    public boolean add(@NonNull ByteBuffer data, @NonNull SampleInfo info) {
+        int size = data.remaining();
+        if (info.isCodecConfig()) {
+            if (info.isAudio()) {
+                audioCodecConfig = storeCodecConfig(data, audioCodecConfig);
+                hasAudioCodecConfig = true;
+            } else {
+                codecConfig = storeCodecConfig(data, codecConfig);
+                hasCodecConfig = true;
+            }
+            return true;
+        }
+        if (size == 0) return false;
+        if (size > arena.capacity()) {
+            clear();
+            rejectedSamples++;
+            return false;
+        }
+
+        int offset;
+        while (count == timestampsUs.length || (offset = findSpace(size)) < 0) {
+            evictOldestGop();
+        }
+        if (count == 0 && !isGopStart(info.flags)) {
+            rejectedSamples++;
+            return false;
+        }
+
+        int tail = (head + count) % timestampsUs.length;
+        int position = data.position();
+        writeView.clear();
+        writeView.position(offset);
+        writeView.put(data);
+        data.position(position);
+
+        timestampsUs[tail] = info.presentationTimeUs;
+        flags[tail] = info.flags;
+        offsets[tail] = offset;
+        sizes[tail] = size;
+        count++;
+        bufferedBytes += size;
+
+        trimToDuration(info.presentationTimeUs);
+        return true;
+    }
+
+    public void clear() {
+        evictedSamples += count;
+        head = 0;
+        count = 0;
+        bufferedBytes = 0;
+    }
+
+    public int getSampleCount() {
+        return count;
+    }
+
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public long getBufferedDurationUs() {
+        return count == 0 ? 0 : timestampsUs[index(count - 1)] - timestampsUs[head];
+    }
+
+    public long getEvictedSamples() {
+        return evictedSamples;
+    }
+
+    public long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    public int getCapacityBytes() {
+        return arena.capacity();
+    }
+
+    /**
+     * @param i 0 for the oldest sample
+     */
+    public long getTimestampUs(int i) {
+        return timestampsUs[index(i)];
+    }
+
+    public int getFlags(int i) {
+        return flags[index(i)];
+    }
+
+    /**
+     * @return shared view of the sample bytes, valid until the next call to any method of this buffer
+     */
+    @NonNull
+    public ByteBuffer getData(int i) {
+        int index = index(i);
+        readView.clear();
+        readView.position(offsets[index]);
+        readView.limit(offsets[index] + sizes[index]);
+        return readView;
+    }
+
+    /**
+     * @return shared view of the latest codec config, null if none was seen
+     */
+    @Nullable
+    public ByteBuffer getCodecConfig() {
+        if (!hasCodecConfig) return null;
+        ByteBuffer config = codecConfig.duplicate();
+        config.flip();
+        return config;
+    }
+
+    /**
+     * @return shared view of the latest audio codec config, null if none was seen
+     */
+    @Nullable
+    public ByteBuffer getAudioCodecConfig() {
+        if (!hasAudioCodecConfig) return null;
+        ByteBuffer config = audioCodecConfig.duplicate();
+        config.flip();
+        return config;
+    }
+
+    private int index(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Sample " + i + " of " + count);
+        }
+        return (head + i) % timestampsUs.length;
+    }
+
+    /**
+     * @return {@code store} or a larger buffer, holding a copy of {@code data}
+     */
+    @NonNull
+    private static ByteBuffer storeCodecConfig(@NonNull ByteBuffer data, @NonNull ByteBuffer store) {
+        if (data.remaining() > store.capacity()) {
+            // only when the codec config grows, which happens at most a few times per stream
+            store = ByteBuffer.allocateDirect(data.remaining());
+        }
+        int position = data.position();
+        store.clear();
+        store.put(data);
+        data.position(position);
+        return store;
+    }
+
+    /**
+     * Samples are laid out in arena order; a sample which does not fit before the end of the arena
+     * starts over at 0.
+     *
+     * @return arena offset with {@code size} free bytes, -1 if there is none
+     */
+    private int findSpace(int size) {
+        if (count == 0) return 0;
+        int headOffset = offsets[head];
+        int last = (head + count - 1) % timestampsUs.length;
+        int writeOffset = offsets[last] + sizes[last];
+        boolean wrapped = count > 1 && offsets[last] < headOffset;
+        if (wrapped) {
+            return writeOffset + size <= headOffset ? writeOffset : -1;
+        }
+        if (writeOffset + size <= arena.capacity()) return writeOffset;
+        return size <= headOffset ? 0 : -1;
+    }
+
+    private void evictOldestGop() {
+        do {
+            removeHead();
+        } while (count > 0 && !isGopStart(flags[head]));
+    }
+
+    /**
+     * Only video key frames start a GOP; AAC encoders flag every audio sample as a key frame.
+     */
+    private static boolean isGopStart(int flags) {
+        return (flags & (SampleInfo.FLAG_KEY_FRAME | SampleInfo.FLAG_AUDIO)) == SampleInfo.FLAG_KEY_FRAME;
+    }
+
+    private void removeHead() {
+        bufferedBytes -= sizes[head];
+        head = (head + 1) % timestampsUs.length;
+        count--;
+        evictedSamples++;
+    }
+
+    /**
+     * Drops the oldest GOP as long as the GOPs after it still cover the duration.
+     */
+    private void trimToDuration(long newestTimestampUs) {
+        while (true) {
+            int nextKey = -1;
+            for (int i = 1; i < count; i++) {
+                if (isGopStart(flags[(head + i) % timestampsUs.length])) {
+                    nextKey = i;
+                    break;
+                }
+            }
+            if (nextKey < 0) return;
+            long nextKeyTimestampUs = timestampsUs[(head + nextKey) % timestampsUs.length];
+            if (newestTimestampUs - nextKeyTimestampUs < maxDurationUs) return;
+            for (int i = 0; i < nextKey; i++) {
+                removeHead();
+            }
+        }
+    }
+}
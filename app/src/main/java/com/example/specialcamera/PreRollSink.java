@@ -0,0 +1,193 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link SampleSink} which keeps the stream in a {@link PreRollBuffer} and, on request, starts an
+ * output with the buffered GOPs followed by the live stream. Output timestamps start at 0 with the
+ * oldest buffered key frame. Buffering continues while an output is active, so the next output gets
+ * its pre-roll as well. Audio samples are buffered with the GOP they arrive in.
+ * <p>
+ * Output requests are executed on the writer executor which owns this sink.
+ */
+public class PreRollSink<F> implements SampleSink<F> {
+
+    private final PreRollBuffer buffer;
+    private final Executor writerExecutor;
+    private final NanoClock clock;
+    @Nullable
+    private volatile VideoRecordingEngine.Listener listener;
+
+    // writer thread only
+    private final SampleInfo outputInfo = new SampleInfo();
+    @Nullable
+    private F format;
+    @Nullable
+    private SampleSink<F> output;
+    private boolean outputStarted = false;
+    private long outputOffsetUs = -1;
+    private boolean outputHasFrames = false;
+
+    public PreRollSink(@NonNull PreRollBuffer buffer, @NonNull Executor writerExecutor, @NonNull NanoClock clock) {
+        this.buffer = buffer;
+        this.writerExecutor = writerExecutor;
+        this.clock = clock;
+    }
+
+    /**
+     * Receives failures of the output, after which the output is dropped and buffering goes on, and
+     * the first frame written to each output.
+     */
+    public void setListener(@Nullable VideoRecordingEngine.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts writing to {@code output}, replacing a previous output. If no format is known yet the
+     * output starts when it arrives.
+     */
+    public void requestOutput(@NonNull SampleSink<F> output) {
+        writerExecutor.execute(() -> {
+            stopOutput();
+            this.output = output;
+            startOutput();
+        });
+    }
+
+    public void requestStopOutput() {
+        requestStopOutput(null);
+    }
+
+    /**
+     * @param onStopped run on the writer thread once the output is stopped
+     */
+    public void requestStopOutput(@Nullable Runnable onStopped) {
+        writerExecutor.execute(() -> {
+            stopOutput();
+            if (onStopped != null) {
+                onStopped.run();
+            }
+        });
+    }
+
+    @Override
+    public void start(@NonNull F format) {
+        this.format = format;
+        startOutput();
+    }
+
+    @Override
+    public void writeSample(@NonNull ByteBuffer data, @NonNull SampleInfo info) {
+        buffer.add(data, info);
+        if (!outputStarted) return;
+
+        if (info.isCodecConfig()) {
+            writeToOutput(data, 0, info.flags);
+        } else {
+            if (outputOffsetUs < 0) {
+                // output started with an empty buffer, it begins with the next key frame
+                if (!info.isKeyFrame() || info.isAudio()) return;
+                outputOffsetUs = info.presentationTimeUs;
+            }
+            writeToOutput(data, info.presentationTimeUs - outputOffsetUs, info.flags);
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopOutput();
+    }
+
+    @NonNull
+    public PreRollBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void startOutput() {
+        SampleSink<F> output = this.output;
+        if (output == null || outputStarted || format == null) return;
+        try {
+            output.start(format);
+        } catch (IOException e) {
+            failOutput(e);
+            return;
+        }
+        outputStarted = true;
+        outputOffsetUs = -1;
+        outputHasFrames = false;
+
+        ByteBuffer codecConfig = buffer.getCodecConfig();
+        if (codecConfig != null) {
+            writeToOutput(codecConfig, 0, SampleInfo.FLAG_CODEC_CONFIG);
+        }
+        ByteBuffer audioCodecConfig = buffer.getAudioCodecConfig();
+        if (audioCodecConfig != null && outputStarted) {
+            writeToOutput(audioCodecConfig, 0, SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_AUDIO);
+        }
+        int samples = buffer.getSampleCount();
+        if (samples > 0) {
+            outputOffsetUs = buffer.getTimestampUs(0);
+        }
+        for (int i = 0; i < samples && outputStarted; i++) {
+            writeToOutput(buffer.getData(i), buffer.getTimestampUs(i) - outputOffsetUs, buffer.getFlags(i));
+        }
+    }
+
+    private void writeToOutput(@NonNull ByteBuffer data, long presentationTimeUs, int flags) {
+        SampleSink<F> output = this.output;
+        if (output == null) return;
+        outputInfo.set(presentationTimeUs, flags);
+        try {
+            output.writeSample(data, outputInfo);
+        } catch (IOException e) {
+            failOutput(e);
+            return;
+        }
+        if (!outputHasFrames && !outputInfo.isCodecConfig() && !outputInfo.isAudio()) {
+            outputHasFrames = true;
+            VideoRecordingEngine.Listener listener = this.listener;
+            if (listener != null) {
+                listener.onFirstSample(clock.nanoTime());
+            }
+        }
+    }
+
+    private void stopOutput() {
+        SampleSink<F> output = this.output;
+        this.output = null;
+        boolean started = outputStarted;
+        outputStarted = false;
+        if (output == null || !started) return;
+        try {
+            output.stop();
+        } catch (IOException e) {
+            notifyError(e);
+        }
+    }
+
+    private void failOutput(@NonNull IOException error) {
+        SampleSink<F> output = this.output;
+        this.output = null;
+        outputStarted = false;
+        notifyError(error);
+        if (output != null) {
+            try {
+                output.stop();
+            } catch (IOException ignored) {
+                // already failed
+            }
+        }
+    }
+
+    private void notifyError(@NonNull Exception error) {
+        VideoRecordingEngine.Listener listener = this.listener;
+        if (listener != null) {
+            listener.onError(error);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.specialcamera;
+
+/**
+ * Maps a region of the display to the crop of a scaled screen capture.
+ * <p>
+ * The virtual display is created at the display size times the output scale, and the system mirrors the
+ * display into it scaled to fit and centred. The requested region is mapped into that capture and
+ * widened or narrowed to an encoder friendly size centred on it. The crop is then copied 1:1, so the
+ * only resampling is the one done by the compositor.
+ */
+public final class ProjectionGeometry {
+
+    /**
+     * Output dimensions are multiples of this, which every hardware encoder accepts.
+     */
+    public static final int OUTPUT_ALIGNMENT = 16;
+
+    private final int captureWidth;
+    private final int captureHeight;
+    private final int cropLeft;
+    private final int cropTop;
+    private final int outputWidth;
+    private final int outputHeight;
+
+    /**
+     * @param cropLeft    region in display pixels, clamped to the display
+     * @param outputScale output pixels per display pixel, in (0, 1]
+     */
+    public ProjectionGeometry(int displayWidth, int displayHeight,
+                              int cropLeft, int cropTop, int cropRight, int cropBottom, float outputScale) {
+        if (displayWidth <= 0 || displayHeight <= 0) {
+            throw new IllegalArgumentException("Invalid display size " + displayWidth + "x" + displayHeight);
+        }
+        if (!(outputScale > 0f && outputScale <= 1f)) {
+            throw new IllegalArgumentException("outputScale must be in (0, 1]: " + outputScale);
+        }
+        int left = clamp(cropLeft, 0, displayWidth);
+        int top = clamp(cropTop, 0, displayHeight);
+        int right = clamp(cropRight, 0, displayWidth);
+        int bottom = clamp(cropBottom, 0, displayHeight);
+        if (right <= left || bottom <= top) {
+            throw new IllegalArgumentException("Empty crop region [" + cropLeft + ", " + cropTop + ", "
+                    + cropRight + ", " + cropBottom + "] on " + displayWidth + "x" + displayHeight);
+        }
+
+        captureWidth = Math.max(OUTPUT_ALIGNMENT, even(displayWidth * outputScale));
+        captureHeight = Math.max(OUTPUT_ALIGNMENT, even(displayHeight * outputScale));
+
+        float fit = Math.min((float) captureWidth / displayWidth, (float) captureHeight / displayHeight);
+        float offsetX = (captureWidth - displayWidth * fit) / 2f;
+        float offsetY = (captureHeight - displayHeight * fit) / 2f;
+
+        outputWidth = alignedSize((right - left) * fit, captureWidth);
+        outputHeight = alignedSize((bottom - top) * fit, captureHeight);
+
+        float centerX = offsetX + (left + right) / 2f * fit;
+        float centerY = offsetY + (top + bottom) / 2f * fit;
+        this.cropLeft = clamp(Math.round(centerX - outputWidth / 2f), 0, captureWidth - outputWidth);
+        this.cropTop = clamp(Math.round(centerY - outputHeight / 2f), 0, captureHeight - outputHeight);
+    }
+
+    /**
+     * Virtual display size.
+     */
+    public int getCaptureWidth() {
+        return captureWidth;
+    }
+
+    public int getCaptureHeight() {
+        return captureHeight;
+    }
+
+    /**
+     * Encoded frame size, also the size of the crop in capture pixels.
+     */
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Crop origin in capture pixels, top-left origin.
+     */
+    public int getCropLeft() {
+        return cropLeft;
+    }
+
+    public int getCropTop() {
+        return cropTop;
+    }
+
+    /**
+     * Writes the crop as texture coordinates {@code u0, v0, u1, v1} with the GL bottom-left origin, to be
+     * transformed by the SurfaceTexture matrix.
+     */
+    public void getTextureCrop(float[] out) {
+        out[0] = (float) cropLeft / captureWidth;
+        out[1] = 1f - (float) (cropTop + outputHeight) / captureHeight;
+        out[2] = (float) (cropLeft + outputWidth) / captureWidth;
+        out[3] = 1f - (float) cropTop / captureHeight;
+    }
+
+    private static int alignedSize(float size, int limit) {
+        int aligned = Math.round(size / OUTPUT_ALIGNMENT) * OUTPUT_ALIGNMENT;
+        int maxAligned = limit / OUTPUT_ALIGNMENT * OUTPUT_ALIGNMENT;
+        return clamp(aligned, OUTPUT_ALIGNMENT, maxAligned);
+    }
+
+    private static int even(float size) {
+        return Math.round(size / 2f) * 2;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectionGeometry{capture=" + captureWidth + "x" + captureHeight
+                + ", crop=" + cropLeft + "," + cropTop + " " + outputWidth + "x" + outputHeight + "}";
+    }
+}
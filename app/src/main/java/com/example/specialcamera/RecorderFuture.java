@@ -0,0 +1,154 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous recorder command. A minimal stand-in for {@code CompletableFuture}, which
+ * needs API 24: completed once, with callbacks on a caller supplied executor. Cancellation is not
+ * supported, a started transition always runs to the end.
+ */
+public final class RecorderFuture<T> implements Future<T> {
+
+    public interface Callback<T> {
+        /**
+         * @param error null on success
+         */
+        void onComplete(@Nullable T value, @Nullable Throwable error);
+    }
+
+    private final Object lock = new Object();
+    private boolean done = false;
+    @Nullable
+    private T value;
+    @Nullable
+    private Throwable error;
+    private List<Runnable> callbacks = new ArrayList<>();
+
+    @NonNull
+    public static <T> RecorderFuture<T> failed(@NonNull Throwable error) {
+        RecorderFuture<T> future = new RecorderFuture<>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * @return false if already completed
+     */
+    public boolean complete(@Nullable T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return false if already completed
+     */
+    public boolean fail(@NonNull Throwable error) {
+        return finish(null, error);
+    }
+
+    /**
+     * Runs {@code callback} on {@code executor} once completed, right away if already completed.
+     */
+    public void whenComplete(@NonNull Executor executor, @NonNull Callback<? super T> callback) {
+        Runnable notification = () -> {
+            T value;
+            Throwable error;
+            synchronized (lock) {
+                value = this.value;
+                error = this.error;
+            }
+            callback.onComplete(value, error);
+        };
+        synchronized (lock) {
+            if (!done) {
+                callbacks.add(() -> executor.execute(notification));
+                return;
+            }
+        }
+        executor.execute(notification);
+    }
+
+    /**
+     * @return the failure, null if pending or successful
+     */
+    @Nullable
+    public Throwable getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return done;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (!done) {
+                lock.wait();
+            }
+            return result();
+        }
+    }
+
+    @Override
+    public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!done) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+            }
+            return result();
+        }
+    }
+
+    private T result() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+
+    private boolean finish(@Nullable T value, @Nullable Throwable error) {
+        List<Runnable> callbacks;
+        synchronized (lock) {
+            if (done) return false;
+            done = true;
+            this.value = value;
+            this.error = error;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+            lock.notifyAll();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        return true;
+    }
+}
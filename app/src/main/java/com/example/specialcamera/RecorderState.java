@@ -0,0 +1,12 @@
+package com.example.specialcamera;
+
+/**
+ * States of {@link RecordingController}. Only {@link #STARTING} and {@link #STOPPING} involve work on the
+ * control thread.
+ */
+public enum RecorderState {
+    IDLE,
+    STARTING,
+    RECORDING,
+    STOPPING
+}
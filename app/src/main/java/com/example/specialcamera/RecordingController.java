@@ -0,0 +1,160 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs recorder start and stop on a serial control executor, so callers never block on encoder or file
+ * work.
+ * <p>
+ * Commands are queued in order. A command repeating the last accepted one returns that command's future
+ * instead of queueing again, so double taps are harmless; a start requested while stopping runs once the
+ * stop is done. A stop without a pending or active recording fails right away.
+ */
+public class RecordingController {
+
+    /**
+     * Blocking recorder operations, called on the control executor only.
+     */
+    public interface Recorder {
+        void start() throws Exception;
+
+        @NonNull
+        RecordingInfo stop() throws Exception;
+    }
+
+    public interface Listener {
+        void onStateChanged(@NonNull RecorderState state);
+    }
+
+    private final Recorder recorder;
+    private final Executor controlExecutor;
+    private final Executor callbackExecutor;
+
+    private final Object lock = new Object();
+    // guarded by lock
+    private RecorderState state = RecorderState.IDLE;
+    // guarded by lock, true if the last accepted command is a start
+    private boolean startRequested = false;
+    @Nullable
+    private RecorderFuture<Void> lastStart;
+    @Nullable
+    private RecorderFuture<RecordingInfo> lastStop;
+
+    @Nullable
+    private volatile Listener listener;
+
+    /**
+     * @param controlExecutor  serial executor the recorder runs on
+     * @param callbackExecutor delivers {@link Listener} calls, typically the main thread
+     */
+    public RecordingController(@NonNull Recorder recorder, @NonNull Executor controlExecutor,
+                               @NonNull Executor callbackExecutor) {
+        this.recorder = recorder;
+        this.controlExecutor = controlExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    public RecorderState getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /**
+     * @return completes once recording, fails if the recorder could not start
+     */
+    @NonNull
+    public RecorderFuture<Void> start() {
+        RecorderFuture<Void> future;
+        synchronized (lock) {
+            if (startRequested && lastStart != null) {
+                return lastStart;
+            }
+            startRequested = true;
+            future = new RecorderFuture<>();
+            lastStart = future;
+        }
+        controlExecutor.execute(() -> runStart(future));
+        return future;
+    }
+
+    /**
+     * @return completes with the recorded files once they are closed
+     */
+    @NonNull
+    public RecorderFuture<RecordingInfo> stop() {
+        RecorderFuture<RecordingInfo> future;
+        synchronized (lock) {
+            if (!startRequested) {
+                if (lastStop != null && !lastStop.isDone()) {
+                    return lastStop;
+                }
+                return RecorderFuture.failed(new IllegalStateException("Not recording"));
+            }
+            startRequested = false;
+            future = new RecorderFuture<>();
+            lastStop = future;
+        }
+        controlExecutor.execute(() -> runStop(future));
+        return future;
+    }
+
+    private void runStart(@NonNull RecorderFuture<Void> future) {
+        if (getState() != RecorderState.IDLE) {
+            // commands are serial and every transition ends in IDLE or RECORDING, kept as a safety net
+            future.fail(new IllegalStateException("Recorder is " + getState()));
+            return;
+        }
+        setState(RecorderState.STARTING);
+        try {
+            recorder.start();
+        } catch (Exception e) {
+            synchronized (lock) {
+                if (lastStart == future) {
+                    startRequested = false;
+                }
+            }
+            setState(RecorderState.IDLE);
+            future.fail(e);
+            return;
+        }
+        setState(RecorderState.RECORDING);
+        future.complete(null);
+    }
+
+    private void runStop(@NonNull RecorderFuture<RecordingInfo> future) {
+        if (getState() != RecorderState.RECORDING) {
+            // the start this stop pairs with failed
+            future.fail(new IllegalStateException("Recorder is " + getState()));
+            return;
+        }
+        setState(RecorderState.STOPPING);
+        try {
+            RecordingInfo info = recorder.stop();
+            setState(RecorderState.IDLE);
+            future.complete(info);
+        } catch (Exception e) {
+            // the recorder releases what it can, the next start begins from scratch
+            setState(RecorderState.IDLE);
+            future.fail(e);
+        }
+    }
+
+    private void setState(@NonNull RecorderState state) {
+        synchronized (lock) {
+            this.state = state;
+        }
+        Listener listener = this.listener;
+        if (listener != null) {
+            callbackExecutor.execute(() -> listener.onStateChanged(state));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Files of a finished recording, in order.
+ */
+public final class RecordingInfo {
+
+    private final List<File> files;
+    private final long durationUs;
+    private final long sizeBytes;
+
+    public RecordingInfo(@NonNull List<File> files, long durationUs, long sizeBytes) {
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.durationUs = durationUs;
+        this.sizeBytes = sizeBytes;
+    }
+
+    @NonNull
+    public List<File> getFiles() {
+        return files;
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RecordingInfo{files=" + files + ", duration=" + durationUs / 1000 + "ms, size=" + sizeBytes + "}";
+    }
+
+    /**
+     * Collects the segments closed by a {@link FragmentedMp4Sink}, which closes them on its writer thread.
+     */
+    public static final class Collector implements FragmentedMp4Sink.SegmentListener {
+
+        private final List<File> files = new ArrayList<>();
+        private long durationUs;
+        private long sizeBytes;
+
+        @Override
+        public synchronized void onSegmentClosed(@NonNull File file, long durationUs, long bytes) {
+            files.add(file);
+            this.durationUs += durationUs;
+            sizeBytes += bytes;
+        }
+
+        @NonNull
+        public synchronized RecordingInfo build() {
+            return new RecordingInfo(files, durationUs, sizeBytes);
+        }
+    }
+}
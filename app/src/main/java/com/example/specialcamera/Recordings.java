@@ -0,0 +1,114 @@
+package com.example.specialcamera;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Encoder settings and output files shared by screen and camera recording, so that both modes produce
+ * comparable files.
+ */
+final class Recordings {
+
+    private static final String TAG = "Recordings";
+
+    private static final String DIRECTORY = "recordings";
+
+    private static final float VIDEO_BITS_PER_PIXEL = 0.15f;
+    private static final float KEY_FRAME_INTERVAL_SECONDS = 1f;
+
+    private static final long FRAGMENT_DURATION_US = 1_000_000L;
+    private static final long MAX_SEGMENT_DURATION_US = 5 * 60 * 1_000_000L;
+    private static final long MAX_SEGMENT_BYTES = 512L * 1024 * 1024;
+    private static final long PREALLOCATION_CHUNK_BYTES = 16L * 1024 * 1024;
+
+    // one update per fragment, so the write load always includes one fragment flush and sync
+    static final long ADAPTIVE_UPDATE_INTERVAL_MS = FRAGMENT_DURATION_US / 1000;
+    private static final int ADAPTIVE_MIN_BIT_RATE_DIVISOR = 4;
+    private static final int ADAPTIVE_BIT_RATE_STEPS = 2;
+
+    private Recordings() {
+    }
+
+    @NonNull
+    static EncoderConfig createEncoderConfig(int width, int height, int frameRate) {
+        int bitRate = (int) (width * height * frameRate * VIDEO_BITS_PER_PIXEL);
+        return new EncoderConfig.Builder(width, height)
+                .setBitRate(bitRate)
+                .setBitrateMode(EncoderConfig.BITRATE_MODE_VBR)
+                .setFrameRate(frameRate)
+                .setKeyFrameIntervalSeconds(KEY_FRAME_INTERVAL_SECONDS)
+                .setMaxBFrames(0)
+                .build();
+    }
+
+    /**
+     * Quality ladder from {@code config} down to a quarter of its bit rate, then down to
+     * {@code minFrameRate}. Call {@link AdaptiveBitrateController#update} every
+     * {@link #ADAPTIVE_UPDATE_INTERVAL_MS}.
+     */
+    @NonNull
+    static AdaptiveBitrateController createBitrateController(@NonNull EncoderConfig config, int minFrameRate,
+                                                             @NonNull AdaptiveBitrateController.Actuator actuator) {
+        return new AdaptiveBitrateController.Builder(AdaptiveBitrateController.ladder(config.getBitRate(),
+                config.getBitRate() / ADAPTIVE_MIN_BIT_RATE_DIVISOR, config.getFrameRate(),
+                Math.min(minFrameRate, config.getFrameRate()), ADAPTIVE_BIT_RATE_STEPS), actuator)
+                .build();
+    }
+
+    @NonNull
+    static File getDirectory(@NonNull Context context) {
+        File dir = new File(context.getFilesDir(), DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    @NonNull
+    static String newName(@NonNull String prefix) {
+        return prefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+    }
+
+    @NonNull
+    static File segmentFile(@NonNull File dir, @NonNull String name, int index) {
+        return new File(dir, String.format(Locale.US, "%s-%03d.mp4", name, index));
+    }
+
+    /**
+     * Capture metadata log written next to the segments of recording {@code name}.
+     */
+    @NonNull
+    static File metadataFile(@NonNull File dir, @NonNull String name, @NonNull CaptureMetadataExporter.Format format) {
+        return new File(dir, name + "-metadata." + format.fileExtension);
+    }
+
+    /**
+     * Fragmented MP4 segments for {@code config}. Every fragment is synced, so a crash loses at most the
+     * last second.
+     *
+     * @param collector receives every closed segment
+     */
+    @NonNull
+    static FragmentedMp4Sink.Builder segmentSinkBuilder(@NonNull FragmentedMp4Sink.SegmentFiles files,
+                                                       @NonNull EncoderConfig config,
+                                                       @NonNull RecordingInfo.Collector collector) {
+        return new FragmentedMp4Sink.Builder(files, config.getWidth(), config.getHeight())
+                .setFrameRate(config.getFrameRate())
+                .setMaxFragmentDurationUs(FRAGMENT_DURATION_US)
+                .setMaxSegmentDurationUs(MAX_SEGMENT_DURATION_US)
+                .setMaxSegmentBytes(MAX_SEGMENT_BYTES)
+                .setPreallocation(PREALLOCATION_CHUNK_BYTES, new AndroidFilePreallocator())
+                .setFsyncPolicy(FsyncPolicy.EVERY_FRAGMENT)
+                .setSegmentListener((file, durationUs, bytes) -> {
+                    Log.i(TAG, "Segment saved: " + file.getName() + ", " + durationUs / 1000 + " ms, " + bytes + " bytes");
+                    collector.onSegmentClosed(file, durationUs, bytes);
+                });
+    }
+}
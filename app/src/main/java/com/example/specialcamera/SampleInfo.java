@@ -0,0 +1,39 @@
+package com.example.specialcamera;
+
+/**
+ * Metadata of one encoded access unit handed to a {@link SampleSink}. Instances are reused by the
+ * producer, sinks must copy what they keep. Flag values match {@code MediaCodec.BUFFER_FLAG_*}, except
+ * {@link #FLAG_AUDIO} which marks the samples of the audio track.
+ */
+public class SampleInfo {
+
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+    // above the MediaCodec flags
+    public static final int FLAG_AUDIO = 1 << 16;
+
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(long presentationTimeUs, int flags) {
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (flags & FLAG_END_OF_STREAM) != 0;
+    }
+
+    public boolean isAudio() {
+        return (flags & FLAG_AUDIO) != 0;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumer of an encoded video stream, e.g. a muxer. All calls come from a single writer thread:
+ * {@link #start} once with the output format, then samples in decode order, then {@link #stop}, which
+ * is also called when the stream ended before any format arrived.
+ *
+ * @param <F> track format type, {@code MediaFormat} on the device
+ */
+public interface SampleSink<F> {
+
+    void start(@NonNull F format) throws IOException;
+
+    /**
+     * @param data sample bytes between position and limit, only valid during the call
+     * @param info presentation time relative to the start of the recording; codec config samples
+     *             ({@link SampleInfo#FLAG_CODEC_CONFIG}) are passed through and may be ignored
+     */
+    void writeSample(@NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException;
+
+    void stop() throws IOException;
+}
@@ -0,0 +1,180 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Focus metric for the crosshair: variance of the 4-neighbour Laplacian of the Y plane inside a square
+ * region of interest centred on the frame, where both crosshairs point. Higher is sharper; values are
+ * only comparable for the same scene and resolution.
+ * <p>
+ * Optionally the same metric is computed for a grid of tiles over the whole frame, as input for a focus
+ * peaking overlay. Tiles are distributed over {@link StripedExecutor} threads. The ROI value of every
+ * frame is appended to a {@link MetricTimeSeries}. Nothing is allocated per frame.
+ */
+public class SharpnessAnalyzer implements FrameAnalyzer, StripedExecutor.StripeTask {
+
+    public static final int TIME_SERIES_CAPACITY = 512;
+
+    private final float roiFraction;
+    private final int gridColumns;
+    private final int gridRows;
+    private final int gridSampleStep;
+    @Nullable
+    private final StripedExecutor stripedExecutor;
+
+    private final MetricTimeSeries roiTimeSeries = new MetricTimeSeries(TIME_SERIES_CAPACITY);
+
+    // count, sum, sum of squares per tile
+    private final long[] tileStats;
+    private final long[] roiStats = new long[3];
+    // guarded by itself
+    private final float[] publishedTiles;
+
+    // frame being processed by runStripe()
+    private YuvFrame currentFrame;
+
+    /**
+     * @param roiFraction    side of the region of interest relative to the shorter frame side, 0..1
+     * @param gridColumns    0 to disable the tile grid
+     * @param gridSampleStep evaluate the Laplacian at every n-th row and column of a tile
+     */
+    public SharpnessAnalyzer(float roiFraction, int gridColumns, int gridRows, int gridSampleStep,
+                             @Nullable StripedExecutor stripedExecutor) {
+        if (roiFraction <= 0 || roiFraction > 1) {
+            throw new IllegalArgumentException("roiFraction must be in (0, 1]: " + roiFraction);
+        }
+        if (gridColumns < 0 || gridRows < 0 || (gridColumns == 0) != (gridRows == 0) || gridSampleStep < 1) {
+            throw new IllegalArgumentException("Invalid grid: " + gridColumns + "x" + gridRows + " step " + gridSampleStep);
+        }
+        this.roiFraction = roiFraction;
+        this.gridColumns = gridColumns;
+        this.gridRows = gridRows;
+        this.gridSampleStep = gridSampleStep;
+        this.stripedExecutor = stripedExecutor;
+        tileStats = new long[gridColumns * gridRows * 3];
+        publishedTiles = new float[gridColumns * gridRows];
+    }
+
+    @Override
+    public void analyze(@NonNull YuvFrame frame, @NonNull AnalysisBuffers buffers) {
+        int side = Math.max(3, (int) (Math.min(frame.getWidth(), frame.getHeight()) * roiFraction));
+        int left = (frame.getWidth() - side) / 2;
+        int top = (frame.getHeight() - side) / 2;
+        laplacianStats(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                left, top, left + side, top + side, 1, roiStats, 0);
+        roiTimeSeries.add(frame.getTimestampNanos(), variance(roiStats, 0));
+
+        int tiles = gridColumns * gridRows;
+        if (tiles == 0) return;
+
+        currentFrame = frame;
+        try {
+            if (stripedExecutor != null) {
+                stripedExecutor.run(Math.min(tiles, stripedExecutor.getParallelism()), this);
+            } else {
+                runStripe(0, 1);
+            }
+        } finally {
+            currentFrame = null;
+        }
+        synchronized (publishedTiles) {
+            for (int tile = 0; tile < tiles; tile++) {
+                publishedTiles[tile] = variance(tileStats, tile * 3);
+            }
+        }
+    }
+
+    /**
+     * Tiles are interleaved over the stripes, so the cost stays balanced when detail is concentrated
+     * in one part of the frame.
+     */
+    @Override
+    public void runStripe(int stripe, int stripeCount) {
+        YuvFrame frame = currentFrame;
+        int tiles = gridColumns * gridRows;
+        for (int tile = stripe; tile < tiles; tile += stripeCount) {
+            int column = tile % gridColumns;
+            int row = tile / gridColumns;
+            int left = frame.getWidth() * column / gridColumns;
+            int right = frame.getWidth() * (column + 1) / gridColumns;
+            int top = frame.getHeight() * row / gridRows;
+            int bottom = frame.getHeight() * (row + 1) / gridRows;
+            laplacianStats(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                    left, top, right, bottom, gridSampleStep, tileStats, tile * 3);
+        }
+    }
+
+    @NonNull
+    public MetricTimeSeries getRoiTimeSeries() {
+        return roiTimeSeries;
+    }
+
+    /**
+     * Sharpness of the crosshair region in the latest frame, NaN before the first frame.
+     */
+    public float getRoiSharpness() {
+        return roiTimeSeries.getLatest();
+    }
+
+    /**
+     * Copies the tile values of the latest frame, row by row, into {@code out}.
+     */
+    public void copyTiles(@NonNull float[] out) {
+        synchronized (publishedTiles) {
+            System.arraycopy(publishedTiles, 0, out, 0, Math.min(out.length, publishedTiles.length));
+        }
+    }
+
+    public int getGridColumns() {
+        return gridColumns;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+
+    /**
+     * Laplacian kernel: writes count, sum and sum of squares of the 4-neighbour Laplacian at every
+     * {@code step}-th pixel of {@code [left, right) x [top, bottom)} into {@code out[outIndex..outIndex + 2]}.
+     * The region must lie within the frame; its outermost rows and columns are skipped since they lack
+     * neighbours inside the region. Absolute reads only.
+     */
+    public static void laplacianStats(@NonNull ByteBuffer plane, int rowStride, int pixelStride,
+                                      int left, int top, int right, int bottom, int step,
+                                      @NonNull long[] out, int outIndex) {
+        long count = 0;
+        long sum = 0;
+        long sumOfSquares = 0;
+        int firstRow = top + 1;
+        int firstColumn = left + 1;
+        int lastRow = bottom - 1;
+        int lastColumn = right - 1;
+        for (int y = firstRow; y < lastRow; y += step) {
+            int center = y * rowStride + firstColumn * pixelStride;
+            int columnStride = pixelStride * step;
+            for (int x = firstColumn; x < lastColumn; x += step, center += columnStride) {
+                int laplacian = 4 * (plane.get(center) & 0xFF)
+                        - (plane.get(center - pixelStride) & 0xFF)
+                        - (plane.get(center + pixelStride) & 0xFF)
+                        - (plane.get(center - rowStride) & 0xFF)
+                        - (plane.get(center + rowStride) & 0xFF);
+                count++;
+                sum += laplacian;
+                sumOfSquares += (long) laplacian * laplacian;
+            }
+        }
+        out[outIndex] = count;
+        out[outIndex + 1] = sum;
+        out[outIndex + 2] = sumOfSquares;
+    }
+
+    private static float variance(long[] stats, int index) {
+        long count = stats[index];
+        if (count == 0) return 0f;
+        double mean = (double) stats[index + 1] / count;
+        return (float) ((double) stats[index + 2] / count - mean * mean);
+    }
+}
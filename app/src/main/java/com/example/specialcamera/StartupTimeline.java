@@ -0,0 +1,94 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * When each phase of a camera start was first reached, relative to the open request. Phases run in
+ * parallel, so their order varies between launches; time-to-first-frame is the one that matters.
+ * Thread safe.
+ */
+public class StartupTimeline {
+
+    public enum Phase {
+        DEVICE_OPENED("device"),
+        PREVIEW_SURFACE_READY("preview surface"),
+        LENS_SURFACE_READY("lens surface"),
+        SESSION_CONFIGURED("session"),
+        FIRST_CAPTURE_RESULT("first result"),
+        FIRST_FRAME("first frame");
+
+        public final String label;
+
+        Phase(@NonNull String label) {
+            this.label = label;
+        }
+    }
+
+    private static final long NONE = -1;
+
+    private final NanoClock clock;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long startNanos = NONE;
+
+    public StartupTimeline(@NonNull NanoClock clock) {
+        this.clock = clock;
+        Arrays.fill(phaseNanos, NONE);
+    }
+
+    /**
+     * Starts a new timeline, forgetting the previous one.
+     */
+    public synchronized void start() {
+        startNanos = clock.nanoTime();
+        Arrays.fill(phaseNanos, NONE);
+    }
+
+    /**
+     * Records {@code phase} unless it was already reached since {@link #start()}.
+     *
+     * @return true if this call recorded it
+     */
+    public synchronized boolean mark(@NonNull Phase phase) {
+        if (startNanos == NONE || phaseNanos[phase.ordinal()] != NONE) return false;
+        phaseNanos[phase.ordinal()] = clock.nanoTime() - startNanos;
+        return true;
+    }
+
+    /**
+     * @return time from the start to {@code phase}, -1 if not reached yet
+     */
+    public synchronized long getPhaseNanos(@NonNull Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return -1 until the first frame is shown
+     */
+    public long getTimeToFirstFrameNanos() {
+        return getPhaseNanos(Phase.FIRST_FRAME);
+    }
+
+    @NonNull
+    public String toOverlayText() {
+        long ttff = getTimeToFirstFrameNanos();
+        return ttff < 0 ? "ttff -" : String.format(Locale.US, "ttff %.0f ms", ttff / 1e6);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("StartupTimeline{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                builder.append(", ");
+            }
+            long nanos = phaseNanos[phase.ordinal()];
+            builder.append(phase.label).append(' ');
+            builder.append(nanos < 0 ? "-" : String.format(Locale.US, "%.1fms", nanos / 1e6));
+        }
+        return builder.append('}').toString();
+    }
+}
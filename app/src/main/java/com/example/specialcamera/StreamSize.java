@@ -0,0 +1,69 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Output size supported by a camera stream together with its minimum frame duration. A plain Java
+ * counterpart of {@code android.util.Size} so that size selection can be unit tested on the JVM.
+ */
+public final class StreamSize {
+
+    private final int width;
+    private final int height;
+    // 0 when the device does not report it
+    private final long minFrameDurationNanos;
+
+    public StreamSize(int width, int height, long minFrameDurationNanos) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.minFrameDurationNanos = minFrameDurationNanos;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getMinFrameDurationNanos() {
+        return minFrameDurationNanos;
+    }
+
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+
+    /**
+     * Highest frame rate the stream can run at, {@code Float.MAX_VALUE} when the duration is unknown.
+     */
+    public float getMaxFps() {
+        return minFrameDurationNanos > 0 ? 1_000_000_000f / minFrameDurationNanos : Float.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StreamSize)) return false;
+        StreamSize that = (StreamSize) o;
+        return width == that.width && height == that.height && minFrameDurationNanos == that.minFrameDurationNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = width;
+        result = 31 * result + height;
+        result = 31 * result + (int) (minFrameDurationNanos ^ (minFrameDurationNanos >>> 32));
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the camera and the preview stream size from the capability profiles instead of hardcoding them.
+ * <p>
+ * The preferred preview size is the cheapest one that still covers the view at native pixel density,
+ * has the requested aspect ratio and sustains the target frame rate within the pixel throughput budget.
+ * Sizes are compared in sensor (landscape) orientation.
+ */
+public class StreamSizeSelector {
+
+    public static final float ASPECT_TOLERANCE = 0.02f;
+
+    // INFO_SUPPORTED_HARDWARE_LEVEL values ordered from least to most capable
+    private static final int[] HARDWARE_LEVEL_ORDER = {2 /* LEGACY */, 4 /* EXTERNAL */, 0 /* LIMITED */,
+            1 /* FULL */, 3 /* LEVEL_3 */};
+
+    public static final class Target {
+        final int viewLongSide;
+        final int viewShortSide;
+        final float aspectRatio;
+        final long maxPixelsPerSecond;
+        final int targetFps;
+
+        /**
+         * @param viewWidth          size of the area the stream is shown in, any orientation
+         * @param aspectRatio        long side / short side the stream should have
+         * @param maxPixelsPerSecond budget for width * height * targetFps
+         * @param targetFps          frame rate the stream must sustain
+         */
+        public Target(int viewWidth, int viewHeight, float aspectRatio, long maxPixelsPerSecond, int targetFps) {
+            if (viewWidth <= 0 || viewHeight <= 0 || aspectRatio <= 0 || maxPixelsPerSecond <= 0 || targetFps <= 0) {
+                throw new IllegalArgumentException("Invalid target: " + viewWidth + "x" + viewHeight + " aspect "
+                        + aspectRatio + " budget " + maxPixelsPerSecond + " fps " + targetFps);
+            }
+            this.aspectRatio = aspectRatio >= 1 ? aspectRatio : 1 / aspectRatio;
+            // the stream is letterboxed into the view, only the fitted area has to be covered
+            int longSide = Math.max(viewWidth, viewHeight);
+            int shortSide = Math.min(viewWidth, viewHeight);
+            if (longSide > shortSide * this.aspectRatio) {
+                longSide = Math.round(shortSide * this.aspectRatio);
+            } else {
+                shortSide = Math.round(longSide / this.aspectRatio);
+            }
+            this.viewLongSide = longSide;
+            this.viewShortSide = shortSide;
+            this.maxPixelsPerSecond = maxPixelsPerSecond;
+            this.targetFps = targetFps;
+        }
+
+        public static Target forView(int viewWidth, int viewHeight, long maxPixelsPerSecond, int targetFps) {
+            return new Target(viewWidth, viewHeight, (float) viewWidth / viewHeight, maxPixelsPerSecond, targetFps);
+        }
+    }
+
+    /**
+     * @return the best preview size, or null if {@code sizes} has no size within the frame rate and
+     * throughput limits
+     */
+    @Nullable
+    public static StreamSize selectPreviewSize(@NonNull StreamSize[] sizes, @NonNull Target target) {
+        StreamSize sharp = null;
+        StreamSize largest = null;
+        float bestAspectError = Float.MAX_VALUE;
+
+        // the aspect error of the closest ratio decides which sizes compete, within the tolerance
+        // every matching ratio is equally good
+        for (StreamSize size : sizes) {
+            if (isAffordable(size, target)) {
+                bestAspectError = Math.min(bestAspectError, Math.max(ASPECT_TOLERANCE, aspectError(size, target)));
+            }
+        }
+
+        for (StreamSize size : sizes) {
+            if (!isAffordable(size, target) || aspectError(size, target) > bestAspectError) continue;
+
+            if (covers(size, target)) {
+                if (sharp == null || size.getPixelCount() < sharp.getPixelCount()) {
+                    sharp = size;
+                }
+            } else if (largest == null || size.getPixelCount() > largest.getPixelCount()) {
+                largest = size;
+            }
+        }
+        return sharp != null ? sharp : largest;
+    }
+
+    /**
+     * Picks the buffer size for a view which shows the centre of the stream magnified {@code magnification}
+     * times. At native density the visible centre needs {@code magnification * view size} pixels across
+     * the whole frame, so the smallest size of the preview aspect ratio reaching that is used. The result
+     * is never larger than {@code previewSize}: more pixels than the main preview would cost bandwidth
+     * without a visible benefit on a miniature.
+     * <p>
+     * camera2 applies one crop region to all outputs (only RAW streams have a cropped use case), so the
+     * stream keeps the full field of view and the view transform does the magnification.
+     */
+    @NonNull
+    public static StreamSize selectLensSize(@NonNull StreamSize[] sizes, @NonNull StreamSize previewSize,
+                                            int lensViewWidth, int lensViewHeight, float magnification) {
+        int requiredLong = (int) Math.ceil(Math.max(lensViewWidth, lensViewHeight) * magnification);
+        int requiredShort = (int) Math.ceil(Math.min(lensViewWidth, lensViewHeight) * magnification);
+        float previewAspect = (float) Math.max(previewSize.getWidth(), previewSize.getHeight())
+                / Math.min(previewSize.getWidth(), previewSize.getHeight());
+
+        StreamSize best = null;
+        for (StreamSize size : sizes) {
+            int longSide = Math.max(size.getWidth(), size.getHeight());
+            int shortSide = Math.min(size.getWidth(), size.getHeight());
+            float aspect = (float) longSide / shortSide;
+            if (Math.abs(aspect - previewAspect) / previewAspect > ASPECT_TOLERANCE
+                    || size.getPixelCount() >= previewSize.getPixelCount()
+                    || size.getMinFrameDurationNanos() > previewSize.getMinFrameDurationNanos()
+                    || longSide < requiredLong || shortSide < requiredShort) {
+                continue;
+            }
+            if (best == null || size.getPixelCount() < best.getPixelCount()) {
+                best = size;
+            }
+        }
+        return best != null ? best : previewSize;
+    }
+
+    /**
+     * Ranks cameras of the requested facing, best first: cameras with a sharp preview size before the
+     * others, then by hardware level, then in camera id list order.
+     */
+    @NonNull
+    public static List<CameraCapabilities> rankCameras(@NonNull List<CameraCapabilities> cameras,
+                                                       int lensFacing, @NonNull Target target) {
+        List<CameraCapabilities> result = new ArrayList<>();
+        for (CameraCapabilities camera : cameras) {
+            if (camera.getLensFacing() == lensFacing) {
+                result.add(camera);
+            }
+        }
+        // stable sort keeps the id list order for equal cameras
+        Collections.sort(result, (first, second) -> {
+            int bySharpness = Boolean.compare(hasSharpPreview(second, target), hasSharpPreview(first, target));
+            if (bySharpness != 0) return bySharpness;
+            return Integer.compare(hardwareLevelRank(second.getHardwareLevel()),
+                    hardwareLevelRank(first.getHardwareLevel()));
+        });
+        return result;
+    }
+
+    /**
+     * @return the best camera of the requested facing, falling back to the best camera of any facing
+     */
+    @Nullable
+    public static CameraCapabilities selectCamera(@NonNull List<CameraCapabilities> cameras,
+                                                  int lensFacing, @NonNull Target target) {
+        List<CameraCapabilities> ranked = rankCameras(cameras, lensFacing, target);
+        if (!ranked.isEmpty()) return ranked.get(0);
+
+        for (CameraCapabilities camera : cameras) {
+            ranked = rankCameras(cameras, camera.getLensFacing(), target);
+            if (!ranked.isEmpty()) return ranked.get(0);
+        }
+        return null;
+    }
+
+    private static boolean hasSharpPreview(CameraCapabilities camera, Target target) {
+        StreamSize size = selectPreviewSize(camera.getPreviewSizes(), target);
+        return size != null && covers(size, target);
+    }
+
+    private static boolean isAffordable(StreamSize size, Target target) {
+        return size.getMaxFps() >= target.targetFps
+                && size.getPixelCount() * target.targetFps <= target.maxPixelsPerSecond;
+    }
+
+    private static boolean covers(StreamSize size, Target target) {
+        int longSide = Math.max(size.getWidth(), size.getHeight());
+        int shortSide = Math.min(size.getWidth(), size.getHeight());
+        return longSide >= target.viewLongSide && shortSide >= target.viewShortSide;
+    }
+
+    private static float aspectError(StreamSize size, Target target) {
+        float aspect = (float) Math.max(size.getWidth(), size.getHeight()) / Math.min(size.getWidth(), size.getHeight());
+        return Math.abs(aspect - target.aspectRatio) / target.aspectRatio;
+    }
+
+    private static int hardwareLevelRank(int hardwareLevel) {
+        for (int i = 0; i < HARDWARE_LEVEL_ORDER.length; i++) {
+            if (HARDWARE_LEVEL_ORDER[i] == hardwareLevel) return i;
+        }
+        return -1;
+    }
+}
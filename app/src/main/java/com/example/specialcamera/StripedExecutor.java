@@ -0,0 +1,163 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits one per-frame job into stripes processed by a fixed set of worker threads and the calling
+ * thread. Stripes are claimed dynamically, so an uneven stripe does not leave the other threads idle.
+ * <p>
+ * Unlike submitting tasks to an {@code ExecutorService}, a run does not allocate, which matters for work
+ * repeated on every frame. {@link #run} returns once all stripes are done; one run at a time.
+ */
+public class StripedExecutor {
+
+    public interface StripeTask {
+        void runStripe(int stripe, int stripeCount);
+    }
+
+    private final Thread[] workers;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    private final Object runLock = new Object();
+    private final Object lock = new Object();
+    // guarded by lock
+    private long generation = 0;
+    private StripeTask task;
+    private int stripeCount;
+    private int pendingWorkers;
+    private RuntimeException workerFailure;
+    private boolean shutdown = false;
+
+    /**
+     * @param parallelism number of threads working on a run, including the caller
+     */
+    public StripedExecutor(int parallelism, @NonNull String name) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        workers = new Thread[parallelism - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::workerLoop, name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Parallelism matching the cores left after the camera and UI threads, at least 1.
+     */
+    public static int defaultParallelism() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 2));
+    }
+
+    public int getParallelism() {
+        return workers.length + 1;
+    }
+
+    public void run(int stripes, @NonNull StripeTask stripeTask) {
+        synchronized (runLock) {
+            if (workers.length == 0 || stripes == 1) {
+                for (int stripe = 0; stripe < stripes; stripe++) {
+                    stripeTask.runStripe(stripe, stripes);
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                if (shutdown) {
+                    throw new IllegalStateException("StripedExecutor is shut down");
+                }
+                task = stripeTask;
+                stripeCount = stripes;
+                nextStripe.set(0);
+                pendingWorkers = workers.length;
+                workerFailure = null;
+                generation++;
+                lock.notifyAll();
+            }
+
+            RuntimeException failure = null;
+            try {
+                claimStripes(stripeTask, stripes);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            // workers must be done with this run before its task and counter can be reused
+            boolean interrupted = false;
+            synchronized (lock) {
+                while (pendingWorkers > 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                task = null;
+                if (failure == null) {
+                    failure = workerFailure;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void claimStripes(StripeTask stripeTask, int stripes) {
+        int stripe;
+        while ((stripe = nextStripe.getAndIncrement()) < stripes) {
+            stripeTask.runStripe(stripe, stripes);
+        }
+    }
+
+    private void workerLoop() {
+        long seenGeneration = 0;
+        while (true) {
+            StripeTask stripeTask;
+            int stripes;
+            synchronized (lock) {
+                while (generation == seenGeneration && !shutdown) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // only shutdown() stops a worker
+                    }
+                }
+                // a run started before shutdown() still waits for this worker
+                if (generation == seenGeneration) return;
+                seenGeneration = generation;
+                stripeTask = task;
+                stripes = stripeCount;
+            }
+
+            RuntimeException failure = null;
+            try {
+                claimStripes(stripeTask, stripes);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            synchronized (lock) {
+                if (failure != null && workerFailure == null) {
+                    workerFailure = failure;
+                }
+                if (--pendingWorkers == 0) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transforms of the preview and lens TextureViews per display rotation and view size, as
+ * {@code android.graphics.Matrix#setValues} arrays. Layout passes and rotations back to a previous
+ * orientation reuse the computed arrays; callers must not modify them. Main thread only.
+ * <p>
+ * Rotations are the {@code Surface.ROTATION_*} values 0..3. In landscape the sensor image is rotated
+ * into the view and scaled to fill it; the lens additionally magnifies the centre.
+ */
+public class TextureTransformCache {
+
+    private static final int ROTATION_90 = 1;
+    private static final int ROTATION_270 = 3;
+
+    private final Map<Long, float[]> previewTransforms = new HashMap<>();
+    private final Map<Long, float[]> lensTransforms = new HashMap<>();
+    private final float lensMagnification;
+
+    public TextureTransformCache(float lensMagnification) {
+        this.lensMagnification = lensMagnification;
+    }
+
+    @NonNull
+    public float[] getPreviewTransform(int rotation, int width, int height) {
+        long key = key(rotation, width, height);
+        float[] values = previewTransforms.get(key);
+        if (values == null) {
+            values = previewTransform(rotation, width, height);
+            previewTransforms.put(key, values);
+        }
+        return values;
+    }
+
+    @NonNull
+    public float[] getLensTransform(int rotation, int width, int height) {
+        long key = key(rotation, width, height);
+        float[] values = lensTransforms.get(key);
+        if (values == null) {
+            values = lensTransform(rotation, width, height, lensMagnification);
+            lensTransforms.put(key, values);
+        }
+        return values;
+    }
+
+    public int size() {
+        return previewTransforms.size() + lensTransforms.size();
+    }
+
+    static boolean isLandscape(int rotation) {
+        return rotation == ROTATION_90 || rotation == ROTATION_270;
+    }
+
+    /**
+     * Swaps the view axes around its centre, scales the result to cover the view and rotates it by
+     * -90 degrees for ROTATION_90 and 90 degrees for ROTATION_270.
+     */
+    @NonNull
+    static float[] previewTransform(int rotation, int width, int height) {
+        Affine affine = new Affine();
+        if (width > 0 && height > 0 && isLandscape(rotation)) {
+            float centerX = width / 2f;
+            float centerY = height / 2f;
+            // texture rect onto the same rect with swapped sides, centred
+            affine.a = (float) height / width;
+            affine.e = (float) width / height;
+            affine.c = centerX - height / 2f;
+            affine.f = centerY - width / 2f;
+            float scale = Math.max(1f, (float) height / width);
+            affine.postScale(scale, centerX, centerY);
+            affine.postRotate(rotation == ROTATION_90 ? -90 : 90, centerX, centerY);
+        }
+        return affine.toValues();
+    }
+
+    /**
+     * Magnifies the centre, rotated by -90 degrees in landscape.
+     */
+    @NonNull
+    static float[] lensTransform(int rotation, int width, int height, float magnification) {
+        Affine affine = new Affine();
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        affine.postScale(magnification, centerX, centerY);
+        if (isLandscape(rotation)) {
+            affine.postRotate(-90, centerX, centerY);
+        }
+        return affine.toValues();
+    }
+
+    private static long key(int rotation, int width, int height) {
+        return ((long) (rotation & 0x3) << 62) | ((long) (width & 0x7fffffff) << 31) | (height & 0x7fffffff);
+    }
+
+    /**
+     * x' = a x + b y + c, y' = d x + e y + f.
+     */
+    private static final class Affine {
+        float a = 1, b = 0, c = 0;
+        float d = 0, e = 1, f = 0;
+
+        void postScale(float scale, float px, float py) {
+            a *= scale;
+            b *= scale;
+            c = (c - px) * scale + px;
+            d *= scale;
+            e *= scale;
+            f = (f - py) * scale + py;
+        }
+
+        /**
+         * Quarter turns only, so the result is exact.
+         */
+        void postRotate(int degrees, float px, float py) {
+            int cos = degrees == 180 || degrees == -180 ? -1 : (degrees % 180 == 0 ? 1 : 0);
+            int sin = degrees == 90 || degrees == -270 ? 1 : (degrees == -90 || degrees == 270 ? -1 : 0);
+            float na = cos * a - sin * d;
+            float nb = cos * b - sin * e;
+            float nc = cos * (c - px) - sin * (f - py) + px;
+            float nd = sin * a + cos * d;
+            float ne = sin * b + cos * e;
+            float nf = sin * (c - px) + cos * (f - py) + py;
+            a = na;
+            b = nb;
+            c = nc;
+            d = nd;
+            e = ne;
+            f = nf;
+        }
+
+        @NonNull
+        float[] toValues() {
+            return new float[]{a, b, c, d, e, f, 0, 0, 1};
+        }
+    }
+}
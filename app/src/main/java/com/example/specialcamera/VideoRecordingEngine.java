@@ -0,0 +1,489 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives an asynchronous {@link EncoderCodec} into a {@link SampleSink}.
+ * <p>
+ * Codec callbacks only record the output buffer in a preallocated ring; the buffers are written and
+ * released on a serial writer executor, so file IO never blocks the codec thread. Timestamps are rebased
+ * so the recording starts at 0 with its first key frame; samples before it, and with B-frames disabled
+ * samples that do not advance the timestamp, are dropped since muxers reject them.
+ * <p>
+ * An optional audio codec shares the ring and the sink; its samples carry {@link SampleInfo#FLAG_AUDIO},
+ * are rebased to the first video key frame and dropped before it. The sink is stopped once both codecs
+ * delivered their end of stream.
+ * <p>
+ * Lifecycle: {@link #prepare()}, {@link #start()}, {@link #stop(long)}, {@link #release()}, called from one
+ * control thread.
+ */
+public class VideoRecordingEngine<F> {
+
+    public interface Listener {
+        /**
+         * Called on the codec or writer thread. The sink is stopped after a codec error, so the output
+         * stays valid up to the last written sample.
+         */
+        void onError(@NonNull Exception error);
+
+        /**
+         * Called on the writer thread after the first frame reached the sink.
+         */
+        default void onFirstSample(long nowNanos) {
+        }
+
+        /**
+         * Called when the audio codec fails; the recording goes on without audio.
+         */
+        default void onAudioError(@NonNull Exception error) {
+        }
+    }
+
+    static final int PENDING_CAPACITY = 64;
+
+    private final EncoderCodec<F> codec;
+    @Nullable
+    private final EncoderCodec<F> audioCodec;
+    private final SampleSink<F> sink;
+    private final EncoderConfig config;
+    private final Executor writerExecutor;
+    private final NanoClock clock;
+    @Nullable
+    private volatile Listener listener;
+
+    private final Object lock = new Object();
+    // output buffers waiting for the writer, guarded by lock
+    private final int[] pendingIndices = new int[PENDING_CAPACITY];
+    private final int[] pendingOffsets = new int[PENDING_CAPACITY];
+    private final int[] pendingSizes = new int[PENDING_CAPACITY];
+    private final int[] pendingFlags = new int[PENDING_CAPACITY];
+    private final long[] pendingTimestampsUs = new long[PENDING_CAPACITY];
+    private int pendingHead = 0;
+    private int pendingCount = 0;
+    private boolean drainScheduled = false;
+    // statistics, guarded by lock
+    private final EncoderStats stats = new EncoderStats();
+    private long latencySamples = 0;
+    private long latencySumNanos = 0;
+
+    // control thread
+    private boolean audioConfigured = false;
+    private volatile boolean audioStarted = false;
+
+    // writer thread only
+    private final SampleInfo sampleInfo = new SampleInfo();
+    private boolean sinkStarted = false;
+    private boolean sinkStopped = false;
+    private boolean failed = false;
+    private long basePresentationTimeUs = -1;
+    private long lastPresentationTimeUs = -1;
+    private long lastAudioPresentationTimeUs = -1;
+    @Nullable
+    private ByteBuffer audioCodecConfig;
+    private boolean videoEnded = false;
+    private boolean audioEnded = false;
+
+    private final CountDownLatch sinkStoppedLatch = new CountDownLatch(1);
+    private final Runnable drainTask = this::drain;
+    private final Runnable stopSinkTask = this::stopSink;
+    private final Runnable videoEndedTask = this::onVideoEnded;
+    private final Runnable audioEndedTask = this::onAudioEnded;
+
+    private final EncoderCodec.Callback<F> callback = new EncoderCodec.Callback<F>() {
+        @Override
+        public void onOutputFormatChanged(@NonNull F format) {
+            writerExecutor.execute(() -> startSink(format));
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags) {
+            enqueue(index, offset, size, presentationTimeUs, flags);
+        }
+
+        @Override
+        public void onError(@NonNull Exception error) {
+            notifyError(error);
+            writerExecutor.execute(stopSinkTask);
+        }
+    };
+
+    private final EncoderCodec.Callback<F> audioCallback = new EncoderCodec.Callback<F>() {
+        @Override
+        public void onOutputFormatChanged(@NonNull F format) {
+            // the audio track is described by its codec config sample
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags) {
+            // AAC encoders flag every output as a key frame, only video key frames start a GOP
+            enqueue(index, offset, size, presentationTimeUs,
+                    (flags & ~SampleInfo.FLAG_KEY_FRAME) | SampleInfo.FLAG_AUDIO);
+        }
+
+        @Override
+        public void onError(@NonNull Exception error) {
+            notifyAudioError(error);
+            writerExecutor.execute(audioEndedTask);
+        }
+    };
+
+    /**
+     * @param writerExecutor serial executor which owns the sink
+     * @param clock          clock of the input frame timestamps, used for the encode latency
+     */
+    public VideoRecordingEngine(@NonNull EncoderCodec<F> codec, @NonNull SampleSink<F> sink,
+                                @NonNull EncoderConfig config, @NonNull Executor writerExecutor,
+                                @NonNull NanoClock clock) {
+        this(codec, null, sink, config, writerExecutor, clock);
+    }
+
+    /**
+     * @param audioCodec     encodes the audio track, started by {@link #startAudio()}
+     * @param writerExecutor serial executor which owns the sink
+     * @param clock          clock of the input frame and audio timestamps
+     */
+    public VideoRecordingEngine(@NonNull EncoderCodec<F> codec, @Nullable EncoderCodec<F> audioCodec,
+                                @NonNull SampleSink<F> sink, @NonNull EncoderConfig config,
+                                @NonNull Executor writerExecutor, @NonNull NanoClock clock) {
+        this.codec = codec;
+        this.audioCodec = audioCodec;
+        this.sink = sink;
+        this.config = config;
+        this.writerExecutor = writerExecutor;
+        this.clock = clock;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    public EncoderConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Configures the codecs. An audio codec which cannot be configured is reported to
+     * {@link Listener#onAudioError} and the recording has no audio.
+     */
+    public void prepare() throws IOException {
+        codec.configure(config, callback);
+        if (audioCodec != null) {
+            try {
+                audioCodec.configure(config, audioCallback);
+                audioConfigured = true;
+            } catch (IOException e) {
+                notifyAudioError(e);
+            }
+        }
+    }
+
+    public void start() {
+        codec.start();
+    }
+
+    /**
+     * Starts the audio codec after {@link #start()}. Audio before the first video key frame is dropped,
+     * so audio may start before the video input is attached.
+     */
+    public void startAudio() {
+        if (!audioConfigured || audioStarted) return;
+        audioStarted = true;
+        audioCodec.start();
+    }
+
+    /**
+     * Signals the end of input and waits until the last sample is written and the sink is stopped.
+     *
+     * @return false if a codec did not deliver its end of stream in time; the sink is stopped anyway
+     */
+    public boolean stop(long timeoutMillis) {
+        boolean audio = audioStarted;
+        codec.signalEndOfInputStream();
+        if (audio) {
+            audioCodec.signalEndOfInputStream();
+        }
+        boolean endOfStream = awaitSinkStopped(timeoutMillis);
+        codec.stop();
+        if (audio) {
+            audioCodec.stop();
+        }
+        if (!endOfStream) {
+            writerExecutor.execute(stopSinkTask);
+            awaitSinkStopped(timeoutMillis);
+        }
+        return endOfStream;
+    }
+
+    public void release() {
+        codec.release();
+        if (audioCodec != null) {
+            audioCodec.release();
+        }
+    }
+
+    /**
+     * Changes the target bit rate while recording; see {@link AdaptiveBitrateController}.
+     */
+    public void setBitRate(int bitRate) {
+        codec.setBitRate(bitRate);
+    }
+
+    public void snapshot(@NonNull EncoderStats out) {
+        synchronized (lock) {
+            out.encodedFrames = stats.encodedFrames;
+            out.keyFrames = stats.keyFrames;
+            out.encodedBytes = stats.encodedBytes;
+            out.droppedSamples = stats.droppedSamples;
+            out.lastLatencyNanos = stats.lastLatencyNanos;
+            out.averageLatencyNanos = latencySamples == 0 ? 0 : latencySumNanos / latencySamples;
+            out.maxLatencyNanos = stats.maxLatencyNanos;
+            out.queueDepth = pendingCount;
+            out.maxQueueDepth = stats.maxQueueDepth;
+            out.durationUs = stats.durationUs;
+            out.writeNanos = stats.writeNanos;
+            out.maxWriteNanos = stats.maxWriteNanos;
+        }
+    }
+
+    private boolean awaitSinkStopped(long timeoutMillis) {
+        try {
+            return sinkStoppedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void enqueue(int index, int offset, int size, long presentationTimeUs, int flags) {
+        boolean schedule;
+        boolean overflow;
+        synchronized (lock) {
+            if ((flags & (SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_END_OF_STREAM | SampleInfo.FLAG_AUDIO)) == 0
+                    && size > 0) {
+                long latencyNanos = clock.nanoTime() - presentationTimeUs * 1000;
+                if (latencyNanos >= 0) {
+                    stats.lastLatencyNanos = latencyNanos;
+                    stats.maxLatencyNanos = Math.max(stats.maxLatencyNanos, latencyNanos);
+                    latencySumNanos += latencyNanos;
+                    latencySamples++;
+                }
+            }
+            overflow = pendingCount == PENDING_CAPACITY;
+            if (!overflow) {
+                int tail = (pendingHead + pendingCount) % PENDING_CAPACITY;
+                pendingIndices[tail] = index;
+                pendingOffsets[tail] = offset;
+                pendingSizes[tail] = size;
+                pendingFlags[tail] = flags;
+                pendingTimestampsUs[tail] = presentationTimeUs;
+                pendingCount++;
+                stats.maxQueueDepth = Math.max(stats.maxQueueDepth, pendingCount);
+            } else {
+                stats.droppedSamples++;
+            }
+            schedule = !overflow && !drainScheduled;
+            if (schedule) {
+                drainScheduled = true;
+            }
+        }
+        if (overflow) {
+            boolean audio = (flags & SampleInfo.FLAG_AUDIO) != 0;
+            codecOf(flags).releaseOutputBuffer(index);
+            if ((flags & SampleInfo.FLAG_END_OF_STREAM) != 0) {
+                writerExecutor.execute(audio ? audioEndedTask : videoEndedTask);
+            }
+        } else if (schedule) {
+            writerExecutor.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            int index;
+            int offset;
+            int size;
+            int flags;
+            long presentationTimeUs;
+            synchronized (lock) {
+                if (pendingCount == 0) {
+                    drainScheduled = false;
+                    return;
+                }
+                index = pendingIndices[pendingHead];
+                offset = pendingOffsets[pendingHead];
+                size = pendingSizes[pendingHead];
+                flags = pendingFlags[pendingHead];
+                presentationTimeUs = pendingTimestampsUs[pendingHead];
+                pendingHead = (pendingHead + 1) % PENDING_CAPACITY;
+                pendingCount--;
+            }
+            write(index, offset, size, presentationTimeUs, flags);
+        }
+    }
+
+    private void startSink(@NonNull F format) {
+        if (sinkStarted || sinkStopped) return;
+        try {
+            sink.start(format);
+            sinkStarted = true;
+            if (audioCodecConfig != null) {
+                writeAudioCodecConfig();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void write(int index, int offset, int size, long presentationTimeUs, int flags) {
+        boolean audio = (flags & SampleInfo.FLAG_AUDIO) != 0;
+        EncoderCodec<F> codec = codecOf(flags);
+        try {
+            if (size > 0 && (sinkStarted || audio) && !sinkStopped && !failed) {
+                ByteBuffer data = codec.getOutputBuffer(index);
+                data.clear();
+                data.limit(offset + size);
+                data.position(offset);
+                if (audio) {
+                    writeAudio(data, presentationTimeUs, flags);
+                } else if ((flags & SampleInfo.FLAG_CODEC_CONFIG) != 0) {
+                    sampleInfo.set(0, flags);
+                    sink.writeSample(data, sampleInfo);
+                } else if (acceptTimestamp(presentationTimeUs, flags)) {
+                    long relativeUs = presentationTimeUs - basePresentationTimeUs;
+                    sampleInfo.set(relativeUs, flags & ~SampleInfo.FLAG_END_OF_STREAM);
+                    long writeStartNanos = clock.nanoTime();
+                    sink.writeSample(data, sampleInfo);
+                    long writeNanos = clock.nanoTime() - writeStartNanos;
+                    if (stats.encodedFrames == 0) {
+                        notifyFirstSample();
+                    }
+                    synchronized (lock) {
+                        stats.encodedFrames++;
+                        stats.encodedBytes += size;
+                        if (sampleInfo.isKeyFrame()) stats.keyFrames++;
+                        stats.durationUs = lastPresentationTimeUs;
+                        stats.writeNanos += writeNanos;
+                        stats.maxWriteNanos = Math.max(stats.maxWriteNanos, writeNanos);
+                    }
+                } else {
+                    synchronized (lock) {
+                        stats.droppedSamples++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            codec.releaseOutputBuffer(index);
+        }
+        if ((flags & SampleInfo.FLAG_END_OF_STREAM) != 0) {
+            if (audio) {
+                onAudioEnded();
+            } else {
+                onVideoEnded();
+            }
+        }
+    }
+
+    private void writeAudio(@NonNull ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if ((flags & SampleInfo.FLAG_CODEC_CONFIG) != 0) {
+            // usually arrives before the video format, so it is kept until the sink starts
+            audioCodecConfig = ByteBuffer.allocate(data.remaining());
+            audioCodecConfig.put(data).flip();
+            if (sinkStarted) {
+                writeAudioCodecConfig();
+            }
+            return;
+        }
+        if (!sinkStarted || basePresentationTimeUs < 0) return;
+        long relativeUs = presentationTimeUs - basePresentationTimeUs;
+        if (relativeUs < 0 || relativeUs <= lastAudioPresentationTimeUs) return;
+        lastAudioPresentationTimeUs = relativeUs;
+        sampleInfo.set(relativeUs, flags & ~SampleInfo.FLAG_END_OF_STREAM);
+        sink.writeSample(data, sampleInfo);
+    }
+
+    private void writeAudioCodecConfig() throws IOException {
+        sampleInfo.set(0, SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_AUDIO);
+        sink.writeSample(audioCodecConfig.duplicate(), sampleInfo);
+    }
+
+    @NonNull
+    private EncoderCodec<F> codecOf(int flags) {
+        return (flags & SampleInfo.FLAG_AUDIO) != 0 && audioCodec != null ? audioCodec : codec;
+    }
+
+    private void onVideoEnded() {
+        videoEnded = true;
+        if (audioEnded || !audioStarted) {
+            stopSink();
+        }
+    }
+
+    private void onAudioEnded() {
+        audioEnded = true;
+        if (videoEnded) {
+            stopSink();
+        }
+    }
+
+    private boolean acceptTimestamp(long presentationTimeUs, int flags) {
+        if (basePresentationTimeUs < 0) {
+            if ((flags & SampleInfo.FLAG_KEY_FRAME) == 0) return false;
+            basePresentationTimeUs = presentationTimeUs;
+        }
+        long relativeUs = presentationTimeUs - basePresentationTimeUs;
+        if (relativeUs < 0) return false;
+        if (config.getMaxBFrames() == 0 && lastPresentationTimeUs >= 0 && relativeUs <= lastPresentationTimeUs) {
+            return false;
+        }
+        lastPresentationTimeUs = Math.max(lastPresentationTimeUs, relativeUs);
+        return true;
+    }
+
+    private void stopSink() {
+        if (sinkStopped) return;
+        sinkStopped = true;
+        try {
+            sink.stop();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            sinkStoppedLatch.countDown();
+        }
+    }
+
+    private void fail(@NonNull Exception error) {
+        failed = true;
+        notifyError(error);
+    }
+
+    private void notifyFirstSample() {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onFirstSample(clock.nanoTime());
+        }
+    }
+
+    private void notifyAudioError(@NonNull Exception error) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onAudioError(error);
+        }
+    }
+
+    private void notifyError(@NonNull Exception error) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onError(error);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 frame handed to {@link FrameAnalyzer}s. Planes are the source buffers themselves, nothing
+ * is copied, so a frame is only valid until {@link #release()}. Frame objects are pooled by their source
+ * and reused for later frames.
+ */
+public class YuvFrame {
+
+    private int width;
+    private int height;
+    private long timestampNanos;
+
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private int yRowStride;
+    private int yPixelStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+
+    public void set(int width, int height, long timestampNanos,
+                    @NonNull ByteBuffer yPlane, int yRowStride, int yPixelStride,
+                    @NonNull ByteBuffer uPlane, @NonNull ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.yPlane = yPlane;
+        this.uPlane = uPlane;
+        this.vPlane = vPlane;
+        this.yRowStride = yRowStride;
+        this.yPixelStride = yPixelStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Read with absolute {@code get(int)} only: analyzers may read a plane from several threads at once.
+     */
+    @NonNull
+    public ByteBuffer getYPlane() {
+        return yPlane;
+    }
+
+    @NonNull
+    public ByteBuffer getUPlane() {
+        return uPlane;
+    }
+
+    @NonNull
+    public ByteBuffer getVPlane() {
+        return vPlane;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getYPixelStride() {
+        return yPixelStride;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+
+    /**
+     * Returns the frame and its planes to the source. Called exactly once per frame by the pipeline.
+     */
+    public void release() {
+        yPlane = null;
+        uPlane = null;
+        vPlane = null;
+    }
+}
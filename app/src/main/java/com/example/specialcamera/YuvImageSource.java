@@ -0,0 +1,145 @@
+package com.example.specialcamera;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * {@code YUV_420_888} {@link ImageReader} output of the capture session feeding a
+ * {@link FrameAnalysisPipeline}. Images are wrapped into pooled {@link YuvFrame}s without copying and
+ * closed when the pipeline releases the frame.
+ */
+public class YuvImageSource {
+
+    private static final String TAG = "YuvImageSource";
+
+    // one frame being analyzed, one pending and one slot acquireLatestImage() needs to skip ahead
+    private static final int MAX_IMAGES = 3;
+    // a frame still being analyzed when closing is waited for at most this long
+    private static final long CLOSE_TIMEOUT_MS = 500;
+
+    private final ImageReader imageReader;
+    private final HandlerThread readerThread = new HandlerThread("YuvImageReader");
+    private final FrameAnalysisPipeline pipeline;
+
+    // guarded by framePool
+    private final ArrayDeque<ImageFrame> framePool = new ArrayDeque<>();
+
+    public YuvImageSource(@NonNull StreamSize size, @NonNull FrameAnalysisPipeline pipeline) {
+        this.pipeline = pipeline;
+        for (int i = 0; i < MAX_IMAGES - 1; i++) {
+            framePool.add(new ImageFrame());
+        }
+
+        readerThread.start();
+        imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(this::onImageAvailable, new Handler(readerThread.getLooper()));
+    }
+
+    @NonNull
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    private void onImageAvailable(@NonNull ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "acquireLatestImage", e);
+            return;
+        }
+        if (image == null) return;
+
+        ImageFrame frame;
+        synchronized (framePool) {
+            frame = framePool.poll();
+        }
+        if (frame == null) {
+            // the pipeline still holds every frame; the image is dropped right away so the camera
+            // never runs out of buffers for this output
+            image.close();
+            return;
+        }
+
+        frame.attach(image);
+        pipeline.offer(frame);
+    }
+
+    private void recycle(@NonNull ImageFrame frame) {
+        synchronized (framePool) {
+            framePool.add(frame);
+            framePool.notifyAll();
+        }
+    }
+
+    /**
+     * Closing the reader frees the planes of acquired images, so it waits until the pipeline released every
+     * frame. Must not be called from the analysis thread.
+     */
+    public void close() {
+        pipeline.close();
+        readerThread.quitSafely();
+        boolean interrupted = false;
+        boolean released;
+        try {
+            // no frame is attached after the reader thread is gone
+            readerThread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        long deadline = System.nanoTime() + CLOSE_TIMEOUT_MS * 1_000_000L;
+        synchronized (framePool) {
+            while (framePool.size() < MAX_IMAGES - 1) {
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) break;
+                try {
+                    framePool.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            released = framePool.size() == MAX_IMAGES - 1;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (released) {
+            imageReader.close();
+        } else {
+            // an analyzer still reads the planes, leaking the reader is better than freeing them under it
+            Log.w(TAG, "Frames still in use after " + CLOSE_TIMEOUT_MS + " ms, not closing the reader");
+        }
+    }
+
+    private final class ImageFrame extends YuvFrame {
+
+        private Image image;
+
+        void attach(@NonNull Image image) {
+            this.image = image;
+            Image.Plane[] planes = image.getPlanes();
+            set(image.getWidth(), image.getHeight(), image.getTimestamp(),
+                    planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride());
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            if (image != null) {
+                image.close();
+                image = null;
+            }
+            recycle(this);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.specialcamera;
+
+/**
+ * Zoom level to crop region mapping, precomputed once per camera.
+ * <p>
+ * Levels are in the 0..{@link #MAX_LEVEL} UI scale and map geometrically onto 1x..max zoom, so every step
+ * changes the field of view by the same factor. The table has {@link #STEPS_PER_LEVEL} entries per level,
+ * which keeps the ramp smooth, and nothing is allocated after construction.
+ * <p>
+ * Ramping state is not thread safe, it is only touched from the camera thread.
+ */
+public class ZoomEngine {
+
+    public static final int MAX_LEVEL = 100;
+    public static final int STEPS_PER_LEVEL = 10;
+
+    private static final int TABLE_SIZE = MAX_LEVEL * STEPS_PER_LEVEL + 1;
+
+    private final int activeWidth;
+    private final int activeHeight;
+    private final float maxZoomRatio;
+    private final int rampFrames;
+
+    // left, top, right, bottom per index
+    private final int[] cropTable = new int[TABLE_SIZE * 4];
+    private final float[] ratioTable = new float[TABLE_SIZE];
+    private final Float[] boxedRatioTable = new Float[TABLE_SIZE];
+
+    private float currentIndex = 0;
+    private int targetIndex = 0;
+    private float stepPerFrame = 0;
+    private int remainingFrames = 0;
+
+    public ZoomEngine(int activeWidth, int activeHeight, float maxZoomRatio, int rampFrames) {
+        if (activeWidth < 4 || activeHeight < 4) {
+            throw new IllegalArgumentException("Invalid active array: " + activeWidth + "x" + activeHeight);
+        }
+        if (rampFrames < 1) {
+            throw new IllegalArgumentException("rampFrames must be positive: " + rampFrames);
+        }
+        this.activeWidth = activeWidth;
+        this.activeHeight = activeHeight;
+        this.maxZoomRatio = Math.max(1f, maxZoomRatio);
+        this.rampFrames = rampFrames;
+
+        int previousWidth = activeWidth;
+        int previousHeight = activeHeight;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            float ratio = (float) Math.pow(this.maxZoomRatio, (double) i / (TABLE_SIZE - 1));
+            ratioTable[i] = ratio;
+            boxedRatioTable[i] = ratio;
+
+            // 4-aligned sizes and even offsets keep the crop friendly to YUV subsampling;
+            // the min() guards monotonicity against float rounding
+            int width = Math.min(previousWidth, Math.max(4, alignDown((int) (activeWidth / ratio), 4)));
+            int height = Math.min(previousHeight, Math.max(4, alignDown((int) (activeHeight / ratio), 4)));
+            int left = alignDown((activeWidth - width) / 2, 2);
+            int top = alignDown((activeHeight - height) / 2, 2);
+            cropTable[i * 4] = left;
+            cropTable[i * 4 + 1] = top;
+            cropTable[i * 4 + 2] = left + width;
+            cropTable[i * 4 + 3] = top + height;
+            previousWidth = width;
+            previousHeight = height;
+        }
+        // level 0 is always the full, unaligned active array
+        cropTable[2] = activeWidth;
+        cropTable[3] = activeHeight;
+    }
+
+    private static int alignDown(int value, int alignment) {
+        return value - value % alignment;
+    }
+
+    public static int indexForLevel(float level) {
+        float clamped = Math.max(0f, Math.min(MAX_LEVEL, level));
+        return Math.round(clamped * STEPS_PER_LEVEL);
+    }
+
+    public int getTableSize() {
+        return TABLE_SIZE;
+    }
+
+    public float getMaxZoomRatio() {
+        return maxZoomRatio;
+    }
+
+    public int getActiveWidth() {
+        return activeWidth;
+    }
+
+    public int getActiveHeight() {
+        return activeHeight;
+    }
+
+    public float ratioAt(int index) {
+        return ratioTable[index];
+    }
+
+    /**
+     * Boxed once at construction, so passing the ratio to camera2 does not allocate.
+     */
+    public Float boxedRatioAt(int index) {
+        return boxedRatioTable[index];
+    }
+
+    public int cropLeft(int index) {
+        return cropTable[index * 4];
+    }
+
+    public int cropTop(int index) {
+        return cropTable[index * 4 + 1];
+    }
+
+    public int cropRight(int index) {
+        return cropTable[index * 4 + 2];
+    }
+
+    public int cropBottom(int index) {
+        return cropTable[index * 4 + 3];
+    }
+
+    /**
+     * Sets the level to ramp to. The ramp speed is chosen so the target is reached in {@code rampFrames}
+     * frames from the current position; setting the same target again keeps the running ramp.
+     */
+    public void setTargetLevel(float level) {
+        int index = indexForLevel(level);
+        if (index == targetIndex) return;
+
+        targetIndex = index;
+        stepPerFrame = (targetIndex - currentIndex) / rampFrames;
+        remainingFrames = rampFrames;
+    }
+
+    /**
+     * Jumps to the target without ramping, e.g. for the first request of a session.
+     */
+    public void settle() {
+        currentIndex = targetIndex;
+        remainingFrames = 0;
+    }
+
+    /**
+     * Moves one frame towards the target.
+     *
+     * @return true while the ramp has not reached the target yet
+     */
+    public boolean advance() {
+        if (isSettled()) return false;
+
+        remainingFrames--;
+        currentIndex = remainingFrames <= 0 ? targetIndex : currentIndex + stepPerFrame;
+        return !isSettled();
+    }
+
+    public boolean isSettled() {
+        return currentIndex == targetIndex;
+    }
+
+    public int getCurrentIndex() {
+        return Math.round(currentIndex);
+    }
+
+    public int getTargetIndex() {
+        return targetIndex;
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBitrateControllerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private long nowNanos = 0;
+    private final List<AdaptiveBitrateController.Level> applied = new ArrayList<>();
+
+    private AdaptiveBitrateController.Builder builder(List<AdaptiveBitrateController.Level> ladder) {
+        return new AdaptiveBitrateController.Builder(ladder, applied::add).setClock(() -> nowNanos);
+    }
+
+    private static List<AdaptiveBitrateController.Level> defaultLadder() {
+        return AdaptiveBitrateController.ladder(8_000_000, 2_000_000, 30, 15, 2);
+    }
+
+    private static EncoderStats stats(int queueDepth, long latencyNanos, long writeNanos, long droppedSamples) {
+        EncoderStats stats = new EncoderStats();
+        stats.queueDepth = queueDepth;
+        stats.lastLatencyNanos = latencyNanos;
+        stats.writeNanos = writeNanos;
+        stats.droppedSamples = droppedSamples;
+        return stats;
+    }
+
+    /**
+     * Encoder output written to storage of a given throughput through the engine's bounded writer queue,
+     * plus an encoder which falls behind above a given frame rate. Advances in one second steps.
+     */
+    private final class SimulatedPipeline {
+        final EncoderStats stats = new EncoderStats();
+        double storageBytesPerSecond;
+        int encoderFrameRateCapacity = 60;
+        double backlogBytes;
+        double encoderBacklogFrames;
+
+        SimulatedPipeline(double storageBytesPerSecond) {
+            this.storageBytesPerSecond = storageBytesPerSecond;
+        }
+
+        void advanceSecond(AdaptiveBitrateController.Level level) {
+            double frameBytes = level.bitRate / 8.0 / level.frameRate;
+            backlogBytes += level.bitRate / 8.0;
+            double written = Math.min(backlogBytes, storageBytesPerSecond);
+            backlogBytes -= written;
+            stats.writeNanos += (long) (written / storageBytesPerSecond * SECOND);
+            int queueDepth = (int) Math.ceil(backlogBytes / frameBytes);
+            if (queueDepth > VideoRecordingEngine.PENDING_CAPACITY) {
+                stats.droppedSamples += queueDepth - VideoRecordingEngine.PENDING_CAPACITY;
+                queueDepth = VideoRecordingEngine.PENDING_CAPACITY;
+                backlogBytes = queueDepth * frameBytes;
+            }
+            stats.queueDepth = queueDepth;
+
+            encoderBacklogFrames = Math.max(0, encoderBacklogFrames + level.frameRate - encoderFrameRateCapacity);
+            stats.lastLatencyNanos = 30_000_000L + (long) (encoderBacklogFrames * SECOND / encoderFrameRateCapacity);
+            nowNanos += SECOND;
+        }
+    }
+
+    private long run(AdaptiveBitrateController controller, SimulatedPipeline pipeline, int seconds) {
+        long droppedBefore = pipeline.stats.droppedSamples;
+        for (int i = 0; i < seconds; i++) {
+            pipeline.advanceSecond(controller.getLevel());
+            controller.update(pipeline.stats);
+        }
+        return pipeline.stats.droppedSamples - droppedBefore;
+    }
+
+    @Test
+    public void ladder_lowersBitRateFirst_thenFrameRate() {
+        assertEquals(Arrays.asList(
+                new AdaptiveBitrateController.Level(8_000_000, 30),
+                new AdaptiveBitrateController.Level(4_000_000, 30),
+                new AdaptiveBitrateController.Level(2_000_000, 30),
+                new AdaptiveBitrateController.Level(2_000_000, 20),
+                new AdaptiveBitrateController.Level(2_000_000, 15)), defaultLadder());
+        assertEquals(1, AdaptiveBitrateController.ladder(4_000_000, 4_000_000, 30, 30, 3).size());
+    }
+
+    @Test
+    public void slowStorage_stepsDownUntilWriterKeepsUp_andStaysThere() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).build();
+        // 0.6 MB/s: 8 Mbps overflows the writer, 4 Mbps keeps it 83% busy
+        SimulatedPipeline pipeline = new SimulatedPipeline(600_000);
+        controller.update(pipeline.stats);
+
+        assertEquals(0, run(controller, pipeline, 30));
+        assertEquals(new AdaptiveBitrateController.Level(2_000_000, 30), controller.getLevel());
+        assertEquals(controller.getLevel(), applied.get(applied.size() - 1));
+
+        // a long recording does not oscillate: the thresholds are further apart than a ladder step
+        assertEquals(0, run(controller, pipeline, 600));
+        assertEquals(2, controller.getLevelIndex());
+        assertEquals(0, controller.getStepUps());
+        assertEquals(2, applied.size());
+    }
+
+    @Test
+    public void failedStepUp_doublesRecoveryTime() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).setCongestedUpdates(1).setHoldNanos(0)
+                .setRecoveryNanos(10 * SECOND, 40 * SECOND).build();
+        controller.update(stats(0, 0, 0, 0));
+        nowNanos += SECOND;
+        assertTrue(controller.update(stats(20, 0, 0, 0)));
+
+        long[] expectedRecovery = {20, 40, 40};
+        for (long expected : expectedRecovery) {
+            long recovery = controller.getRecoveryNanos();
+            nowNanos += SECOND;
+            controller.update(stats(0, 0, 0, 0));
+            nowNanos += recovery - SECOND;
+            assertFalse(controller.update(stats(0, 0, 0, 0)));
+            nowNanos += SECOND;
+            assertTrue(controller.update(stats(0, 0, 0, 0)));
+            assertEquals(0, controller.getLevelIndex());
+            // the better level does not hold
+            nowNanos += SECOND;
+            assertTrue(controller.update(stats(20, 0, 0, 0)));
+            assertEquals(expected * SECOND, controller.getRecoveryNanos());
+        }
+
+        // a step up which holds for the recovery time resets it
+        nowNanos += SECOND;
+        controller.update(stats(0, 0, 0, 0));
+        nowNanos += 40 * SECOND;
+        assertTrue(controller.update(stats(0, 0, 0, 0)));
+        nowNanos += 40 * SECOND;
+        controller.update(stats(0, 0, 0, 0));
+        assertEquals(10 * SECOND, controller.getRecoveryNanos());
+        assertEquals(4, controller.getStepUps());
+    }
+
+    @Test
+    public void storageRecovery_returnsToBestLevel() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).build();
+        SimulatedPipeline pipeline = new SimulatedPipeline(300_000);
+        controller.update(pipeline.stats);
+        run(controller, pipeline, 60);
+        assertEquals(2_000_000, controller.getLevel().bitRate);
+
+        pipeline.storageBytesPerSecond = 10_000_000;
+        assertEquals(0, run(controller, pipeline, 120));
+        assertEquals(0, controller.getLevelIndex());
+        assertEquals(defaultLadder().get(0), applied.get(applied.size() - 1));
+    }
+
+    @Test
+    public void slowEncoder_lowersFrameRate() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).build();
+        SimulatedPipeline pipeline = new SimulatedPipeline(10_000_000);
+        pipeline.encoderFrameRateCapacity = 18;
+        controller.update(pipeline.stats);
+
+        run(controller, pipeline, 60);
+
+        assertTrue(controller.getLevel().frameRate <= 15);
+    }
+
+    @Test
+    public void congestion_needsConsecutiveUpdates() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).setCongestedUpdates(3).setHoldNanos(0).build();
+        controller.update(stats(0, 0, 0, 0));
+
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(20, 0, 0, 0)));
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(20, 0, 0, 0)));
+        nowNanos += SECOND;
+        // between the thresholds resets the count
+        assertFalse(controller.update(stats(5, 0, 0, 0)));
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(20, 0, 0, 0)));
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(20, 0, 0, 0)));
+        nowNanos += SECOND;
+        assertTrue(controller.update(stats(20, 0, 0, 0)));
+        assertEquals(1, controller.getLevelIndex());
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    public void droppedSamples_stepDownImmediately_butRespectHold() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).setCongestedUpdates(3)
+                .setHoldNanos(2 * SECOND).build();
+        controller.update(stats(0, 0, 0, 0));
+
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(0, 0, 0, 1)));
+        nowNanos += SECOND;
+        assertTrue(controller.update(stats(0, 0, 0, 2)));
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(0, 0, 0, 3)));
+        nowNanos += SECOND;
+        assertTrue(controller.update(stats(0, 0, 0, 4)));
+        assertEquals(2, controller.getLevelIndex());
+
+        // the cheapest level is the floor
+        for (int i = 0; i < 20; i++) {
+            nowNanos += SECOND;
+            controller.update(stats(64, SECOND, 0, 5 + i));
+        }
+        assertEquals(defaultLadder().size() - 1, controller.getLevelIndex());
+    }
+
+    @Test
+    public void writeLoad_isShareOfIntervalSpentWriting() {
+        AdaptiveBitrateController controller = builder(defaultLadder()).setCongestedUpdates(1).setHoldNanos(0).build();
+        controller.update(stats(0, 0, 0, 0));
+
+        nowNanos += SECOND;
+        assertFalse(controller.update(stats(0, 0, SECOND / 2, 0)));
+        assertEquals(0.5f, controller.getWriteLoad(), 1e-3f);
+        nowNanos += SECOND;
+        assertTrue(controller.update(stats(0, 0, SECOND / 2 + 700_000_000L, 0)));
+        assertEquals(0.7f, controller.getWriteLoad(), 1e-3f);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class AnnexBTest {
+
+    static final byte[] SPS = {0x67, 0x64, 0x00, 0x28, (byte) 0xAC, 0x2B};
+    static final byte[] PPS = {0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+
+    static ByteBuffer annexB(byte[]... units) {
+        int size = 0;
+        for (byte[] unit : units) size += 4 + unit.length;
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (byte[] unit : units) {
+            out.putInt(1);
+            out.put(unit);
+        }
+        out.flip();
+        return out;
+    }
+
+    static ByteBuffer codecConfig() {
+        return annexB(SPS, PPS);
+    }
+
+    @Test
+    public void toLengthPrefixed_replacesStartCodesAndDropsDelimiters() {
+        byte[] stream = {0, 0, 0, 1, 0x09, (byte) 0xF0, 0, 0, 1, 0x65, 1, 2, 3, 0, 0, 0, 1, 0x06, 7};
+        ByteBuffer in = ByteBuffer.wrap(stream);
+        ByteBuffer out = ByteBuffer.allocate(64);
+
+        int written = AnnexB.toLengthPrefixed(in, out);
+
+        byte[] expected = {0, 0, 0, 4, 0x65, 1, 2, 3, 0, 0, 0, 2, 0x06, 7};
+        assertEquals(expected.length, written);
+        assertArrayEquals(expected, java.util.Arrays.copyOf(out.array(), written));
+        assertEquals(0, in.position());
+        assertEquals(stream.length, in.limit());
+    }
+
+    @Test
+    public void toLengthPrefixed_takesDataWithoutStartCodeAsOneUnit() {
+        ByteBuffer out = ByteBuffer.allocate(16);
+
+        int written = AnnexB.toLengthPrefixed(ByteBuffer.wrap(new byte[]{0x41, 9, 9}), out);
+
+        assertEquals(7, written);
+        assertEquals(3, out.getInt(0));
+        assertEquals(0x41, out.get(4));
+    }
+
+    @Test
+    public void toLengthPrefixed_failsWithoutSideEffectsWhenOutputIsTooSmall() {
+        ByteBuffer out = ByteBuffer.allocate(8);
+        out.put((byte) 1);
+
+        assertEquals(-1, AnnexB.toLengthPrefixed(annexB(SPS, PPS), out));
+        assertEquals(1, out.position());
+    }
+
+    @Test
+    public void decoderConfig_parsesParameterSets() {
+        AvcDecoderConfig config = AvcDecoderConfig.fromAnnexB(codecConfig());
+
+        assertEquals(1, config.getSequenceParameterSets().size());
+        assertArrayEquals(PPS, config.getPictureParameterSets().get(0));
+        assertEquals(0x64, config.getProfileIdc());
+        assertEquals(0x28, config.getLevelIdc());
+        assertEquals(config, AvcDecoderConfig.fromAnnexB(codecConfig()));
+        assertNotEquals(config, AvcDecoderConfig.fromAnnexB(annexB(new byte[]{0x67, 0x42, 0, 0x1F}, PPS)));
+    }
+
+    @Test
+    public void decoderConfig_requiresBothParameterSets() {
+        assertNull(AvcDecoderConfig.fromAnnexB(annexB(SPS)));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraCapabilitiesStoreTest {
+
+    private static final String FINGERPRINT = "google/device/device:14/UQ1A/1234:user/release-keys";
+
+    static CameraCapabilities backCamera() {
+        return new CameraCapabilities.Builder("0")
+                .setLensFacing(CameraCapabilities.LENS_FACING_BACK)
+                .setSensorOrientation(90)
+                .setHardwareLevel(3)
+                .setTimestampSource(1)
+                .setActiveArraySize(4032, 3024)
+                .setMaxDigitalZoom(8f)
+                .setZoomRatioRange(0.6f, 10f)
+                .setSensitivityRange(50, 6400)
+                .setExposureRange(13_000L, 683_709_000L)
+                .setFpsRanges(new int[]{15, 15, 15, 30, 30, 30})
+                .setPreviewSizes(new StreamSize[]{
+                        new StreamSize(4032, 3024, 50_000_000L),
+                        new StreamSize(1920, 1080, 33_333_333L),
+                        new StreamSize(1280, 720, 16_666_666L)
+                })
+                .setYuvSizes(new StreamSize[]{new StreamSize(640, 480, 33_333_333L)})
+                .build();
+    }
+
+    static CameraCapabilities frontCamera() {
+        return new CameraCapabilities.Builder("1")
+                .setLensFacing(CameraCapabilities.LENS_FACING_FRONT)
+                .setActiveArraySize(3264, 2448)
+                .build();
+    }
+
+    @Test
+    public void roundTrip_preservesAllFields() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CameraCapabilitiesStore.write(out, FINGERPRINT, Arrays.asList(backCamera(), frontCamera()));
+
+        List<CameraCapabilities> read =
+                CameraCapabilitiesStore.read(new ByteArrayInputStream(out.toByteArray()), FINGERPRINT);
+
+        assertNotNull(read);
+        assertEquals(2, read.size());
+        CameraCapabilities back = read.get(0);
+        assertEquals("0", back.getCameraId());
+        assertEquals(CameraCapabilities.LENS_FACING_BACK, back.getLensFacing());
+        assertEquals(90, back.getSensorOrientation());
+        assertEquals(3, back.getHardwareLevel());
+        assertEquals(1, back.getTimestampSource());
+        assertEquals(4032, back.getActiveArrayWidth());
+        assertEquals(3024, back.getActiveArrayHeight());
+        assertEquals(8f, back.getMaxDigitalZoom(), 0f);
+        assertEquals(0.6f, back.getMinZoomRatio(), 0f);
+        assertEquals(10f, back.getMaxZoomRatio(), 0f);
+        assertEquals(6400, back.getMaxSensitivity());
+        assertEquals(683_709_000L, back.getMaxExposureNanos());
+        assertEquals(3, back.getFpsRangeCount());
+        assertEquals(30, back.getFpsRangeUpper(2));
+        assertEquals(Arrays.asList(backCamera().getPreviewSizes()), Arrays.asList(back.getPreviewSizes()));
+        assertEquals(Arrays.asList(backCamera().getYuvSizes()), Arrays.asList(back.getYuvSizes()));
+
+        CameraCapabilities front = read.get(1);
+        assertFalse(front.hasSensitivityRange());
+        assertFalse(front.hasZoomRatioRange());
+        assertEquals(0, front.getPreviewSizes().length);
+    }
+
+    @Test
+    public void otherFingerprint_isCacheMiss() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CameraCapabilitiesStore.write(out, FINGERPRINT, Arrays.asList(backCamera()));
+
+        assertNull(CameraCapabilitiesStore.read(new ByteArrayInputStream(out.toByteArray()), "other"));
+    }
+
+    @Test
+    public void corruptedOrMissingFile_isCacheMiss() throws IOException {
+        File file = File.createTempFile("capabilities", ".bin");
+        file.deleteOnExit();
+        CameraCapabilitiesStore store = new CameraCapabilitiesStore(file);
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x53, 0x43, 0x43, 0x50, 0, 1, 0});
+        }
+        assertNull(store.load(FINGERPRINT));
+
+        assertTrue(file.delete());
+        assertNull(store.load(FINGERPRINT));
+    }
+
+    @Test
+    public void save_thenLoad() throws IOException {
+        File file = File.createTempFile("capabilities", ".bin");
+        file.deleteOnExit();
+        CameraCapabilitiesStore store = new CameraCapabilitiesStore(file);
+
+        store.save(FINGERPRINT, Arrays.asList(backCamera(), frontCamera()));
+        List<CameraCapabilities> loaded = store.load(FINGERPRINT);
+
+        assertNotNull(loaded);
+        assertEquals("1", loaded.get(1).getCameraId());
+        assertTrue(file.length() < 512);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraStateMachineTest {
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 400;
+    private static final int MAX_RETRIES = 3;
+
+    private final FakeCameraThreading threading = new FakeCameraThreading();
+    private final FakeCameraDriver driver = new FakeCameraDriver(threading);
+    private final CameraStateMachine machine =
+            new CameraStateMachine(driver, threading, INITIAL_BACKOFF_MS, MAX_BACKOFF_MS, MAX_RETRIES);
+    private final List<CameraState> transitions = new ArrayList<>();
+
+    {
+        machine.setListener((from, to) -> {
+            threading.checkCameraThread();
+            transitions.add(to);
+        });
+    }
+
+    private void startStreaming() {
+        machine.open();
+        threading.runCameraTasks();
+        driver.completeOpen();
+        driver.completeConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+        transitions.clear();
+    }
+
+    @Test
+    public void open_goesThroughEveryStateToStreaming() {
+        machine.open();
+        assertEquals(CameraState.OPENING, machine.getState());
+        threading.runCameraTasks();
+        assertEquals(1, driver.opens);
+
+        driver.completeOpen();
+        assertEquals(CameraState.CONFIGURING, machine.getState());
+        assertTrue(machine.isOpen());
+        driver.completeConfigure();
+
+        assertEquals(CameraState.STREAMING, machine.getState());
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.OPENED, CameraState.CONFIGURING,
+                CameraState.STREAMING), transitions);
+    }
+
+    @Test
+    public void redundantOpen_isIgnored() {
+        machine.open();
+        machine.open();
+        threading.runCameraTasks();
+        assertEquals(1, driver.opens);
+
+        driver.completeOpen();
+        machine.open();
+        threading.runCameraTasks();
+        assertEquals(1, driver.opens);
+    }
+
+    @Test
+    public void outputsNotReady_waitsInOpenedForReconfigure() {
+        driver.outputsReady = false;
+        machine.open();
+        threading.runCameraTasks();
+        driver.completeOpen();
+        assertEquals(CameraState.OPENED, machine.getState());
+        assertEquals(0, driver.configures);
+
+        driver.outputsReady = true;
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        driver.completeConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+    }
+
+    @Test
+    public void reconfigureRequests_areCoalesced() {
+        startStreaming();
+
+        machine.requestReconfigure();
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        assertEquals(2, driver.configures);
+        assertEquals(CameraState.CONFIGURING, machine.getState());
+
+        // three more while configuring give one more session
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        machine.requestReconfigure();
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        assertEquals(2, driver.configures);
+
+        driver.completeConfigure();
+        assertEquals(3, driver.configures);
+        driver.completeConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+        assertEquals(3, driver.configures);
+    }
+
+    @Test
+    public void replacedSession_isIgnored() {
+        startStreaming();
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        CameraDriver.Callback callback = driver.configureCallback;
+        int staleGeneration = driver.lastGeneration - 1;
+
+        threading.postToCamera(() -> callback.onConfigured(staleGeneration));
+        threading.postToCamera(() -> callback.onConfigureFailed(staleGeneration));
+        threading.runCameraTasks();
+
+        assertEquals(CameraState.CONFIGURING, machine.getState());
+        assertEquals(1, driver.opens);
+    }
+
+    @Test
+    public void failures_reopenWithDoublingBackoff_untilError() {
+        startStreaming();
+
+        driver.disconnect();
+        assertEquals(CameraState.RECOVERING, machine.getState());
+        assertEquals(1, driver.closes);
+        assertEquals(INITIAL_BACKOFF_MS, machine.getLastBackoffMillis());
+
+        long[] expectedBackoffs = {INITIAL_BACKOFF_MS, 2 * INITIAL_BACKOFF_MS, MAX_BACKOFF_MS};
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            assertEquals(expectedBackoffs[attempt], machine.getLastBackoffMillis());
+            threading.advanceBy(machine.getLastBackoffMillis() - 1);
+            assertEquals(attempt + 1, driver.opens);
+            threading.advanceBy(1);
+            assertEquals(attempt + 2, driver.opens);
+            assertEquals(CameraState.OPENING, machine.getState());
+            driver.error(1);
+        }
+
+        assertEquals(CameraState.ERROR, machine.getState());
+        assertFalse(machine.isOpen());
+        threading.advanceBy(10 * MAX_BACKOFF_MS);
+        assertEquals(MAX_RETRIES + 1, driver.opens);
+    }
+
+    @Test
+    public void openAfterError_startsOver() {
+        startStreaming();
+        for (int i = 0; i <= MAX_RETRIES; i++) {
+            driver.error(1);
+            threading.advanceBy(MAX_BACKOFF_MS);
+        }
+        assertEquals(CameraState.ERROR, machine.getState());
+
+        machine.open();
+        threading.runCameraTasks();
+        driver.completeOpen();
+        driver.completeConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+
+        driver.disconnect();
+        assertEquals(INITIAL_BACKOFF_MS, machine.getLastBackoffMillis());
+    }
+
+    @Test
+    public void recoveredSession_resetsTheBackoff() {
+        startStreaming();
+        driver.disconnect();
+        threading.advanceBy(INITIAL_BACKOFF_MS);
+        driver.error(1);
+        threading.advanceBy(2 * INITIAL_BACKOFF_MS);
+
+        driver.completeOpen();
+        driver.completeConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+
+        driver.failConfigure();
+        assertEquals(CameraState.STREAMING, machine.getState());
+        machine.requestReconfigure();
+        threading.runCameraTasks();
+        driver.failConfigure();
+        assertEquals(CameraState.RECOVERING, machine.getState());
+        assertEquals(INITIAL_BACKOFF_MS, machine.getLastBackoffMillis());
+    }
+
+    @Test
+    public void closeWhileOpening_ignoresTheLateDevice() {
+        machine.open();
+        threading.runCameraTasks();
+        machine.close();
+        assertEquals(CameraState.CLOSED, machine.getState());
+        threading.runCameraTasks();
+        assertEquals(1, driver.closes);
+
+        driver.completeOpen();
+        assertEquals(CameraState.CLOSED, machine.getState());
+        assertEquals(0, driver.configures);
+    }
+
+    @Test
+    public void closeWhileRecovering_cancelsTheReopen() {
+        startStreaming();
+        driver.disconnect();
+        machine.close();
+        threading.runCameraTasks();
+
+        threading.advanceBy(10 * MAX_BACKOFF_MS);
+        assertEquals(1, driver.opens);
+        assertEquals(CameraState.CLOSED, machine.getState());
+        assertEquals(Arrays.asList(CameraState.RECOVERING, CameraState.CLOSED), transitions);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CameraSwitchPlanTest {
+
+    private static Set<String> setOf(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    @Test
+    public void next_cyclesThroughAllCameras() {
+        CameraSwitchPlan plan = new CameraSwitchPlan(Arrays.asList("0", "1", "2"), Collections.emptyList());
+        assertEquals("1", plan.next("0"));
+        assertEquals("2", plan.next("1"));
+        assertEquals("0", plan.next("2"));
+        assertEquals("0", plan.next("unknown"));
+    }
+
+    @Test
+    public void singleCamera_hasNoNext() {
+        CameraSwitchPlan plan = new CameraSwitchPlan(Collections.singletonList("0"), Collections.emptyList());
+        assertNull(plan.next("0"));
+        assertNull(new CameraSwitchPlan(Collections.emptyList(), Collections.emptyList()).next("0"));
+    }
+
+    @Test
+    public void warmCamera_needsAConcurrentCombination() {
+        CameraSwitchPlan plan = new CameraSwitchPlan(Arrays.asList("0", "1", "2"),
+                Arrays.asList(setOf("0", "1"), setOf("1", "3")));
+        assertTrue(plan.canKeepWarm("0", "1"));
+        assertTrue(plan.canKeepWarm("1", "0"));
+        assertFalse(plan.canKeepWarm("1", "2"));
+        assertFalse(plan.canKeepWarm("0", "0"));
+
+        CameraSwitchPlan unknown = new CameraSwitchPlan(Arrays.asList("0", "1"), Collections.emptyList());
+        assertFalse(unknown.canKeepWarm("0", "1"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraThreadingTest {
+
+    private final FakeCameraThreading threading = new FakeCameraThreading();
+
+    // the camera pipeline of CameraHelper: one threading shared by the state machine and the scheduler
+    private final FakeCameraDriver driver = new FakeCameraDriver(threading);
+    private final CameraStateMachine machine = new CameraStateMachine(driver, threading, 100, 400, 3);
+    private final List<CameraControlState> submitted = new ArrayList<>();
+    private final CaptureRequestScheduler scheduler = new CaptureRequestScheduler(
+            threading,
+            state -> {
+                threading.checkCameraThread();
+                submitted.add(state);
+                return false;
+            },
+            threading::nowNanos
+    );
+
+    {
+        machine.setListener((from, to) -> {
+            if (from == CameraState.STREAMING) {
+                scheduler.onSessionClosed();
+            }
+            if (to == CameraState.STREAMING) {
+                scheduler.onSessionReady();
+            }
+        });
+    }
+
+    @Test
+    public void controlUpdatesFromMain_areSubmittedOnCameraThreadOnceStreaming() {
+        machine.open();
+        scheduler.update(state -> state.withZoomLevel(4));
+        assertEquals(0, driver.opens);
+
+        threading.runCameraTasks();
+        driver.completeOpen();
+        assertTrue(submitted.isEmpty());
+
+        driver.completeConfigure();
+        assertEquals(1, submitted.size());
+        assertEquals(4f, submitted.get(0).getZoomLevel(), 0f);
+    }
+
+    @Test
+    public void closeThenQuit_closesDeviceButSubmitsNoLaterUpdate() {
+        machine.open();
+        threading.runCameraTasks();
+        driver.completeOpen();
+        driver.completeConfigure();
+        submitted.clear();
+        threading.advanceBy(100);
+
+        // the order of CameraHelper.close()
+        machine.close();
+        threading.quit();
+        scheduler.update(state -> state.withZoomLevel(2));
+        threading.advanceBy(100);
+
+        assertEquals(1, driver.closes);
+        assertEquals(CameraState.CLOSED, machine.getState());
+        assertTrue(submitted.isEmpty());
+    }
+
+    @Test
+    public void checkCameraThread_passesOnlyOnCameraThread() {
+        boolean[] checked = {false};
+        threading.postToCamera(() -> {
+            threading.checkCameraThread();
+            checked[0] = true;
+        });
+        threading.runCameraTasks();
+
+        assertTrue(checked[0]);
+        assertThrows(IllegalStateException.class, threading::checkCameraThread);
+    }
+
+    @Test
+    public void mainTasks_neverRunOnCameraThread() {
+        boolean[] onCamera = {true};
+        threading.postToCamera(() -> threading.postToMain(() -> onCamera[0] = threading.isCameraThread()));
+        threading.runCameraTasks();
+        threading.runMainTasks();
+
+        assertFalse(onCamera[0]);
+    }
+
+    @Test
+    public void cameraTasks_runInPostingOrderAndRespectDelay() {
+        List<Integer> order = new ArrayList<>();
+        threading.postToCameraDelayed(() -> order.add(3), 30);
+        threading.postToCamera(() -> order.add(1));
+        threading.postToCameraDelayed(() -> order.add(2), 10);
+
+        threading.runCameraTasks();
+        assertEquals(Arrays.asList(1), order);
+
+        threading.advanceBy(30);
+        assertEquals(Arrays.asList(1, 2, 3), order);
+    }
+
+    @Test
+    public void quit_drainsQueuedTasksButRejectsNewOnes() {
+        List<Integer> order = new ArrayList<>();
+        threading.postToCamera(() -> order.add(1));
+        threading.quit();
+        threading.postToCamera(() -> order.add(2));
+        threading.runCameraTasks();
+
+        assertEquals(Arrays.asList(1), order);
+    }
+
+    @Test
+    public void removeFromCamera_dropsPendingTask() {
+        List<Integer> order = new ArrayList<>();
+        Runnable task = () -> order.add(1);
+        threading.postToCameraDelayed(task, 10);
+        threading.removeFromCamera(task);
+        threading.advanceBy(20);
+
+        assertTrue(order.isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CaptureMetadataExporterTest {
+
+    private final CaptureMetadataLog log = new CaptureMetadataLog(300);
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private void addFrame(long frameNumber) {
+        log.beginFrame(frameNumber, 1_000_000L + frameNumber);
+        log.setExposureTimeNanos(10_000_000L);
+        log.setFrameDurationNanos(33_333_333L);
+        log.setSensitivity(400);
+        log.setCropRegion(0, 0, 4000, 3000);
+        log.endFrame();
+    }
+
+    @Test
+    public void csv_hasHeaderAndEmptyUnknownValues() throws IOException {
+        CaptureMetadataExporter exporter = new CaptureMetadataExporter(log, out, CaptureMetadataExporter.Format.CSV);
+        addFrame(1);
+        log.beginFrame(2, 1_000_002L);
+        log.setZoomRatio(1.5f);
+        log.endFrame();
+        exporter.close();
+
+        assertEquals(CaptureMetadataExporter.CSV_HEADER
+                        + "1,1000001,10000000,33333333,400,0,0,4000,3000,\n"
+                        + "2,1000002,,,,,,,,1.5\n",
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(2, exporter.getWrittenRows());
+    }
+
+    @Test
+    public void binary_hasFixedSizeRows() throws IOException {
+        CaptureMetadataExporter exporter = new CaptureMetadataExporter(log, out, CaptureMetadataExporter.Format.BINARY);
+        addFrame(5);
+        exporter.close();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals(12 + CaptureMetadataExporter.BINARY_ROW_BYTES, bytes.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(CaptureMetadataExporter.BINARY_MAGIC, in.readInt());
+        assertEquals(CaptureMetadataExporter.BINARY_VERSION, in.readInt());
+        assertEquals(CaptureMetadataExporter.COLUMN_COUNT, in.readInt());
+        assertEquals(5, in.readLong());
+        assertEquals(1_000_005L, in.readLong());
+        assertEquals(10_000_000L, in.readLong());
+        assertEquals(33_333_333L, in.readLong());
+        assertEquals(400, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(4000, in.readInt());
+        assertEquals(3000, in.readInt());
+        assertTrue(Float.isNaN(in.readFloat()));
+    }
+
+    @Test
+    public void drain_isIncremental_andCountsLostRows() throws IOException {
+        CaptureMetadataExporter exporter = new CaptureMetadataExporter(log, out, CaptureMetadataExporter.Format.BINARY);
+        // more than one block
+        for (int i = 0; i < 280; i++) {
+            addFrame(i);
+        }
+        assertEquals(280, exporter.drain());
+        assertEquals(0, exporter.drain());
+        for (int i = 280; i < 900; i++) {
+            addFrame(i);
+        }
+        assertEquals(300, exporter.drain());
+        assertEquals(320, exporter.getLostRows());
+        exporter.close();
+
+        assertEquals(580, exporter.getWrittenRows());
+        assertEquals(12 + 580 * CaptureMetadataExporter.BINARY_ROW_BYTES, out.size());
+        try {
+            exporter.drain();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureMetadataLogTest {
+
+    private static void addFrame(CaptureMetadataLog log, long frameNumber) {
+        log.beginFrame(frameNumber, frameNumber * 33_000_000L);
+        log.setExposureTimeNanos(frameNumber * 1000);
+        log.setSensitivity(100 + (int) frameNumber);
+        log.endFrame();
+    }
+
+    @Test
+    public void unsetValues_areUnknown() {
+        CaptureMetadataLog log = new CaptureMetadataLog(4);
+        log.beginFrame(7, 1_000);
+        log.setFrameDurationNanos(33_333_333L);
+        log.endFrame();
+        log.beginFrame(8, 2_000);
+        log.setCropRegion(10, 20, 1930, 1100);
+        log.setZoomRatio(2f);
+        log.endFrame();
+
+        CaptureMetadataLog.Rows rows = new CaptureMetadataLog.Rows(4);
+        assertEquals(2, log.read(0, rows));
+        assertEquals(2, rows.size);
+        assertEquals(7, rows.frameNumbers[0]);
+        assertEquals(1_000, rows.sensorTimestampsNanos[0]);
+        assertEquals(33_333_333L, rows.frameDurationsNanos[0]);
+        assertEquals(CaptureMetadataLog.UNKNOWN, rows.exposureTimesNanos[0]);
+        assertEquals(CaptureMetadataLog.UNKNOWN, rows.sensitivities[0]);
+        assertEquals(CaptureMetadataLog.UNKNOWN, rows.cropLefts[0]);
+        assertTrue(Float.isNaN(rows.zoomRatios[0]));
+        // values of the previous row do not leak into the next one
+        assertEquals(CaptureMetadataLog.UNKNOWN, rows.frameDurationsNanos[1]);
+        assertEquals(1930, rows.cropRights[1]);
+        assertEquals(2f, rows.zoomRatios[1], 0f);
+    }
+
+    @Test
+    public void read_continuesInBlocks() {
+        CaptureMetadataLog log = new CaptureMetadataLog(8);
+        for (int i = 0; i < 5; i++) {
+            addFrame(log, i);
+        }
+        CaptureMetadataLog.Rows rows = new CaptureMetadataLog.Rows(3);
+
+        long next = log.read(0, rows);
+        assertEquals(3, next);
+        assertEquals(0, rows.firstRow);
+        assertEquals(2, rows.frameNumbers[2]);
+        next = log.read(next, rows);
+        assertEquals(5, next);
+        assertEquals(2, rows.size);
+        assertEquals(4, rows.frameNumbers[1]);
+        assertEquals(104, rows.sensitivities[1]);
+        assertEquals(5, log.read(next, rows));
+        assertEquals(0, rows.size);
+    }
+
+    @Test
+    public void slowReader_losesOldestRows() {
+        CaptureMetadataLog log = new CaptureMetadataLog(4);
+        for (int i = 0; i < 10; i++) {
+            addFrame(log, i);
+        }
+        CaptureMetadataLog.Rows rows = new CaptureMetadataLog.Rows(8);
+
+        assertEquals(10, log.read(2, rows));
+        assertEquals(6, rows.firstRow);
+        assertEquals(4, rows.size);
+        assertEquals(6, rows.frameNumbers[0]);
+        assertEquals(9, rows.frameNumbers[3]);
+        assertEquals(10, log.getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endFrame_withoutBegin_throws() {
+        new CaptureMetadataLog(2).endFrame();
+    }
+}
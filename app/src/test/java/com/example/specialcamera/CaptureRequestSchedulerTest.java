@@ -0,0 +1,147 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureRequestSchedulerTest {
+
+    private static final long FRAME_MILLIS = 33;
+
+    private final FakeCameraThreading threading = new FakeCameraThreading();
+    private final List<CameraControlState> submitted = new ArrayList<>();
+    private int animationFrames = 0;
+    private final CaptureRequestScheduler scheduler = new CaptureRequestScheduler(
+            threading,
+            state -> {
+                threading.checkCameraThread();
+                submitted.add(state);
+                return --animationFrames > 0;
+            },
+            threading::nowNanos
+    );
+
+    private void startSession() {
+        scheduler.setFrameIntervalNanos(FRAME_MILLIS * 1_000_000L);
+        threading.postToCamera(scheduler::onSessionReady);
+        threading.runCameraTasks();
+        submitted.clear();
+    }
+
+    @Test
+    public void updatesBeforeSession_areSubmittedOnceWhenSessionIsReady() {
+        scheduler.update(state -> state.withZoomLevel(10));
+        scheduler.update(state -> state.withIsoLevel(50));
+        threading.runCameraTasks();
+        assertTrue(submitted.isEmpty());
+
+        threading.postToCamera(scheduler::onSessionReady);
+        threading.runCameraTasks();
+
+        assertEquals(1, submitted.size());
+        assertEquals(10f, submitted.get(0).getZoomLevel(), 0f);
+        assertEquals(Integer.valueOf(50), submitted.get(0).getIsoLevel());
+    }
+
+    @Test
+    public void manualIso_leavesExposureUnset() {
+        startSession();
+        threading.advanceBy(FRAME_MILLIS);
+        scheduler.update(state -> state.withIsoLevel(50));
+        threading.runCameraTasks();
+
+        assertEquals(1, submitted.size());
+        CameraControlState state = submitted.get(0);
+        assertTrue(state.isManualExposure());
+        assertNull(state.getExposureLevel());
+    }
+
+    @Test
+    public void burstOfUpdates_isCoalescedIntoOneRequestPerFrame() {
+        startSession();
+        threading.advanceBy(FRAME_MILLIS);
+
+        for (int i = 1; i <= 10; i++) {
+            float zoom = i;
+            scheduler.update(state -> state.withZoomLevel(zoom));
+        }
+        threading.runCameraTasks();
+        assertEquals(1, submitted.size());
+
+        for (int i = 11; i <= 20; i++) {
+            float zoom = i;
+            scheduler.update(state -> state.withZoomLevel(zoom));
+        }
+        threading.runCameraTasks();
+        // the second burst has to wait for the next frame slot
+        assertEquals(1, submitted.size());
+
+        threading.advanceBy(FRAME_MILLIS);
+        assertEquals(2, submitted.size());
+        assertEquals(20f, submitted.get(1).getZoomLevel(), 0f);
+
+        assertEquals(20, scheduler.getRequestedUpdates());
+        assertEquals(18, scheduler.getCoalescedUpdates());
+    }
+
+    @Test
+    public void updateRestoringSubmittedState_isNotResubmitted() {
+        startSession();
+        threading.advanceBy(FRAME_MILLIS);
+
+        scheduler.update(state -> state.withZoomLevel(10));
+        scheduler.update(state -> state.withZoomLevel(0));
+        threading.runCameraTasks();
+
+        assertTrue(submitted.isEmpty());
+        assertEquals(2, scheduler.getCoalescedUpdates());
+    }
+
+    @Test
+    public void submissionsNeverExceedOnePerFrameInterval() {
+        startSession();
+        for (int frame = 0; frame < 100; frame++) {
+            for (int i = 0; i < 5; i++) {
+                float zoom = frame * 5 + i + 1;
+                scheduler.update(state -> state.withZoomLevel(zoom));
+                threading.advanceBy(3);
+            }
+        }
+        threading.advanceBy(FRAME_MILLIS);
+
+        long elapsedFrames = threading.nowMillis() / FRAME_MILLIS;
+        assertTrue(submitted.size() <= elapsedFrames + 1);
+        assertEquals(500f, submitted.get(submitted.size() - 1).getZoomLevel(), 0f);
+    }
+
+    @Test
+    public void animatingSubmitter_isResubmittedOncePerFrameUntilDone() {
+        startSession();
+        threading.advanceBy(FRAME_MILLIS);
+
+        animationFrames = 4;
+        scheduler.update(state -> state.withZoomLevel(50));
+        threading.runCameraTasks();
+        assertEquals(1, submitted.size());
+
+        threading.advanceBy(FRAME_MILLIS * 10);
+        assertEquals(4, submitted.size());
+        assertEquals(0, threading.pendingCameraTasks());
+    }
+
+    @Test
+    public void closedSession_dropsSubmissions() {
+        startSession();
+        threading.postToCamera(scheduler::onSessionClosed);
+        threading.runCameraTasks();
+
+        scheduler.update(CameraControlState::withAutoControl);
+        scheduler.update(state -> state.withExposureLevel(10f));
+        threading.advanceBy(FRAME_MILLIS);
+
+        assertTrue(submitted.isEmpty());
+    }
+}
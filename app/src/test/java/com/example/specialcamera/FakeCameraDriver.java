@@ -0,0 +1,79 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Scripted {@link CameraDriver} for JVM tests. Operations only record their callback; the test completes
+ * them on the camera thread of a {@link FakeCameraThreading}.
+ */
+class FakeCameraDriver implements CameraDriver {
+
+    private final FakeCameraThreading threading;
+
+    boolean outputsReady = true;
+    int opens;
+    int configures;
+    int closes;
+    int lastGeneration;
+    Callback openCallback;
+    Callback configureCallback;
+
+    FakeCameraDriver(@NonNull FakeCameraThreading threading) {
+        this.threading = threading;
+    }
+
+    @Override
+    public void open(@NonNull Callback callback) {
+        threading.checkCameraThread();
+        opens++;
+        openCallback = callback;
+    }
+
+    @Override
+    public boolean configure(int generation, @NonNull Callback callback) {
+        threading.checkCameraThread();
+        if (!outputsReady) return false;
+        configures++;
+        lastGeneration = generation;
+        configureCallback = callback;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        threading.checkCameraThread();
+        closes++;
+    }
+
+    void completeOpen() {
+        Callback callback = openCallback;
+        runOnCamera(callback::onOpened);
+    }
+
+    void completeConfigure() {
+        Callback callback = configureCallback;
+        int generation = lastGeneration;
+        runOnCamera(() -> callback.onConfigured(generation));
+    }
+
+    void failConfigure() {
+        Callback callback = configureCallback;
+        int generation = lastGeneration;
+        runOnCamera(() -> callback.onConfigureFailed(generation));
+    }
+
+    void disconnect() {
+        Callback callback = openCallback;
+        runOnCamera(callback::onDisconnected);
+    }
+
+    void error(int error) {
+        Callback callback = openCallback;
+        runOnCamera(() -> callback.onError(error));
+    }
+
+    private void runOnCamera(@NonNull Runnable task) {
+        threading.postToCamera(task);
+        threading.runCameraTasks();
+    }
+}
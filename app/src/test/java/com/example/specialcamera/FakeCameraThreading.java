@@ -0,0 +1,118 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Deterministic {@link CameraThreading} for JVM tests. Nothing runs until the test drains the queues;
+ * delayed camera tasks are released by advancing the virtual clock.
+ */
+class FakeCameraThreading implements CameraThreading {
+
+    private final PriorityQueue<ScheduledTask> cameraTasks = new PriorityQueue<>();
+    private final ArrayDeque<Runnable> mainTasks = new ArrayDeque<>();
+
+    private long nowMillis = 0;
+    private long sequence = 0;
+    private boolean onCameraThread = false;
+    private boolean quit = false;
+
+    long nowMillis() {
+        return nowMillis;
+    }
+
+    long nowNanos() {
+        return nowMillis * 1_000_000L;
+    }
+
+    int pendingCameraTasks() {
+        return cameraTasks.size();
+    }
+
+    /**
+     * Runs every camera task which is due at the current virtual time, including tasks posted while draining.
+     */
+    void runCameraTasks() {
+        while (!cameraTasks.isEmpty() && cameraTasks.peek().timeMillis <= nowMillis) {
+            ScheduledTask task = cameraTasks.poll();
+            onCameraThread = true;
+            try {
+                task.runnable.run();
+            } finally {
+                onCameraThread = false;
+            }
+        }
+    }
+
+    void runMainTasks() {
+        while (!mainTasks.isEmpty()) {
+            mainTasks.poll().run();
+        }
+    }
+
+    void advanceBy(long millis) {
+        long target = nowMillis + millis;
+        while (!cameraTasks.isEmpty() && cameraTasks.peek().timeMillis <= target) {
+            nowMillis = Math.max(nowMillis, cameraTasks.peek().timeMillis);
+            runCameraTasks();
+        }
+        nowMillis = target;
+    }
+
+    @Override
+    public void postToCamera(@NonNull Runnable task) {
+        postToCameraDelayed(task, 0);
+    }
+
+    @Override
+    public void postToCameraDelayed(@NonNull Runnable task, long delayMillis) {
+        if (quit) return;
+        cameraTasks.add(new ScheduledTask(nowMillis + Math.max(0, delayMillis), sequence++, task));
+    }
+
+    @Override
+    public void removeFromCamera(@NonNull Runnable task) {
+        Iterator<ScheduledTask> iterator = cameraTasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void postToMain(@NonNull Runnable task) {
+        mainTasks.add(task);
+    }
+
+    @Override
+    public boolean isCameraThread() {
+        return onCameraThread;
+    }
+
+    @Override
+    public void quit() {
+        quit = true;
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        final long timeMillis;
+        final long sequence;
+        final Runnable runnable;
+
+        ScheduledTask(long timeMillis, long sequence, Runnable runnable) {
+            this.timeMillis = timeMillis;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (timeMillis != other.timeMillis) return Long.compare(timeMillis, other.timeMillis);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Scripted {@link EncoderCodec} for JVM tests. The test emits output buffers, which are delivered
+ * synchronously on the calling thread the way MediaCodec delivers them on its callback thread.
+ */
+class FakeEncoderCodec implements EncoderCodec<String> {
+
+    static final String FORMAT = "video/avc";
+
+    private final ByteBuffer[] buffers;
+    private final ArrayDeque<Integer> freeIndices = new ArrayDeque<>();
+
+    Callback<String> callback;
+    EncoderConfig config;
+    boolean started;
+    boolean stopped;
+    boolean released;
+    boolean deliverEndOfStream = true;
+    int releasedBuffers;
+    int bitRate;
+
+    FakeEncoderCodec(int bufferCount) {
+        buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(4096);
+            freeIndices.add(i);
+        }
+    }
+
+    int outstandingBuffers() {
+        return buffers.length - freeIndices.size();
+    }
+
+    void emitFormat() {
+        callback.onOutputFormatChanged(FORMAT);
+    }
+
+    /**
+     * Emits a sample whose payload is {@code size} copies of {@code fill}, at a 16 byte offset.
+     */
+    void emit(long presentationTimeUs, int flags, int size, byte fill) {
+        Integer index = freeIndices.poll();
+        if (index == null) {
+            throw new IllegalStateException("Codec starved of output buffers");
+        }
+        ByteBuffer buffer = buffers[index];
+        buffer.clear();
+        for (int i = 0; i < size; i++) {
+            buffer.put(16 + i, fill);
+        }
+        callback.onOutputBufferAvailable(index, 16, size, presentationTimeUs, flags);
+    }
+
+    void emitFrame(long presentationTimeUs, boolean keyFrame) {
+        emit(presentationTimeUs, keyFrame ? SampleInfo.FLAG_KEY_FRAME : 0, 100, (byte) presentationTimeUs);
+    }
+
+    @Override
+    public void configure(@NonNull EncoderConfig config, @NonNull Callback<String> callback) {
+        this.config = config;
+        this.callback = callback;
+    }
+
+    @Override
+    public void start() {
+        started = true;
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return buffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        if (freeIndices.contains(index)) {
+            throw new IllegalStateException("Buffer " + index + " released twice");
+        }
+        freeIndices.add(index);
+        releasedBuffers++;
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        if (deliverEndOfStream) {
+            emit(0, SampleInfo.FLAG_END_OF_STREAM, 0, (byte) 0);
+        }
+    }
+
+    @Override
+    public void setBitRate(int bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+}
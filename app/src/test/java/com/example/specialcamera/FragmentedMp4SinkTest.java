@@ -0,0 +1,173 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FragmentedMp4SinkTest {
+
+    private static final long FRAME_US = 33_333;
+    private static final int GOP = 15;
+
+    private File dir;
+    private final List<String> closedSegments = new ArrayList<>();
+    private final SampleInfo info = new SampleInfo();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("segments").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+
+    private FragmentedMp4Sink.Builder builder() {
+        return new FragmentedMp4Sink.Builder(index -> new File(dir, "segment-" + index + ".mp4"), 1280, 720)
+                .setPreallocation(4096, FilePreallocator.EXTEND)
+                .setSegmentListener((file, durationUs, bytes) -> closedSegments.add(file.getName()));
+    }
+
+    private void writeConfig(FragmentedMp4Sink<String> sink, ByteBuffer config) throws IOException {
+        info.set(0, SampleInfo.FLAG_CODEC_CONFIG);
+        sink.writeSample(config, info);
+    }
+
+    private void writeFrames(FragmentedMp4Sink<String> sink, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            boolean key = i % GOP == 0;
+            info.set(i * FRAME_US, key ? SampleInfo.FLAG_KEY_FRAME : 0);
+            sink.writeSample(FragmentedMp4WriterTest.frame(key, 50, i), info);
+        }
+    }
+
+    private List<Mp4Boxes.Box> parse(String name) throws IOException {
+        return Mp4Boxes.parse(Mp4Boxes.read(new File(dir, name)));
+    }
+
+    @Test
+    public void waitsForConfigAndKeyFrame() throws IOException {
+        FragmentedMp4Sink<String> sink = builder().build();
+        sink.start("video/avc");
+        writeFrames(sink, 0, 2);
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, 2, GOP + 3);
+        sink.stop();
+
+        assertEquals(GOP, sink.getDroppedSamples());
+        assertEquals(Arrays.asList("segment-0.mp4"), closedSegments);
+        List<Mp4Boxes.Box> boxes = parse("segment-0.mp4");
+        Mp4Boxes.Box trun = Mp4Boxes.first(boxes, "moof").find("traf/trun");
+        assertEquals(3, trun.getInt(4));
+        assertEquals(0, Mp4Boxes.first(boxes, "moof").find("traf/tfdt").getLong(4));
+    }
+
+    @Test
+    public void startsFragmentAtEveryKeyFrameAndAfterMaxDuration() throws IOException {
+        FragmentedMp4Sink<String> sink = builder().setMaxFragmentDurationUs(10 * FRAME_US).build();
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, 0, 2 * GOP);
+        sink.stop();
+
+        List<Mp4Boxes.Box> moofs = Mp4Boxes.all(parse("segment-0.mp4"), "moof");
+        // 10 + 5 frames per GOP
+        assertEquals(4, moofs.size());
+        int[] counts = new int[moofs.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = moofs.get(i).find("traf/trun").getInt(4);
+        }
+        assertTrue(Arrays.equals(new int[]{10, 5, 10, 5}, counts));
+    }
+
+    @Test
+    public void audio_isWrittenFromTheFirstKeyFrame() throws IOException {
+        FragmentedMp4Sink<String> sink = builder().build();
+        writeConfig(sink, AnnexBTest.codecConfig());
+        info.set(0, SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_AUDIO);
+        sink.writeSample(ByteBuffer.wrap(new byte[]{0x12, 0x08}), info);
+        // before the segment is opened
+        info.set(0, SampleInfo.FLAG_AUDIO);
+        sink.writeSample(ByteBuffer.allocate(8), info);
+        writeFrames(sink, 0, 2);
+        info.set(20_000, SampleInfo.FLAG_AUDIO);
+        sink.writeSample(ByteBuffer.allocate(8), info);
+        sink.stop();
+
+        assertEquals(1, sink.getDroppedSamples());
+        List<Mp4Boxes.Box> trafs = Mp4Boxes.all(Mp4Boxes.first(parse("segment-0.mp4"), "moof").children, "traf");
+        assertEquals(2, trafs.size());
+        assertEquals(2, trafs.get(0).find("trun").getInt(4));
+        assertEquals(1, trafs.get(1).find("trun").getInt(4));
+        // 20 ms at 44.1 kHz
+        assertEquals(882, trafs.get(1).find("tfdt").getLong(4));
+    }
+
+    @Test
+    public void rotatesSegmentsAtKeyFramesAfterMaxDuration() throws IOException {
+        FragmentedMp4Sink<String> sink = builder().setMaxSegmentDurationUs(20 * FRAME_US).build();
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, 0, 5 * GOP);
+        sink.stop();
+
+        // the limit is reached inside the second GOP, so every segment holds two GOPs
+        assertEquals(Arrays.asList("segment-0.mp4", "segment-1.mp4", "segment-2.mp4"), closedSegments);
+        assertEquals(3, sink.getSegmentCount());
+        for (String name : closedSegments) {
+            List<Mp4Boxes.Box> boxes = parse(name);
+            assertEquals("ftyp", boxes.get(0).type);
+            assertEquals(0, Mp4Boxes.first(boxes, "moof").find("traf/tfdt").getLong(4));
+        }
+        Mp4Boxes.Box lastTrun = Mp4Boxes.first(parse("segment-2.mp4"), "moof").find("traf/trun");
+        assertEquals(GOP, lastTrun.getInt(4));
+    }
+
+    @Test
+    public void rotatesSegmentsOnConfigChange() throws IOException {
+        FragmentedMp4Sink<String> sink = builder().build();
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, 0, GOP + 1);
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, GOP + 1, 2 * GOP + 1);
+        assertEquals(1, sink.getSegmentCount());
+
+        writeConfig(sink, AnnexBTest.annexB(new byte[]{0x67, 0x42, 0, 0x1F}, AnnexBTest.PPS));
+        writeFrames(sink, 2 * GOP + 1, 3 * GOP + 1);
+        sink.stop();
+
+        assertEquals(2, sink.getSegmentCount());
+        Mp4Boxes.Box avcC = parse("segment-1.mp4").get(1).find("trak/mdia/minf/stbl/stsd/avc1/avcC");
+        assertEquals(0x42, avcC.file.get(avcC.payloadOffset() + 1));
+    }
+
+    @Test
+    public void reservedFileBecomesFirstSegment() throws IOException {
+        File reserved = new File(dir, "reserved");
+        FragmentedMp4Sink<String> sink = builder().setReservedFile(reserved).build();
+        sink.prepare();
+        assertEquals(4096, reserved.length());
+
+        writeConfig(sink, AnnexBTest.codecConfig());
+        writeFrames(sink, 0, 3);
+        sink.stop();
+
+        assertFalse(reserved.exists());
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat"), Mp4Boxes.types(parse("segment-0.mp4")));
+    }
+}
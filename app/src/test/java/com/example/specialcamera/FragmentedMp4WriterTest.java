@@ -0,0 +1,233 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class FragmentedMp4WriterTest {
+
+    private static final int CHUNK = 4096;
+    private static final long FRAME_TICKS = FragmentedMp4Writer.TIMESCALE / 30;
+
+    private File dir;
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fmp4").toFile();
+        output = new File(dir, "out.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The null-terminated name after version and flags, pre_defined, handler_type and reserved.
+     */
+    private static String handlerName(Mp4Boxes.Box hdlr) {
+        int start = hdlr.payloadOffset() + 24;
+        int end = hdlr.offset + hdlr.size - 1;
+        assertEquals(0, hdlr.file.get(end));
+        byte[] name = new byte[end - start];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = hdlr.file.get(start + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    static ByteBuffer frame(boolean keyFrame, int payloadSize, int fill) {
+        byte[] unit = new byte[1 + payloadSize];
+        unit[0] = (byte) (keyFrame ? 0x65 : 0x41);
+        Arrays.fill(unit, 1, unit.length, (byte) fill);
+        return AnnexBTest.annexB(unit);
+    }
+
+    private FragmentedMp4Writer newWriter() throws IOException {
+        return new FragmentedMp4Writer(output, AvcDecoderConfig.fromAnnexB(AnnexBTest.codecConfig()),
+                1280, 720, 30, CHUNK, FilePreallocator.EXTEND, FsyncPolicy.NEVER);
+    }
+
+    @Test
+    public void writesInitSegmentAndFragments() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        for (int i = 0; i < 6; i++) {
+            if (i == 3) writer.flushFragment(i * FRAME_TICKS);
+            writer.appendSample(frame(i % 3 == 0, 10 + i, i), i * FRAME_TICKS, i % 3 == 0);
+        }
+        writer.close();
+
+        ByteBuffer file = Mp4Boxes.read(output);
+        List<Mp4Boxes.Box> boxes = Mp4Boxes.parse(file);
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat", "moof", "mdat"), Mp4Boxes.types(boxes));
+        assertEquals(writer.getBytesWritten(), file.limit());
+        assertEquals(2, writer.getFragmentCount());
+        assertEquals(6 * FRAME_TICKS, writer.getWrittenDurationTicks());
+
+        Mp4Boxes.Box moov = boxes.get(1);
+        Mp4Boxes.Box avcC = moov.find("trak/mdia/minf/stbl/stsd/avc1/avcC");
+        assertEquals(1, file.get(avcC.payloadOffset()));
+        assertEquals(0x64, file.get(avcC.payloadOffset() + 1));
+        moov.find("mvex/trex");
+        assertEquals("VideoHandler", handlerName(moov.find("trak/mdia/hdlr")));
+
+        List<Mp4Boxes.Box> moofs = Mp4Boxes.all(boxes, "moof");
+        List<Mp4Boxes.Box> mdats = Mp4Boxes.all(boxes, "mdat");
+        for (int fragment = 0; fragment < 2; fragment++) {
+            Mp4Boxes.Box moof = moofs.get(fragment);
+            Mp4Boxes.Box mdat = mdats.get(fragment);
+            assertEquals(fragment + 1, moof.find("mfhd").getInt(4));
+            assertEquals(fragment * 3 * FRAME_TICKS, moof.find("traf/tfdt").getLong(4));
+
+            Mp4Boxes.Box trun = moof.find("traf/trun");
+            assertEquals(3, trun.getInt(4));
+            assertEquals(mdat.payloadOffset(), moof.offset + trun.getInt(8));
+            int dataOffset = mdat.payloadOffset();
+            for (int i = 0; i < 3; i++) {
+                int sample = fragment * 3 + i;
+                int entry = 12 + i * 12;
+                assertEquals(FRAME_TICKS, trun.getInt(entry));
+                // length prefix plus NAL header plus payload
+                assertEquals(4 + 1 + 10 + sample, trun.getInt(entry + 4));
+                assertEquals(i == 0 ? FragmentedMp4Writer.SAMPLE_FLAGS_SYNC : FragmentedMp4Writer.SAMPLE_FLAGS_NON_SYNC,
+                        trun.getInt(entry + 8));
+                assertEquals(1 + 10 + sample, file.getInt(dataOffset));
+                assertEquals(sample, file.get(dataOffset + 5));
+                dataOffset += trun.getInt(entry + 4);
+            }
+            assertEquals(mdat.offset + mdat.size, dataOffset);
+        }
+    }
+
+    @Test
+    public void unclosedFileParsesUpToLastFragment() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        writer.appendSample(frame(true, 3000, 1), 0, true);
+        writer.appendSample(frame(false, 3000, 2), FRAME_TICKS, false);
+        writer.flushFragment(2 * FRAME_TICKS);
+        // pending, lost in a crash
+        writer.appendSample(frame(true, 100, 3), 2 * FRAME_TICKS, true);
+
+        ByteBuffer file = Mp4Boxes.read(output);
+        assertEquals(0, file.limit() % CHUNK);
+        List<Mp4Boxes.Box> boxes = Mp4Boxes.parse(file);
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat", "free"), Mp4Boxes.types(boxes));
+        assertEquals(writer.getBytesWritten(), boxes.get(4).offset);
+
+        writer.close();
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat", "moof", "mdat"),
+                Mp4Boxes.types(Mp4Boxes.parse(Mp4Boxes.read(output))));
+        assertEquals(writer.getBytesWritten(), output.length());
+    }
+
+    @Test
+    public void reusesReservedSpace() throws IOException {
+        try (RandomAccessFile reserved = new RandomAccessFile(output, "rw")) {
+            byte[] garbage = new byte[3 * CHUNK];
+            Arrays.fill(garbage, (byte) 0x55);
+            reserved.write(garbage);
+        }
+
+        FragmentedMp4Writer writer = newWriter();
+        writer.appendSample(frame(true, 200, 1), 0, true);
+        writer.flushFragment(-1);
+
+        assertEquals(3 * CHUNK, output.length());
+        List<Mp4Boxes.Box> boxes = Mp4Boxes.parse(Mp4Boxes.read(output));
+        assertEquals("free", boxes.get(boxes.size() - 1).type);
+
+        writer.close();
+        assertEquals(writer.getBytesWritten(), output.length());
+    }
+
+    @Test
+    public void growsPayloadForLargeSamples() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        writer.appendSample(frame(true, 600 * 1024, 7), 0, true);
+        writer.close();
+
+        List<Mp4Boxes.Box> boxes = Mp4Boxes.parse(Mp4Boxes.read(output));
+        Mp4Boxes.Box mdat = Mp4Boxes.first(boxes, "mdat");
+        assertEquals(8 + 4 + 1 + 600 * 1024, mdat.size);
+        assertEquals(writer.getBytesWritten(), output.length());
+    }
+
+    @Test
+    public void audioTrack_sharesFragmentsWithVideo() throws IOException {
+        // AAC-LC, 44.1 kHz, mono
+        AacDecoderConfig audioConfig = AacDecoderConfig.fromAudioSpecificConfig(ByteBuffer.wrap(new byte[]{0x12, 0x08}));
+        assertEquals(44_100, audioConfig.getSampleRate());
+        assertEquals(1, audioConfig.getChannelCount());
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output,
+                AvcDecoderConfig.fromAnnexB(AnnexBTest.codecConfig()), audioConfig, 1280, 720, 30, CHUNK,
+                FilePreallocator.EXTEND, FsyncPolicy.NEVER);
+        writer.appendSample(frame(true, 10, 1), 0, true);
+        writer.appendAudioSample(ByteBuffer.wrap(new byte[]{0x21, 0x21, 0x21, 0x21, 0x21}), 0);
+        writer.appendSample(frame(false, 12, 2), FRAME_TICKS, false);
+        writer.appendAudioSample(ByteBuffer.wrap(new byte[]{0x22, 0x22, 0x22, 0x22, 0x22, 0x22}), 1000);
+        writer.close();
+
+        ByteBuffer file = Mp4Boxes.read(output);
+        List<Mp4Boxes.Box> boxes = Mp4Boxes.parse(file);
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat"), Mp4Boxes.types(boxes));
+        Mp4Boxes.Box moov = boxes.get(1);
+        assertEquals(3, moov.find("mvhd").getInt(96));
+        List<Mp4Boxes.Box> traks = Mp4Boxes.all(moov.children, "trak");
+        assertEquals(2, traks.size());
+        assertEquals(44_100, traks.get(1).find("mdia/mdhd").getInt(12));
+        traks.get(1).find("mdia/minf/stbl/stsd/mp4a/esds");
+        assertEquals("VideoHandler", handlerName(traks.get(0).find("mdia/hdlr")));
+        assertEquals("SoundHandler", handlerName(traks.get(1).find("mdia/hdlr")));
+        assertEquals(2, Mp4Boxes.all(moov.find("mvex").children, "trex").size());
+
+        Mp4Boxes.Box moof = boxes.get(2);
+        Mp4Boxes.Box mdat = boxes.get(3);
+        List<Mp4Boxes.Box> trafs = Mp4Boxes.all(moof.children, "traf");
+        assertEquals(2, trafs.size());
+        Mp4Boxes.Box videoRun = trafs.get(0).find("trun");
+        assertEquals(mdat.payloadOffset(), moof.offset + videoRun.getInt(8));
+
+        Mp4Boxes.Box audio = trafs.get(1);
+        assertEquals(2, audio.find("tfhd").getInt(4));
+        assertEquals(0, audio.find("tfdt").getLong(4));
+        Mp4Boxes.Box audioRun = audio.find("trun");
+        assertEquals(2, audioRun.getInt(4));
+        // after both video samples: length prefix, NAL header and payload each
+        int audioOffset = moof.offset + audioRun.getInt(8);
+        assertEquals(mdat.payloadOffset() + (4 + 1 + 10) + (4 + 1 + 12), audioOffset);
+        assertArrayEquals(new int[]{1000, 5, 1024, 6},
+                new int[]{audioRun.getInt(12), audioRun.getInt(16), audioRun.getInt(20), audioRun.getInt(24)});
+        assertEquals(0x21, file.get(audioOffset));
+        assertEquals(0x22, file.get(audioOffset + 5));
+        assertEquals(mdat.offset + mdat.size, audioOffset + 11);
+    }
+
+    @Test
+    public void finalSampleRepeatsPreviousDuration() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        writer.appendSample(frame(true, 10, 0), 0, true);
+        writer.appendSample(frame(false, 10, 1), 2 * FRAME_TICKS, false);
+        writer.close();
+
+        Mp4Boxes.Box trun = Mp4Boxes.first(Mp4Boxes.parse(Mp4Boxes.read(output)), "moof").find("traf/trun");
+        assertArrayEquals(new long[]{2 * FRAME_TICKS, 2 * FRAME_TICKS},
+                new long[]{trun.getInt(12), trun.getInt(24)});
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FrameAnalysisPipelineTest {
+
+    // executes tasks only when the test says so, which makes "analyzers are busy" deterministic
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor = tasks::add;
+    private long now = 0;
+    private final FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor, () -> now);
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void framesOfferedWhileBusy_keepOnlyTheLatest() {
+        List<Long> analyzed = new ArrayList<>();
+        pipeline.addAnalyzer((frame, buffers) -> analyzed.add(frame.getTimestampNanos()));
+
+        List<SyntheticYuvFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            SyntheticYuvFrame frame = SyntheticYuvFrame.uniform(16, 8, 0, 100, i);
+            frames.add(frame);
+            pipeline.offer(frame);
+        }
+        assertEquals(1, tasks.size());
+        runTasks();
+
+        assertEquals(1, analyzed.size());
+        assertEquals(4L, (long) analyzed.get(0));
+        for (SyntheticYuvFrame frame : frames) {
+            assertEquals(1, frame.releaseCount);
+        }
+        assertEquals(5, pipeline.getOfferedFrames());
+        assertEquals(1, pipeline.getAnalyzedFrames());
+        assertEquals(4, pipeline.getDroppedFrames());
+    }
+
+    @Test
+    public void frameOfferedDuringAnalysis_isAnalyzedNext() {
+        List<Long> analyzed = new ArrayList<>();
+        SyntheticYuvFrame second = SyntheticYuvFrame.uniform(16, 8, 0, 100, 2);
+        pipeline.addAnalyzer((frame, buffers) -> {
+            analyzed.add(frame.getTimestampNanos());
+            if (frame.getTimestampNanos() == 1) {
+                pipeline.offer(second);
+            }
+        });
+
+        pipeline.offer(SyntheticYuvFrame.uniform(16, 8, 0, 100, 1));
+        runTasks();
+
+        assertEquals(2, analyzed.size());
+        assertEquals(1, second.releaseCount);
+        assertEquals(0, pipeline.getDroppedFrames());
+    }
+
+    @Test
+    public void stats_arePerAnalyzerAndFailuresAreIsolated() {
+        FrameAnalyzer slow = (frame, buffers) -> now += 5_000_000;
+        FrameAnalyzer failing = (frame, buffers) -> {
+            throw new IllegalStateException("broken");
+        };
+        int[] fastCalls = {0};
+        FrameAnalyzer fast = (frame, buffers) -> {
+            now += 1_000_000;
+            fastCalls[0]++;
+        };
+        pipeline.addAnalyzer(slow);
+        pipeline.addAnalyzer(failing);
+        pipeline.addAnalyzer(fast);
+
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(SyntheticYuvFrame.uniform(16, 8, 0, 100, i));
+            runTasks();
+        }
+
+        assertEquals(3, pipeline.getStats(slow).getFrames());
+        assertEquals(5_000_000, pipeline.getStats(slow).getAverageNanos());
+        assertEquals(3, pipeline.getStats(failing).getFailures());
+        assertEquals(1_000_000, pipeline.getStats(fast).getMaxNanos());
+        assertEquals(3, fastCalls[0]);
+    }
+
+    @Test
+    public void workBuffers_areReusedAcrossFrames() {
+        List<int[]> seen = new ArrayList<>();
+        pipeline.addAnalyzer((frame, buffers) -> seen.add(buffers.ints(0, 256)));
+
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(SyntheticYuvFrame.uniform(16, 8, 0, 100, i));
+            runTasks();
+        }
+
+        assertSame(seen.get(0), seen.get(1));
+        assertSame(seen.get(1), seen.get(2));
+    }
+
+    @Test
+    public void syntheticPlanes_honourRowStride() {
+        int[] sum = {0};
+        pipeline.addAnalyzer((frame, buffers) -> {
+            for (int y = 0; y < frame.getHeight(); y++) {
+                for (int x = 0; x < frame.getWidth(); x++) {
+                    sum[0] += frame.getYPlane().get(y * frame.getYRowStride() + x) & 0xFF;
+                }
+            }
+        });
+
+        pipeline.offer(SyntheticYuvFrame.fromLuma(10, 4, 6, (x, y) -> x, 0));
+        runTasks();
+
+        assertEquals(4 * 45, sum[0]);
+    }
+
+    @Test
+    public void closedPipeline_releasesPendingAndNewFrames() {
+        SyntheticYuvFrame pending = SyntheticYuvFrame.uniform(16, 8, 0, 100, 0);
+        pipeline.addAnalyzer((frame, buffers) -> fail("closed pipeline must not analyze"));
+        pipeline.offer(pending);
+        pipeline.close();
+        SyntheticYuvFrame late = SyntheticYuvFrame.uniform(16, 8, 0, 100, 1);
+        pipeline.offer(late);
+        runTasks();
+
+        assertEquals(1, pending.releaseCount);
+        assertEquals(1, late.releaseCount);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameTimingRecorderTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    private final FrameTimingStats stats = new FrameTimingStats();
+
+    @Test
+    public void steadyStream_hasNoJank() {
+        FrameTimingRecorder recorder = new FrameTimingRecorder(64);
+        for (int i = 0; i < 100; i++) {
+            recorder.onFrame(i * FRAME_NANOS);
+        }
+        recorder.snapshot(stats);
+
+        assertEquals(100, stats.totalFrames);
+        // one slot is reserved for the write in progress
+        assertEquals(63, stats.windowFrames);
+        assertEquals(30f, stats.fps, 0.01f);
+        assertEquals(FRAME_NANOS, stats.p50IntervalNanos);
+        assertEquals(FRAME_NANOS, stats.p99IntervalNanos);
+        assertEquals(0, stats.jankFrames);
+        assertEquals(0, stats.droppedFramesEstimate);
+    }
+
+    @Test
+    public void stall_isCountedAsJankAndDroppedFrames() {
+        FrameTimingRecorder recorder = new FrameTimingRecorder(128);
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            // a stall worth three frames in the middle of the stream
+            time += i == 50 ? 3 * FRAME_NANOS : FRAME_NANOS;
+            recorder.onFrame(time);
+        }
+        recorder.snapshot(stats);
+
+        assertEquals(1, stats.jankFrames);
+        assertEquals(2, stats.droppedFramesEstimate);
+        assertEquals(3 * FRAME_NANOS, stats.maxIntervalNanos);
+        assertEquals(FRAME_NANOS, stats.p95IntervalNanos);
+    }
+
+    @Test
+    public void repeatedTimestamps_areIgnored() {
+        FrameTimingRecorder recorder = new FrameTimingRecorder(16);
+        recorder.onFrame(FRAME_NANOS);
+        recorder.onFrame(FRAME_NANOS);
+        recorder.onFrame(2 * FRAME_NANOS);
+        recorder.onFrame(FRAME_NANOS);
+
+        assertEquals(2, recorder.getFrameCount());
+    }
+
+    @Test
+    public void tooFewFrames_reportZeroIntervals() {
+        FrameTimingRecorder recorder = new FrameTimingRecorder(16);
+        recorder.onFrame(FRAME_NANOS);
+        recorder.snapshot(stats);
+
+        assertEquals(1, stats.windowFrames);
+        assertEquals(0f, stats.fps, 0f);
+        assertEquals(0, stats.p50IntervalNanos);
+    }
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(64, new FrameTimingRecorder(50).getCapacity());
+        assertEquals(64, new FrameTimingRecorder(64).getCapacity());
+    }
+
+    @Test
+    public void concurrentReader_neverSeesTornWindow() throws InterruptedException {
+        FrameTimingRecorder recorder = new FrameTimingRecorder(32);
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 2_000_000; i++) {
+                recorder.onFrame(i * FRAME_NANOS);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            recorder.snapshot(stats);
+            if (stats.windowFrames > 1) {
+                assertEquals(FRAME_NANOS, stats.p50IntervalNanos);
+                assertEquals(FRAME_NANOS, stats.maxIntervalNanos);
+            }
+        }
+        writer.join();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram(1_000_000, 100_000_000);
+        assertEquals(-1, histogram.getPercentileNanos(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 500_000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(25_250_000L, histogram.getMeanNanos());
+        assertEquals(26_000_000L, histogram.getPercentileNanos(50));
+        assertEquals(48_000_000L, histogram.getPercentileNanos(95));
+        // never above the largest sample
+        assertEquals(50_000_000L, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void latenciesAboveRange_landInLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(1_000_000, 10_000_000);
+        histogram.record(2_000_000);
+        histogram.record(900_000_000);
+
+        assertEquals(900_000_000, histogram.getMaxNanos());
+        assertEquals(900_000_000, histogram.getPercentileNanos(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getMeanNanos());
+    }
+}
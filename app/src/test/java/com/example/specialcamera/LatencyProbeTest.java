@@ -0,0 +1,65 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyProbeTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void events_areMatchedBySensorTimestamp_inEitherOrder() {
+        LatencyProbe probe = new LatencyProbe(8);
+        probe.onCaptureResult(1_000 * MS, 1_030 * MS);
+        probe.onCaptureResult(1_033 * MS, 1_063 * MS);
+        probe.onDisplayUpdate(1_000 * MS, 1_050 * MS);
+        // the view latched the buffer before the result was delivered
+        probe.onDisplayUpdate(1_033 * MS, 1_060 * MS);
+        probe.onCaptureResult(1_066 * MS, 1_096 * MS);
+        probe.onDisplayUpdate(1_066 * MS, 1_116 * MS);
+
+        LatencyHistogram capture = probe.getHistogram(LatencyProbe.Stage.CAPTURE);
+        LatencyHistogram display = probe.getHistogram(LatencyProbe.Stage.DISPLAY);
+        LatencyHistogram total = probe.getHistogram(LatencyProbe.Stage.TOTAL);
+        assertEquals(3, total.getCount());
+        assertEquals(30 * MS, capture.getMaxNanos());
+        assertEquals(20 * MS, display.getMaxNanos());
+        assertEquals(50 * MS, total.getMaxNanos());
+        assertEquals(27_500_000L, total.getPercentileNanos(30));
+        assertEquals(0, probe.getSkippedFrames());
+    }
+
+    @Test
+    public void frameReplacedBeforeDraw_countsAsSkipped() {
+        LatencyProbe probe = new LatencyProbe(2);
+        probe.onCaptureResult(100 * MS, 130 * MS);
+        probe.onCaptureResult(133 * MS, 163 * MS);
+        probe.onDisplayUpdate(133 * MS, 170 * MS);
+        probe.onCaptureResult(166 * MS, 196 * MS);
+        probe.onCaptureResult(200 * MS, 230 * MS);
+
+        assertEquals(1, probe.getSkippedFrames());
+        assertEquals(1, probe.getHistogram(LatencyProbe.Stage.TOTAL).getCount());
+        assertEquals(37 * MS, probe.getHistogram(LatencyProbe.Stage.TOTAL).getMaxNanos());
+    }
+
+    @Test
+    public void sensorClockOffset_convertsRealtimeTimestamps() {
+        LatencyProbe probe = new LatencyProbe(4);
+        // realtime is ahead of the monotonic clock by the time spent in deep sleep
+        probe.setSensorClockOffsetNanos(5_000 * MS);
+        probe.onCaptureResult(6_000 * MS, 1_020 * MS);
+        probe.onDisplayUpdate(6_000 * MS, 1_045 * MS);
+
+        assertEquals(45 * MS, probe.getHistogram(LatencyProbe.Stage.TOTAL).getMaxNanos());
+        assertEquals(0, probe.getClockErrors());
+
+        probe.setSensorClockOffsetNanos(0);
+        probe.onCaptureResult(7_000 * MS, 1_100 * MS);
+        probe.onDisplayUpdate(7_000 * MS, 1_120 * MS);
+        assertEquals(1, probe.getClockErrors());
+        assertEquals(1, probe.getHistogram(LatencyProbe.Stage.TOTAL).getCount());
+        assertEquals(2, probe.getHistogram(LatencyProbe.Stage.DISPLAY).getCount());
+    }
+}
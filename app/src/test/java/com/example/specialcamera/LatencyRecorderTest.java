@@ -0,0 +1,35 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void empty_reportsNoSamples() {
+        LatencyRecorder recorder = new LatencyRecorder("start", 100, 4);
+        assertEquals(-1, recorder.getLastNanos());
+        assertEquals(-1, recorder.getPercentileNanos(50));
+        assertFalse(recorder.isLastWithinTarget());
+        assertEquals("start -", recorder.toOverlayText());
+    }
+
+    @Test
+    public void percentiles_coverLastSamplesOnly() {
+        LatencyRecorder recorder = new LatencyRecorder("start", 100, 4);
+        recorder.record(1000);
+        for (long latency : new long[]{40, 10, 30, 20}) {
+            recorder.record(latency);
+        }
+        assertEquals(5, recorder.getCount());
+        assertEquals(20, recorder.getLastNanos());
+        assertEquals(20, recorder.getPercentileNanos(50));
+        assertEquals(40, recorder.getPercentileNanos(95));
+        assertEquals(10, recorder.getPercentileNanos(0));
+        assertTrue(recorder.isLastWithinTarget());
+
+        recorder.record(150);
+        assertFalse(recorder.isLastWithinTarget());
+    }
+}
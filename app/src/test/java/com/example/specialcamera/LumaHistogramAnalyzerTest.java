@@ -0,0 +1,106 @@
+package com.example.specialcamera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class LumaHistogramAnalyzerTest {
+
+    private final StripedExecutor stripedExecutor = new StripedExecutor(4, "HistogramTest");
+    private final AnalysisBuffers buffers = new AnalysisBuffers();
+
+    @After
+    public void tearDown() {
+        stripedExecutor.shutdown();
+    }
+
+    private static int pattern(int x, int y) {
+        return (x * 7 + y * 13) & 0xFF;
+    }
+
+    @Test
+    public void histogram_matchesNaiveCount() {
+        SyntheticYuvFrame frame = SyntheticYuvFrame.fromLuma(64, 48, 16, LumaHistogramAnalyzerTest::pattern, 7);
+        LumaHistogramAnalyzer analyzer = new LumaHistogramAnalyzer(2, null);
+        analyzer.analyze(frame, buffers);
+
+        int[] expected = new int[256];
+        for (int y = 0; y < 48; y += 2) {
+            for (int x = 0; x < 64; x += 2) {
+                expected[pattern(x, y)]++;
+            }
+        }
+        LumaHistogram histogram = new LumaHistogram();
+        analyzer.snapshot(histogram);
+
+        assertArrayEquals(expected, histogram.bins);
+        assertEquals(32 * 24, histogram.samples);
+        assertEquals(7, histogram.frameTimestampNanos);
+    }
+
+    @Test
+    public void parallelStripes_matchSerialResult() {
+        // large enough to take the parallel path, with an odd height and padded rows
+        SyntheticYuvFrame frame = SyntheticYuvFrame.fromLuma(1280, 819, 64, LumaHistogramAnalyzerTest::pattern, 0);
+        LumaHistogram serial = new LumaHistogram();
+        LumaHistogram parallel = new LumaHistogram();
+
+        LumaHistogramAnalyzer serialAnalyzer = new LumaHistogramAnalyzer(1, null);
+        serialAnalyzer.analyze(frame, buffers);
+        serialAnalyzer.snapshot(serial);
+
+        LumaHistogramAnalyzer parallelAnalyzer = new LumaHistogramAnalyzer(1, stripedExecutor);
+        for (int i = 0; i < 3; i++) {
+            parallelAnalyzer.analyze(frame, buffers);
+        }
+        parallelAnalyzer.snapshot(parallel);
+
+        assertTrue(1280L * 819 >= LumaHistogramAnalyzer.PARALLEL_MIN_SAMPLES);
+        assertArrayEquals(serial.bins, parallel.bins);
+        assertEquals(1280L * 819, parallel.samples);
+    }
+
+    @Test
+    public void clipping_isReportedInPercent() {
+        // left quarter black, right quarter white, middle grey
+        SyntheticYuvFrame frame = SyntheticYuvFrame.fromLuma(100, 10, 0,
+                (x, y) -> x < 25 ? 0 : x >= 75 ? 255 : 128, 0);
+        LumaHistogramAnalyzer analyzer = new LumaHistogramAnalyzer(1, null);
+        analyzer.analyze(frame, buffers);
+
+        LumaHistogram histogram = new LumaHistogram();
+        analyzer.snapshot(histogram);
+
+        assertEquals(25f, histogram.shadowClippingPercent, 0.001f);
+        assertEquals(25f, histogram.highlightClippingPercent, 0.001f);
+        assertEquals(500, histogram.getPeak());
+    }
+
+    @Test
+    public void stripedExecutor_runsEveryStripeExactlyOnce() {
+        for (int run = 0; run < 200; run++) {
+            int stripes = 1 + run % 13;
+            AtomicIntegerArray calls = new AtomicIntegerArray(stripes);
+            stripedExecutor.run(stripes, (stripe, count) -> {
+                assertEquals(stripes, count);
+                calls.incrementAndGet(stripe);
+            });
+            for (int i = 0; i < stripes; i++) {
+                assertEquals(1, calls.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void stripedExecutor_rethrowsWorkerFailure() {
+        assertThrows(IllegalStateException.class, () -> stripedExecutor.run(8, (stripe, count) -> {
+            if (stripe == 5) throw new IllegalStateException("stripe failed");
+        }));
+        // the executor stays usable
+        stripedExecutor.run(8, (stripe, count) -> {
+        });
+    }
+}
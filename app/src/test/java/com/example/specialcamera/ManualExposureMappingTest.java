@@ -0,0 +1,23 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ManualExposureMappingTest {
+
+    @Test
+    public void sensitivity_spansSensorRange() {
+        assertEquals(100, ManualExposureMapping.sensitivityForLevel(0, 100, 1600));
+        assertEquals(850, ManualExposureMapping.sensitivityForLevel(50, 100, 1600));
+        assertEquals(1600, ManualExposureMapping.sensitivityForLevel(100, 100, 1600));
+    }
+
+    @Test
+    public void exposure_spansSensorRange() {
+        assertEquals(10_000L, ManualExposureMapping.exposureNanosForLevel(0f, 10_000L, 100_000_000L));
+        // float arithmetic, exact to about 7 digits
+        assertEquals(100_000_000L, ManualExposureMapping.exposureNanosForLevel(100f, 10_000L, 100_000_000L), 10);
+        assertEquals(50_005_000L, ManualExposureMapping.exposureNanosForLevel(50f, 10_000L, 100_000_000L), 10);
+    }
+}
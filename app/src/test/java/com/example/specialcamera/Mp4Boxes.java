@@ -0,0 +1,153 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal ISO BMFF box parser for checking the files written by {@link FragmentedMp4Writer}.
+ * Fails on boxes which overrun their parent, the way a strict demuxer would.
+ */
+class Mp4Boxes {
+
+    private static final Set<String> CONTAINERS = new HashSet<>(Arrays.asList(
+            "moov", "trak", "mdia", "minf", "dinf", "stbl", "mvex", "moof", "traf"));
+    // size of the visual sample entry fields before the child boxes of avc1
+    private static final int VISUAL_SAMPLE_ENTRY_SIZE = 78;
+    // size of the audio sample entry fields before the child boxes of mp4a
+    private static final int AUDIO_SAMPLE_ENTRY_SIZE = 28;
+
+    static final class Box {
+        final String type;
+        final int offset;
+        final int size;
+        final ByteBuffer file;
+        final List<Box> children = new ArrayList<>();
+
+        Box(String type, int offset, int size, ByteBuffer file) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.file = file;
+        }
+
+        int payloadOffset() {
+            return offset + 8;
+        }
+
+        int getInt(int payloadIndex) {
+            return file.getInt(payloadOffset() + payloadIndex);
+        }
+
+        long getLong(int payloadIndex) {
+            return file.getLong(payloadOffset() + payloadIndex);
+        }
+
+        /**
+         * @param path child types separated by '/'
+         */
+        @NonNull
+        Box find(@NonNull String path) {
+            Box box = this;
+            for (String type : path.split("/")) {
+                Box match = null;
+                for (Box child : box.children) {
+                    if (child.type.equals(type)) {
+                        match = child;
+                        break;
+                    }
+                }
+                if (match == null) {
+                    throw new AssertionError("No " + type + " in " + box.type);
+                }
+                box = match;
+            }
+            return box;
+        }
+    }
+
+    @NonNull
+    static ByteBuffer read(@NonNull File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+
+    @NonNull
+    static List<Box> parse(@NonNull ByteBuffer file) {
+        return parse(file, 0, file.limit());
+    }
+
+    @NonNull
+    static List<Box> parse(@NonNull ByteBuffer file, int from, int to) {
+        List<Box> boxes = new ArrayList<>();
+        int offset = from;
+        while (offset < to) {
+            if (to - offset < 8) {
+                throw new AssertionError("Truncated box header at " + offset);
+            }
+            int size = file.getInt(offset);
+            if (size < 8 || offset + size > to) {
+                throw new AssertionError("Box at " + offset + " of size " + size + " overruns " + to);
+            }
+            Box box = new Box(typeAt(file, offset + 4), offset, size, file);
+            if (CONTAINERS.contains(box.type)) {
+                box.children.addAll(parse(file, offset + 8, offset + size));
+            } else if (box.type.equals("stsd")) {
+                box.children.addAll(parse(file, offset + 16, offset + size));
+            } else if (box.type.equals("avc1")) {
+                box.children.addAll(parse(file, offset + 8 + VISUAL_SAMPLE_ENTRY_SIZE, offset + size));
+            } else if (box.type.equals("mp4a")) {
+                box.children.addAll(parse(file, offset + 8 + AUDIO_SAMPLE_ENTRY_SIZE, offset + size));
+            }
+            boxes.add(box);
+            offset += size;
+        }
+        return boxes;
+    }
+
+    @NonNull
+    static List<String> types(@NonNull List<Box> boxes) {
+        List<String> types = new ArrayList<>();
+        for (Box box : boxes) {
+            types.add(box.type);
+        }
+        return types;
+    }
+
+    @Nullable
+    static Box first(@NonNull List<Box> boxes, @NonNull String type) {
+        for (Box box : boxes) {
+            if (box.type.equals(type)) return box;
+        }
+        return null;
+    }
+
+    @NonNull
+    static List<Box> all(@NonNull List<Box> boxes, @NonNull String type) {
+        List<Box> matches = new ArrayList<>();
+        for (Box box : boxes) {
+            if (box.type.equals(type)) matches.add(box);
+        }
+        return matches;
+    }
+
+    private static String typeAt(ByteBuffer file, int offset) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (file.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PowerMeterTest {
+
+    private long nowNanos = 0;
+    private final PowerMeter meter = new PowerMeter(() -> nowNanos);
+    private final PowerStats stats = new PowerStats("camera");
+
+    @Test
+    public void averagesCurrentMagnitudeAndPower() {
+        meter.addSample(-400_000, 4000);
+        meter.addSample(600_000, 3800);
+        nowNanos = 2_000_000_000L;
+
+        meter.snapshot(null, stats);
+
+        assertEquals(2000, stats.durationMillis);
+        assertEquals(2, stats.samples);
+        assertEquals(500f, stats.averageCurrentMilliAmps, 1e-3f);
+        assertEquals((1600f + 2280f) / 2, stats.averagePowerMilliwatts, 1e-3f);
+        assertEquals(0, stats.encodedFrames);
+        assertTrue(Float.isNaN(stats.getMillijoulesPerFrame()));
+    }
+
+    @Test
+    public void ignoresUnknownCurrent() {
+        meter.addSample(PowerMeter.UNKNOWN_CURRENT, 4000);
+        meter.addSample(0, 4000);
+
+        meter.snapshot(null, stats);
+
+        assertEquals(0, stats.samples);
+        assertEquals(0f, stats.averageCurrentMilliAmps, 0f);
+        assertEquals("camera -", stats.toOverlayText());
+    }
+
+    @Test
+    public void combinesWithEncoderThroughput() {
+        meter.addSample(500_000, 4000);
+        EncoderStats encoder = new EncoderStats();
+        encoder.encodedFrames = 300;
+        encoder.durationUs = 10_000_000;
+        encoder.encodedBytes = 10_000_000;
+
+        meter.snapshot(encoder, stats);
+
+        assertEquals(30f, stats.framesPerSecond, 1e-3f);
+        assertEquals(8000f, stats.bitRateKbps, 1e-3f);
+        // 2000 mW at 30 fps
+        assertEquals(66.667f, stats.getMillijoulesPerFrame(), 1e-2f);
+    }
+
+    @Test
+    public void resetStartsNewWindow() {
+        meter.addSample(500_000, 4000);
+        nowNanos = 5_000_000_000L;
+        meter.reset();
+        meter.addSample(100_000, 4000);
+        nowNanos = 6_000_000_000L;
+
+        meter.snapshot(null, stats);
+
+        assertEquals(1000, stats.durationMillis);
+        assertEquals(1, stats.samples);
+        assertEquals(100f, stats.averageCurrentMilliAmps, 1e-3f);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PreRollBufferTest {
+
+    private static final long FRAME_US = 33_333;
+    private static final int GOP = 30;
+
+    private final SampleInfo info = new SampleInfo();
+
+    private boolean addFrame(PreRollBuffer buffer, int frame, int size) {
+        ByteBuffer data = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            data.put(i, (byte) frame);
+        }
+        info.set(frame * FRAME_US, frame % GOP == 0 ? SampleInfo.FLAG_KEY_FRAME : 0);
+        return buffer.add(data, info);
+    }
+
+    private static void assertKeyFrameFirst(PreRollBuffer buffer) {
+        assertTrue((buffer.getFlags(0) & SampleInfo.FLAG_KEY_FRAME) != 0);
+    }
+
+    @Test
+    public void deltaFrames_beforeFirstKeyFrame_areRejected() {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 16, 256, 5_000_000);
+        info.set(0, 0);
+        assertFalse(buffer.add(ByteBuffer.allocate(10), info));
+        assertEquals(1, buffer.getRejectedSamples());
+        assertTrue(addFrame(buffer, 0, 10));
+        assertTrue(addFrame(buffer, 1, 10));
+        assertEquals(2, buffer.getSampleCount());
+    }
+
+    @Test
+    public void duration_keepsFewestGopsCoveringWindow() {
+        // 2 s window with 1 s GOPs
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 1024, 2_000_000);
+        for (int frame = 0; frame < 10 * GOP; frame++) {
+            addFrame(buffer, frame, 100);
+            assertKeyFrameFirst(buffer);
+        }
+        long duration = buffer.getBufferedDurationUs();
+        assertTrue("duration " + duration, duration >= 2_000_000 - FRAME_US && duration < 3_000_000);
+        assertEquals(0, buffer.getTimestampUs(0) % (GOP * FRAME_US));
+    }
+
+    @Test
+    public void bytes_evictWholeGops_andWrapInArena() {
+        // room for about 100 frames of 100 bytes
+        PreRollBuffer buffer = new PreRollBuffer(10_000, 1024, 60_000_000);
+        for (int frame = 0; frame < 1000; frame++) {
+            assertTrue(addFrame(buffer, frame, 100));
+            assertKeyFrameFirst(buffer);
+            assertTrue(buffer.getBufferedBytes() <= 10_000);
+        }
+        assertTrue(buffer.getSampleCount() >= 2 * GOP);
+        // contents survive the wrap: every sample holds its own frame number
+        for (int i = 0; i < buffer.getSampleCount(); i++) {
+            int frame = (int) (buffer.getTimestampUs(i) / FRAME_US);
+            ByteBuffer data = buffer.getData(i);
+            assertEquals(100, data.remaining());
+            assertEquals((byte) frame, data.get(data.position()));
+            assertEquals((byte) frame, data.get(data.limit() - 1));
+        }
+    }
+
+    @Test
+    public void sampleTable_evictsWholeGops() {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 45, 60_000_000);
+        for (int frame = 0; frame < 200; frame++) {
+            addFrame(buffer, frame, 10);
+            assertKeyFrameFirst(buffer);
+            assertTrue(buffer.getSampleCount() <= 45);
+        }
+        // frames 180..199 remain, the GOP at 150 could not fit next to them
+        assertEquals(20, buffer.getSampleCount());
+        assertEquals(180 * FRAME_US, buffer.getTimestampUs(0));
+    }
+
+    @Test
+    public void oversizedSample_resetsUntilNextKeyFrame() {
+        PreRollBuffer buffer = new PreRollBuffer(1000, 64, 60_000_000);
+        addFrame(buffer, 0, 100);
+        assertFalse(addFrame(buffer, 1, 2000));
+        assertEquals(0, buffer.getSampleCount());
+        assertFalse(addFrame(buffer, 2, 100));
+        assertTrue(addFrame(buffer, 30, 100));
+    }
+
+    @Test
+    public void codecConfig_isKeptSeparately() {
+        PreRollBuffer buffer = new PreRollBuffer(1000, 64, 60_000_000);
+        assertNull(buffer.getCodecConfig());
+        info.set(0, SampleInfo.FLAG_CODEC_CONFIG);
+        ByteBuffer config = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42});
+        buffer.add(config, info);
+        assertEquals(0, config.position());
+        assertEquals(0, buffer.getSampleCount());
+        ByteBuffer stored = buffer.getCodecConfig();
+        assertNotNull(stored);
+        assertEquals(6, stored.remaining());
+        assertEquals(0x67, stored.get(4));
+    }
+
+    @Test
+    public void audio_keepsItsOwnConfig_andFollowsTheKeyFrames() {
+        PreRollBuffer buffer = new PreRollBuffer(1000, 64, 60_000_000);
+        info.set(0, SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_AUDIO);
+        buffer.add(ByteBuffer.wrap(new byte[]{0x12, 0x08}), info);
+        assertNull(buffer.getCodecConfig());
+        ByteBuffer stored = buffer.getAudioCodecConfig();
+        assertNotNull(stored);
+        assertEquals(2, stored.remaining());
+
+        info.set(0, SampleInfo.FLAG_AUDIO);
+        assertFalse(buffer.add(ByteBuffer.allocate(10), info));
+        assertTrue(addFrame(buffer, 0, 100));
+        info.set(10_000, SampleInfo.FLAG_AUDIO);
+        assertTrue(buffer.add(ByteBuffer.allocate(10), info));
+        assertEquals(2, buffer.getSampleCount());
+        assertEquals(SampleInfo.FLAG_AUDIO, buffer.getFlags(1));
+    }
+
+    @Test
+    public void keyFlaggedAudio_neverStartsOrSplitsAGop() {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 90, 60_000_000);
+        // AAC encoders flag every sample as a key frame
+        int audioFlags = SampleInfo.FLAG_AUDIO | SampleInfo.FLAG_KEY_FRAME;
+        info.set(0, audioFlags);
+        assertFalse(buffer.add(ByteBuffer.allocate(10), info));
+
+        for (int frame = 0; frame < 200; frame++) {
+            addFrame(buffer, frame, 10);
+            info.set(frame * FRAME_US + 1, audioFlags);
+            assertTrue(buffer.add(ByteBuffer.allocate(10), info));
+            assertKeyFrameFirst(buffer);
+            assertEquals(0, buffer.getFlags(0) & SampleInfo.FLAG_AUDIO);
+            assertEquals(0, buffer.getTimestampUs(0) % (GOP * FRAME_US));
+        }
+        // frames 180..199 with their audio remain, the GOP at 150 could not fit next to them
+        assertEquals(40, buffer.getSampleCount());
+        assertEquals(180 * FRAME_US, buffer.getTimestampUs(0));
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreRollSinkTest {
+
+    private static final long FRAME_US = 100_000;
+
+    private final PreRollBuffer buffer = new PreRollBuffer(1 << 16, 256, 1_000_000);
+    private final PreRollSink<String> preRoll = new PreRollSink<>(buffer, Runnable::run, () -> 0L);
+    private final SampleInfo info = new SampleInfo();
+
+    private void write(int frame, boolean keyFrame) {
+        info.set(frame * FRAME_US, keyFrame ? SampleInfo.FLAG_KEY_FRAME : 0);
+        preRoll.writeSample(ByteBuffer.wrap(new byte[]{(byte) frame}), info);
+    }
+
+    private void writeAudio(long presentationTimeUs) {
+        // AAC encoders flag every sample as a key frame
+        info.set(presentationTimeUs, SampleInfo.FLAG_AUDIO | SampleInfo.FLAG_KEY_FRAME);
+        preRoll.writeSample(ByteBuffer.wrap(new byte[]{(byte) 0xA0}), info);
+    }
+
+    private void writeCodecConfig() {
+        info.set(0, SampleInfo.FLAG_CODEC_CONFIG);
+        preRoll.writeSample(ByteBuffer.wrap(new byte[]{0x67, 0x68}), info);
+    }
+
+    @Test
+    public void output_getsBufferedGops_thenLiveStream() {
+        preRoll.start("video/avc");
+        writeCodecConfig();
+        // key frame every 5 frames, 1 s window
+        for (int frame = 0; frame < 40; frame++) {
+            write(frame, frame % 5 == 0);
+        }
+
+        RecordingSampleSink output = new RecordingSampleSink();
+        preRoll.requestOutput(output);
+        assertEquals("video/avc", output.format);
+        write(40, true);
+        write(41, false);
+        preRoll.requestStopOutput();
+        write(42, false);
+
+        assertEquals(1, output.stopCount);
+        assertTrue((output.samples.get(0).flags & SampleInfo.FLAG_CODEC_CONFIG) != 0);
+        RecordingSampleSink.Sample first = output.samples.get(1);
+        assertTrue(first.isKeyFrame());
+        assertEquals(0, first.presentationTimeUs);
+        // frames 25..39 buffered, the fewest GOPs covering 1 s, then 40 and 41 live
+        assertEquals(25, first.data[0]);
+        assertEquals(18, output.samples.size());
+        RecordingSampleSink.Sample last = output.samples.get(17);
+        assertEquals(41, last.data[0]);
+        assertEquals(16 * FRAME_US, last.presentationTimeUs);
+    }
+
+    @Test
+    public void outputRequestedBeforeFormat_startsWithFormat_atNextKeyFrame() {
+        RecordingSampleSink output = new RecordingSampleSink();
+        preRoll.requestOutput(output);
+        assertEquals(0, output.startCount);
+
+        preRoll.start("video/avc");
+        assertEquals(1, output.startCount);
+        write(0, false);
+        write(1, true);
+        write(2, false);
+
+        assertEquals(2, output.samples.size());
+        assertArrayEquals(new long[]{0, FRAME_US}, output.timestamps());
+    }
+
+    @Test
+    public void outputFailure_isReported_andBufferingContinues() {
+        List<Exception> errors = new ArrayList<>();
+        preRoll.setListener(errors::add);
+        preRoll.start("video/avc");
+        write(0, true);
+
+        RecordingSampleSink output = new RecordingSampleSink();
+        output.failure = new IOException("disk full");
+        preRoll.requestOutput(output);
+        write(1, false);
+
+        assertEquals(1, errors.size());
+        assertEquals(1, output.stopCount);
+        assertEquals(2, buffer.getSampleCount());
+
+        RecordingSampleSink next = new RecordingSampleSink();
+        preRoll.requestOutput(next);
+        assertEquals(2, next.samples.size());
+    }
+
+    @Test
+    public void firstOutputFrame_isReportedPerOutput() {
+        List<Long> firstSamples = new ArrayList<>();
+        preRoll.setListener(new VideoRecordingEngine.Listener() {
+            @Override
+            public void onError(Exception error) {
+            }
+
+            @Override
+            public void onFirstSample(long nowNanos) {
+                firstSamples.add(nowNanos);
+            }
+        });
+        preRoll.start("video/avc");
+        writeCodecConfig();
+        preRoll.requestOutput(new RecordingSampleSink());
+        assertTrue(firstSamples.isEmpty());
+        write(0, true);
+        write(1, false);
+        assertEquals(1, firstSamples.size());
+
+        // the second output starts with buffered frames
+        preRoll.requestOutput(new RecordingSampleSink());
+        assertEquals(2, firstSamples.size());
+    }
+
+    @Test
+    public void outputStartedEmpty_beginsWithVideoKeyFrame_notKeyFlaggedAudio() {
+        RecordingSampleSink output = new RecordingSampleSink();
+        preRoll.requestOutput(output);
+        preRoll.start("video/avc");
+        writeAudio(FRAME_US / 2);
+        write(1, true);
+        writeAudio(FRAME_US + FRAME_US / 2);
+
+        assertEquals(2, output.samples.size());
+        RecordingSampleSink.Sample first = output.samples.get(0);
+        assertEquals(0, first.flags & SampleInfo.FLAG_AUDIO);
+        assertEquals(0, first.presentationTimeUs);
+        assertArrayEquals(new long[]{0, FRAME_US / 2}, output.timestamps());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ProjectionGeometryTest {
+
+    @Test
+    public void fullDisplayAtNativeScale() {
+        ProjectionGeometry geometry = new ProjectionGeometry(1080, 2400, 0, 0, 1080, 2400, 1f);
+
+        assertEquals(1080, geometry.getCaptureWidth());
+        assertEquals(2400, geometry.getCaptureHeight());
+        assertEquals(1072, geometry.getOutputWidth());
+        assertEquals(2400, geometry.getOutputHeight());
+        assertEquals(4, geometry.getCropLeft());
+        assertEquals(0, geometry.getCropTop());
+    }
+
+    @Test
+    public void regionIsMappedIntoScaledCapture() {
+        // lens inset of 600x600 at the top right corner, recorded at half resolution
+        ProjectionGeometry geometry = new ProjectionGeometry(1080, 2400, 480, 100, 1080, 700, 0.5f);
+
+        assertEquals(540, geometry.getCaptureWidth());
+        assertEquals(1200, geometry.getCaptureHeight());
+        assertEquals(304, geometry.getOutputWidth());
+        assertEquals(304, geometry.getOutputHeight());
+        // centred on (390, 200) and shifted left to stay inside the capture
+        assertEquals(236, geometry.getCropLeft());
+        assertEquals(48, geometry.getCropTop());
+
+        float[] crop = new float[4];
+        geometry.getTextureCrop(crop);
+        assertArrayEquals(new float[]{236f / 540, 1f - 352f / 1200, 1f, 1f - 48f / 1200}, crop, 1e-6f);
+    }
+
+    @Test
+    public void regionIsClampedToDisplay() {
+        ProjectionGeometry geometry = new ProjectionGeometry(1000, 1000, -200, -200, 400, 400, 1f);
+
+        assertEquals(400, geometry.getOutputWidth());
+        assertEquals(400, geometry.getOutputHeight());
+        assertEquals(0, geometry.getCropLeft());
+        assertEquals(0, geometry.getCropTop());
+    }
+
+    @Test
+    public void oddCaptureSizeIsLetterboxed() {
+        // 1001 * 0.5 rounds to an even 500, the display is fitted by height with a 0.25 px margin
+        ProjectionGeometry geometry = new ProjectionGeometry(1001, 2000, 0, 0, 1001, 1000, 0.5f);
+
+        assertEquals(500, geometry.getCaptureWidth());
+        assertEquals(1000, geometry.getCaptureHeight());
+        assertEquals(496, geometry.getOutputWidth());
+        assertEquals(496, geometry.getOutputHeight());
+        assertEquals(2, geometry.getCropLeft());
+        assertEquals(2, geometry.getCropTop());
+    }
+
+    @Test
+    public void rejectsEmptyRegionAndInvalidScale() {
+        try {
+            new ProjectionGeometry(1080, 2400, 2000, 0, 3000, 100, 1f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new ProjectionGeometry(1080, 2400, 0, 0, 100, 100, 1.5f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.specialcamera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class RecordingControllerTest {
+
+    private final ArrayDeque<Runnable> controlQueue = new ArrayDeque<>();
+    private final List<RecorderState> states = new ArrayList<>();
+    private final List<String> calls = new ArrayList<>();
+    private IOException startFailure;
+
+    private final RecordingController.Recorder recorder = new RecordingController.Recorder() {
+        @Override
+        public void start() throws IOException {
+            calls.add("start");
+            if (startFailure != null) throw startFailure;
+        }
+
+        @Override
+        public RecordingInfo stop() {
+            calls.add("stop");
+            return new RecordingInfo(Collections.singletonList(new File("a.mp4")), 1_000_000, 4096);
+        }
+    };
+
+    private final RecordingController controller = new RecordingController(recorder, controlQueue::add, Runnable::run);
+
+    {
+        controller.setListener(states::add);
+    }
+
+    private void runControlQueue() {
+        Runnable task;
+        while ((task = controlQueue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void startAndStopRunOnControlExecutor() throws Exception {
+        RecorderFuture<Void> start = controller.start();
+        assertFalse(start.isDone());
+        assertTrue(calls.isEmpty());
+
+        runControlQueue();
+        assertTrue(start.isDone());
+        assertEquals(RecorderState.RECORDING, controller.getState());
+
+        RecorderFuture<RecordingInfo> stop = controller.stop();
+        runControlQueue();
+
+        assertEquals(4096, stop.get().getSizeBytes());
+        assertEquals(RecorderState.IDLE, controller.getState());
+        assertEquals(Arrays.asList(RecorderState.STARTING, RecorderState.RECORDING, RecorderState.STOPPING, RecorderState.IDLE),
+                states);
+    }
+
+    @Test
+    public void repeatedCommandsShareTheFuture() {
+        RecorderFuture<Void> start = controller.start();
+        assertSame(start, controller.start());
+        RecorderFuture<RecordingInfo> stop = controller.stop();
+        assertSame(stop, controller.stop());
+
+        runControlQueue();
+
+        assertEquals(Arrays.asList("start", "stop"), calls);
+    }
+
+    @Test
+    public void startWhileStoppingIsQueued() {
+        controller.start();
+        runControlQueue();
+        controller.stop();
+        RecorderFuture<Void> restart = controller.start();
+
+        runControlQueue();
+
+        assertEquals(Arrays.asList("start", "stop", "start"), calls);
+        assertTrue(restart.isDone());
+        assertNull(restart.getError());
+        assertEquals(RecorderState.RECORDING, controller.getState());
+    }
+
+    @Test
+    public void stopWithoutRecordingFails() {
+        RecorderFuture<RecordingInfo> stop = controller.stop();
+
+        assertTrue(stop.isDone());
+        assertTrue(stop.getError() instanceof IllegalStateException);
+        assertTrue(controlQueue.isEmpty());
+    }
+
+    @Test
+    public void failedStartReturnsToIdleAndFailsQueuedStop() {
+        startFailure = new IOException("no encoder");
+        RecorderFuture<Void> start = controller.start();
+        RecorderFuture<RecordingInfo> stop = controller.stop();
+
+        runControlQueue();
+
+        assertSame(startFailure, start.getError());
+        assertTrue(stop.getError() instanceof IllegalStateException);
+        assertEquals(Arrays.asList("start"), calls);
+        assertEquals(RecorderState.IDLE, controller.getState());
+
+        startFailure = null;
+        controller.start();
+        runControlQueue();
+        assertEquals(RecorderState.RECORDING, controller.getState());
+    }
+
+    @Test
+    public void futureNotifiesCallbacksOnce() throws Exception {
+        RecorderFuture<String> future = new RecorderFuture<>();
+        List<String> results = new ArrayList<>();
+        future.whenComplete(Runnable::run, (value, error) -> results.add(value));
+        try {
+            future.get(1, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException expected) {
+        }
+
+        assertTrue(future.complete("done"));
+        assertFalse(future.fail(new IOException()));
+        future.whenComplete(Runnable::run, (value, error) -> results.add(value + " late"));
+
+        assertEquals(Arrays.asList("done", "done late"), results);
+        assertEquals("done", future.get());
+    }
+
+    @Test
+    public void failedFutureThrowsExecutionException() throws InterruptedException {
+        IOException error = new IOException("disk full");
+        try {
+            RecorderFuture.failed(error).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.specialcamera;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SampleSink} for JVM tests which keeps a copy of everything it receives.
+ */
+class RecordingSampleSink implements SampleSink<String> {
+
+    static final class Sample {
+        final long presentationTimeUs;
+        final int flags;
+        final byte[] data;
+
+        Sample(long presentationTimeUs, int flags, byte[] data) {
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+            this.data = data;
+        }
+
+        boolean isKeyFrame() {
+            return (flags & SampleInfo.FLAG_KEY_FRAME) != 0;
+        }
+    }
+
+    final List<Sample> samples = new ArrayList<>();
+    String format;
+    int startCount;
+    int stopCount;
+    IOException failure;
+    Runnable onWrite;
+
+    @Override
+    public void start(@NonNull String format) {
+        this.format = format;
+        startCount++;
+    }
+
+    @Override
+    public void writeSample(@NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException {
+        if (failure != null) throw failure;
+        if (onWrite != null) onWrite.run();
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        samples.add(new Sample(info.presentationTimeUs, info.flags, copy));
+    }
+
+    @Override
+    public void stop() {
+        stopCount++;
+    }
+
+    long[] timestamps() {
+        long[] timestamps = new long[samples.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = samples.get(i).presentationTimeUs;
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.specialcamera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SharpnessAnalyzerTest {
+
+    private final StripedExecutor stripedExecutor = new StripedExecutor(3, "SharpnessTest");
+    private final AnalysisBuffers buffers = new AnalysisBuffers();
+
+    @After
+    public void tearDown() {
+        stripedExecutor.shutdown();
+    }
+
+    private static int checkerboard(int x, int y) {
+        return ((x + y) & 1) == 0 ? 200 : 40;
+    }
+
+    private static int gradient(int x, int y) {
+        return x * 2;
+    }
+
+    @Test
+    public void uniformFrame_hasZeroSharpness() {
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(0.25f, 0, 0, 1, null);
+        analyzer.analyze(SyntheticYuvFrame.uniform(64, 48, 8, 128, 5), buffers);
+        assertEquals(0f, analyzer.getRoiSharpness(), 0f);
+    }
+
+    @Test
+    public void detail_isSharperThanSmoothGradient() {
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(0.5f, 0, 0, 1, null);
+        analyzer.analyze(SyntheticYuvFrame.fromLuma(64, 48, 8, SharpnessAnalyzerTest::gradient, 1), buffers);
+        float smooth = analyzer.getRoiSharpness();
+        analyzer.analyze(SyntheticYuvFrame.fromLuma(64, 48, 8, SharpnessAnalyzerTest::checkerboard, 2), buffers);
+        float sharp = analyzer.getRoiSharpness();
+
+        // a linear ramp has a zero Laplacian; the checkerboard is +-640 everywhere, with a near zero mean
+        assertEquals(0f, smooth, 0f);
+        assertEquals(640f * 640f, sharp, 640f * 640f * 1e-3f);
+
+        long[] timestamps = new long[4];
+        float[] values = new float[4];
+        assertEquals(2, analyzer.getRoiTimeSeries().copyTo(timestamps, values));
+        assertEquals(1, timestamps[0]);
+        assertEquals(2, timestamps[1]);
+        assertEquals(sharp, values[1], 0f);
+    }
+
+    @Test
+    public void laplacianStats_skipsOutermostRowsAndColumnsOnEverySide() {
+        SyntheticYuvFrame frame = SyntheticYuvFrame.fromLuma(8, 8, 8, SharpnessAnalyzerTest::checkerboard, 0);
+        long[] stats = new long[3];
+        SharpnessAnalyzer.laplacianStats(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                2, 2, 6, 6, 1, stats, 0);
+        // only the 2x2 interior of the 4x4 region
+        assertEquals(4, stats[0]);
+    }
+
+    @Test
+    public void roiIgnoresDetailOutsideCentre() {
+        // detail only in the left quarter, ROI in the middle
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(0.3f, 0, 0, 1, null);
+        analyzer.analyze(SyntheticYuvFrame.fromLuma(80, 60, 0,
+                (x, y) -> x < 20 ? checkerboard(x, y) : 100, 0), buffers);
+        assertEquals(0f, analyzer.getRoiSharpness(), 0f);
+    }
+
+    @Test
+    public void tileGrid_parallelMatchesSerial_andLocatesDetail() {
+        SyntheticYuvFrame frame = SyntheticYuvFrame.fromLuma(96, 64, 16,
+                (x, y) -> x >= 48 && y < 32 ? checkerboard(x, y) : 90, 0);
+        SharpnessAnalyzer serial = new SharpnessAnalyzer(0.2f, 4, 2, 1, null);
+        SharpnessAnalyzer parallel = new SharpnessAnalyzer(0.2f, 4, 2, 1, stripedExecutor);
+        serial.analyze(frame, buffers);
+        parallel.analyze(frame, buffers);
+
+        float[] serialTiles = new float[8];
+        float[] parallelTiles = new float[8];
+        serial.copyTiles(serialTiles);
+        parallel.copyTiles(parallelTiles);
+        assertArrayEquals(serialTiles, parallelTiles, 0f);
+
+        // top right tiles are sharp, everything else flat
+        assertTrue(serialTiles[2] > 0 && serialTiles[3] > 0);
+        assertEquals(0f, serialTiles[0], 0f);
+        assertEquals(0f, serialTiles[5], 0f);
+    }
+
+    @Test
+    public void timeSeries_keepsMostRecentSamples() {
+        MetricTimeSeries series = new MetricTimeSeries(3);
+        assertTrue(Float.isNaN(series.getLatest()));
+        for (int i = 1; i <= 5; i++) {
+            series.add(i * 10L, i);
+        }
+        long[] timestamps = new long[8];
+        float[] values = new float[8];
+        assertEquals(3, series.copyTo(timestamps, values));
+        assertEquals(30, timestamps[0]);
+        assertEquals(5f, values[2], 0f);
+        assertEquals(5f, series.getLatest(), 0f);
+        assertEquals(5, series.getCount());
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTimelineTest {
+
+    private long nowNanos = 5_000_000_000L;
+    private final StartupTimeline timeline = new StartupTimeline(() -> nowNanos);
+
+    @Test
+    public void marksBeforeStart_areIgnored() {
+        assertFalse(timeline.mark(StartupTimeline.Phase.DEVICE_OPENED));
+        assertEquals(-1, timeline.getPhaseNanos(StartupTimeline.Phase.DEVICE_OPENED));
+        assertEquals("ttff -", timeline.toOverlayText());
+    }
+
+    @Test
+    public void phases_areRelativeToStart_andRecordedOnce() {
+        timeline.start();
+        nowNanos += 40_000_000;
+        assertTrue(timeline.mark(StartupTimeline.Phase.PREVIEW_SURFACE_READY));
+        nowNanos += 180_000_000;
+        assertTrue(timeline.mark(StartupTimeline.Phase.DEVICE_OPENED));
+        nowNanos += 120_000_000;
+        assertTrue(timeline.mark(StartupTimeline.Phase.FIRST_FRAME));
+        nowNanos += 33_000_000;
+        assertFalse(timeline.mark(StartupTimeline.Phase.FIRST_FRAME));
+
+        assertEquals(40_000_000, timeline.getPhaseNanos(StartupTimeline.Phase.PREVIEW_SURFACE_READY));
+        assertEquals(220_000_000, timeline.getPhaseNanos(StartupTimeline.Phase.DEVICE_OPENED));
+        assertEquals(340_000_000, timeline.getTimeToFirstFrameNanos());
+        assertEquals("ttff 340 ms", timeline.toOverlayText());
+        assertTrue(timeline.toString().contains("device 220.0ms"));
+        assertTrue(timeline.toString().contains("session -"));
+    }
+
+    @Test
+    public void start_beginsANewTimeline() {
+        timeline.start();
+        nowNanos += 300_000_000;
+        timeline.mark(StartupTimeline.Phase.FIRST_FRAME);
+
+        timeline.start();
+        assertEquals(-1, timeline.getTimeToFirstFrameNanos());
+        nowNanos += 100_000_000;
+        assertTrue(timeline.mark(StartupTimeline.Phase.FIRST_FRAME));
+        assertEquals(100_000_000, timeline.getTimeToFirstFrameNanos());
+    }
+}
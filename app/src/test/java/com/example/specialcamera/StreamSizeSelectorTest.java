@@ -0,0 +1,149 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamSizeSelectorTest {
+
+    private static final long FPS_30 = 33_333_333L;
+    private static final long FPS_60 = 16_666_666L;
+    private static final long FPS_15 = 66_666_666L;
+    private static final long BUDGET = 1920L * 1080 * 60;
+
+    // flagship back camera: full 4:3 and 16:9 ladders, large sizes limited to 15-20 fps
+    private static final StreamSize[] FLAGSHIP = {
+            new StreamSize(4032, 3024, 50_000_000L),
+            new StreamSize(3840, 2160, FPS_30),
+            new StreamSize(2560, 1440, FPS_30),
+            new StreamSize(1920, 1440, FPS_30),
+            new StreamSize(1920, 1080, FPS_60),
+            new StreamSize(1440, 1080, FPS_60),
+            new StreamSize(1280, 720, FPS_60),
+            new StreamSize(640, 480, FPS_60),
+            new StreamSize(320, 240, FPS_60),
+    };
+
+    // legacy budget device: no 16:9 size above 720p
+    private static final StreamSize[] LEGACY = {
+            new StreamSize(2592, 1944, FPS_15),
+            new StreamSize(1600, 1200, FPS_30),
+            new StreamSize(1280, 720, FPS_30),
+            new StreamSize(640, 480, FPS_30),
+    };
+
+    // device reporting 4:3 sizes only
+    private static final StreamSize[] FOUR_BY_THREE = {
+            new StreamSize(3264, 2448, FPS_15),
+            new StreamSize(1600, 1200, FPS_30),
+            new StreamSize(1024, 768, FPS_30),
+    };
+
+    private static StreamSizeSelector.Target fullHd() {
+        return new StreamSizeSelector.Target(2400, 1080, 16f / 9, BUDGET, 30);
+    }
+
+    @Test
+    public void flagship_picksCheapestSizeCoveringTheView() {
+        assertEquals(new StreamSize(1920, 1080, FPS_60),
+                StreamSizeSelector.selectPreviewSize(FLAGSHIP, fullHd()));
+
+        StreamSizeSelector.Target smallView = new StreamSizeSelector.Target(1280, 720, 16f / 9, BUDGET, 30);
+        assertEquals(new StreamSize(1280, 720, FPS_60), StreamSizeSelector.selectPreviewSize(FLAGSHIP, smallView));
+    }
+
+    @Test
+    public void portraitView_isComparedInSensorOrientation() {
+        StreamSizeSelector.Target portrait = new StreamSizeSelector.Target(1080, 2400, 9f / 16, BUDGET, 30);
+
+        assertEquals(new StreamSize(1920, 1080, FPS_60), StreamSizeSelector.selectPreviewSize(FLAGSHIP, portrait));
+    }
+
+    @Test
+    public void throughputBudgetAndFrameRate_excludeLargeSizes() {
+        StreamSizeSelector.Target uhd = new StreamSizeSelector.Target(3840, 2160, 16f / 9, BUDGET, 30);
+        // 4K fits the frame rate but not the pixel budget, so the largest affordable 16:9 size wins
+        assertEquals(new StreamSize(2560, 1440, FPS_30), StreamSizeSelector.selectPreviewSize(FLAGSHIP, uhd));
+
+        StreamSizeSelector.Target uhd60 = new StreamSizeSelector.Target(3840, 2160, 16f / 9, Long.MAX_VALUE, 60);
+        assertEquals(new StreamSize(1920, 1080, FPS_60), StreamSizeSelector.selectPreviewSize(FLAGSHIP, uhd60));
+    }
+
+    @Test
+    public void legacyDevice_fallsBackToLargestMatchingAspect() {
+        assertEquals(new StreamSize(1280, 720, FPS_30), StreamSizeSelector.selectPreviewSize(LEGACY, fullHd()));
+    }
+
+    @Test
+    public void missingAspect_fallsBackToClosestAspect() {
+        assertEquals(new StreamSize(1600, 1200, FPS_30),
+                StreamSizeSelector.selectPreviewSize(FOUR_BY_THREE, fullHd()));
+    }
+
+    @Test
+    public void nothingAffordable_returnsNull() {
+        StreamSizeSelector.Target target = new StreamSizeSelector.Target(1920, 1080, 16f / 9, BUDGET, 120);
+
+        assertNull(StreamSizeSelector.selectPreviewSize(LEGACY, target));
+    }
+
+    @Test
+    public void lensSize_isSmallestSizeCoveringTheMagnifiedCentre() {
+        StreamSize preview = new StreamSize(1920, 1080, FPS_60);
+
+        // 200x200 px miniature magnified 5x needs 1000 px on the short side
+        assertEquals(new StreamSize(1920, 1080, FPS_60),
+                StreamSizeSelector.selectLensSize(FLAGSHIP, preview, 200, 200, 5f));
+        // 100x100 px magnified 5x is covered by 720p, which is a quarter of the preview bandwidth
+        assertEquals(new StreamSize(1280, 720, FPS_60),
+                StreamSizeSelector.selectLensSize(FLAGSHIP, preview, 100, 100, 5f));
+        assertEquals(new StreamSize(1280, 720, FPS_60),
+                StreamSizeSelector.selectLensSize(FLAGSHIP, preview, 40, 40, 5f));
+    }
+
+    @Test
+    public void lensSize_neverExceedsPreviewOrItsFrameRate() {
+        StreamSize preview = new StreamSize(1920, 1080, FPS_60);
+
+        assertSame(preview, StreamSizeSelector.selectLensSize(FLAGSHIP, preview, 525, 525, 5f));
+
+        StreamSize[] slowSmallSizes = {new StreamSize(1280, 720, FPS_15)};
+        assertSame(preview, StreamSizeSelector.selectLensSize(slowSmallSizes, preview, 100, 100, 5f));
+    }
+
+    @Test
+    public void cameras_areRankedBySharpPreviewThenHardwareLevel() {
+        CameraCapabilities legacyBack = camera("0", CameraCapabilities.LENS_FACING_BACK, 2, LEGACY);
+        CameraCapabilities front = camera("1", CameraCapabilities.LENS_FACING_FRONT, 0, FLAGSHIP);
+        CameraCapabilities fullBack = camera("2", CameraCapabilities.LENS_FACING_BACK, 1, FLAGSHIP);
+        CameraCapabilities levelThreeBack = camera("3", CameraCapabilities.LENS_FACING_BACK, 3, FLAGSHIP);
+        List<CameraCapabilities> cameras = Arrays.asList(legacyBack, front, fullBack, levelThreeBack);
+
+        List<CameraCapabilities> ranked =
+                StreamSizeSelector.rankCameras(cameras, CameraCapabilities.LENS_FACING_BACK, fullHd());
+
+        assertEquals(Arrays.asList(levelThreeBack, fullBack, legacyBack), ranked);
+    }
+
+    @Test
+    public void selectCamera_fallsBackToOtherFacing() {
+        CameraCapabilities front = camera("1", CameraCapabilities.LENS_FACING_FRONT, 0, FLAGSHIP);
+
+        assertSame(front, StreamSizeSelector.selectCamera(Arrays.asList(front),
+                CameraCapabilities.LENS_FACING_BACK, fullHd()));
+        assertNull(StreamSizeSelector.selectCamera(Arrays.asList(),
+                CameraCapabilities.LENS_FACING_BACK, fullHd()));
+    }
+
+    private static CameraCapabilities camera(String id, int facing, int hardwareLevel, StreamSize[] sizes) {
+        return new CameraCapabilities.Builder(id)
+                .setLensFacing(facing)
+                .setHardwareLevel(hardwareLevel)
+                .setActiveArraySize(4000, 3000)
+                .setPreviewSizes(sizes)
+                .build();
+    }
+}
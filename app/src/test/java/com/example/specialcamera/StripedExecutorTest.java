@@ -0,0 +1,48 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StripedExecutorTest {
+
+    @Test
+    public void run_processesEveryStripeOnce() {
+        StripedExecutor executor = new StripedExecutor(3, "StripedTest");
+        AtomicInteger[] counts = new AtomicInteger[16];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicInteger();
+        }
+        for (int run = 0; run < 100; run++) {
+            executor.run(counts.length, (stripe, stripeCount) -> counts[stripe].incrementAndGet());
+        }
+        executor.shutdown();
+        for (AtomicInteger count : counts) {
+            assertEquals(100, count.get());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void shutdownDuringRun_runStillReturns() {
+        // workers woken for the run may only see the shutdown flag
+        for (int i = 0; i < 200; i++) {
+            StripedExecutor executor = new StripedExecutor(3, "StripedTest");
+            AtomicInteger done = new AtomicInteger();
+            executor.run(8, (stripe, stripeCount) -> {
+                executor.shutdown();
+                done.incrementAndGet();
+            });
+            assertEquals(8, done.get());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void runAfterShutdown_throws() {
+        StripedExecutor executor = new StripedExecutor(2, "StripedTest");
+        executor.shutdown();
+        executor.run(4, (stripe, stripeCount) -> {
+        });
+    }
+}
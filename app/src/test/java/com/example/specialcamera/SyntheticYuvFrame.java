@@ -0,0 +1,54 @@
+package com.example.specialcamera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JVM stand-in for a camera frame: planes live in direct buffers like {@code Image} planes do, the row
+ * stride can be padded and releases are counted.
+ */
+class SyntheticYuvFrame extends YuvFrame {
+
+    int releaseCount = 0;
+
+    /**
+     * @param luma value of every Y sample, chroma planes are neutral grey
+     */
+    static SyntheticYuvFrame uniform(int width, int height, int rowPadding, int luma, long timestampNanos) {
+        return fromLuma(width, height, rowPadding, (x, y) -> luma, timestampNanos);
+    }
+
+    interface LumaFunction {
+        int valueAt(int x, int y);
+    }
+
+    static SyntheticYuvFrame fromLuma(int width, int height, int rowPadding, LumaFunction luma, long timestampNanos) {
+        int rowStride = width + rowPadding;
+        ByteBuffer yPlane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                yPlane.put(y * rowStride + x, (byte) luma.valueAt(x, y));
+            }
+        }
+
+        // semi-planar chroma as most devices deliver it: U and V interleaved with pixel stride 2
+        int uvRowStride = width + rowPadding;
+        ByteBuffer uv = ByteBuffer.allocateDirect(uvRowStride * height / 2);
+        for (int i = 0; i < uv.capacity(); i++) {
+            uv.put(i, (byte) 128);
+        }
+        ByteBuffer uPlane = uv.duplicate();
+        ByteBuffer vPlane = uv.duplicate();
+        vPlane.position(1);
+
+        SyntheticYuvFrame frame = new SyntheticYuvFrame();
+        frame.set(width, height, timestampNanos, yPlane, rowStride, 1,
+                uPlane, vPlane.slice(), uvRowStride, 2);
+        return frame;
+    }
+
+    @Override
+    public void release() {
+        releaseCount++;
+        super.release();
+    }
+}
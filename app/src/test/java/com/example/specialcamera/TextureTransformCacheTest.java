@@ -0,0 +1,62 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextureTransformCacheTest {
+
+    private static final int ROTATION_0 = 0;
+    private static final int ROTATION_90 = 1;
+    private static final int ROTATION_270 = 3;
+
+    private static float[] map(float[] values, float x, float y) {
+        return new float[]{values[0] * x + values[1] * y + values[2], values[3] * x + values[4] * y + values[5]};
+    }
+
+    private static void assertMaps(float[] values, float x, float y, float expectedX, float expectedY) {
+        float[] mapped = map(values, x, y);
+        assertEquals(expectedX, mapped[0], 1e-3f);
+        assertEquals(expectedY, mapped[1], 1e-3f);
+    }
+
+    @Test
+    public void portraitPreview_isIdentity() {
+        assertArrayEquals(new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1},
+                TextureTransformCache.previewTransform(ROTATION_0, 1080, 1920), 0f);
+    }
+
+    @Test
+    public void landscapePreview_rotatesTheImageOntoTheView() {
+        float[] rotation90 = TextureTransformCache.previewTransform(ROTATION_90, 2000, 1000);
+        assertMaps(rotation90, 0, 0, 0, 1000);
+        assertMaps(rotation90, 2000, 1000, 2000, 0);
+        assertMaps(rotation90, 1000, 500, 1000, 500);
+
+        float[] rotation270 = TextureTransformCache.previewTransform(ROTATION_270, 2000, 1000);
+        assertMaps(rotation270, 0, 0, 2000, 0);
+        assertMaps(rotation270, 2000, 1000, 0, 1000);
+    }
+
+    @Test
+    public void lens_magnifiesTheCentre() {
+        float[] portrait = TextureTransformCache.lensTransform(ROTATION_0, 200, 100, 5f);
+        assertMaps(portrait, 100, 50, 100, 50);
+        assertMaps(portrait, 110, 50, 150, 50);
+
+        float[] landscape = TextureTransformCache.lensTransform(ROTATION_90, 200, 100, 5f);
+        assertMaps(landscape, 100, 50, 100, 50);
+        assertMaps(landscape, 110, 50, 100, 0);
+    }
+
+    @Test
+    public void transforms_areCachedPerRotationAndSize() {
+        TextureTransformCache cache = new TextureTransformCache(5f);
+        float[] first = cache.getPreviewTransform(ROTATION_90, 2000, 1000);
+        assertSame(first, cache.getPreviewTransform(ROTATION_90, 2000, 1000));
+        assertNotSame(first, cache.getPreviewTransform(ROTATION_270, 2000, 1000));
+        assertNotSame(first, cache.getPreviewTransform(ROTATION_90, 2000, 1001));
+        cache.getLensTransform(ROTATION_90, 2000, 1000);
+        assertEquals(4, cache.size());
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class VideoRecordingEngineTest {
+
+    private final FakeEncoderCodec codec = new FakeEncoderCodec(8);
+    private final RecordingSampleSink sink = new RecordingSampleSink();
+    private long nowNanos = 0;
+
+    private VideoRecordingEngine<String> createEngine(int maxBFrames, Executor writer) throws IOException {
+        EncoderConfig config = new EncoderConfig.Builder(1280, 720).setMaxBFrames(maxBFrames).build();
+        VideoRecordingEngine<String> engine = new VideoRecordingEngine<>(codec, sink, config, writer, () -> nowNanos);
+        engine.prepare();
+        engine.start();
+        return engine;
+    }
+
+    private VideoRecordingEngine<String> createEngine(FakeEncoderCodec audio) throws IOException {
+        EncoderConfig config = new EncoderConfig.Builder(1280, 720).setMaxBFrames(0).build();
+        VideoRecordingEngine<String> engine = new VideoRecordingEngine<>(codec, audio, sink, config, Runnable::run,
+                () -> nowNanos);
+        engine.prepare();
+        engine.start();
+        return engine;
+    }
+
+    @Test
+    public void samples_areRebasedToFirstKeyFrame() throws IOException {
+        VideoRecordingEngine<String> engine = createEngine(0, Runnable::run);
+        codec.emitFormat();
+        codec.emit(0, SampleInfo.FLAG_CODEC_CONFIG, 20, (byte) 1);
+        codec.emitFrame(900_000, false);
+        codec.emitFrame(1_000_000, true);
+        codec.emitFrame(1_033_333, false);
+        codec.emitFrame(1_066_666, false);
+
+        assertTrue(engine.stop(100));
+        engine.release();
+
+        assertEquals(FakeEncoderCodec.FORMAT, sink.format);
+        assertEquals(1, sink.stopCount);
+        assertEquals(4, sink.samples.size());
+        assertTrue((sink.samples.get(0).flags & SampleInfo.FLAG_CODEC_CONFIG) != 0);
+        assertEquals(20, sink.samples.get(0).data.length);
+        assertArrayEquals(new long[]{0, 0, 33_333, 66_666}, sink.timestamps());
+        assertTrue(sink.samples.get(1).isKeyFrame());
+        assertEquals(100, sink.samples.get(2).data.length);
+
+        EncoderStats stats = new EncoderStats();
+        engine.snapshot(stats);
+        assertEquals(3, stats.encodedFrames);
+        assertEquals(1, stats.keyFrames);
+        assertEquals(1, stats.droppedSamples);
+        assertEquals(66_666, stats.durationUs);
+        assertEquals(0, codec.outstandingBuffers());
+        assertTrue(codec.stopped && codec.released);
+    }
+
+    @Test
+    public void audio_isRebasedToFirstVideoKeyFrame() throws IOException {
+        FakeEncoderCodec audio = new FakeEncoderCodec(8);
+        VideoRecordingEngine<String> engine = createEngine(audio);
+        engine.startAudio();
+        audio.emit(0, SampleInfo.FLAG_CODEC_CONFIG, 2, (byte) 7);
+        audio.emit(950_000, 0, 10, (byte) 1);
+        codec.emitFormat();
+        codec.emit(0, SampleInfo.FLAG_CODEC_CONFIG, 20, (byte) 1);
+        audio.emit(980_000, 0, 10, (byte) 2);
+        codec.emitFrame(1_000_000, true);
+        audio.emit(1_010_000, 0, 10, (byte) 3);
+        audio.emit(1_010_000, 0, 10, (byte) 4);
+        codec.emitFrame(1_033_333, false);
+        audio.emit(1_033_219, 0, 10, (byte) 5);
+
+        assertTrue(engine.stop(100));
+        engine.release();
+
+        // the audio config arrived before the sink started and is written right after the start
+        assertEquals(SampleInfo.FLAG_CODEC_CONFIG | SampleInfo.FLAG_AUDIO, sink.samples.get(0).flags);
+        assertEquals(7, sink.samples.get(0).data[0]);
+        assertArrayEquals(new long[]{0, 0, 0, 10_000, 33_333, 33_219}, sink.timestamps());
+        assertEquals(SampleInfo.FLAG_AUDIO, sink.samples.get(3).flags);
+        assertEquals(3, sink.samples.get(3).data[0]);
+        assertEquals(1, sink.stopCount);
+
+        EncoderStats stats = new EncoderStats();
+        engine.snapshot(stats);
+        assertEquals(2, stats.encodedFrames);
+        assertEquals(0, audio.outstandingBuffers());
+        assertTrue(audio.started && audio.stopped && audio.released);
+    }
+
+    @Test
+    public void sinkStops_afterAudioEndOfStream_orWithoutStartedAudio() throws IOException {
+        FakeEncoderCodec audio = new FakeEncoderCodec(8);
+        VideoRecordingEngine<String> engine = createEngine(audio);
+        engine.startAudio();
+        audio.deliverEndOfStream = false;
+        codec.emitFormat();
+        codec.emitFrame(0, true);
+        assertFalse(engine.stop(10));
+        assertEquals(1, sink.stopCount);
+
+        FakeEncoderCodec idleAudio = new FakeEncoderCodec(8);
+        RecordingSampleSink otherSink = new RecordingSampleSink();
+        FakeEncoderCodec otherCodec = new FakeEncoderCodec(8);
+        VideoRecordingEngine<String> videoOnly = new VideoRecordingEngine<>(otherCodec, idleAudio, otherSink,
+                new EncoderConfig.Builder(1280, 720).build(), Runnable::run, () -> nowNanos);
+        videoOnly.prepare();
+        videoOnly.start();
+        assertTrue(videoOnly.stop(100));
+        assertEquals(1, otherSink.stopCount);
+        assertFalse(idleAudio.started || idleAudio.stopped);
+    }
+
+    @Test
+    public void nonIncreasingTimestamps_areDroppedWithoutBFrames() throws IOException {
+        VideoRecordingEngine<String> engine = createEngine(0, Runnable::run);
+        codec.emitFormat();
+        codec.emitFrame(0, true);
+        codec.emitFrame(33_000, false);
+        codec.emitFrame(33_000, false);
+        codec.emitFrame(20_000, false);
+        codec.emitFrame(66_000, false);
+        engine.stop(100);
+
+        assertArrayEquals(new long[]{0, 33_000, 66_000}, sink.timestamps());
+    }
+
+    @Test
+    public void bFrames_keepDecodeOrder() throws IOException {
+        VideoRecordingEngine<String> engine = createEngine(1, Runnable::run);
+        codec.emitFormat();
+        codec.emitFrame(0, true);
+        codec.emitFrame(66_000, false);
+        codec.emitFrame(33_000, false);
+        engine.stop(100);
+
+        assertArrayEquals(new long[]{0, 66_000, 33_000}, sink.timestamps());
+    }
+
+    @Test
+    public void stats_reportLatencyAndWriterQueueDepth() throws IOException {
+        ArrayDeque<Runnable> writerTasks = new ArrayDeque<>();
+        VideoRecordingEngine<String> engine = createEngine(0, writerTasks::add);
+        codec.emitFormat();
+
+        nowNanos = 5_000_000;
+        codec.emitFrame(1_000, true);
+        nowNanos = 40_000_000;
+        codec.emitFrame(34_000, false);
+        codec.emitFrame(67_000, false);
+
+        EncoderStats stats = new EncoderStats();
+        engine.snapshot(stats);
+        assertEquals(3, stats.queueDepth);
+        assertEquals(3, codec.outstandingBuffers());
+        // the last frame is stamped after "now" and is left out of the latency
+        assertEquals(6_000_000, stats.lastLatencyNanos);
+        assertEquals(6_000_000, stats.maxLatencyNanos);
+        assertEquals(5_000_000, stats.averageLatencyNanos);
+
+        while (!writerTasks.isEmpty()) {
+            writerTasks.poll().run();
+        }
+        engine.snapshot(stats);
+        assertEquals(0, stats.queueDepth);
+        assertEquals(3, stats.maxQueueDepth);
+        assertEquals(3, sink.samples.size());
+        assertEquals(0, codec.outstandingBuffers());
+    }
+
+    @Test
+    public void stop_withoutEndOfStream_stillStopsSink() throws IOException {
+        VideoRecordingEngine<String> engine = createEngine(0, Runnable::run);
+        codec.deliverEndOfStream = false;
+        codec.emitFormat();
+        codec.emitFrame(0, true);
+
+        assertFalse(engine.stop(10));
+        assertEquals(1, sink.stopCount);
+        assertEquals(1, sink.samples.size());
+    }
+
+    @Test
+    public void sinkFailure_isReported_andBuffersReleased() throws IOException {
+        List<Exception> errors = new ArrayList<>();
+        VideoRecordingEngine<String> engine = createEngine(0, Runnable::run);
+        engine.setListener(errors::add);
+        codec.emitFormat();
+        codec.emitFrame(0, true);
+        sink.failure = new IOException("disk full");
+        codec.emitFrame(33_000, false);
+        codec.emitFrame(66_000, false);
+
+        assertEquals(1, errors.size());
+        assertEquals(1, sink.samples.size());
+        assertEquals(0, codec.outstandingBuffers());
+        assertTrue(engine.stop(100));
+    }
+
+    @Test
+    public void writeTime_andBitRate() throws IOException {
+        VideoRecordingEngine<String> engine = createEngine(0, Runnable::run);
+        codec.emitFormat();
+        sink.onWrite = () -> nowNanos += 4_000_000;
+        codec.emitFrame(0, true);
+        sink.onWrite = () -> nowNanos += 10_000_000;
+        codec.emitFrame(33_000, false);
+        engine.setBitRate(2_000_000);
+
+        EncoderStats stats = new EncoderStats();
+        engine.snapshot(stats);
+        assertEquals(14_000_000, stats.writeNanos);
+        assertEquals(10_000_000, stats.maxWriteNanos);
+        assertEquals(2_000_000, codec.bitRate);
+        assertTrue(engine.stop(100));
+    }
+}
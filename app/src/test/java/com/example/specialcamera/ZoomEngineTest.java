@@ -0,0 +1,102 @@
+package com.example.specialcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ZoomEngineTest {
+
+    private static final int[][] ACTIVE_ARRAYS = {{4032, 3024}, {4000, 3000}, {3264, 2448}, {1926, 1086}};
+    private static final float[] MAX_RATIOS = {1f, 4f, 8f, 10f};
+
+    @Test
+    public void levelZero_isTheFullActiveArray() {
+        ZoomEngine engine = new ZoomEngine(1926, 1086, 8f, 4);
+
+        assertEquals(0, engine.cropLeft(0));
+        assertEquals(0, engine.cropTop(0));
+        assertEquals(1926, engine.cropRight(0));
+        assertEquals(1086, engine.cropBottom(0));
+        assertEquals(1f, engine.ratioAt(0), 0f);
+    }
+
+    @Test
+    public void cropRects_areMonotonicAlignedAndCentered() {
+        for (int[] active : ACTIVE_ARRAYS) {
+            for (float maxRatio : MAX_RATIOS) {
+                ZoomEngine engine = new ZoomEngine(active[0], active[1], maxRatio, 4);
+                for (int i = 1; i < engine.getTableSize(); i++) {
+                    int width = engine.cropRight(i) - engine.cropLeft(i);
+                    int height = engine.cropBottom(i) - engine.cropTop(i);
+                    int previousWidth = engine.cropRight(i - 1) - engine.cropLeft(i - 1);
+                    int previousHeight = engine.cropBottom(i - 1) - engine.cropTop(i - 1);
+
+                    assertTrue(width <= previousWidth && height <= previousHeight);
+                    assertTrue(engine.cropLeft(i) >= engine.cropLeft(i - 1));
+                    assertTrue(engine.cropTop(i) >= engine.cropTop(i - 1));
+                    assertTrue(engine.ratioAt(i) >= engine.ratioAt(i - 1));
+
+                    assertEquals(0, width % 4);
+                    assertEquals(0, height % 4);
+                    assertEquals(0, engine.cropLeft(i) % 2);
+                    assertEquals(0, engine.cropTop(i) % 2);
+                    assertTrue(engine.cropRight(i) <= active[0] && engine.cropBottom(i) <= active[1]);
+                    assertTrue(Math.abs(engine.cropLeft(i) - (active[0] - engine.cropRight(i))) <= 2);
+                    assertTrue(Math.abs(engine.cropTop(i) - (active[1] - engine.cropBottom(i))) <= 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maxLevel_matchesMaxRatio() {
+        ZoomEngine engine = new ZoomEngine(4000, 3000, 8f, 4);
+        int last = engine.getTableSize() - 1;
+
+        assertEquals(8f, engine.ratioAt(last), 1e-4f);
+        assertEquals(500, engine.cropRight(last) - engine.cropLeft(last));
+        assertEquals(8f, engine.boxedRatioAt(last), 1e-4f);
+    }
+
+    @Test
+    public void ramp_reachesTargetInRampFramesWithoutOvershoot() {
+        ZoomEngine engine = new ZoomEngine(4000, 3000, 8f, 5);
+        engine.setTargetLevel(50);
+        int target = ZoomEngine.indexForLevel(50);
+
+        int previous = engine.getCurrentIndex();
+        for (int frame = 1; frame < 5; frame++) {
+            assertTrue(engine.advance());
+            assertTrue(engine.getCurrentIndex() > previous);
+            assertTrue(engine.getCurrentIndex() < target);
+            previous = engine.getCurrentIndex();
+        }
+        assertFalse(engine.advance());
+        assertEquals(target, engine.getCurrentIndex());
+        assertFalse(engine.advance());
+    }
+
+    @Test
+    public void retargetingMidRamp_rampsFromCurrentPosition() {
+        ZoomEngine engine = new ZoomEngine(4000, 3000, 8f, 4);
+        engine.setTargetLevel(100);
+        engine.advance();
+        engine.advance();
+        int middle = engine.getCurrentIndex();
+
+        engine.setTargetLevel(0);
+        engine.advance();
+        assertTrue(engine.getCurrentIndex() < middle);
+        engine.advance();
+        engine.advance();
+        engine.advance();
+        assertEquals(0, engine.getCurrentIndex());
+        assertTrue(engine.isSettled());
+    }
+
+    @Test
+    public void levels_areClamped() {
+        assertEquals(0, ZoomEngine.indexForLevel(-5));
+        assertEquals(ZoomEngine.MAX_LEVEL * ZoomEngine.STEPS_PER_LEVEL, ZoomEngine.indexForLevel(1000));
+    }
+}
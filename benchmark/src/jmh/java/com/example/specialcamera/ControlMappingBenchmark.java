@@ -0,0 +1,50 @@
+package com.example.specialcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done per slider event before a request reaches the scheduler: the ISO and exposure mapping and
+ * the copy of the immutable {@link CameraControlState}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ControlMappingBenchmark {
+
+    private static final int MIN_SENSITIVITY = 50;
+    private static final int MAX_SENSITIVITY = 3200;
+    private static final long MIN_EXPOSURE_NANOS = 13_000L;
+    private static final long MAX_EXPOSURE_NANOS = 682_000_000L;
+
+    private int level;
+    private CameraControlState state = CameraControlState.DEFAULT;
+
+    private int nextLevel() {
+        level = (level + 1) % (ManualExposureMapping.MAX_LEVEL + 1);
+        return level;
+    }
+
+    @Benchmark
+    public int sensitivityForLevel() {
+        return ManualExposureMapping.sensitivityForLevel(nextLevel(), MIN_SENSITIVITY, MAX_SENSITIVITY);
+    }
+
+    @Benchmark
+    public long exposureNanosForLevel() {
+        return ManualExposureMapping.exposureNanosForLevel(nextLevel(), MIN_EXPOSURE_NANOS, MAX_EXPOSURE_NANOS);
+    }
+
+    @Benchmark
+    public CameraControlState controlStateUpdate() {
+        int next = nextLevel();
+        state = state.withIsoLevel(next).withExposureLevel(next);
+        return state;
+    }
+}
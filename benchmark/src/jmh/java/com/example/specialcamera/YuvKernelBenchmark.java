@@ -0,0 +1,138 @@
+package com.example.specialcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame analysis kernels on synthetic YUV_420_888 frames with padded rows and semi-planar chroma,
+ * laid out like camera {@code Image} planes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvKernelBenchmark {
+
+    private static final int ROW_PADDING = 64;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public boolean directBuffers;
+
+    private final YuvFrame frame = new YuvFrame();
+    private final AnalysisBuffers buffers = new AnalysisBuffers();
+    private final int[] bins = new int[256];
+    private final long[] laplacianStats = new long[3];
+
+    private StripedExecutor stripedExecutor;
+    private LumaHistogramAnalyzer serialHistogram;
+    private LumaHistogramAnalyzer stripedHistogram;
+    private SharpnessAnalyzer sharpnessGrid;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int separator = resolution.indexOf('x');
+        int width = Integer.parseInt(resolution.substring(0, separator));
+        int height = Integer.parseInt(resolution.substring(separator + 1));
+        int rowStride = width + ROW_PADDING;
+
+        ByteBuffer yPlane = allocate(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                yPlane.put(y * rowStride + x, (byte) (x * 7 + y * 13 + (x * y >> 5)));
+            }
+        }
+        ByteBuffer uv = allocate(rowStride * height / 2);
+        for (int i = 0; i < uv.capacity(); i++) {
+            uv.put(i, (byte) 128);
+        }
+        ByteBuffer vPlane = uv.duplicate();
+        vPlane.position(1);
+        frame.set(width, height, 0, yPlane, rowStride, 1, uv.duplicate(), vPlane.slice(), rowStride, 2);
+
+        stripedExecutor = new StripedExecutor(StripedExecutor.defaultParallelism(), "BenchmarkStripe");
+        serialHistogram = new LumaHistogramAnalyzer(1, null);
+        stripedHistogram = new LumaHistogramAnalyzer(1, stripedExecutor);
+        sharpnessGrid = new SharpnessAnalyzer(0.2f, 8, 6, 2, stripedExecutor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stripedExecutor.shutdown();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return directBuffers ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    @Benchmark
+    public int[] histogramKernel() {
+        Arrays.fill(bins, 0);
+        LumaHistogramAnalyzer.accumulate(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                frame.getWidth(), 0, frame.getHeight(), 1, bins);
+        return bins;
+    }
+
+    @Benchmark
+    public int[] histogramKernelStep2() {
+        Arrays.fill(bins, 0);
+        LumaHistogramAnalyzer.accumulate(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                frame.getWidth(), 0, frame.getHeight(), 2, bins);
+        return bins;
+    }
+
+    @Benchmark
+    public void histogramAnalyzerSerial() {
+        serialHistogram.analyze(frame, buffers);
+    }
+
+    @Benchmark
+    public void histogramAnalyzerStriped() {
+        stripedHistogram.analyze(frame, buffers);
+    }
+
+    @Benchmark
+    public long[] laplacianFullFrame() {
+        SharpnessAnalyzer.laplacianStats(frame.getYPlane(), frame.getYRowStride(), frame.getYPixelStride(),
+                0, 0, frame.getWidth(), frame.getHeight(), 1, laplacianStats, 0);
+        return laplacianStats;
+    }
+
+    @Benchmark
+    public void sharpnessRoiAndGrid() {
+        sharpnessGrid.analyze(frame, buffers);
+    }
+
+    /**
+     * Chroma read through the interleaved U view with pixel stride 2, the access pattern of a
+     * semi-planar device.
+     */
+    @Benchmark
+    public long chromaPlaneSum() {
+        ByteBuffer uPlane = frame.getUPlane();
+        int rowStride = frame.getUvRowStride();
+        int pixelStride = frame.getUvPixelStride();
+        int chromaWidth = frame.getWidth() / 2;
+        long sum = 0;
+        for (int row = 0; row < frame.getHeight() / 2; row++) {
+            int offset = row * rowStride;
+            for (int column = 0; column < chromaWidth; column++, offset += pixelStride) {
+                sum += uPlane.get(offset) & 0xFF;
+            }
+        }
+        return sum;
+    }
+}
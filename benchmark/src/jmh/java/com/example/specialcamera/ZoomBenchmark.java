@@ -0,0 +1,89 @@
+package com.example.specialcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crop computation per zoom change: the table lookup of {@link ZoomEngine} against the arithmetic of the
+ * old {@code CameraHelper.getZoomRect}, which allocated a new rect on every slider event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ZoomBenchmark {
+
+    private static final int ACTIVE_WIDTH = 4032;
+    private static final int ACTIVE_HEIGHT = 3024;
+    private static final float MAX_DIGITAL_ZOOM = 8f;
+    // the old CameraHelper scaled SCALER_AVAILABLE_MAX_DIGITAL_ZOOM to its slider range
+    private static final float LEGACY_MAX_ZOOM = MAX_DIGITAL_ZOOM * 10;
+
+    private ZoomEngine zoomEngine;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        zoomEngine = new ZoomEngine(ACTIVE_WIDTH, ACTIVE_HEIGHT, MAX_DIGITAL_ZOOM, 8);
+    }
+
+    private float nextLevel() {
+        frame = (frame + 1) % (ZoomEngine.MAX_LEVEL * 4);
+        return frame * 0.25f;
+    }
+
+    @Benchmark
+    public void legacyZoomRect(Blackhole blackhole) {
+        blackhole.consume(legacyZoomRect(nextLevel()));
+    }
+
+    @Benchmark
+    public void zoomEngineLookup(Blackhole blackhole) {
+        int index = ZoomEngine.indexForLevel(nextLevel());
+        blackhole.consume(zoomEngine.cropLeft(index));
+        blackhole.consume(zoomEngine.cropTop(index));
+        blackhole.consume(zoomEngine.cropRight(index));
+        blackhole.consume(zoomEngine.cropBottom(index));
+    }
+
+    /**
+     * One repeating request worth of ramping: a new target every 16 frames, advanced once per frame.
+     */
+    @Benchmark
+    public void zoomEngineRamp(Blackhole blackhole) {
+        float level = nextLevel();
+        if ((frame & 15) == 0) {
+            zoomEngine.setTargetLevel(level);
+        }
+        blackhole.consume(zoomEngine.advance());
+        blackhole.consume(zoomEngine.boxedRatioAt(zoomEngine.getCurrentIndex()));
+    }
+
+    /**
+     * Copy of the arithmetic of the removed {@code CameraHelper.getZoomRect}, with {@code int[]} in place
+     * of {@code android.graphics.Rect}.
+     */
+    static int[] legacyZoomRect(float zoomLevel) {
+        if ((zoomLevel <= LEGACY_MAX_ZOOM) && (zoomLevel > 1)) {
+            int minW = (int) (ACTIVE_WIDTH / LEGACY_MAX_ZOOM);
+            int minH = (int) (ACTIVE_HEIGHT / LEGACY_MAX_ZOOM);
+            int difW = ACTIVE_WIDTH - minW;
+            int difH = ACTIVE_HEIGHT - minH;
+            int cropW = difW / 100 * (int) zoomLevel;
+            int cropH = difH / 100 * (int) zoomLevel;
+            cropW -= cropW & 3;
+            cropH -= cropH & 3;
+            return new int[]{cropW, cropH, ACTIVE_WIDTH - cropW, ACTIVE_HEIGHT - cropH};
+        } else if (zoomLevel == 0) {
+            return new int[]{0, 0, ACTIVE_WIDTH, ACTIVE_HEIGHT};
+        }
+        return null;
+    }
+}